@@ -0,0 +1,352 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander;
+
+import com.mucommander.commons.file.AbstractFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the tasks that launch trolCommander on a pool of threads, each task as soon as the tasks it depends on have
+ * completed.
+ *
+ * <p>Tasks are chained with <code>CompletableFuture</code>s, so that no thread waits for a dependency. When more
+ * tasks are ready than there are threads, the tasks that head the longest path to the end of the launch run first:
+ * the length of a path is the sum of the durations of its tasks, as measured during the previous launches and
+ * {@link #saveDurations(AbstractFile) saved} in between.
+ *
+ * <p>The start and end of each task, relative to the start of the launch, and the thread that ran it can be written
+ * to a {@link #writeTimeline(Writer) timeline}.
+ */
+class LaunchScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LaunchScheduler.class);
+
+    /** Duration of the tasks that have not been measured yet, in milliseconds */
+    final static long DEFAULT_DURATION = 1;
+
+    /**
+     * A task of the launch.
+     */
+    interface Task {
+
+        /**
+         * Returns the name of the task, which identifies its duration from one launch to the next.
+         *
+         * @return the name of the task
+         */
+        String getName();
+
+        /**
+         * Returns the tasks that must have completed before this one can start.
+         *
+         * @return the tasks this one depends on
+         */
+        List<? extends Task> getDependencies();
+
+        /**
+         * Runs the task. Errors should be reported by the task itself: tasks that depend on it are run even if it
+         * fails.
+         */
+        void execute();
+    }
+
+    /** Expected durations of the tasks, by name, in milliseconds */
+    private final Map<String, Long> durations = new HashMap<>();
+
+    /** Runs of the last launch, in the order the tasks were given */
+    private final Map<Task, TaskRun> runs = new LinkedHashMap<>();
+
+    /**
+     * Loads the durations measured during the previous launches. Tasks keep the default duration if the file does
+     * not exist or cannot be read.
+     *
+     * @param file the file the durations have been saved to
+     */
+    void loadDurations(AbstractFile file) {
+        try {
+            if (!file.exists()) {
+                return;
+            }
+            Properties properties = new Properties();
+            try (InputStream in = file.getInputStream()) {
+                properties.load(in);
+            }
+            for (String name : properties.stringPropertyNames()) {
+                durations.put(name, Long.parseLong(properties.getProperty(name)));
+            }
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.debug("Could not load launch durations", e);
+        }
+    }
+
+    /**
+     * Saves the expected durations of the tasks: the average of the duration expected for the last launch and of the
+     * duration that was measured, which smooths out the variations from one launch to the next.
+     *
+     * @param file the file to save the durations to
+     * @throws IOException if the file could not be written
+     */
+    void saveDurations(AbstractFile file) throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Long> entry : durations.entrySet()) {
+            properties.setProperty(entry.getKey(), entry.getValue().toString());
+        }
+        for (Map.Entry<Task, TaskRun> entry : runs.entrySet()) {
+            String name = entry.getKey().getName();
+            long duration = entry.getValue().getDuration();
+            Long expectedDuration = durations.get(name);
+            properties.setProperty(name, Long.toString(expectedDuration == null ? duration : (expectedDuration + duration) / 2));
+        }
+        try (OutputStream out = file.getOutputStream()) {
+            properties.store(out, "Durations of the launch tasks, in milliseconds");
+        }
+    }
+
+    /**
+     * Returns the expected duration of the given task.
+     *
+     * @param task a task
+     * @return the expected duration of the task, in milliseconds
+     */
+    long getDuration(Task task) {
+        Long duration = durations.get(task.getName());
+        return duration == null ? DEFAULT_DURATION : duration;
+    }
+
+    /**
+     * Returns the length of the longest path from each task to the end of the launch, that is the sum of the expected
+     * durations of the task and of the tasks that depend on it, directly or not, along that path.
+     *
+     * @param tasks all the tasks of the launch
+     * @return the length of the critical path of each task, in milliseconds
+     * @throws IllegalArgumentException if a task depends on a task that is not in the list, or if tasks depend on
+     * each other
+     */
+    Map<Task, Long> getCriticalPaths(List<? extends Task> tasks) {
+        Map<Task, List<Task>> dependents = new HashMap<>();
+        for (Task task : tasks) {
+            dependents.put(task, new ArrayList<>());
+        }
+        Map<Task, Integer> nbDependencies = new HashMap<>();
+        for (Task task : tasks) {
+            nbDependencies.put(task, task.getDependencies().size());
+            for (Task dependency : task.getDependencies()) {
+                List<Task> dependencyDependents = dependents.get(dependency);
+                if (dependencyDependents == null) {
+                    throw new IllegalArgumentException(task.getName() + " depends on unknown task " + dependency.getName());
+                }
+                dependencyDependents.add(task);
+            }
+        }
+
+        // Topological order, each task after the tasks it depends on
+        List<Task> order = new ArrayList<>();
+        Deque<Task> ready = new ArrayDeque<>();
+        for (Task task : tasks) {
+            if (task.getDependencies().isEmpty()) {
+                ready.add(task);
+            }
+        }
+        while (!ready.isEmpty()) {
+            Task task = ready.poll();
+            order.add(task);
+            for (Task dependent : dependents.get(task)) {
+                if (nbDependencies.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (order.size() != tasks.size()) {
+            throw new IllegalArgumentException("Cyclic dependencies between launch tasks");
+        }
+
+        Map<Task, Long> criticalPaths = new HashMap<>();
+        for (int i = order.size() - 1; i >= 0; i--) {
+            Task task = order.get(i);
+            long longestDependentPath = 0;
+            for (Task dependent : dependents.get(task)) {
+                longestDependentPath = Math.max(longestDependentPath, criticalPaths.get(dependent));
+            }
+            criticalPaths.put(task, getDuration(task) + longestDependentPath);
+        }
+        return criticalPaths;
+    }
+
+    /**
+     * Runs the given tasks and waits until they have all completed.
+     *
+     * @param tasks all the tasks of the launch; tasks that are ready at the same time and have critical paths of the
+     * same length run in the order of this list
+     * @param nbThreads the number of threads that run tasks
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     * @throws IllegalArgumentException if a task depends on a task that is not in the list, or if tasks depend on
+     * each other
+     */
+    void run(List<? extends Task> tasks, int nbThreads) throws InterruptedException {
+        Map<Task, Long> criticalPaths = getCriticalPaths(tasks);
+
+        // Threads wait until all the tasks that are ready have been queued, and then take them in priority order
+        CountDownLatch queued = new CountDownLatch(1);
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(nbThreads, nbThreads, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(tasks.size(), Comparator.comparing(r -> (PrioritizedRunnable)r)),
+                r -> new Thread(() -> {
+                    try {
+                        queued.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    r.run();
+                }, "Launcher-" + threadNumber.incrementAndGet()));
+        executor.prestartAllCoreThreads();
+
+        long launchStart = System.nanoTime();
+        runs.clear();
+        Map<Task, CompletableFuture<Void>> futures = new HashMap<>();
+        try {
+            // Tasks are chained in topological order, so that the futures of their dependencies exist
+            List<Task> order = new ArrayList<>(tasks);
+            List<Task> chained = new ArrayList<>();
+            while (!order.isEmpty()) {
+                for (Task task : order) {
+                    if (futures.keySet().containsAll(task.getDependencies())) {
+                        TaskRun run = new TaskRun(criticalPaths.get(task));
+                        runs.put(task, run);
+                        int rank = futures.size();
+                        CompletableFuture<?> dependencies[] = task.getDependencies().stream().map(futures::get).toArray(CompletableFuture<?>[]::new);
+                        futures.put(task, CompletableFuture.allOf(dependencies).thenRunAsync(() -> run.execute(task, launchStart),
+                                r -> executor.execute(new PrioritizedRunnable(r, run.criticalPath, rank))));
+                        chained.add(task);
+                    }
+                }
+                order.removeAll(chained);
+            }
+            queued.countDown();
+
+            try {
+                CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).get();
+            } catch (ExecutionException e) {
+                // Errors are caught by TaskRun
+                throw new IllegalStateException(e.getCause());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Writes the timeline of the last launch, one task per line in the order they started: their name, start and end,
+     * relative to the start of the launch, duration, thread and the length of their critical path as it was expected.
+     *
+     * @param writer the writer to write the timeline to
+     */
+    void writeTimeline(Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        out.println("# task\tstart_ms\tend_ms\tduration_ms\tthread\tcritical_path_ms");
+        List<Map.Entry<Task, TaskRun>> entries = new ArrayList<>(runs.entrySet());
+        entries.sort(Comparator.comparingLong(entry -> entry.getValue().start));
+        for (Map.Entry<Task, TaskRun> entry : entries) {
+            TaskRun run = entry.getValue();
+            out.println(entry.getKey().getName() + "\t" + run.start + "\t" + run.end + "\t" + run.getDuration() + "\t"
+                    + run.thread + "\t" + run.criticalPath);
+        }
+        out.flush();
+    }
+
+
+    /**
+     * The run of a task during the last launch. The fields are written by the thread that runs the task, and read
+     * once the future of the task has completed.
+     */
+    private static class TaskRun {
+        private final long criticalPath;
+        private long start;
+        private long end;
+        private String thread;
+
+        private TaskRun(long criticalPath) {
+            this.criticalPath = criticalPath;
+        }
+
+        private void execute(Task task, long launchStart) {
+            thread = Thread.currentThread().getName();
+            start = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - launchStart);
+            try {
+                task.execute();
+            } catch (Throwable e) {
+                LOGGER.error("Launch task " + task.getName() + " failed", e);
+            }
+            end = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - launchStart);
+        }
+
+        private long getDuration() {
+            return end - start;
+        }
+    }
+
+    /**
+     * Orders the tasks in the executor's queue: longest critical path first, then in the order they were given.
+     */
+    private static class PrioritizedRunnable implements Runnable, Comparable<PrioritizedRunnable> {
+        private final Runnable runnable;
+        private final long criticalPath;
+        private final int rank;
+
+        private PrioritizedRunnable(Runnable runnable, long criticalPath, int rank) {
+            this.runnable = runnable;
+            this.criticalPath = criticalPath;
+            this.rank = rank;
+        }
+
+        @Override
+        public void run() {
+            runnable.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedRunnable other) {
+            if (criticalPath != other.criticalPath) {
+                return Long.compare(other.criticalPath, criticalPath);
+            }
+            return Integer.compare(rank, other.rank);
+        }
+    }
+}
@@ -49,6 +49,16 @@ public class LauncherCmdHelper {
      */
     private int index;
 
+    /**
+     * Path of the file to write the timeline of the launch to, <code>null</code> if the timeline is not written.
+     */
+    private String timelineFile;
+
+    /**
+     * Path of the file to write the trace of the session to on exit, <code>null</code> if the trace is not written.
+     */
+    private String traceFile;
+
     private final String args[];
 
 
@@ -104,6 +114,13 @@ public class LauncherCmdHelper {
         // Allows users to tweak how toolbar configuration are loaded.
         System.out.println(" -t FILE, --toolbar FILE           Load toolbar from FILE");
 
+        // Allows users to find out which launch tasks delay the launch.
+        System.out.println(" -T FILE, --timeline FILE          Write the timeline of the launch to FILE");
+
+        // Allows users to analyze where time is spent, in chrome://tracing or Perfetto.
+        System.out.println(" --trace FILE                      Write a trace of the session to FILE on exit,");
+        System.out.println("                                   in the Chrome trace event format");
+
         // Allows users to tweak how credentials are loaded.
         System.out.println(" -u FILE, --credentials FILE       Load credentials from FILE");
 
@@ -235,6 +252,21 @@ public class LauncherCmdHelper {
                     }
                     break;
 
+                // Launch timeline file.
+                case "-T":
+                case "--timeline":
+                    if (index >= args.length - 1)
+                        printError("Missing FILE parameter to " + args[index], null, true);
+                    timelineFile = args[++index];
+                    break;
+
+                // Session trace file.
+                case "--trace":
+                    if (index >= args.length - 1)
+                        printError("Missing FILE parameter to " + args[index], null, true);
+                    traceFile = args[++index];
+                    break;
+
                 // Commandbar file.
                 case "-C":
                 case "--commandbar":
@@ -314,6 +346,24 @@ public class LauncherCmdHelper {
         }
     }
 
+    /**
+     * Returns the path of the file to write the timeline of the launch to.
+     *
+     * @return the path of the timeline file, <code>null</code> if it was not given on the command line
+     */
+    String getTimelineFile() {
+        return timelineFile;
+    }
+
+    /**
+     * Returns the path of the file to write the trace of the session to on exit.
+     *
+     * @return the path of the trace file, <code>null</code> if it was not given on the command line
+     */
+    String getTraceFile() {
+        return traceFile;
+    }
+
     /**
      * Prints an error message.
      */
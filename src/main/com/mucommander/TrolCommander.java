@@ -23,6 +23,8 @@ import com.mucommander.bookmark.file.BookmarkProtocolProvider;
 import com.mucommander.command.Command;
 import com.mucommander.command.CommandManager;
 import com.mucommander.command.CommandType;
+import com.mucommander.commons.file.AbstractArchiveFile;
+import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.FileFactory;
 import com.mucommander.commons.file.icon.impl.SwingFileIconProvider;
 import com.mucommander.commons.file.impl.ftp.FTPProtocolProvider;
@@ -33,6 +35,7 @@ import com.mucommander.conf.MuPreference;
 import com.mucommander.conf.MuPreferences;
 import com.mucommander.extension.ExtensionManager;
 import com.mucommander.profiler.Profiler;
+import com.mucommander.profiler.Tracer;
 import com.mucommander.shell.ShellHistoryManager;
 import com.mucommander.ui.action.ActionKeymapIO;
 import com.mucommander.ui.action.ActionManager;
@@ -58,12 +61,15 @@ import org.slf4j.LoggerFactory;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.KeyEvent;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.Constructor;
-import java.util.HashSet;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.*;
 
 /**
  * trolCommander launcher.
@@ -85,6 +91,10 @@ public class TrolCommander {
     private static boolean isLaunching = true;
     /** Launch lock. */
     private static final Object LAUNCH_LOCK = new Object();
+    /** Name of the folder, within the preferences folder, where the entries of large archives are stored. */
+    private static final String ARCHIVE_INDEX_FOLDER_NAME = "archive_index";
+    /** Name of the file, within the preferences folder, where the durations of the launch tasks are stored. */
+    private static final String LAUNCH_DURATIONS_FILE_NAME = "launch_durations.properties";
 
 
     // - Initialisation ---------------------------------------------------------
@@ -155,58 +165,38 @@ public class TrolCommander {
         }
     }
 
-    private abstract static class LauncherTask implements Callable<Void> {
+    private abstract static class LauncherTask implements LaunchScheduler.Task {
         private final String name;
         protected final LauncherCmdHelper helper;
-        private final LauncherTask[] depends;
-        private final FutureTask<Void> task;
+        private final List<LauncherTask> depends;
 
         LauncherTask(String name, LauncherCmdHelper helper, LauncherTask... depends) {
             this.name = "launcher." + name;
             this.helper = helper;
-            this.depends = depends;
-            this.task = new FutureTask<>(this);
+            this.depends = Arrays.asList(depends);
         }
 
         @Override
-        public final Void call() throws Exception {
-            if (depends != null && depends.length > 0) {
-                Profiler.start(name + ".depends");
-                for (LauncherTask t : depends) {
-                    t.task.get();
-                }
-                Profiler.stop(name + ".depends");
-            }
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public List<LauncherTask> getDependencies() {
+            return depends;
+        }
+
+        @Override
+        public final void execute() {
             Profiler.start(name);
             try {
                 run();
             } catch (Throwable e) {
                 e.printStackTrace();
-                helper.printFileError("Launcher getTask error for " + name + ": ", e);
+                helper.printFileError("Launcher task error for " + name + ": ", e);
             }
             Profiler.stop(name);
             onFinish();
-            return null;
-        }
-
-        FutureTask<Void> getTask() {
-            return task;
-        }
-
-        boolean isReadyForExecution() {
-            if (depends == null || depends.length == 0) {
-                return true;
-            }
-            for (LauncherTask dt : depends) {
-                if (!dt.isDone()) {
-                    return false;
-                }
-            }
-            return true;
-        }
-
-        public boolean isDone() {
-            return task.isDone();
         }
 
         void onFinish() {
@@ -524,6 +514,9 @@ public class TrolCommander {
             // Use CredentialsManager for file URL authentication
             FileFactory.setDefaultAuthenticator(CredentialsManager.getAuthenticator());
 
+            // Store the entries of large archives so that reopening them is quick
+            AbstractArchiveFile.setEntriesTreeCacheFolder(PlatformManager.getPreferencesFolder().getChild(ARCHIVE_INDEX_FOLDER_NAME));
+
             // Register the application-specific 'bookmark' protocol.
             FileFactory.registerProtocol(BookmarkProtocolProvider.BOOKMARK, new com.mucommander.bookmark.file.BookmarkProtocolProvider());
         }
@@ -741,42 +734,45 @@ public class TrolCommander {
     }
 
 
-    private static class LauncherExecutor extends ThreadPoolExecutor {
-        private final Set<LauncherTask> runningTasks = new HashSet<>();
-        private final int cores;
-
-        LauncherExecutor(int cores) {
-            super(cores, cores, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
-            this.cores = cores;
+    /**
+     * Runs the launch tasks, and saves their durations for the next launch. The timeline of the launch is written to
+     * the file given on the command line, if any.
+     *
+     * @param helper the command line of the launch
+     * @param tasks all the tasks of the launch
+     * @param nbThreads the number of threads that run tasks
+     * @throws InterruptedException if the current thread was interrupted while waiting for the tasks to complete
+     */
+    private static void runLauncherTasks(LauncherCmdHelper helper, List<LauncherTask> tasks, int nbThreads) throws InterruptedException {
+        LaunchScheduler scheduler = new LaunchScheduler();
+        AbstractFile durationsFile = null;
+        try {
+            durationsFile = PlatformManager.getPreferencesFolder().getChild(LAUNCH_DURATIONS_FILE_NAME);
+            scheduler.loadDurations(durationsFile);
+        } catch (IOException e) {
+            getLogger().debug("Could not locate the launch durations file", e);
         }
 
-        public boolean isFull() {
-            if (runningTasks.size() < cores) {
-                return  false;
-            }
-            for (LauncherTask t : runningTasks) {
-                if (t.isDone()) {
-                    runningTasks.remove(t);
-                    break;
-                }
-            }
-            return runningTasks.size() >= cores;
-        }
+        scheduler.run(tasks, nbThreads);
 
-        public int getRunningTasksCount() {
-            return runningTasks.size();
+        if (durationsFile != null) {
+            try {
+                scheduler.saveDurations(durationsFile);
+            } catch (IOException e) {
+                getLogger().debug("Could not save the launch durations", e);
+            }
         }
 
-        public boolean execute(LauncherTask task, boolean force) {
-            if (force || (runningTasks.size() < cores && task.isReadyForExecution())) {
-                super.execute(task.getTask());
-// System.out.println("Execute " + task + " " + task.depends.length + "  " + task.isReadyForExecution() + "      " + runningTasks);
-                runningTasks.add(task);
-                return true;
+        String timelineFile = helper.getTimelineFile();
+        if (timelineFile != null) {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(timelineFile), StandardCharsets.UTF_8)) {
+                scheduler.writeTimeline(writer);
+            } catch (IOException e) {
+                helper.printError("Could not write the launch timeline to " + timelineFile, e, false);
             }
-            return false;
         }
     }
+
     /**
      * Main method used to startup muCommander.
      * @param args command line arguments.
@@ -804,12 +800,15 @@ public class TrolCommander {
         System.out.println("Processors: " + processors);
         //ExecutorService executor = Executors.newFixedThreadPool(processors < 2 ? 2 : processors);
 
-        LauncherExecutor executor = new LauncherExecutor(processors <= 0 ? 1 : processors);
         try {
             // Initialises fields.
             LauncherCmdHelper helper = new LauncherCmdHelper(args, true, false);
             // Whether or not to ignore warnings when booting.
             helper.parseArgs();
+            if (helper.getTraceFile() != null) {
+                Tracer.setRecordingSpans(true);
+                Tracer.writeChromeTraceOnExit(helper.getTraceFile());
+            }
 
             LauncherTask taskPrepareGraphics = new PrepareGraphicsTask(helper);
             LauncherTask taskPrepareKeystrokeClass = new PrepareKeystrokeClassTask(helper);
@@ -870,53 +869,8 @@ public class TrolCommander {
             tasks.add(taskRegisterNetwork);
             tasks.add(taskRegisterOtherProtocols);
             tasks.add(taskLoadEnvironment);
-//System.out.println("Execute tasks");
 
-            if (processors <= 1 ) {
-                for (LauncherTask t : tasks) {
-                    t.run();
-                }
-            } else {
-                while (!tasks.isEmpty()) {
-                    // execute tasks with ready dependencies
-                    for (LauncherTask task : tasks) {
-                        if (executor.execute(task, false) ) {
-                            tasks.remove(task);
-                            break;
-                        }
-                    }
-                    // TODO
-                    if (executor.isFull()) {
-                        try {
-                            Thread.sleep(5);
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    } else {
-                        boolean found = false;
-                        for (LauncherTask task : tasks) {
-                            if (executor.execute(task, false) ) {
-                                tasks.remove(task);
-                                found = true;
-                                break;
-                            }
-                        }
-                        if (found) {
-                            continue;
-                        }
-
-                        LauncherTask t = tasks.get(0);
-                        executor.execute(t, true);
-                        tasks.remove(t);
-                        try {
-                            Thread.sleep(1);
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
-            }
-            executor.shutdown();
+            runLauncherTasks(helper, tasks, processors <= 0 ? 1 : processors);
             System.out.println("finished");
         } catch(Throwable t) {
             // Startup failed, dispose the splash screen
@@ -933,14 +887,6 @@ public class TrolCommander {
             WindowManager.quit();
         }
 
-        executor.shutdown();
-/*
-        try {
-            executor.awaitTermination(100, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-*/
         // Done launching, wake up threads waiting for the application being launched.
         // Important: this must be done before disposing the splash screen, as this would otherwise create a deadlock
         // if the AWT event thread were waiting in #waitUntilLaunched .
@@ -0,0 +1,435 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU cache implementation that can be used by concurrent threads without contending on a single lock.
+ *
+ * <p>Items are spread over a number of segments according to the hash code of their key, each segment being an
+ * access-ordered <code>LinkedHashMap</code> guarded by its own lock and holding its share of the cache's capacity.
+ * The least recently used item is thus evicted from the segment an item is added to, which makes this cache an
+ * approximation of a global LRU cache, good enough as long as keys are evenly distributed.
+ *
+ * <p>In addition to the number of items, the cache can be limited by the combined weight of its items, as computed by
+ * a {@link Weigher}, for example the number of bytes of an image. Items that have expired are removed from a segment
+ * before any least recently used item is evicted from it.
+ *
+ * <p>Hit, miss and eviction counters are always updated, see {@link #getHitCount()}, {@link #getMissCount()} and
+ * {@link #getEvictionCount()}.
+ */
+public class ConcurrentLRUCache<K, V> extends LRUCache<K, V> {
+
+    /** Maximum number of segments */
+    private final static int MAX_SEGMENTS = 16;
+
+    /** Minimum number of items a segment can contain, the number of segments is reduced for small capacities */
+    private final static int MIN_SEGMENT_CAPACITY = 8;
+
+    /** The segments, items are assigned a segment according to their key's hash code */
+    private final Segment<K, V> segments[];
+
+    /** Computes the weight of items, <code>null</code> if the cache is not limited by weight */
+    private final Weigher<? super K, ? super V> weigher;
+
+    /** Maximum combined weight of all items, -1 if the cache is not limited by weight */
+    private final long maxWeight;
+
+    /** Number of cache hits since this cache was created */
+    private final LongAdder hits = new LongAdder();
+
+    /** Number of cache misses since this cache was created */
+    private final LongAdder misses = new LongAdder();
+
+    /** Number of items evicted because a segment was full, since this cache was created */
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Computes the weight of a cached item.
+     */
+    public interface Weigher<K, V> {
+
+        /**
+         * Returns the weight of the given item, a positive or zero value.
+         *
+         * @param key the item's key
+         * @param value the item's value
+         * @return the weight of the given item
+         */
+        long getWeight(K key, V value);
+    }
+
+    /**
+     * Creates an initially empty cache that can contain up to the given number of items.
+     *
+     * @param capacity the maximum number of items this cache can contain
+     */
+    public ConcurrentLRUCache(int capacity) {
+        this(capacity, -1, null);
+    }
+
+    /**
+     * Creates an initially empty cache that can contain up to the given number of items, whose combined weight as
+     * computed by the given <code>Weigher</code> cannot exceed the given maximum weight.
+     *
+     * @param capacity the maximum number of items this cache can contain
+     * @param maxWeight the maximum combined weight of all items, -1 for no limit
+     * @param weigher computes the weight of items, may be <code>null</code> if <code>maxWeight</code> is -1
+     */
+    public ConcurrentLRUCache(int capacity, long maxWeight, Weigher<? super K, ? super V> weigher) {
+        super(capacity);
+
+        if (maxWeight != -1 && weigher == null) {
+            throw new IllegalArgumentException("a weigher is required to limit the cache's weight");
+        }
+
+        this.maxWeight = maxWeight;
+        this.weigher = maxWeight == -1 ? null : weigher;
+
+        int nbSegments = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, capacity / MIN_SEGMENT_CAPACITY)));
+        // Generic arrays cannot be created
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Segment<K, V> segments[] = new Segment[nbSegments];
+        this.segments = segments;
+        for (int i = 0; i < nbSegments; i++) {
+            // Distribute the capacity and weight evenly, the first segments getting the remainder
+            segments[i] = new Segment<>(capacity / nbSegments + (i < capacity % nbSegments ? 1 : 0),
+                    maxWeight == -1 ? -1 : maxWeight / nbSegments + (i < maxWeight % nbSegments ? 1 : 0));
+        }
+    }
+
+    /**
+     * Returns the maximum combined weight of all items, -1 if this cache is not limited by weight.
+     *
+     * @return the maximum combined weight of all items, -1 if this cache is not limited by weight
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Returns the current combined weight of all items, 0 if this cache is not limited by weight.
+     *
+     * @return the current combined weight of all items
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Returns the number of items that were evicted to make room for new items since this cache was created.
+     * Expired items are not accounted for.
+     *
+     * @return the number of items that were evicted since this cache was created
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private Segment<K, V> getSegment(Object key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+    }
+
+
+    /////////////////////////////////////
+    // LRUCache methods implementation //
+    /////////////////////////////////////
+
+    @Override
+    public V get(K key) {
+        Segment<K, V> segment = getSegment(key);
+        synchronized (segment) {
+            Item<V> item = segment.map.get(key);
+
+            if (item == null) {
+                misses.increment();
+                return null;
+            }
+
+            if (item.expirationDate < System.currentTimeMillis()) {
+                // Value has expired, let's remove it
+                segment.remove(key);
+                misses.increment();
+                return null;
+            }
+
+            hits.increment();
+            return item.value;
+        }
+    }
+
+    @Override
+    public void add(K key, V value) {
+        add(key, value, -1);
+    }
+
+    @Override
+    public void add(K key, V value, long timeToLive) {
+        long weight = weigher == null ? 0 : weigher.getWeight(key, value);
+        Item<V> item = new Item<>(value, timeToLive == -1 ? Long.MAX_VALUE : System.currentTimeMillis() + timeToLive, weight);
+
+        Segment<K, V> segment = getSegment(key);
+        synchronized (segment) {
+            put(segment, key, item);
+        }
+    }
+
+    /**
+     * Adds the given item to this cache unless an item that has not expired is already cached for the key, in which
+     * case that item is returned and made the most recently used. Both happen atomically, which allows concurrent
+     * threads to share a single instance of a value created on demand.
+     *
+     * @param key the item's key
+     * @param value the item to add if none is cached for the key
+     * @return the item cached for the key, <code>value</code> if there was none
+     */
+    public V addIfAbsent(K key, V value) {
+        long weight = weigher == null ? 0 : weigher.getWeight(key, value);
+
+        Segment<K, V> segment = getSegment(key);
+        synchronized (segment) {
+            Item<V> item = segment.map.get(key);
+            if (item != null && item.expirationDate >= System.currentTimeMillis()) {
+                hits.increment();
+                return item.value;
+            }
+
+            misses.increment();
+            put(segment, key, new Item<>(value, Long.MAX_VALUE, weight));
+            return value;
+        }
+    }
+
+    /**
+     * Removes the item cached for the given key, if any.
+     *
+     * @param key the item's key
+     * @return the removed item, <code>null</code> if there was none or if it had expired
+     */
+    public V remove(K key) {
+        Segment<K, V> segment = getSegment(key);
+        synchronized (segment) {
+            Item<V> item = segment.map.get(key);
+            segment.remove(key);
+            return item == null || item.expirationDate < System.currentTimeMillis() ? null : item.value;
+        }
+    }
+
+    /**
+     * Puts the given item in the segment and evicts items if the segment is full. Must be called while synchronized
+     * on the segment.
+     */
+    private void put(Segment<K, V> segment, K key, Item<V> item) {
+        Item<V> previousItem = segment.map.put(key, item);
+        if (previousItem != null) {
+            segment.weight -= previousItem.weight;
+        }
+        segment.weight += item.weight;
+        if (item.expirationDate < segment.eldestExpirationDate) {
+            segment.eldestExpirationDate = item.expirationDate;
+        }
+
+        if (segment.isFull()) {
+            segment.purgeExpiredItems();
+
+            // Evict least recently used items, but never the one that has just been added
+            Iterator<Map.Entry<K, Item<V>>> iterator = segment.map.entrySet().iterator();
+            while (segment.isFull() && segment.map.size() > 1) {
+                Item<V> eldestItem = iterator.next().getValue();
+                iterator.remove();
+                segment.weight -= eldestItem.weight;
+                evictions.increment();
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void clearAll() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.map.clear();
+                segment.weight = 0;
+                segment.eldestExpirationDate = Long.MAX_VALUE;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cache hits since this cache was created, saturated to <code>Integer.MAX_VALUE</code>.
+     *
+     * @return the number of cache hits since this cache was created
+     */
+    @Override
+    public int getHitCount() {
+        return (int)Math.min(Integer.MAX_VALUE, hits.sum());
+    }
+
+    /**
+     * Returns the number of cache misses since this cache was created, saturated to <code>Integer.MAX_VALUE</code>.
+     *
+     * @return the number of cache misses since this cache was created
+     */
+    @Override
+    public int getMissCount() {
+        return (int)Math.min(Integer.MAX_VALUE, misses.sum());
+    }
+
+
+    //////////////////
+    // Test methods //
+    //////////////////
+
+    /**
+     * Tests this LRUCache for corruption and throws a RuntimeException if something is wrong.
+     */
+    @Override
+    protected void testCorruption() throws RuntimeException {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                long weight = 0;
+                for (Map.Entry<K, Item<V>> entry : segment.map.entrySet()) {
+                    Item<V> item = entry.getValue();
+                    if (item == null) {
+                        throw new RuntimeException("cache corrupted: value could not be found for key="+entry.getKey());
+                    }
+                    if (getSegment(entry.getKey()) != segment) {
+                        throw new RuntimeException("cache corrupted: key="+entry.getKey()+" is in the wrong segment");
+                    }
+                    if (item.expirationDate < segment.eldestExpirationDate) {
+                        throw new RuntimeException("cache corrupted: expiration date for key="+entry.getKey()+" older than eldestExpirationDate");
+                    }
+                    weight += item.weight;
+                }
+
+                if (weight != segment.weight) {
+                    throw new RuntimeException("cache corrupted: segment weight="+segment.weight+", actual weight="+weight);
+                }
+                if (segment.map.size() > 1 && segment.isFull()) {
+                    throw new RuntimeException("cache corrupted: segment over capacity");
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a String representation of this cache.
+     */
+    public String toString() {
+        return super.toString() + " size=" + size() + " capacity=" + capacity + " weight=" + getWeight()
+                + " maxWeight=" + maxWeight + " segments=" + segments.length
+                + " nbCacheHits=" + hits.sum() + " nbCacheMisses=" + misses.sum() + " nbEvictions=" + evictions.sum();
+    }
+
+
+    /**
+     * A cached value, its expiration date and its weight.
+     */
+    private static final class Item<V> {
+        private final V value;
+        private final long expirationDate;
+        private final long weight;
+
+        private Item(V value, long expirationDate, long weight) {
+            this.value = value;
+            this.expirationDate = expirationDate;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A part of the cache, all accesses to which must be synchronized on the segment.
+     */
+    private static final class Segment<K, V> {
+
+        /** Cached items, least recently used first */
+        private final LinkedHashMap<K, Item<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+
+        /** Maximum number of items in this segment */
+        private final int capacity;
+
+        /** Maximum combined weight of the items in this segment, -1 for no limit */
+        private final long maxWeight;
+
+        /** Current combined weight of the items in this segment */
+        private long weight;
+
+        /** Eldest expiration date amongst the items of this segment, <code>Long.MAX_VALUE</code> if none expires */
+        private long eldestExpirationDate = Long.MAX_VALUE;
+
+        private Segment(int capacity, long maxWeight) {
+            this.capacity = capacity;
+            this.maxWeight = maxWeight;
+        }
+
+        private boolean isFull() {
+            return map.size() > capacity || (maxWeight != -1 && weight > maxWeight);
+        }
+
+        private void remove(Object key) {
+            Item<V> item = map.remove(key);
+            if (item != null) {
+                weight -= item.weight;
+            }
+        }
+
+        /**
+         * Removes the items that have expired and updates {@link #eldestExpirationDate}.
+         */
+        private void purgeExpiredItems() {
+            long now = System.currentTimeMillis();
+            if (eldestExpirationDate > now) {
+                return;
+            }
+
+            eldestExpirationDate = Long.MAX_VALUE;
+            Iterator<Item<V>> iterator = map.values().iterator();
+            while (iterator.hasNext()) {
+                Item<V> item = iterator.next();
+                if (item.expirationDate < now) {
+                    iterator.remove();
+                    weight -= item.weight;
+                } else if (item.expirationDate < eldestExpirationDate) {
+                    eldestExpirationDate = item.expirationDate;
+                }
+            }
+        }
+    }
+}
@@ -143,7 +143,7 @@ public abstract class LRUCache<K, V> {
      * @param key key
      * @param value value
      */
-    public synchronized void add(K key, V value) {
+    public void add(K key, V value) {
         add(key, value, -1);
     }
 	
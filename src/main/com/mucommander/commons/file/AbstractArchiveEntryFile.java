@@ -260,7 +260,7 @@ public abstract class AbstractArchiveEntryFile extends AbstractFile {
      */
     @Override
     public InputStream getInputStream() throws IOException {
-        return archiveFile.getEntryInputStream(entry, null);
+        return archiveFile.getEntryInputStream(archiveFile.getEntryWithFormatObject(entry), null);
     }
 
     /**
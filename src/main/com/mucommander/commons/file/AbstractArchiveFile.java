@@ -25,7 +25,6 @@ import com.mucommander.commons.file.impl.ProxyFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.swing.tree.DefaultMutableTreeNode;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -56,7 +55,9 @@ import java.util.WeakHashMap;
  * ones at the top level but also the ones nested one of several levels below. Using this list of entries, it creates
  * a tree to map the structure of the archive and list the content of any particular directory within the archive.
  * This tree is recreated (<code>getEntryIterator()</code> is called again) only if the archive file has changed, i.e.
- * if its date has changed since the tree was created.
+ * if its date has changed since the tree was created. The trees of large archives can also be stored on disk, so that
+ * reopening an archive that has not changed since does not require to iterate through its entries again: see
+ * {@link #setEntriesTreeCacheFolder(AbstractFile)}.
  *
  * <p>Files returned by the <code>ls()</code> are {@link AbstractArchiveEntryFile} instances which use an {@link ArchiveEntry}
  * object to retrieve the entry's attributes. In turn, these <code>AbstractArchiveEntryFile</code> instances query the
@@ -101,6 +102,31 @@ public abstract class AbstractArchiveFile extends ProxyFile {
         super(file);
     }
 
+    /**
+     * Sets the folder where the entry trees of large archives are stored, so that reopening an archive that has not
+     * changed since its tree was stored does not require to iterate through all of its entries again. Only archives
+     * with many entries are stored. The objects some formats need to read an entry's contents are not stored: they
+     * are restored by iterating through the archive's entries again the first time an entry is read, see
+     * {@link #getEntryWithFormatObject(ArchiveEntry)}.
+     * The folder is created if it doesn't exist. The default value is <code>null</code>, which disables this cache.
+     *
+     * @param folder the folder where entry trees are stored, <code>null</code> to disable the cache
+     */
+    public static void setEntriesTreeCacheFolder(AbstractFile folder) {
+        ArchiveEntryTreeCache.setFolder(folder);
+    }
+
+    /**
+     * Returns the folder where the entry trees of large archives are stored, <code>null</code> if this cache is
+     * disabled (the default).
+     *
+     * @return the folder where entry trees are stored, <code>null</code> if the cache is disabled
+     * @see #setEntriesTreeCacheFolder(AbstractFile)
+     */
+    public static AbstractFile getEntriesTreeCacheFolder() {
+        return ArchiveEntryTreeCache.getFolder();
+    }
+
     /**
      * Creates the entries tree, used by {@link #ls(AbstractArchiveEntryFile , com.mucommander.commons.file.filter.FilenameFilter, com.mucommander.commons.file.filter.FileFilter)}
      * to quickly list the contents of an archive's subfolder.
@@ -111,10 +137,19 @@ public abstract class AbstractArchiveFile extends ProxyFile {
      */
     private void createEntriesTree() throws IOException {
         // TODO: this method is not thread-safe and needs to be synchronized
-        ArchiveEntryTree treeRoot = new ArchiveEntryTree();
         archiveEntryFiles = new WeakHashMap<>();
 
         long start = System.currentTimeMillis();
+        ArchiveEntryTree treeRoot = ArchiveEntryTreeCache.load(this);
+        if (treeRoot != null) {
+            getLogger().info("entries tree loaded in "+(System.currentTimeMillis()-start)+" ms");
+
+            this.entryTreeRoot = treeRoot;
+            declareEntriesTreeUpToDate();
+            return;
+        }
+
+        treeRoot = new ArchiveEntryTree();
         ArchiveEntryIterator entries = getEntryIterator();
         try {
             ArchiveEntry entry;
@@ -126,6 +161,8 @@ public abstract class AbstractArchiveFile extends ProxyFile {
 
             this.entryTreeRoot = treeRoot;
             declareEntriesTreeUpToDate();
+
+            ArchiveEntryTreeCache.save(this, treeRoot);
         }
         finally {
             try {
@@ -171,7 +208,8 @@ public abstract class AbstractArchiveFile extends ProxyFile {
      */
     protected void addToEntriesTree(ArchiveEntry entry) throws IOException {
         checkEntriesTree();
-        entryTreeRoot.addArchiveEntry(entry);
+        // The caller keeps on using the entry, the tree must return this instance
+        entryTreeRoot.setEntry(entryTreeRoot.addArchiveEntry(entry), entry);
     }
 
     /**
@@ -185,14 +223,60 @@ public abstract class AbstractArchiveFile extends ProxyFile {
      */
     protected void removeFromEntriesTree(ArchiveEntry entry) throws IOException {
         checkEntriesTree();
-        DefaultMutableTreeNode entryNode = entryTreeRoot.findEntryNode(entry.getPath());
+        int entryNode = entryTreeRoot.findEntryNode(entry.getPath());
 
-        if(entryNode!=null) {
-            DefaultMutableTreeNode parentNode = (DefaultMutableTreeNode)entryNode.getParent();
-            parentNode.remove(entryNode);
+        if(entryNode!=ArchiveEntryTree.NONE) {
+            entryTreeRoot.removeEntryNode(entryNode);
         }
     }
 
+    /**
+     * Returns the entry of the entries tree with the same path as the given one, with the object the archive format
+     * needs to read or modify it. If the tree was loaded from the entries tree cache, the objects that could not be
+     * stored are restored by iterating through the archive's entries again, the first time this method is called.
+     *
+     * @param entry an entry of this archive
+     * @return the entry with its format object, the given entry if it is not in the tree
+     * @throws IOException if an error occurred while iterating through the archive's entries
+     */
+    synchronized ArchiveEntry getEntryWithFormatObject(ArchiveEntry entry) throws IOException {
+        ArchiveEntryTree tree = entryTreeRoot;
+        if (tree == null || !tree.isDetached()) {
+            return entry;
+        }
+
+        long start = System.currentTimeMillis();
+        ArchiveEntryIterator entries = getEntryIterator();
+        try {
+            ArchiveEntry readEntry;
+            while ((readEntry = entries.nextEntry()) != null) {
+                tree.attachEntry(readEntry);
+            }
+            tree.setAttached();
+        } finally {
+            try {
+                entries.close();
+            } catch(IOException e) {
+                // Not much we can do about it
+            }
+        }
+        getLogger().info("entries attached in "+(System.currentTimeMillis()-start)+" ms");
+
+        int node = tree.findEntryNode(entry.getPath());
+        return node == ArchiveEntryTree.NONE ? entry : tree.getEntry(node);
+    }
+
+    /**
+     * Returns <code>true</code> if the entries of this archive can be iterated through again after the entries tree
+     * has been created, which is required to store the tree of a format whose entries have objects that cannot be
+     * stored, see {@link #getEntryWithFormatObject(ArchiveEntry)}.
+     *
+     * @return <code>true</code> if the entries of this archive can be iterated through again
+     */
+    boolean canIterateEntriesAgain() {
+        return file.isFileOperationSupported(FileOperation.READ_FILE);
+    }
+
     /**
      * Returns the {@link ArchiveEntryTree} instance corresponding to the root of the archive entry tree.
      * The returned value can be <code>null</code> if the tree hasn't been intialized yet.
@@ -217,8 +301,8 @@ public abstract class AbstractArchiveFile extends ProxyFile {
             throw new IOException();
         }
 
-        DefaultMutableTreeNode matchNode = entryTreeRoot.findEntryNode(entryFile.getEntry().getPath());
-        if (matchNode == null) {
+        int matchNode = entryTreeRoot.findEntryNode(entryFile.getEntry().getPath());
+        if (matchNode == ArchiveEntryTree.NONE) {
             throw new IOException();
         }
 
@@ -231,23 +315,23 @@ public abstract class AbstractArchiveFile extends ProxyFile {
      * @throws UnsupportedFileOperationException if {@link FileOperation#READ_FILE} operations are not supported by the
      * underlying file protocol.
      */
-    private AbstractFile[] ls(DefaultMutableTreeNode treeNode, AbstractFile parentFile, FilenameFilter filenameFilter, FileFilter fileFilter) throws IOException {
+    private AbstractFile[] ls(int treeNode, AbstractFile parentFile, FilenameFilter filenameFilter, FileFilter fileFilter) throws IOException {
         AbstractFile files[];
-        int nbChildren = treeNode.getChildCount();
 
         // No FilenameFilter, create entry files and store them directly into an array
         if(filenameFilter==null) {
-            files = new AbstractFile[nbChildren];
+            files = new AbstractFile[entryTreeRoot.getChildCount(treeNode)];
 
-            for(int c=0; c<nbChildren; c++) {
-                files[c] = getArchiveEntryFile((ArchiveEntry)(((DefaultMutableTreeNode)treeNode.getChildAt(c)).getUserObject()), parentFile);
+            int c = 0;
+            for(int child=entryTreeRoot.getFirstChild(treeNode); child!=ArchiveEntryTree.NONE; child=entryTreeRoot.getNextSibling(child)) {
+                files[c++] = getArchiveEntryFile(entryTreeRoot.getEntry(child), parentFile);
             }
         }
         // Use provided FilenameFilter and temporarily store created entry files that match the filter in a Vector
         else {
             List<AbstractFile> filesV = new Vector<>();
-            for(int c=0; c<nbChildren; c++) {
-                ArchiveEntry entry = (ArchiveEntry)(((DefaultMutableTreeNode)treeNode.getChildAt(c)).getUserObject());
+            for(int child=entryTreeRoot.getFirstChild(treeNode); child!=ArchiveEntryTree.NONE; child=entryTreeRoot.getNextSibling(child)) {
+                ArchiveEntry entry = entryTreeRoot.getEntry(child);
                 if(!filenameFilter.accept(entry.getName()))
                     continue;
 
@@ -345,9 +429,9 @@ public abstract class AbstractArchiveFile extends ProxyFile {
         entryPath = entryPath.replace(File.separatorChar, ArchiveEntry.SEPARATOR_CHAR);
 
         // Find the entry node corresponding to the given path
-        DefaultMutableTreeNode entryNode = entryTreeRoot.findEntryNode(entryPath);
+        int entryNode = entryTreeRoot.findEntryNode(entryPath);
 
-        if(entryNode==null) {
+        if(entryNode==ArchiveEntryTree.NONE) {
             int depth = ArchiveEntry.getDepth(entryPath);
 
             AbstractFile parentFile;
@@ -378,11 +462,11 @@ public abstract class AbstractArchiveFile extends ProxyFile {
      * @param entryNode tree node corresponding to the entry for which to return a file
      * @return an {@link AbstractFile} instance corresponding to the given entry node
      */
-    private AbstractFile getArchiveEntryFile(DefaultMutableTreeNode entryNode) throws IOException {
-        DefaultMutableTreeNode parentNode = (DefaultMutableTreeNode)entryNode.getParent();
+    private AbstractFile getArchiveEntryFile(int entryNode) throws IOException {
+        int parentNode = entryTreeRoot.getParent(entryNode);
         return getArchiveEntryFile(
-                (ArchiveEntry)entryNode.getUserObject(),
-                parentNode==entryTreeRoot
+                entryTreeRoot.getEntry(entryNode),
+                parentNode==ArchiveEntryTree.ROOT
                     ?this
                     :getArchiveEntryFile(parentNode)
         );
@@ -477,7 +561,7 @@ public abstract class AbstractArchiveFile extends ProxyFile {
         // Make sure the entries tree is created and up-to-date
         checkEntriesTree();
 
-        return ls(entryTreeRoot, this, null, null);
+        return ls(ArchiveEntryTree.ROOT, this, null, null);
     }
 
     /**
@@ -500,7 +584,7 @@ public abstract class AbstractArchiveFile extends ProxyFile {
         // Make sure the entries tree is created and up-to-date
         checkEntriesTree();
 
-        return ls(entryTreeRoot, this, filter, null);
+        return ls(ArchiveEntryTree.ROOT, this, filter, null);
     }
 
     /**
@@ -523,7 +607,7 @@ public abstract class AbstractArchiveFile extends ProxyFile {
         // Make sure the entries tree is created and up-to-date
         checkEntriesTree();
 
-        return ls(entryTreeRoot, this, null, filter);
+        return ls(ArchiveEntryTree.ROOT, this, null, filter);
     }
 
     // Note: do not override #isDirectory() to always return true, as AbstractArchiveFile instances may be created when
@@ -19,87 +19,227 @@
 
 package com.mucommander.commons.file;
 
-import com.mucommander.commons.file.util.PathUtils;
-import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.swing.tree.DefaultMutableTreeNode;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Stores archive entries and organizes them in a tree structure that maps entries in the way they are organized
- * inside the archive. An instance of <code>ArchiveEntryTree</code> also acts as the root node: all entry nodes
- * are children of it (direct or indirect).
+ * inside the archive.
+ *
+ * <p>Nodes are identified by an <code>int</code> and stored in primitive arrays rather than as objects: each node
+ * holds its name (the path segment relative to its parent, interned so that names repeated in the archive are stored
+ * once), the node of its parent, its first and last children and its next sibling. Children are kept in the order
+ * in which they were added. Nodes are also chained in a hash table keyed by parent and name, so that looking up
+ * an entry does not require to scan its siblings. The root node is {@link #ROOT} and has no entry.
+ *
+ * <p>The attributes of the entries are stored in primitive arrays as well, the {@link ArchiveEntry} instances passed
+ * to {@link #addArchiveEntry(ArchiveEntry)} are not kept. An entry is created the first time it is requested and is
+ * then returned by subsequent calls, so that changes made to it are seen by all its users. The only objects kept
+ * for each node are those the archive format needs to read the entry: entry objects other than an
+ * <code>Integer</code>, and entries of an <code>ArchiveEntry</code> subclass, which are returned as is.
+ *
+ * <p>Trees can be written to and read from a stream, see {@link #write(DataOutputStream)} and
+ * {@link #read(DataInputStream)}. The objects kept for the archive format cannot be written: the nodes of a tree
+ * that has been read are then flagged as detached until the archive's entries are read again and passed to
+ * {@link #attachEntry(ArchiveEntry)}.
  *
  * @author Maxence Bernard
  */
-class ArchiveEntryTree extends DefaultMutableTreeNode {
+class ArchiveEntryTree {
     private static Logger logger;
 
+    /** The root node of every tree */
+    static final int ROOT = 0;
+
+    /** Returned by methods when there is no such node */
+    static final int NONE = -1;
+
+    /** Version of the format used by {@link #write(DataOutputStream)}, increased when the format changes */
+    private static final int FORMAT_VERSION = 2;
+
+    /** Flag set for directory nodes */
+    private static final int FLAG_DIRECTORY = 1;
+
+    /** Flag set for nodes whose entry path ends with a separator */
+    private static final int FLAG_TRAILING_SEPARATOR = 2;
+
+    /** Flag set for nodes whose entry exists */
+    private static final int FLAG_EXISTS = 4;
+
+    /** Flag set for nodes whose entry has the default permissions, see {@link ArchiveEntry#getPermissions()} */
+    private static final int FLAG_DEFAULT_PERMISSIONS = 8;
+
+    /** Flag set for nodes whose format object could not be written, see {@link #attachEntry(ArchiveEntry)} */
+    private static final int FLAG_DETACHED = 16;
+
+    /** Number of nodes, including the root and removed ones */
+    private int nbNodes;
+
+    /** Name of each node, i.e. the part of the entry's path relative to its parent, without any trailing separator */
+    private String names[];
+
+    /** Parent of each node, {@link #NONE} for the root and removed nodes */
+    private int parents[];
+
+    /** First child of each node, {@link #NONE} if it has none */
+    private int firstChildren[];
+
+    /** Last child of each node, {@link #NONE} if it has none */
+    private int lastChildren[];
+
+    /** Next sibling of each node, {@link #NONE} for the last child */
+    private int nextSiblings[];
+
+    /** Head of each hash chain, {@link #NONE} if the chain is empty */
+    private int hashHeads[];
+
+    /** Next node in the same hash chain, {@link #NONE} at the end of the chain */
+    private int hashNexts[];
+
+    /** Flags of each node's entry */
+    private byte flags[];
+
+    /** Date of each node's entry */
+    private long dates[];
+
+    /** Size of each node's entry */
+    private long sizes[];
+
+    /** Permissions of each node's entry, unless {@link #FLAG_DEFAULT_PERMISSIONS} is set */
+    private short permissions[];
+
+    /** Permission mask of each node's entry, unless {@link #FLAG_DEFAULT_PERMISSIONS} is set */
+    private short permissionMasks[];
+
+    /** Owner of each node's entry, interned */
+    private String owners[];
+
+    /** Group of each node's entry, interned */
+    private String groups[];
+
+    /** <code>Integer</code> entry object of each node's entry, {@link #NONE} if it has none */
+    private int entryObjects[];
+
+    /** Other entry object or <code>ArchiveEntry</code> subclass instance of each node, <code>null</code> until one is added */
+    private Object formatObjects[];
+
+    /** Entry of each node that has been requested, <code>null</code> until one is requested */
+    private ArchiveEntry entries[];
+
+    /** <code>true</code> if nodes flagged with {@link #FLAG_DETACHED} have not been attached yet */
+    private boolean detached;
+
+    /** Interns names so that identical names share the same String instance */
+    private Map<String, String> internedNames = new HashMap<>();
+
     /**
      * Creates a new empty tree.
      */
     ArchiveEntryTree() {
+        this(64);
+    }
+
+    private ArchiveEntryTree(int capacity) {
+        names = new String[capacity];
+        parents = new int[capacity];
+        firstChildren = new int[capacity];
+        lastChildren = new int[capacity];
+        nextSiblings = new int[capacity];
+        hashNexts = new int[capacity];
+        hashHeads = new int[Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1];
+        Arrays.fill(hashHeads, NONE);
+        flags = new byte[capacity];
+        dates = new long[capacity];
+        sizes = new long[capacity];
+        permissions = new short[capacity];
+        permissionMasks = new short[capacity];
+        owners = new String[capacity];
+        groups = new String[capacity];
+        entryObjects = new int[capacity];
+
+        // Root node
+        newNode(NONE, "");
     }
 
     /**
-     * Adds the given entry to the archive tree, creating parent nodes as necessary.
+     * Adds the given entry to the archive tree, creating parent nodes as necessary. Regular file entries are always
+     * added as a new node, a directory entry replaces the entry of any existing node with the same path.
+     *
+     * <p>The given entry is not kept by the tree, see {@link #setEntry(int, ArchiveEntry)}.
      *
      * @param entry the entry to add to the tree
+     * @return the node of the entry
      */
-    void addArchiveEntry(ArchiveEntry entry) {
+    int addArchiveEntry(ArchiveEntry entry) {
         String entryPath = entry.getPath();
         int entryDepth = entry.getDepth();
         int slashPos = 0;
-        DefaultMutableTreeNode node = this;
+        int node = ROOT;
         for (int d = 1; d <= entryDepth; d++) {
+            int segmentStart = slashPos;
+            String subPath = d==entryDepth?entryPath:entryPath.substring(0, (slashPos=entryPath.indexOf('/', slashPos)+1));
+            String name = getName(subPath, segmentStart);
+
             if (d == entryDepth && !entry.isDirectory()) {
                 // create a leaf node for the entry
                 entry.setExists(true);      // the entry has to exist
-                node.add(new DefaultMutableTreeNode(entry, true));
-                break;
-            }
-
-            String subPath = d==entryDepth?entryPath:entryPath.substring(0, (slashPos=entryPath.indexOf('/', slashPos)+1));
-
-            int nbChildren = node.getChildCount();
-            DefaultMutableTreeNode childNode = null;
-            boolean matchFound = false;
-            for (int c = 0; c < nbChildren; c++) {
-                childNode = (DefaultMutableTreeNode)node.getChildAt(c);
-                // Path comparison is 'trailing slash insensitive'
-                if (PathUtils.pathEquals(((ArchiveEntry)childNode.getUserObject()).getPath(), subPath, "/")) {
-                    // Found a match
-                    matchFound = true;
-                    break;
-                }
+                int leafNode = newNode(node, name);
+                setAttributes(leafNode, entry);
+                return leafNode;
             }
 
-            if (matchFound) {
+            int childNode = findChild(node, name);
+            if (childNode != NONE) {
                 if (d == entryDepth) {
-                    getLogger().trace("Replacing entry for node "+childNode);
-                    childNode.setUserObject(entry); // Replace existing entry
-                } else {
-                    node = childNode;
+                    getLogger().trace("Replacing entry for node "+subPath);
+                    setAttributes(childNode, entry);    // Replace existing entry
+                    if (entries != null) {
+                        entries[childNode] = null;
+                    }
                 }
+                node = childNode;
             } else {
                 if (d == entryDepth) {
                     // create a leaf node for the entry
                     entry.setExists(true);      // the entry has to exist
-                    node.add(new DefaultMutableTreeNode(entry, true));
+                    node = newNode(node, name);
+                    setAttributes(node, entry);
                 } else {
                     getLogger().trace("Creating node for " + subPath);
-                    childNode = new DefaultMutableTreeNode(new ArchiveEntry(subPath, true, entry.getLastModifiedDate(), 0, true), true);
-                    node.add(childNode);
-                    node = childNode;
+                    node = newNode(node, name);
+                    flags[node] = FLAG_DIRECTORY | FLAG_TRAILING_SEPARATOR | FLAG_EXISTS | FLAG_DEFAULT_PERMISSIONS;
+                    dates[node] = entry.getLastModifiedDate();
                 }
             }
         }
+        return node;
     }
 
+    /**
+     * Makes the given entry the one returned by {@link #getEntry(int)} for the given node. This is used for entries
+     * added to a read-write archive, whose caller keeps on using the entry after it has been added.
+     *
+     * @param node a node of this tree, other than the root
+     * @param entry the entry of the node
+     */
+    void setEntry(int node, ArchiveEntry entry) {
+        if (entries == null) {
+            entries = new ArchiveEntry[names.length];
+        }
+        entries[node] = entry;
+    }
 
     /**
-     * Finds and returns the node that corresponds to the specified entry path, <code>null</code> if no entry matching
+     * Finds and returns the node that corresponds to the specified entry path, {@link #NONE} if no entry matching
      * the path could be found.
      *
      * <p>Important note: the given path's separator character must be '/' and the path must be relative to the
@@ -109,38 +249,590 @@ class ArchiveEntryTree extends DefaultMutableTreeNode {
      * @param entryPath the path to the entry to look up in this tree
      * @return the node that corresponds to the specified entry path
      */
-    DefaultMutableTreeNode findEntryNode(String entryPath) {
+    int findEntryNode(String entryPath) {
         int entryDepth = ArchiveEntry.getDepth(entryPath);
         int slashPos = 0;
-        DefaultMutableTreeNode currentNode = this;
+        int currentNode = ROOT;
         for (int d = 1; d <= entryDepth; d++) {
+            int segmentStart = slashPos;
             String subPath = d == entryDepth ?
                     entryPath :
                     entryPath.substring(0, (slashPos = entryPath.indexOf('/', slashPos)+1));
-            DefaultMutableTreeNode matchNode = getDefaultMutableTreeNode(currentNode, subPath);
-            if (matchNode == null) {
-                return null;    // No node matching the provided path, return null
+            currentNode = findChild(currentNode, getName(subPath, segmentStart));
+            if (currentNode == NONE) {
+                return NONE;    // No node matching the provided path
             }
-
-            currentNode = matchNode;
         }
 
         return currentNode;
     }
 
-    @Nullable
-    private DefaultMutableTreeNode getDefaultMutableTreeNode(DefaultMutableTreeNode currentNode, String subPath) {
-        int nbChildren = currentNode.getChildCount();
-        for (int c = 0; c < nbChildren; c++) {
-            DefaultMutableTreeNode childNode = (DefaultMutableTreeNode)currentNode.getChildAt(c);
 
-            // Path comparison is 'trailing slash insensitive'
-            if (PathUtils.pathEquals(((ArchiveEntry)childNode.getUserObject()).getPath(), subPath, "/")) {
-                // Found the node, let's return it
-                return childNode;
+    /**
+     * Removes the given node, and thus all of its descendants, from the tree.
+     *
+     * @param node the node to remove, must not be the root
+     */
+    void removeEntryNode(int node) {
+        int parent = parents[node];
+        if (parent == NONE) {
+            return;     // already removed
+        }
+
+        // Unlink the node from its parent's children
+        int previous = NONE;
+        for (int c = firstChildren[parent]; c != node; c = nextSiblings[c]) {
+            previous = c;
+        }
+        if (previous == NONE) {
+            firstChildren[parent] = nextSiblings[node];
+        } else {
+            nextSiblings[previous] = nextSiblings[node];
+        }
+        if (lastChildren[parent] == node) {
+            lastChildren[parent] = previous;
+        }
+
+        // Unlink the node from its hash chain
+        int slot = hash(parent, names[node]);
+        previous = NONE;
+        for (int n = hashHeads[slot]; n != NONE; n = hashNexts[n]) {
+            if (n == node) {
+                if (previous == NONE) {
+                    hashHeads[slot] = hashNexts[n];
+                } else {
+                    hashNexts[previous] = hashNexts[n];
+                }
+                break;
+            }
+            previous = n;
+        }
+
+        parents[node] = NONE;
+
+        // A regular file may have been added several times with the same path, the next one can now be looked up
+        for (int c = firstChildren[parent]; c != NONE; c = nextSiblings[c]) {
+            if (names[c].equals(names[node])) {
+                if (findChild(parent, names[c]) == NONE) {
+                    addToHash(c);
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the parent of the given node, {@link #NONE} for the root.
+     *
+     * @param node a node of this tree
+     * @return the parent of the given node
+     */
+    int getParent(int node) {
+        return parents[node];
+    }
+
+    /**
+     * Returns the first child of the given node, {@link #NONE} if the node has no children.
+     *
+     * @param node a node of this tree
+     * @return the first child of the given node
+     */
+    int getFirstChild(int node) {
+        return firstChildren[node];
+    }
+
+    /**
+     * Returns the sibling that follows the given node, {@link #NONE} if the node is its parent's last child.
+     *
+     * @param node a node of this tree
+     * @return the sibling that follows the given node
+     */
+    int getNextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    /**
+     * Returns the number of children of the given node.
+     *
+     * @param node a node of this tree
+     * @return the number of children of the given node
+     */
+    int getChildCount(int node) {
+        int count = 0;
+        for (int c = firstChildren[node]; c != NONE; c = nextSiblings[c]) {
+            count++;
+        }
+        return count;
+    }
+
+
+    /**
+     * Returns the entry of the given node, <code>null</code> for the root. The entry is created the first time it is
+     * requested.
+     *
+     * @param node a node of this tree
+     * @return the entry of the given node
+     */
+    ArchiveEntry getEntry(int node) {
+        if (node == ROOT) {
+            return null;
+        }
+
+        ArchiveEntry entry = entries == null ? null : entries[node];
+        if (entry == null) {
+            entry = createEntry(node);
+            setEntry(node, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the number of entries in this tree, not counting the root.
+     *
+     * @return the number of entries in this tree
+     */
+    int getEntryCount() {
+        return nbNodes - 1;
+    }
+
+    /**
+     * Returns <code>true</code> if some of the entries of this tree have objects that {@link #write(DataOutputStream)}
+     * cannot write, and that a tree read back would be missing until the archive's entries are read again.
+     *
+     * @return <code>true</code> if some entries have objects that cannot be written
+     */
+    boolean hasFormatObjects() {
+        if (formatObjects != null) {
+            for (int node = 1; node < nbNodes; node++) {
+                if (formatObjects[node] != null && parents[node] != NONE) {
+                    return true;
+                }
+            }
+        }
+        if (entries != null) {
+            for (int node = 1; node < nbNodes; node++) {
+                if (entries[node] != null && parents[node] != NONE && !isWritable(entries[node])) {
+                    return true;
+                }
+            }
+        }
+        return detached;
+    }
+
+    /**
+     * Returns <code>true</code> if this tree was read from a stream and the entries whose format objects could not be
+     * written have not been attached yet.
+     *
+     * @return <code>true</code> if entries are missing their format objects
+     */
+    boolean isDetached() {
+        return detached;
+    }
+
+    /**
+     * Gives the node with the same path as the given entry, read again from the archive, the format object that could
+     * not be written. Entries of an <code>ArchiveEntry</code> subclass replace the entry of the node. Once all the
+     * archive's entries have been attached, {@link #setAttached()} must be called.
+     *
+     * @param entry an entry read from the archive
+     */
+    void attachEntry(ArchiveEntry entry) {
+        int node = findEntryNode(entry.getPath());
+        if (node == NONE || (flags[node] & FLAG_DETACHED) == 0) {
+            return;
+        }
+
+        flags[node] &= ~FLAG_DETACHED;
+        if (entry.getClass() != ArchiveEntry.class) {
+            setFormatObject(node, entry);
+            if (entries != null) {
+                entries[node] = null;
+            }
+        } else if (entry.getEntryObject() instanceof Integer) {
+            entryObjects[node] = (Integer)entry.getEntryObject();
+        } else if (entry.getEntryObject() != null) {
+            setFormatObject(node, entry.getEntryObject());
+            if (entries != null && entries[node] != null) {
+                entries[node].setEntryObject(entry.getEntryObject());
             }
         }
-        return null;
+    }
+
+    /**
+     * Declares that all the archive's entries have been passed to {@link #attachEntry(ArchiveEntry)}.
+     */
+    void setAttached() {
+        detached = false;
+    }
+
+    /**
+     * Writes this tree to the given stream. Nodes are written in the order they were created, so that parents are
+     * always written before their children, and names are written once and then referred to by their index.
+     * Entry objects other than an <code>Integer</code> are not written, the nodes that have one are flagged as
+     * detached, see {@link #attachEntry(ArchiveEntry)}.
+     *
+     * @param out the stream to write the tree to
+     * @throws IOException if an I/O error occurred
+     */
+    void write(DataOutputStream out) throws IOException {
+        // Removed nodes are skipped, the others are renumbered
+        int newIndexes[] = new int[nbNodes];
+        int nbWritten = 0;
+        for (int node = 0; node < nbNodes; node++) {
+            newIndexes[node] = node == ROOT || (parents[node] != NONE && newIndexes[parents[node]] != NONE) ? nbWritten++ : NONE;
+        }
+
+        // Entries that have been requested may have been modified, their attributes are written instead of the nodes'
+        for (int node = 1; entries != null && node < nbNodes; node++) {
+            if (entries[node] != null && newIndexes[node] != NONE) {
+                int detachedFlag = flags[node] & FLAG_DETACHED;
+                setAttributes(node, entries[node]);
+                flags[node] |= detachedFlag;
+            }
+        }
+
+        Map<String, Integer> stringIndexes = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int nameIndexes[] = new int[nbNodes];
+        int ownerIndexes[] = new int[nbNodes];
+        int groupIndexes[] = new int[nbNodes];
+        for (int node = 1; node < nbNodes; node++) {
+            if (newIndexes[node] != NONE) {
+                nameIndexes[node] = getStringIndex(names[node], stringIndexes, strings);
+                ownerIndexes[node] = getStringIndex(owners[node], stringIndexes, strings);
+                groupIndexes[node] = getStringIndex(groups[node], stringIndexes, strings);
+            }
+        }
+
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            out.writeUTF(s);
+        }
+
+        out.writeInt(nbWritten - 1);
+        for (int node = 1; node < nbNodes; node++) {
+            if (newIndexes[node] == NONE) {
+                continue;
+            }
+
+            boolean hasFormatObject = formatObjects != null && formatObjects[node] != null;
+            out.writeInt(newIndexes[parents[node]]);
+            out.writeInt(nameIndexes[node]);
+            out.writeByte(flags[node] | (hasFormatObject ? FLAG_DETACHED : 0));
+            out.writeLong(dates[node]);
+            out.writeLong(sizes[node]);
+            out.writeShort(permissions[node]);
+            out.writeShort(permissionMasks[node]);
+            out.writeInt(ownerIndexes[node]);
+            out.writeInt(groupIndexes[node]);
+            out.writeInt(entryObjects[node]);
+        }
+    }
+
+    /**
+     * Reads a tree that was written by {@link #write(DataOutputStream)}. The entries of the returned tree are created
+     * the first time they are requested.
+     *
+     * @param in the stream to read the tree from
+     * @return the tree that was read
+     * @throws IOException if an I/O error occurred or if the stream is not in the expected format
+     */
+    static ArchiveEntryTree read(DataInputStream in) throws IOException {
+        if (in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unsupported archive entry tree format");
+        }
+
+        String strings[] = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+
+        int nbEntries = in.readInt();
+        ArchiveEntryTree tree = new ArchiveEntryTree(nbEntries + 1);
+        for (int node = 1; node <= nbEntries; node++) {
+            int parent = in.readInt();
+            int nameIndex = in.readInt();
+            if (parent < 0 || parent >= node || nameIndex < 0 || nameIndex >= strings.length) {
+                throw new IOException("Corrupt archive entry tree");
+            }
+
+            tree.newNode(parent, strings[nameIndex]);
+            tree.flags[node] = in.readByte();
+            tree.dates[node] = in.readLong();
+            tree.sizes[node] = in.readLong();
+            tree.permissions[node] = in.readShort();
+            tree.permissionMasks[node] = in.readShort();
+            tree.owners[node] = getString(strings, in.readInt());
+            tree.groups[node] = getString(strings, in.readInt());
+            tree.entryObjects[node] = in.readInt();
+            if ((tree.flags[node] & FLAG_DETACHED) != 0) {
+                tree.detached = true;
+            }
+        }
+
+        return tree;
+    }
+
+    /**
+     * Returns <code>true</code> if the given entry can be written without losing its format object.
+     */
+    private static boolean isWritable(ArchiveEntry entry) {
+        return entry.getClass() == ArchiveEntry.class
+                && (entry.getEntryObject() == null || entry.getEntryObject() instanceof Integer);
+    }
+
+    /**
+     * Stores the attributes of the given entry in the given node, along with its format object if it has one.
+     */
+    private void setAttributes(int node, ArchiveEntry entry) {
+        FilePermissions entryPermissions = entry.getPermissions();
+        boolean defaultPermissions = entryPermissions == FilePermissions.DEFAULT_FILE_PERMISSIONS
+                || entryPermissions == FilePermissions.DEFAULT_DIRECTORY_PERMISSIONS;
+
+        flags[node] = (byte)((entry.isDirectory() ? FLAG_DIRECTORY : 0)
+                | (entry.getPath().endsWith("/") ? FLAG_TRAILING_SEPARATOR : 0)
+                | (entry.exists() ? FLAG_EXISTS : 0)
+                | (defaultPermissions ? FLAG_DEFAULT_PERMISSIONS : 0));
+        dates[node] = entry.getLastModifiedDate();
+        sizes[node] = entry.getSize();
+        permissions[node] = defaultPermissions ? 0 : (short)entryPermissions.getIntValue();
+        permissionMasks[node] = defaultPermissions ? 0 : (short)entryPermissions.getMask().getIntValue();
+        owners[node] = intern(entry.getOwner());
+        groups[node] = intern(entry.getGroup());
+
+        Object entryObject = entry.getEntryObject();
+        entryObjects[node] = entryObject instanceof Integer ? (Integer)entryObject : NONE;
+        if (entry.getClass() != ArchiveEntry.class) {
+            setFormatObject(node, entry);
+        } else {
+            setFormatObject(node, entryObject instanceof Integer ? null : entryObject);
+        }
+    }
+
+    private void setFormatObject(int node, Object formatObject) {
+        if (formatObjects == null) {
+            if (formatObject == null) {
+                return;
+            }
+            formatObjects = new Object[names.length];
+        }
+        formatObjects[node] = formatObject;
+    }
+
+    /**
+     * Creates the entry of the given node from its attributes. The node's format object is returned if it is an
+     * <code>ArchiveEntry</code>.
+     */
+    private ArchiveEntry createEntry(int node) {
+        Object formatObject = formatObjects == null ? null : formatObjects[node];
+        if (formatObject instanceof ArchiveEntry) {
+            return (ArchiveEntry)formatObject;
+        }
+
+        int nodeFlags = flags[node];
+        ArchiveEntry entry = new ArchiveEntry(getPath(node), (nodeFlags & FLAG_DIRECTORY) != 0,
+                dates[node], sizes[node], (nodeFlags & FLAG_EXISTS) != 0);
+        if ((nodeFlags & FLAG_DEFAULT_PERMISSIONS) == 0) {
+            entry.setPermissions(new SimpleFilePermissions(permissions[node], permissionMasks[node]));
+        }
+        entry.setOwner(owners[node]);
+        entry.setGroup(groups[node]);
+        if (formatObject != null) {
+            entry.setEntryObject(formatObject);
+        } else if (entryObjects[node] != NONE) {
+            entry.setEntryObject(entryObjects[node]);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the path of the entry of the given node.
+     *
+     * @param node a node of this tree, other than the root
+     * @return the path of the entry of the given node
+     */
+    private String getPath(int node) {
+        int depth = 0;
+        int length = 0;
+        for (int n = node; n != ROOT; n = parents[n]) {
+            depth++;
+            length += names[n].length() + 1;
+        }
+
+        String segments[] = new String[depth];
+        for (int n = node; n != ROOT; n = parents[n]) {
+            segments[--depth] = names[n];
+        }
+
+        StringBuilder path = new StringBuilder(length);
+        for (String segment : segments) {
+            if (path.length() > 0) {
+                path.append('/');
+            }
+            path.append(segment);
+        }
+        if ((flags[node] & FLAG_TRAILING_SEPARATOR) != 0) {
+            path.append('/');
+        }
+        return path.toString();
+    }
+
+    /**
+     * Returns the name of the node corresponding to the given sub-path, i.e. the part that follows the path of the
+     * node's parent, without any trailing separator.
+     */
+    private static String getName(String subPath, int segmentStart) {
+        int end = subPath.length();
+        if (end > segmentStart && subPath.charAt(end-1) == '/') {
+            end--;
+        }
+        return subPath.substring(segmentStart, end);
+    }
+
+    /**
+     * Returns the first child of the given node that has the given name, {@link #NONE} if there is none.
+     */
+    private int findChild(int parent, String name) {
+        for (int n = hashHeads[hash(parent, name)]; n != NONE; n = hashNexts[n]) {
+            if (parents[n] == parent && names[n].equals(name)) {
+                return n;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Creates a node with the given name as the last child of the given parent, and returns it.
+     */
+    private int newNode(int parent, String name) {
+        if (nbNodes == names.length) {
+            grow();
+        }
+
+        String internedName = intern(name);
+
+        int node = nbNodes++;
+        names[node] = internedName;
+        parents[node] = parent;
+        firstChildren[node] = NONE;
+        lastChildren[node] = NONE;
+        nextSiblings[node] = NONE;
+        hashNexts[node] = NONE;
+        entryObjects[node] = NONE;
+
+        if (parent != NONE) {
+            if (lastChildren[parent] == NONE) {
+                firstChildren[parent] = node;
+            } else {
+                nextSiblings[lastChildren[parent]] = node;
+            }
+            lastChildren[parent] = node;
+
+            // Only the first node with a given name is looked up
+            if (findChild(parent, internedName) == NONE) {
+                addToHash(node);
+            }
+        }
+
+        return node;
+    }
+
+    /**
+     * Returns the interned instance of the given string, <code>null</code> if it is <code>null</code>.
+     */
+    private String intern(String s) {
+        if (s == null) {
+            return null;
+        }
+
+        String interned = internedNames.get(s);
+        if (interned == null) {
+            internedNames.put(s, s);
+            interned = s;
+        }
+        return interned;
+    }
+
+    /**
+     * Adds the given node to the end of its hash chain.
+     */
+    private void addToHash(int node) {
+        int slot = hash(parents[node], names[node]);
+        hashNexts[node] = NONE;
+        if (hashHeads[slot] == NONE) {
+            hashHeads[slot] = node;
+        } else {
+            int last = hashHeads[slot];
+            while (hashNexts[last] != NONE) {
+                last = hashNexts[last];
+            }
+            hashNexts[last] = node;
+        }
+    }
+
+    private int hash(int parent, String name) {
+        int h = parent * 31 + name.hashCode();
+        return (h ^ (h >>> 16)) & (hashHeads.length - 1);
+    }
+
+    /**
+     * Doubles the capacity of the node arrays and rehashes the nodes.
+     */
+    private void grow() {
+        int capacity = names.length * 2;
+        names = Arrays.copyOf(names, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        lastChildren = Arrays.copyOf(lastChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        hashNexts = Arrays.copyOf(hashNexts, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        dates = Arrays.copyOf(dates, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        permissions = Arrays.copyOf(permissions, capacity);
+        permissionMasks = Arrays.copyOf(permissionMasks, capacity);
+        owners = Arrays.copyOf(owners, capacity);
+        groups = Arrays.copyOf(groups, capacity);
+        entryObjects = Arrays.copyOf(entryObjects, capacity);
+        if (formatObjects != null) {
+            formatObjects = Arrays.copyOf(formatObjects, capacity);
+        }
+        if (entries != null) {
+            entries = Arrays.copyOf(entries, capacity);
+        }
+
+        // Rehash the nodes, preserving the order of nodes sharing the same parent and name
+        hashHeads = new int[capacity];
+        Arrays.fill(hashHeads, NONE);
+        for (int node = 1; node < nbNodes; node++) {
+            if (parents[node] != NONE && findChild(parents[node], names[node]) == NONE) {
+                addToHash(node);
+            }
+        }
+    }
+
+    private static int getStringIndex(String s, Map<String, Integer> stringIndexes, List<String> strings) {
+        if (s == null) {
+            return NONE;
+        }
+        Integer index = stringIndexes.get(s);
+        if (index == null) {
+            index = strings.size();
+            stringIndexes.put(s, index);
+            strings.add(s);
+        }
+        return index;
+    }
+
+    private static String getString(String strings[], int index) throws IOException {
+        if (index == NONE) {
+            return null;
+        }
+        if (index < 0 || index >= strings.length) {
+            throw new IOException("Corrupt archive entry tree");
+        }
+        return strings[index];
     }
 
     private static Logger getLogger() {
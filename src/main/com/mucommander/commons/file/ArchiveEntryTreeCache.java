@@ -0,0 +1,186 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file;
+
+import com.mucommander.commons.file.filter.ExtensionFilenameFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Stores the entry trees of large archives in a folder, so that reopening an archive does not require to iterate
+ * through all of its entries again. A tree is stored in a file named after the hash of the archive's URL, and is
+ * reused only if the archive's URL, size and date are the same as when the tree was stored.
+ *
+ * <p>The cache is disabled until a folder is set with {@link AbstractArchiveFile#setEntriesTreeCacheFolder(AbstractFile)}.
+ */
+class ArchiveEntryTreeCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArchiveEntryTreeCache.class);
+
+    /** Minimum number of entries for a tree to be stored, smaller trees are quick enough to create */
+    static final int MIN_ENTRY_COUNT = 10000;
+
+    /** Maximum number of trees in the cache folder, the least recently stored ones are deleted first */
+    static final int MAX_TREE_COUNT = 50;
+
+    /** Extension of the cache files */
+    private static final String EXTENSION = ".idx";
+
+    /** The folder where trees are stored, <code>null</code> if the cache is disabled */
+    private static volatile AbstractFile folder;
+
+    /**
+     * Sets the folder where trees are stored, <code>null</code> to disable the cache.
+     *
+     * @param folder the folder where trees are stored, created if it doesn't exist
+     */
+    static void setFolder(AbstractFile folder) {
+        ArchiveEntryTreeCache.folder = folder;
+    }
+
+    /**
+     * Returns the folder where trees are stored, <code>null</code> if the cache is disabled.
+     *
+     * @return the folder where trees are stored
+     */
+    static AbstractFile getFolder() {
+        return folder;
+    }
+
+    /**
+     * Returns the stored tree of the given archive, <code>null</code> if the cache is disabled, if there is none or if
+     * the archive has changed since it was stored.
+     *
+     * @param archive the archive for which to return the tree
+     * @return the stored tree of the given archive
+     */
+    static ArchiveEntryTree load(AbstractArchiveFile archive) {
+        AbstractFile cacheFile = getCacheFile(archive);
+        if (cacheFile == null || !cacheFile.exists()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(cacheFile.getInputStream()))) {
+            if (!in.readUTF().equals(getKey(archive)) || in.readLong() != archive.getSize()
+                    || in.readLong() != archive.getLastModifiedDate()) {
+                return null;
+            }
+
+            return ArchiveEntryTree.read(in);
+        } catch (IOException e) {
+            LOGGER.info("Could not read cached entries of {}", archive, e);
+            delete(cacheFile);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the given tree of the given archive, if the cache is enabled, if the tree is large enough to be worth
+     * it and if the objects that cannot be stored along with the entries can be restored by reading the archive
+     * again.
+     *
+     * @param archive the archive the tree belongs to
+     * @param tree the tree to store
+     */
+    static void save(AbstractArchiveFile archive, ArchiveEntryTree tree) {
+        AbstractFile cacheFile = getCacheFile(archive);
+        if (cacheFile == null || tree.getEntryCount() < MIN_ENTRY_COUNT
+                || (tree.hasFormatObjects() && !archive.canIterateEntriesAgain())) {
+            return;
+        }
+
+        try {
+            AbstractFile cacheFolder = cacheFile.getParent();
+            if (!cacheFolder.exists()) {
+                cacheFolder.mkdirs();
+            }
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(cacheFile.getOutputStream()))) {
+                out.writeUTF(getKey(archive));
+                out.writeLong(archive.getSize());
+                out.writeLong(archive.getLastModifiedDate());
+                tree.write(out);
+            }
+
+            deleteOldest(cacheFolder);
+        } catch (IOException e) {
+            LOGGER.info("Could not cache entries of {}", archive, e);
+            delete(cacheFile);
+        }
+    }
+
+    /**
+     * Returns the file where the tree of the given archive is stored, <code>null</code> if the cache is disabled.
+     */
+    private static AbstractFile getCacheFile(AbstractArchiveFile archive) {
+        AbstractFile cacheFolder = folder;
+        if (cacheFolder == null) {
+            return null;
+        }
+
+        try {
+            String key = getKey(archive);
+            // A 64-bit hash makes collisions unlikely, the key stored in the file is checked anyway
+            long hash = 1125899906842597L;
+            for (int i = 0; i < key.length(); i++) {
+                hash = 31 * hash + key.charAt(i);
+            }
+            return cacheFolder.getChild(Long.toHexString(hash) + EXTENSION);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the key that identifies the given archive in the cache, i.e. its URL without credentials.
+     */
+    private static String getKey(AbstractArchiveFile archive) {
+        return archive.getURL().toString(false);
+    }
+
+    /**
+     * Deletes the least recently stored trees if there are more than {@link #MAX_TREE_COUNT}.
+     */
+    private static void deleteOldest(AbstractFile cacheFolder) throws IOException {
+        AbstractFile cacheFiles[] = cacheFolder.ls(new ExtensionFilenameFilter(EXTENSION));
+        if (cacheFiles.length <= MAX_TREE_COUNT) {
+            return;
+        }
+
+        Arrays.sort(cacheFiles, Comparator.comparingLong(AbstractFile::getLastModifiedDate));
+        for (int i = 0; i < cacheFiles.length - MAX_TREE_COUNT; i++) {
+            delete(cacheFiles[i]);
+        }
+    }
+
+    private static void delete(AbstractFile cacheFile) {
+        try {
+            cacheFile.delete();
+        } catch (IOException e) {
+            LOGGER.info("Could not delete {}", cacheFile, e);
+        }
+    }
+}
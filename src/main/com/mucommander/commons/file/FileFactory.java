@@ -21,6 +21,7 @@ package com.mucommander.commons.file;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.function.Supplier;
 
 import com.mucommander.commons.file.impl.avrdude.AvrdudeProtocolProvider;
 import org.slf4j.Logger;
@@ -111,20 +112,22 @@ public class FileFactory {
     private static Set<String> archiveExtensions;
 
 
+    /**
+     * Registers the network protocols. Their providers are created the first time a file is resolved with them, as
+     * loading them and the libraries they depend on takes time.
+     */
     public static void registerProtocolNetworks() {
-        ProtocolProvider protocolProvider;
-
-        registerProtocol(FileProtocols.SMB, new com.mucommander.commons.file.impl.smb.SMBProtocolProvider());
-        registerProtocol(FileProtocols.HTTP, protocolProvider = new com.mucommander.commons.file.impl.http.HTTPProtocolProvider()); // !!! очень долго грузится
-        registerProtocol(FileProtocols.HTTPS, protocolProvider);
-        registerProtocol(FileProtocols.FTP, new com.mucommander.commons.file.impl.ftp.FTPProtocolProvider());
-        registerProtocol(FileProtocols.NFS, new com.mucommander.commons.file.impl.nfs.NFSProtocolProvider());
-        registerProtocol(FileProtocols.SFTP, new com.mucommander.commons.file.impl.sftp.SFTPProtocolProvider());
-        registerProtocol(FileProtocols.HDFS, new com.mucommander.commons.file.impl.hadoop.HDFSProtocolProvider());
+        // Providers must be created within lambda bodies, constructor references would load their classes right away
+        registerProtocol(() -> new com.mucommander.commons.file.impl.smb.SMBProtocolProvider(), FileProtocols.SMB);
+        registerProtocol(() -> new com.mucommander.commons.file.impl.http.HTTPProtocolProvider(), FileProtocols.HTTP, FileProtocols.HTTPS);
+        registerProtocol(() -> new com.mucommander.commons.file.impl.ftp.FTPProtocolProvider(), FileProtocols.FTP);
+        registerProtocol(() -> new com.mucommander.commons.file.impl.nfs.NFSProtocolProvider(), FileProtocols.NFS);
+        registerProtocol(() -> new com.mucommander.commons.file.impl.sftp.SFTPProtocolProvider(), FileProtocols.SFTP);
+        registerProtocol(() -> new com.mucommander.commons.file.impl.hadoop.HDFSProtocolProvider(), FileProtocols.HDFS);
         //registerProtocol(FileProtocols.S3, new com.mucommander.commons.file.impl.hadoop.S3ProtocolProvider());
-        registerProtocol(FileProtocols.S3, new com.mucommander.commons.file.impl.s3.S3ProtocolProvider());
-        registerProtocol(FileProtocols.WEBDAV, new com.mucommander.commons.file.impl.webdav.WebDAVProvider());
-        registerProtocol(FileProtocols.VSPHERE, new com.mucommander.commons.file.impl.vsphere.VSphereProtocolProvider());
+        registerProtocol(() -> new com.mucommander.commons.file.impl.s3.S3ProtocolProvider(), FileProtocols.S3);
+        registerProtocol(() -> new com.mucommander.commons.file.impl.webdav.WebDAVProvider(), FileProtocols.WEBDAV);
+        registerProtocol(() -> new com.mucommander.commons.file.impl.vsphere.VSphereProtocolProvider(), FileProtocols.VSPHERE);
     }
 
     public static void registerProtocolArchives() {
@@ -157,18 +160,21 @@ public class FileFactory {
     }
 
 
+    /**
+     * Registers the other protocols. Like network protocols, their providers are created on first use.
+     */
     public static void registerProtocolOthers() {
         if (JavaVersion.JAVA_1_6.isCurrentOrHigher()) {
             // Hadoop requires Java 1.6
-            registerProtocol(FileProtocols.HDFS, new com.mucommander.commons.file.impl.hadoop.HDFSProtocolProvider());
+            registerProtocol(() -> new com.mucommander.commons.file.impl.hadoop.HDFSProtocolProvider(), FileProtocols.HDFS);
 //            registerProtocol(FileProtocols.S3, new com.mucommander.commons.file.impl.hadoop.S3ProtocolProvider());
         }
-        registerProtocol(FileProtocols.S3, new com.mucommander.commons.file.impl.s3.S3ProtocolProvider());
-        registerProtocol(FileProtocols.VSPHERE, new com.mucommander.commons.file.impl.vsphere.VSphereProtocolProvider());
+        registerProtocol(() -> new com.mucommander.commons.file.impl.s3.S3ProtocolProvider(), FileProtocols.S3);
+        registerProtocol(() -> new com.mucommander.commons.file.impl.vsphere.VSphereProtocolProvider(), FileProtocols.VSPHERE);
 
         // TODO !!! check that adb installed
-        registerProtocol(FileProtocols.ADB, new com.mucommander.commons.file.impl.adb.AdbProtocolProvider());
-        registerProtocol(FileProtocols.AVR, new AvrdudeProtocolProvider());
+        registerProtocol(() -> new com.mucommander.commons.file.impl.adb.AdbProtocolProvider(), FileProtocols.ADB);
+        registerProtocol(() -> new AvrdudeProtocolProvider(), FileProtocols.AVR);
     }
 
     static {
@@ -228,6 +234,46 @@ public class FileFactory {
         return protocolProviders.put(protocol, provider);
     }
 
+    /**
+     * Registers file protocols whose provider is created by the given factory the first time a file is resolved with
+     * one of them, rather than at registration time. This spares loading the provider's classes, and those of the
+     * libraries it depends on, if none of the protocols is ever used. The time it took to create the provider is
+     * reported by {@link #getProtocolProviderLoadTimes()}.
+     *
+     * <p>The factory should create the provider within the body of a lambda expression, e.g.
+     * <code>() -&gt; new SMBProtocolProvider()</code>: a constructor reference would load the provider class as soon
+     * as it is evaluated.
+     *
+     * @param factory   creates the provider of the protocols
+     * @param protocols identifiers of the protocols to register, all of which share the same provider
+     * @see #registerProtocol(String, ProtocolProvider)
+     */
+    public static void registerProtocol(Supplier<ProtocolProvider> factory, String... protocols) {
+        ProtocolProvider provider = new LazyProtocolProvider(protocols[0].toLowerCase(), factory);
+        for (String protocol : protocols) {
+            registerProtocol(protocol, provider);
+        }
+    }
+
+    /**
+     * Returns the time it took to create the providers that were {@link #registerProtocol(Supplier, String...)
+     * registered lazily} and have been created, by protocol identifier.
+     *
+     * @return the time it took to create the providers of the protocols that have been used, in milliseconds
+     */
+    public static Map<String, Long> getProtocolProviderLoadTimes() {
+        Map<String, Long> loadTimes = new TreeMap<>();
+        for (Map.Entry<String, ProtocolProvider> entry : protocolProviders.entrySet()) {
+            if (entry.getValue() instanceof LazyProtocolProvider) {
+                LazyProtocolProvider provider = (LazyProtocolProvider)entry.getValue();
+                if (provider.isLoaded()) {
+                    loadTimes.put(entry.getKey(), provider.getLoadTime() / 1000000);
+                }
+            }
+        }
+        return loadTimes;
+    }
+
     /**
      * Unregisters the provider associated with the specified protocol.
      *
@@ -575,6 +621,18 @@ public class FileFactory {
         return currentFile;
     }
 
+    /**
+     * Returns the instance of AbstractFile for the given FileURL that is held by the file pool, <code>null</code> if
+     * the pool holds none. Unlike {@link #getFile(FileURL)}, this method never creates a file.
+     *
+     * @param fileURL the file URL
+     * @return the pooled file instance, <code>null</code> if there is none
+     */
+    public static AbstractFile getPooledFile(FileURL fileURL) {
+        FilePool filePool = FILE_POOL_MAP.get(fileURL.getScheme().toLowerCase());
+        return filePool == null ? null : filePool.get(fileURL);
+    }
+
     private static AbstractFile createRawFile(FileURL fileURL, Authenticator authenticator, Object... instantiationParams) throws IOException {
         String scheme = fileURL.getScheme().toLowerCase();
 
@@ -0,0 +1,115 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.mucommander.commons.file;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * A {@link ProtocolProvider} that creates the actual provider the first time a file is resolved with it.
+ *
+ * <p>Most providers bring in the classes of a third-party library, which take time to load and stay in memory for
+ * the lifetime of the JVM, while most sessions only ever use a few protocols. Registering a <code>LazyProtocolProvider</code>
+ * leaves the provider class and its dependencies unloaded until the protocol is actually used, as long as the
+ * factory does not reference them outside of its body: a lambda expression such as
+ * <code>() -&gt; new SMBProtocolProvider()</code> does not load the provider class when it is created, whereas a
+ * constructor reference would.
+ *
+ * @see FileFactory#registerProtocol(Supplier, String...)
+ */
+class LazyProtocolProvider implements ProtocolProvider {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LazyProtocolProvider.class);
+
+    /** Name of the provider, used in log messages */
+    private final String name;
+
+    /** Creates the actual provider */
+    private final Supplier<ProtocolProvider> factory;
+
+    /** The actual provider, null until it has been created */
+    private volatile ProtocolProvider provider;
+
+    /** Time it took to create the actual provider, in nanoseconds */
+    private volatile long loadTime;
+
+    /**
+     * Creates a new <code>LazyProtocolProvider</code> that will create the actual provider with the given factory.
+     *
+     * @param name name of the provider, used in log messages
+     * @param factory creates the actual provider
+     */
+    LazyProtocolProvider(String name, Supplier<ProtocolProvider> factory) {
+        this.name = name;
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the actual provider, creating it if it hasn't been already.
+     *
+     * @return the actual provider
+     */
+    ProtocolProvider getProvider() {
+        ProtocolProvider provider = this.provider;
+        if (provider == null) {
+            synchronized (this) {
+                provider = this.provider;
+                if (provider == null) {
+                    long start = System.nanoTime();
+                    provider = factory.get();
+                    loadTime = System.nanoTime() - start;
+                    this.provider = provider;
+                    LOGGER.info("Loaded the " + name + " protocol provider in " + loadTime / 1000000 + " ms");
+                }
+            }
+        }
+        return provider;
+    }
+
+    /**
+     * Returns <code>true</code> if the actual provider has been created.
+     *
+     * @return <code>true</code> if the actual provider has been created
+     */
+    boolean isLoaded() {
+        return provider != null;
+    }
+
+    /**
+     * Returns the time it took to create the actual provider, including the time it took to load its classes.
+     *
+     * @return the time it took to create the actual provider in nanoseconds, 0 if it hasn't been created yet
+     */
+    long getLoadTime() {
+        return loadTime;
+    }
+
+    @Override
+    public AbstractFile getFile(FileURL url, Object... instantiationParams) throws IOException {
+        return getProvider().getFile(url, instantiationParams);
+    }
+
+    @Override
+    public String toString() {
+        return name + (isLoaded() ? "" : " (not loaded)");
+    }
+}
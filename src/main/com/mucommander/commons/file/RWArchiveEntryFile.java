@@ -3,7 +3,6 @@ package com.mucommander.commons.file;
 import com.mucommander.commons.io.ByteCounter;
 import com.mucommander.commons.io.CounterOutputStream;
 
-import javax.swing.tree.DefaultMutableTreeNode;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -28,7 +27,7 @@ public class RWArchiveEntryFile extends AbstractArchiveEntryFile {
      */
     private boolean updateEntryAttributes() {
         try {
-            ((AbstractRWArchiveFile)archiveFile).updateEntry(entry);
+            ((AbstractRWArchiveFile)archiveFile).updateEntry(archiveFile.getEntryWithFormatObject(entry));
             return true;
         }
         catch(IOException e) {
@@ -96,15 +95,15 @@ public class RWArchiveEntryFile extends AbstractArchiveEntryFile {
         if (isDirectory()) {
             ArchiveEntryTree tree = rwArchiveFile.getArchiveEntryTree();
             if (tree != null) {
-                DefaultMutableTreeNode node = tree.findEntryNode(entry.getPath());
-                if (node != null && node.getChildCount() > 0) {
+                int node = tree.findEntryNode(entry.getPath());
+                if (node != ArchiveEntryTree.NONE && tree.getFirstChild(node) != ArchiveEntryTree.NONE) {
                     throw new IOException();
                 }
             }
         }
 
         // Delete the entry in the archive file
-        rwArchiveFile.deleteEntry(entry);
+        rwArchiveFile.deleteEntry(rwArchiveFile.getEntryWithFormatObject(entry));
 
         // Non-existing entries are considered as zero-length regular files
         entry.setDirectory(false);
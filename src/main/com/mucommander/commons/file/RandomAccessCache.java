@@ -0,0 +1,121 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file;
+
+import com.mucommander.commons.io.BlockCache;
+import com.mucommander.commons.io.CachedBlockRandomInputStream;
+import com.mucommander.commons.io.RandomAccessInputStream;
+
+import java.io.IOException;
+
+/**
+ * Caches the blocks read by the random access streams of remote files, so that seeking back to data that has been
+ * read already, or opening the same file again, does not cause more network requests. This matters for archives,
+ * whose central directory or index is read every time they are browsed, and for the hex viewer.
+ *
+ * <p>Remote file implementations return the stream of {@link #getRandomAccessInputStream(AbstractFile,
+ * CachedBlockRandomInputStream.StreamOpener)} from their {@link AbstractFile#getRandomAccessInputStream()} method.
+ * Blocks are shared by all the streams that read the same version of a file, that is with the same URL, size and
+ * date, see {@link #getFileKey(AbstractFile)}. The protocol's own stream is only opened when a block is not cached.
+ *
+ * <p>The cache is held on the heap by default and can be replaced with {@link #setCache(BlockCache)}, for instance with
+ * one that holds its blocks off-heap or that spills them to disk.
+ *
+ * @see BlockCache
+ */
+public class RandomAccessCache {
+
+    /** Default size of the blocks: 64KB */
+    public final static int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    /** Default number of bytes held in memory by the cache: 32MB */
+    public final static long DEFAULT_CAPACITY = 32 * 1024 * 1024;
+
+    /** Default number of blocks prefetched when a file is read sequentially */
+    public final static int DEFAULT_PREFETCH_BLOCKS = 2;
+
+    /** The cache shared by remote files, null if caching is disabled */
+    private static BlockCache cache = new BlockCache(DEFAULT_BLOCK_SIZE, DEFAULT_CAPACITY);
+
+    /** Number of blocks prefetched when a file is read sequentially */
+    private static int prefetchBlocks = DEFAULT_PREFETCH_BLOCKS;
+
+    private RandomAccessCache() {
+    }
+
+    /**
+     * Sets the cache that remote files read through, <code>null</code> to read them directly. Streams that are open
+     * keep using the previous cache.
+     *
+     * @param cache the cache that remote files read through, <code>null</code> to disable caching
+     */
+    public static void setCache(BlockCache cache) {
+        RandomAccessCache.cache = cache;
+    }
+
+    /**
+     * Returns the cache that remote files read through, <code>null</code> if caching is disabled.
+     *
+     * @return the cache that remote files read through, <code>null</code> if caching is disabled
+     */
+    public static BlockCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets the number of blocks that are prefetched when a file is read sequentially, <code>0</code> to disable
+     * prefetching.
+     *
+     * @param nbBlocks the number of blocks to prefetch
+     */
+    public static void setPrefetchBlocks(int nbBlocks) {
+        prefetchBlocks = nbBlocks;
+    }
+
+    /**
+     * Returns a stream that reads the given file through the cache, opening a stream with the given opener when blocks
+     * are not cached. The given opener's stream is returned as is if caching is disabled or if the size of the file is
+     * not known.
+     *
+     * @param file the file to read
+     * @param opener opens the protocol's stream on the file
+     * @return a stream on the file
+     * @throws IOException if the protocol's stream could not be opened
+     */
+    public static RandomAccessInputStream getRandomAccessInputStream(AbstractFile file, CachedBlockRandomInputStream.StreamOpener opener) throws IOException {
+        BlockCache cache = RandomAccessCache.cache;
+        long size = file.getSize();
+        if (cache == null || size < 0) {
+            return opener.open();
+        }
+
+        return new CachedBlockRandomInputStream(cache, getFileKey(file), size, opener, prefetchBlocks);
+    }
+
+    /**
+     * Returns the key that identifies the current version of the given file in a {@link BlockCache}: its URL,
+     * including credentials so that users with different rights do not share blocks, its size and its date.
+     *
+     * @param file a file
+     * @return the key of the file's current version
+     */
+    public static String getFileKey(AbstractFile file) {
+        return file.getURL().toString(true, true) + "|" + file.getSize() + "|" + file.getLastModifiedDate();
+    }
+}
@@ -22,6 +22,7 @@ import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.FileAttributes;
 import com.mucommander.commons.file.FileOperation;
 import com.mucommander.commons.file.UnsupportedFileOperationException;
+import com.mucommander.commons.file.impl.zip.provider.ParallelZipOutputStream;
 import com.mucommander.commons.io.BufferedRandomOutputStream;
 import com.mucommander.commons.io.RandomAccessOutputStream;
 import org.apache.hadoop.io.compress.bzip2.CBZip2OutputStream;
@@ -51,6 +52,8 @@ import java.util.zip.GZIPOutputStream;
  */
 public abstract class Archiver {
 
+    /** Number of threads that Zip entries are deflated with, 1 to deflate them on the thread that writes them */
+    private static int zipDeflateThreads = Runtime.getRuntime().availableProcessors();
 
     /** The underlying stream this archiver is writing to */
     protected OutputStream out;
@@ -195,6 +198,30 @@ public abstract class Archiver {
     }
 
 
+    /**
+     * Sets the number of threads that the entries of Zip archives are deflated with. With more than one thread, entries
+     * and large entries' chunks are deflated in parallel, see {@link ParallelZipOutputStream}. Archivers that have
+     * already been created are not affected.
+     *
+     * @param nbThreads number of threads, <code>1</code> to deflate entries on the thread that writes them
+     */
+    public static void setZipDeflateThreads(int nbThreads) {
+        if (nbThreads < 1) {
+            throw new IllegalArgumentException("nbThreads=" + nbThreads);
+        }
+        zipDeflateThreads = nbThreads;
+    }
+
+    /**
+     * Returns the number of threads that the entries of Zip archives are deflated with, by default the number of
+     * processors.
+     *
+     * @return the number of threads that the entries of Zip archives are deflated with
+     */
+    public static int getZipDeflateThreads() {
+        return zipDeflateThreads;
+    }
+
     /**
      * Returns an Archiver for the specified format and that uses the given <code>OutputStream</code> to write entries to.
      * <code>null</code> is returned if the specified format is not valid. Whenever possible, a
@@ -211,7 +238,7 @@ public abstract class Archiver {
 
         switch (format) {
             case ZIP:
-                archiver = new ZipArchiver(out);
+                archiver = new ZipArchiver(out, zipDeflateThreads);
                 break;
             case GZ:
                 archiver = new SingleFileArchiver(new GZIPOutputStream(out));
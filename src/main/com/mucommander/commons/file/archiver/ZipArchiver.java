@@ -3,6 +3,7 @@ package com.mucommander.commons.file.archiver;
 import com.mucommander.commons.file.FileAttributes;
 import com.mucommander.commons.file.FilePermissions;
 import com.mucommander.commons.file.SimpleFilePermissions;
+import com.mucommander.commons.file.impl.zip.provider.ParallelZipOutputStream;
 import com.mucommander.commons.file.impl.zip.provider.ZipEntry;
 import com.mucommander.commons.file.impl.zip.provider.ZipOutputStream;
 import java.io.IOException;
@@ -21,10 +22,16 @@ class ZipArchiver extends Archiver {
 
 
 
-    ZipArchiver(OutputStream outputStream) {
+    /**
+     * Creates a new Zip archiver that deflates entries with the given number of threads.
+     *
+     * @param outputStream the stream to write the archive to
+     * @param nbThreads number of threads that deflate entries, <code>1</code> to deflate them on the calling thread
+     */
+    ZipArchiver(OutputStream outputStream, int nbThreads) {
         super(outputStream);
 
-        this.zos = new ZipOutputStream(outputStream);
+        this.zos = nbThreads > 1 ? new ParallelZipOutputStream(outputStream, nbThreads) : new ZipOutputStream(outputStream);
     }
 
 
@@ -28,10 +28,10 @@ public abstract class ConnectionHandler {
     protected boolean isLocked;
 
     /** Time at which the connection managed by this ConnectionHandler was last used */
-    private long lastActivityTimestamp;
+    private volatile long lastActivityTimestamp;
 
     /** Time at which the connection managed by this ConnectionHandler was last kept alive */
-    private long lastKeepAliveTimestamp;
+    private volatile long lastKeepAliveTimestamp;
 
     /** Number of seconds of inactivity after which this ConnectionHandler's connection will be closed by ConnectionPool */
     private long closeOnInactivityPeriod = DEFAULT_CLOSE_ON_INACTIVITY_PERIOD;
@@ -119,6 +119,18 @@ public abstract class ConnectionHandler {
      * @return true if it could be locked, false if it is not locked
      */
     public boolean releaseLock() {
+        return releaseLock(true);
+    }
+
+    /**
+     * Tries to release the lock on this ConnectionHandler and returns true if it could be locked, false if it
+     * is not locked.
+     *
+     * @param updateActivity <code>false</code> if the connection was locked by {@link ConnectionPool} to keep it alive,
+     * in which case the time it was last used is left unchanged
+     * @return true if it could be locked, false if it is not locked
+     */
+    boolean releaseLock(boolean updateActivity) {
         synchronized(this) {
             if (!isLocked) {
                 LOGGER.info("!!!!! releaseLock() returning false, should not happen !!!!!", new Throwable());
@@ -128,7 +140,11 @@ public abstract class ConnectionHandler {
             isLocked = false;
         }
 
-        ConnectionPool.notifyConnectionHandlerLockReleased();
+        // The connection becomes idle now, not when it was acquired
+        if (updateActivity) {
+            updateLastActivityTimestamp();
+        }
+        ConnectionPool.notifyConnectionHandlerLockReleased(this);
 
         return true;
     }
@@ -260,16 +276,31 @@ public abstract class ConnectionHandler {
      * @see Credentials#equals(Object, boolean)
      */
     public boolean equals(FileURL realm, Credentials credentials) {
-        if (!this.realm.equals(realm, false, true)) {
+        return equals(this.realm, this.credentials, realm, credentials);
+    }
+
+    /**
+     * Returns <code>true</code> if both realms and credentials are equal. The credentials comparison is
+     * password-sensitive.
+     *
+     * @param realm1 the first realm
+     * @param credentials1 the credentials used with the first realm, may be <code>null</code>
+     * @param realm2 the second realm
+     * @param credentials2 the credentials used with the second realm, may be <code>null</code>
+     * @return true if both realms and credentials are equal
+     * @see Credentials#equals(Object, boolean)
+     */
+    static boolean equals(FileURL realm1, Credentials credentials1, FileURL realm2, Credentials credentials2) {
+        if (!realm1.equals(realm2, false, true)) {
             return false;
         }
 
         // Compare credentials. One or both Credentials instances may be null.
 
         // Note: Credentials.equals() considers null as equal to empty Credentials (see Credentials#isEmpty())
-        return (this.credentials == null && credentials == null)
-            || (this.credentials != null && this.credentials.equals(credentials, true))
-            || (credentials != null && credentials.equals(this.credentials, true));
+        return (credentials1 == null && credentials2 == null)
+            || (credentials1 != null && credentials1.equals(credentials2, true))
+            || (credentials2 != null && credentials2.equals(credentials1, true));
     }
 
 
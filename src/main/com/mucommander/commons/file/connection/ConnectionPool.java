@@ -4,6 +4,15 @@ import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,113 +22,155 @@ import com.mucommander.commons.file.FileURL;
 
 
 /**
+ * Shares {@link ConnectionHandler} instances between the files of a same realm and credentials.
+ *
+ * <p>Each realm/credentials combo has its own pool, guarded by its own fair lock, so that threads working on different
+ * servers never contend with each other. A pool holds up to a maximum number of connections, by default
+ * {@link #DEFAULT_MAX_CONNECTIONS_PER_REALM}. Once they are all in use, threads wait in line for one to be released,
+ * up to a {@link #setWaitTimeout(long) timeout}. Connections that are closed are discarded when they are next
+ * acquired.
+ *
+ * <p>Connections are kept alive, and those that have been idle for their
+ * {@link ConnectionHandler#getCloseOnInactivityPeriod() inactivity period} are closed, by tasks running on a shared
+ * scheduled executor. A minimum number of connections per realm can be kept open regardless of inactivity. The
+ * minimum and maximum can be changed for all realms or for a given realm, see
+ * {@link #setDefaultConnectionLimits(int, int)} and {@link #setConnectionLimits(FileURL, int, int)}.
+ *
+ * <p>Pool usage is reported by {@link #getStatistics()} and {@link #getStatistics(FileURL)}.
+ *
  * @see com.mucommander.commons.file.connection.ConnectionHandler
  * @author Maxence Bernard
  */
-public class ConnectionPool implements Runnable {
+public class ConnectionPool {
     private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
 
-    /** Singleton instance */
-    private static ConnectionPool instance = new ConnectionPool();
+    /** Default minimum number of connections per realm/credentials combo that are not closed on inactivity */
+    public final static int DEFAULT_MIN_CONNECTIONS_PER_REALM = 0;
 
-    /** List of registered ConnectionHandler */
-    private final static List<ConnectionHandler> connectionHandlers = new ArrayList<>();
+    /** Default maximum number of simultaneous connections per realm/credentials combo */
+    public final static int DEFAULT_MAX_CONNECTIONS_PER_REALM = 4;
 
-    /** The thread that monitors connections, null if there currently is no registered ConnectionHandler */
-    private static Thread monitorThread;
+    /** Default number of milliseconds to wait for a connection when the maximum has been reached */
+    public final static long DEFAULT_WAIT_TIMEOUT = 30000;
 
-    /** Controls how of often the thread monitor checks connections */
-    private final static int MONITOR_SLEEP_PERIOD = 1000;
+    /** Controls how of often connections are checked for inactivity and kept alive */
+    private final static int MONITOR_PERIOD = 1000;
 
-    /** Maximum number of simultaneous connections per realm/credentials combo */
-    private final static int MAX_CONNECTIONS_PER_REALM = 4;
+    /** Number of threads checking, closing and keeping connections alive */
+    private final static int MONITOR_THREADS = 4;
 
+    /** The pools, one per realm/credentials combo */
+    private final static List<RealmPool> pools = new CopyOnWriteArrayList<>();
 
-    public static ConnectionHandler getConnectionHandler(ConnectionHandlerFactory connectionHandlerFactory, FileURL url, boolean acquireLock) throws InterruptedIOException {
-        FileURL realm = url.getRealm();
+    /** Connection limits of the realms whose limits differ from the default ones, by realm URL */
+    private final static Map<String, int[]> realmLimits = new ConcurrentHashMap<>();
 
-        while(true) {
-            synchronized(connectionHandlers) {      // Ensures that monitor thread is not currently changing the list while we access it
-                Credentials urlCredentials = url.getCredentials();
-                int matchingConnHandlers = 0;
-
-                // Try and find an appropriate existing ConnectionHandler
-                //for (ConnectionHandler connHandler : connectionHandlers) {
-                for (Iterator<ConnectionHandler> it = connectionHandlers.iterator(); it.hasNext(); ) {
-                    ConnectionHandler connHandler = it.next();
-                	// ConnectionHandler must match the realm and credentials and must not be locked
-                	if (connHandler.equals(realm, urlCredentials)) {
-                		matchingConnHandlers++;
-                		synchronized(connHandler) {     // Ensures that lock remains unchanged while we access/update it
-                			if (!connHandler.isLocked()) {
-                				// Try to acquire lock if a lock was requested
-                				if (!acquireLock || connHandler.acquireLock()) {
-                					LOGGER.info("returning ConnectionHandler {}, realm = {}", connHandler, realm);
-
-                					// Update last activity timestamp to now
-                					connHandler.updateLastActivityTimestamp();
-
-                					return connHandler;
-                				}
-                			}
-                		}
-                	}
-                    
-                    if (matchingConnHandlers == MAX_CONNECTIONS_PER_REALM) {
-                        LOGGER.info("Maximum number of connection per realm reached, waiting for one to be removed or released...");
-                        try {
-                            // Wait for a ConnectionHandler to be released or removed from the pool
-                            final int timeout = 5000;
-                            long t0 = System.currentTimeMillis();
-                            connectionHandlers.wait(timeout);      // relinquishes the lock on connectionHandlers
-                            if (System.currentTimeMillis() - t0 > timeout) {
-                                connHandler.closeConnection();
-                                it.remove();
-                                throw new InterruptedIOException();
-                            }
-                            break;
-                        } catch(InterruptedException e) {
-                            LOGGER.info("Interrupted while waiting on a connection for {}", url, e);
-                            connHandler.closeConnection();
-                            it.remove();
+    private static volatile int defaultMinConnections = DEFAULT_MIN_CONNECTIONS_PER_REALM;
+    private static volatile int defaultMaxConnections = DEFAULT_MAX_CONNECTIONS_PER_REALM;
+    private static volatile long waitTimeout = DEFAULT_WAIT_TIMEOUT;
 
-                            throw new InterruptedIOException();
-                        }
-                    }
-                }
-
-                if (matchingConnHandlers == MAX_CONNECTIONS_PER_REALM) {
-                    continue;
-                }
+    /** Runs the monitor task, and closes and keeps connections alive without blocking it */
+    private final static ScheduledThreadPoolExecutor executor;
 
-                // No suitable ConnectionHandler found, create a new one
-                ConnectionHandler connHandler = connectionHandlerFactory.createConnectionHandler(url);
+    /** The periodic monitor task, null if there currently is no pool */
+    private static volatile ScheduledFuture<?> monitorTask;
 
-                // Acquire lock if a lock was requested
-                if (acquireLock) {
-                    connHandler.acquireLock();
-                }
+    static {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ScheduledThreadPoolExecutor(MONITOR_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "ConnectionPool-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        executor.setRemoveOnCancelPolicy(true);
+    }
 
-                LOGGER.info("adding new ConnectionHandler {}, realm = {}", connHandler, connHandler.getRealm());
 
-                // Insert new ConnectionHandler at first position as if it has more chances to be accessed again soon
-                connectionHandlers.add(0, connHandler);// insertElementAt(connHandler, 0);
+    /**
+     * Returns a <code>ConnectionHandler</code> for the realm and credentials of the given location, reusing an idle
+     * one if possible, creating one with the given factory if the maximum number of connections for the realm has not
+     * been reached, and waiting for one to be released otherwise.
+     *
+     * <p>The returned handler may not be connected yet, see {@link ConnectionHandler#checkConnection()}.
+     *
+     * @param connectionHandlerFactory creates the handler if a new connection is needed
+     * @param url the location to connect to
+     * @param acquireLock if <code>true</code>, the handler is locked and must be released with
+     * {@link ConnectionHandler#releaseLock()} once done
+     * @return a ConnectionHandler for the given location
+     * @throws InterruptedIOException if the thread was interrupted, or if no connection was released before the
+     * {@link #setWaitTimeout(long) timeout}
+     */
+    public static ConnectionHandler getConnectionHandler(ConnectionHandlerFactory connectionHandlerFactory, FileURL url, boolean acquireLock) throws InterruptedIOException {
+        FileURL realm = url.getRealm();
+        Credentials credentials = url.getCredentials();
 
-                // Start monitor thread if it is not currently running (if there previously was no registered ConnectionHandler)
-                if (monitorThread == null) {
-                    LOGGER.info("starting monitor thread");
-                    monitorThread = new Thread(instance);
-                    monitorThread.start();
-                }
+        while (true) {
+            ConnectionHandler connHandler = getRealmPool(realm, credentials).getConnectionHandler(connectionHandlerFactory, url, acquireLock, true);
+            // Null if the pool was removed in the meantime
+            if (connHandler != null) {
+                startMonitor();
+                return connHandler;
+            }
+        }
+    }
 
-                // Update last activity timestamp to now
-                connHandler.updateLastActivityTimestamp();
+    /**
+     * Returns an idle <code>ConnectionHandler</code> for the realm and credentials of the given location, or a new one
+     * if the maximum number of connections for the realm has not been reached. Unlike
+     * {@link #getConnectionHandler(ConnectionHandlerFactory, FileURL, boolean)}, this method does not wait for a
+     * connection to be released and returns <code>null</code> instead. It suits additional connections that a
+     * transfer can do without.
+     *
+     * @param connectionHandlerFactory creates the handler if a new connection is needed
+     * @param url the location to connect to
+     * @param acquireLock if <code>true</code>, the handler is locked and must be released with
+     * {@link ConnectionHandler#releaseLock()} once done
+     * @return a ConnectionHandler for the given location, <code>null</code> if all connections are in use
+     * @throws InterruptedIOException if the thread was interrupted
+     */
+    public static ConnectionHandler tryGetConnectionHandler(ConnectionHandlerFactory connectionHandlerFactory, FileURL url, boolean acquireLock) throws InterruptedIOException {
+        FileURL realm = url.getRealm();
+        Credentials credentials = url.getCredentials();
 
+        while (true) {
+            RealmPool pool = getRealmPool(realm, credentials);
+            ConnectionHandler connHandler = pool.getConnectionHandler(connectionHandlerFactory, url, acquireLock, false);
+            if (connHandler != null) {
+                startMonitor();
                 return connHandler;
             }
+            // Null if the pool was removed in the meantime or if all connections are in use
+            if (!pool.removed) {
+                return null;
+            }
         }
     }
 
+    /**
+     * Returns the pool of the given realm and credentials, creating it if necessary.
+     */
+    private static RealmPool getRealmPool(FileURL realm, Credentials credentials) {
+        for (RealmPool pool : pools) {
+            if (pool.matches(realm, credentials)) {
+                return pool;
+            }
+        }
+
+        synchronized (pools) {
+            // Another thread may have created it in the meantime
+            for (RealmPool pool : pools) {
+                if (pool.matches(realm, credentials)) {
+                    return pool;
+                }
+            }
+            RealmPool pool = new RealmPool(realm, credentials);
+            pools.add(pool);
+            return pool;
+        }
+    }
 
     /**
      * Returns a list of registered ConnectionHandler instances. As the name of this method implies, the returned
@@ -129,163 +180,563 @@ public class ConnectionPool implements Runnable {
      * @return a list of registered ConnectionHandler instances
      */
     public static List<ConnectionHandler> getConnectionHandlersSnapshot() {
-        synchronized (connectionHandlers) {
-            connectionHandlers.removeIf(connectionHandler -> !connectionHandler.isConnected());
-            return new ArrayList<>(connectionHandlers);
+        List<ConnectionHandler> snapshot = new ArrayList<>();
+        for (RealmPool pool : pools) {
+            pool.lock.lock();
+            try {
+                pool.removeClosedConnections();
+                snapshot.addAll(pool.handlers);
+            } finally {
+                pool.lock.unlock();
+            }
         }
+        return snapshot;
     }
-    
-//    /**
-//     * Returns the ConnectionHandler instance located at the given position in the list.
-//     */
-//    private static ConnectionHandler getConnectionHandlerAt(int i) {
-//        return connectionHandlers.get(i);
-//    }
 
     /**
-     * Called by {@link ConnectionHandler#releaseLock()} to notify the <code>ConnectionHandler</code> that a
-     * <code>ConnectionHandler</code> has been released.
+     * Called by {@link ConnectionHandler#releaseLock()} to wake up the next thread waiting for a connection of the
+     * handler's realm.
+     *
+     * @param connHandler the handler that has been released
      */
-    static void notifyConnectionHandlerLockReleased() {
-        synchronized (connectionHandlers) {
-            // Notify any thread waiting for a ConnectionHandler to be released
-            connectionHandlers.notify();
+    static void notifyConnectionHandlerLockReleased(ConnectionHandler connHandler) {
+        for (RealmPool pool : pools) {
+            if (pool.matches(connHandler.getRealm(), connHandler.getCredentials())) {
+                pool.lock.lock();
+                try {
+                    pool.released.signal();
+                } finally {
+                    pool.lock.unlock();
+                }
+                return;
+            }
         }
     }
 
-    /**
-     * Monitors connections and periodically:
-     * <ul>
-     *   <li>keeps connections alive
-     *   <li>closes and removes connections that have expired
-     * </ul>
-     */
-    public void run() {
 
-        while (monitorThread != null) {        // Thread will be interrupted by CloseConnectionThread if there are no more ConnectionHandler
-            long now = System.currentTimeMillis();
+    ///////////////////
+    // Configuration //
+    ///////////////////
 
-            synchronized(connectionHandlers) {      // Ensures that getConnectionHandler is not currently changing the list while we access it
-                for (Iterator<ConnectionHandler> it = connectionHandlers.iterator(); it.hasNext();) {
-                    final ConnectionHandler connHandler = it.next();
+    /**
+     * Sets the connection limits of the realms that have no limits of their own. The limits of existing pools are
+     * changed too, connections over the new maximum are closed once they become idle.
+     *
+     * @param minConnections the number of connections that are kept open even when they are not used
+     * @param maxConnections the maximum number of simultaneous connections, at least 1
+     */
+    public static void setDefaultConnectionLimits(int minConnections, int maxConnections) {
+        checkConnectionLimits(minConnections, maxConnections);
+        defaultMinConnections = minConnections;
+        defaultMaxConnections = maxConnections;
+    }
 
-                    synchronized(connHandler) {     // Ensures that no one is trying to acquire a lock on the connection while we access it
-                        // Do not touch ConnectionHandler if it is currently locked
-                        if (connHandler.isLocked()) {
-                            continue;
-                        }
+    /**
+     * Sets the connection limits of the given realm, whatever the credentials used to connect to it.
+     *
+     * @param realm the realm, only its {@link FileURL#getRealm() realm} part is considered
+     * @param minConnections the number of connections that are kept open even when they are not used
+     * @param maxConnections the maximum number of simultaneous connections, at least 1
+     */
+    public static void setConnectionLimits(FileURL realm, int minConnections, int maxConnections) {
+        checkConnectionLimits(minConnections, maxConnections);
+        realmLimits.put(getRealmKey(realm), new int[] {minConnections, maxConnections});
+    }
 
-                        // Remove ConnectionHandler instance from the list of registered ConnectionHandler
-                        // if it is not connected
-                        if (!connHandler.isConnected()) {
-                            LOGGER.info("Removing unconnected ConnectionHandler {}", connHandler);
+    /**
+     * Removes the connection limits of the given realm, the default ones apply to it again.
+     *
+     * @param realm the realm, only its {@link FileURL#getRealm() realm} part is considered
+     */
+    public static void removeConnectionLimits(FileURL realm) {
+        realmLimits.remove(getRealmKey(realm));
+    }
 
-                            it.remove();
-                            // Notify any thread waiting for a ConnectionHandler to be released
-                            connectionHandlers.notify();
+    /**
+     * Returns the number of connections to the given realm that are kept open even when they are not used.
+     *
+     * @param realm the realm, only its {@link FileURL#getRealm() realm} part is considered
+     * @return the number of connections that are kept open even when they are not used
+     */
+    public static int getMinConnections(FileURL realm) {
+        int limits[] = realmLimits.get(getRealmKey(realm));
+        return limits == null ? defaultMinConnections : limits[0];
+    }
 
-                            continue;       // Skips close on inactivity and keep alive checks
-                        }
+    /**
+     * Returns the maximum number of simultaneous connections to the given realm, per credentials.
+     *
+     * @param realm the realm, only its {@link FileURL#getRealm() realm} part is considered
+     * @return the maximum number of simultaneous connections
+     */
+    public static int getMaxConnections(FileURL realm) {
+        int limits[] = realmLimits.get(getRealmKey(realm));
+        return limits == null ? defaultMaxConnections : limits[1];
+    }
 
-                        long lastUsed = connHandler.getLastActivityTimestamp();
+    /**
+     * Sets the number of milliseconds a thread waits for a connection to be released when the maximum number of
+     * connections has been reached, before {@link #getConnectionHandler(ConnectionHandlerFactory, FileURL, boolean)}
+     * gives up. By default, {@link #DEFAULT_WAIT_TIMEOUT}.
+     *
+     * @param timeout number of milliseconds to wait for a connection
+     */
+    public static void setWaitTimeout(long timeout) {
+        waitTimeout = timeout;
+    }
 
-                        // If time-to-live has been reached without any connection activity, remove ConnectionHandler
-                        // from the list of registered ConnectionHandler and close the connection in a separate thread
-                        long closePeriod = connHandler.getCloseOnInactivityPeriod();
-                        if (closePeriod != -1 && now - lastUsed > closePeriod*1000) {
-                            LOGGER.info("Removing timed-out ConnectionHandler {}",connHandler);
+    /**
+     * Returns the number of milliseconds a thread waits for a connection to be released when the maximum number of
+     * connections has been reached.
+     *
+     * @return the number of milliseconds to wait for a connection
+     */
+    public static long getWaitTimeout() {
+        return waitTimeout;
+    }
 
-                            it.remove();
-                            // Notify any thread waiting for a ConnectionHandler to be released
-                            connectionHandlers.notify();
+    private static void checkConnectionLimits(int minConnections, int maxConnections) {
+        if (minConnections < 0 || maxConnections < 1 || minConnections > maxConnections) {
+            throw new IllegalArgumentException("invalid connection limits: min=" + minConnections + ", max=" + maxConnections);
+        }
+    }
 
-                            // Close connection in a separate thread as it could lock this thread
-                            new CloseConnectionThread(connHandler).start();
+    private static String getRealmKey(FileURL realm) {
+        return realm.getRealm().toString(false);
+    }
 
-                            continue;       // Skips keep alive check
-                        }
 
-                        // If keep-alive period has been reached without any connection activity or a keep alive,
-                        // keep connection alive in a separate thread
-                        long keepAlivePeriod = connHandler.getKeepAlivePeriod();
-                        if (keepAlivePeriod != -1 && now-Math.max(lastUsed, connHandler.getLastKeepAliveTimestamp()) > keepAlivePeriod*1000) {
-                            // Update last keep alive timestamp to now
-                            connHandler.updateLastKeepAliveTimestamp();
+    ////////////////
+    // Statistics //
+    ////////////////
 
-                            // Keep connection alive in a separate thread as it could lock this thread
-                            new KeepAliveConnectionThread(connHandler).start();
-                        }
-                    }
-                }
+    /**
+     * Returns the usage of all pools combined.
+     *
+     * @return the usage of all pools combined
+     */
+    public static Statistics getStatistics() {
+        return getStatistics(null);
+    }
 
-                // Stop monitor thread if there are no more ConnectionHandler
-                if (connectionHandlers.isEmpty()) {
-                    LOGGER.info("No more ConnectionHandler, stopping monitor thread");
-                    monitorThread = null;
+    /**
+     * Returns the usage of the pools of the given realm, whatever the credentials used to connect to it.
+     *
+     * @param realm the realm, only its {@link FileURL#getRealm() realm} part is considered, <code>null</code> for all
+     * realms
+     * @return the usage of the pools of the given realm
+     */
+    public static Statistics getStatistics(FileURL realm) {
+        Statistics statistics = new Statistics();
+        String realmKey = realm == null ? null : getRealmKey(realm);
+        for (RealmPool pool : pools) {
+            if (realmKey == null || realmKey.equals(getRealmKey(pool.realm))) {
+                pool.lock.lock();
+                try {
+                    pool.addStatistics(statistics);
+                } finally {
+                    pool.lock.unlock();
                 }
             }
-
-            // Sleep for MONITOR_SLEEP_PERIOD milliseconds, minus the processing time of this loop
-            try {
-                Thread.sleep(Math.max(0, MONITOR_SLEEP_PERIOD-(System.currentTimeMillis()-now)));
-            } catch (InterruptedException e) {
-                // Will loop again
-            }
         }
+        return statistics;
     }
 
 
+    /////////////
+    // Monitor //
+    /////////////
+
     /**
-     * Closes a specified ConnectionHandler's connection in a separate thread and removes the ConnectionHandler from
-     * the list of registered ConnectionHandler instances.
+     * Starts the monitor task if it is not currently running (if there previously was no pool).
      */
-    private static class CloseConnectionThread extends Thread {
+    private static void startMonitor() {
+        if (monitorTask != null) {
+            return;
+        }
+        synchronized (pools) {
+            if (monitorTask == null) {
+                LOGGER.info("starting monitor task");
+                monitorTask = executor.scheduleWithFixedDelay(ConnectionPool::monitor, MONITOR_PERIOD, MONITOR_PERIOD, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
 
-        private ConnectionHandler connHandler;
+    /**
+     * Periodically keeps connections alive, closes connections that have expired and removes the pools that no
+     * longer have connections.
+     */
+    private static void monitor() {
+        long now = System.currentTimeMillis();
+        for (RealmPool pool : pools) {
+            pool.lock.lock();
+            try {
+                pool.checkConnections(now);
 
-        private CloseConnectionThread(ConnectionHandler connHandler) {
-            this.connHandler = connHandler;
+                // Remove the pool if it is no longer used, threads that got hold of it in the meantime will look
+                // it up again
+                if (pool.handlers.isEmpty() && !pool.lock.hasWaiters(pool.released)) {
+                    pool.removed = true;
+                    pools.remove(pool);
+                }
+            } finally {
+                pool.lock.unlock();
+            }
         }
 
-        @Override
-        public void run() {
-            // Try to close connection, only if it is connected
-            if (connHandler.isConnected()) {
-                LOGGER.info("Closing connection held by {}", connHandler);
-                connHandler.closeConnection();
+        synchronized (pools) {
+            // Stop monitor task if there are no more pools
+            if (pools.isEmpty() && monitorTask != null) {
+                LOGGER.info("No more ConnectionHandler, stopping monitor task");
+                monitorTask.cancel(false);
+                monitorTask = null;
             }
         }
     }
 
 
     /**
-     * Keeps alive a specified ConnectionHandler's connection in a separate thread. If the connection is not currently
-     * active, {@link com.mucommander.commons.file.connection.ConnectionHandler#keepAlive()} will not be called.
+     * The connections of a realm/credentials combo.
      */
-    private static class KeepAliveConnectionThread extends Thread {
+    private static class RealmPool {
+
+        private final FileURL realm;
 
-        private final ConnectionHandler connHandler;
+        private final Credentials credentials;
 
-        private KeepAliveConnectionThread(ConnectionHandler connHandler) {
-            this.connHandler = connHandler;
+        /** Guards the handlers and statistics of this pool, waiting threads acquire it in order */
+        private final ReentrantLock lock = new ReentrantLock(true);
+
+        /** Signaled when a connection is released or removed from this pool */
+        private final Condition released = lock.newCondition();
+
+        /** The connections of this pool, most recently created first */
+        private final List<ConnectionHandler> handlers = new ArrayList<>();
+
+        /** True once this pool has been removed from the list of pools */
+        private volatile boolean removed;
+
+        private long nbCreated;
+        private long nbEvicted;
+        private long nbWaits;
+        private long totalWaitTime;
+        private long maxWaitTime;
+
+        private RealmPool(FileURL realm, Credentials credentials) {
+            this.realm = realm;
+            this.credentials = credentials;
         }
 
-        @Override
-        public void run() {
-            LOGGER.info("keeping connection alive: {}", connHandler);
+        private boolean matches(FileURL realm, Credentials credentials) {
+            return ConnectionHandler.equals(this.realm, this.credentials, realm, credentials);
+        }
 
-            synchronized(connHandler) {
-                // Ensures that lock was not grabbed in the meantime
-                if (connHandler.isLocked()) {
-                    return;
+        /**
+         * Returns an idle connection, a new one if there is none and the maximum has not been reached, or waits for
+         * one to be released if <code>wait</code> is <code>true</code>. Returns <code>null</code> if this pool has
+         * been removed, or if there is no connection available and <code>wait</code> is <code>false</code>.
+         */
+        private ConnectionHandler getConnectionHandler(ConnectionHandlerFactory connectionHandlerFactory, FileURL url, boolean acquireLock, boolean wait) throws InterruptedIOException {
+            try {
+                lock.lockInterruptibly();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+
+            long waitStart = -1;
+            try {
+                while (true) {
+                    if (removed) {
+                        return null;
+                    }
+
+                    // Try and find an appropriate existing ConnectionHandler
+                    for (Iterator<ConnectionHandler> it = handlers.iterator(); it.hasNext(); ) {
+                        ConnectionHandler connHandler = it.next();
+                        synchronized (connHandler) {     // Ensures that lock remains unchanged while we access/update it
+                            if (connHandler.isLocked()) {
+                                continue;
+                            }
+
+                            // Discard connections that were closed while idle
+                            if (!connHandler.isConnected()) {
+                                LOGGER.info("Removing unconnected ConnectionHandler {}", connHandler);
+                                it.remove();
+                                nbEvicted++;
+                                continue;
+                            }
+
+                            // Try to acquire lock if a lock was requested
+                            if (!acquireLock || connHandler.acquireLock()) {
+                                LOGGER.debug("returning ConnectionHandler {}, realm = {}", connHandler, realm);
+                                connHandler.updateLastActivityTimestamp();
+                                return connHandler;
+                            }
+                        }
+                    }
+
+                    if (handlers.size() < getMaxConnections(realm)) {
+                        // No suitable ConnectionHandler found, create a new one
+                        ConnectionHandler connHandler = connectionHandlerFactory.createConnectionHandler(url);
+
+                        // Acquire lock if a lock was requested
+                        if (acquireLock) {
+                            connHandler.acquireLock();
+                        }
+
+                        LOGGER.info("adding new ConnectionHandler {}, realm = {}", connHandler, connHandler.getRealm());
+
+                        // Insert new ConnectionHandler at first position as if it has more chances to be accessed again soon
+                        handlers.add(0, connHandler);
+                        nbCreated++;
+
+                        connHandler.updateLastActivityTimestamp();
+                        return connHandler;
+                    }
+
+                    if (!wait) {
+                        return null;
+                    }
+
+                    // Wait for a ConnectionHandler to be released or removed from the pool
+                    long now = System.currentTimeMillis();
+                    if (waitStart == -1) {
+                        LOGGER.info("Maximum number of connection per realm reached, waiting for one to be removed or released...");
+                        waitStart = now;
+                    }
+                    long remaining = waitStart + waitTimeout - now;
+                    if (remaining <= 0) {
+                        LOGGER.info("Timed out waiting on a connection for {}", url);
+                        throw new InterruptedIOException("Timed out waiting on a connection to " + realm);
+                    }
+                    try {
+                        released.await(remaining, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        LOGGER.info("Interrupted while waiting on a connection for {}", url, e);
+                        throw new InterruptedIOException();
+                    }
+                }
+            } finally {
+                if (waitStart != -1) {
+                    long waitTime = System.currentTimeMillis() - waitStart;
+                    nbWaits++;
+                    totalWaitTime += waitTime;
+                    maxWaitTime = Math.max(maxWaitTime, waitTime);
+                    // Let the next waiting thread check for itself if this one is leaving a connection behind
+                    released.signal();
                 }
+                lock.unlock();
+            }
+        }
 
-                // Keep alive connection, only if it is connected
-                if (connHandler.isConnected()) {
-                    connHandler.keepAlive();
+        /**
+         * Removes the idle connections that are no longer connected. The lock must be held.
+         */
+        private void removeClosedConnections() {
+            for (Iterator<ConnectionHandler> it = handlers.iterator(); it.hasNext(); ) {
+                ConnectionHandler connHandler = it.next();
+                synchronized (connHandler) {
+                    if (!connHandler.isLocked() && !connHandler.isConnected()) {
+                        it.remove();
+                        nbEvicted++;
+                        released.signal();
+                    }
                 }
             }
         }
+
+        /**
+         * Closes the connections that have expired, connections over the maximum first, and keeps the others alive.
+         * The lock must be held.
+         */
+        private void checkConnections(long now) {
+            removeClosedConnections();
+
+            int nbExtraConnections = handlers.size() - getMaxConnections(realm);
+            int nbClosableConnections = handlers.size() - getMinConnections(realm);
+
+            // Oldest connections are at the end of the list
+            for (int i = handlers.size() - 1; i >= 0; i--) {
+                final ConnectionHandler connHandler = handlers.get(i);
+
+                synchronized (connHandler) {     // Ensures that no one is trying to acquire a lock on the connection while we access it
+                    // Do not touch ConnectionHandler if it is currently locked
+                    if (connHandler.isLocked()) {
+                        continue;
+                    }
+
+                    long lastUsed = connHandler.getLastActivityTimestamp();
+
+                    // If time-to-live has been reached without any connection activity, remove ConnectionHandler
+                    // from the pool and close the connection on the executor as it could block
+                    long closePeriod = connHandler.getCloseOnInactivityPeriod();
+                    boolean expired = closePeriod != -1 && now - lastUsed > closePeriod * 1000;
+                    if (nbExtraConnections > 0 || (expired && nbClosableConnections > 0)) {
+                        LOGGER.info("Removing timed-out ConnectionHandler {}", connHandler);
+
+                        handlers.remove(i);
+                        nbEvicted++;
+                        nbExtraConnections--;
+                        nbClosableConnections--;
+                        // Notify any thread waiting for a ConnectionHandler to be released
+                        released.signal();
+
+                        executor.execute(() -> {
+                            LOGGER.info("Closing connection held by {}", connHandler);
+                            connHandler.closeConnection();
+                        });
+
+                        continue;       // Skips keep alive check
+                    }
+
+                    // If keep-alive period has been reached without any connection activity or a keep alive,
+                    // keep connection alive on the executor as it could block
+                    long keepAlivePeriod = connHandler.getKeepAlivePeriod();
+                    if (keepAlivePeriod != -1 && now - Math.max(lastUsed, connHandler.getLastKeepAliveTimestamp()) > keepAlivePeriod * 1000) {
+                        // Update last keep alive timestamp to now
+                        connHandler.updateLastKeepAliveTimestamp();
+
+                        // Lock the connection while it is kept alive rather than blocking the threads looking for one
+                        connHandler.acquireLock();
+                        executor.execute(() -> {
+                            LOGGER.info("keeping connection alive: {}", connHandler);
+                            try {
+                                connHandler.keepAlive();
+                            } finally {
+                                connHandler.releaseLock(false);
+                            }
+                        });
+                    }
+                }
+            }
+        }
+
+        /**
+         * Adds the usage of this pool to the given statistics. The lock must be held.
+         */
+        private void addStatistics(Statistics statistics) {
+            for (ConnectionHandler connHandler : handlers) {
+                if (connHandler.isLocked()) {
+                    statistics.nbActive++;
+                } else {
+                    statistics.nbIdle++;
+                }
+            }
+            statistics.nbWaiting += lock.getWaitQueueLength(released);
+            statistics.nbCreated += nbCreated;
+            statistics.nbEvicted += nbEvicted;
+            statistics.nbWaits += nbWaits;
+            statistics.totalWaitTime += totalWaitTime;
+            statistics.maxWaitTime = Math.max(statistics.maxWaitTime, maxWaitTime);
+        }
     }
 
+
+    /**
+     * The usage of one or several pools at a given time, see {@link #getStatistics()}.
+     */
+    public static class Statistics {
+
+        private int nbActive;
+        private int nbIdle;
+        private int nbWaiting;
+        private long nbCreated;
+        private long nbEvicted;
+        private long nbWaits;
+        private long totalWaitTime;
+        private long maxWaitTime;
+
+        private Statistics() {
+        }
+
+        /**
+         * Returns the number of connections that are currently locked by a thread.
+         *
+         * @return the number of connections that are currently locked by a thread
+         */
+        public int getActiveCount() {
+            return nbActive;
+        }
+
+        /**
+         * Returns the number of connections that are currently not locked.
+         *
+         * @return the number of connections that are currently not locked
+         */
+        public int getIdleCount() {
+            return nbIdle;
+        }
+
+        /**
+         * Returns the number of threads currently waiting for a connection to be released.
+         *
+         * @return the number of threads currently waiting for a connection to be released
+         */
+        public int getWaitingCount() {
+            return nbWaiting;
+        }
+
+        /**
+         * Returns the number of connections created since the pools were created.
+         *
+         * @return the number of connections created since the pools were created
+         */
+        public long getCreatedCount() {
+            return nbCreated;
+        }
+
+        /**
+         * Returns the number of connections that were removed from the pools because they were closed, had been idle
+         * for too long or were over the maximum.
+         *
+         * @return the number of connections that were removed from the pools
+         */
+        public long getEvictedCount() {
+            return nbEvicted;
+        }
+
+        /**
+         * Returns the number of times a thread had to wait for a connection, because the maximum had been reached.
+         *
+         * @return the number of times a thread had to wait for a connection
+         */
+        public long getWaitCount() {
+            return nbWaits;
+        }
+
+        /**
+         * Returns the total number of milliseconds threads spent waiting for a connection.
+         *
+         * @return the total number of milliseconds threads spent waiting for a connection
+         */
+        public long getTotalWaitTime() {
+            return totalWaitTime;
+        }
+
+        /**
+         * Returns the average number of milliseconds a thread that had to wait for a connection waited, 0 if none had
+         * to.
+         *
+         * @return the average number of milliseconds a thread that had to wait for a connection waited
+         */
+        public long getAverageWaitTime() {
+            return nbWaits == 0 ? 0 : totalWaitTime / nbWaits;
+        }
+
+        /**
+         * Returns the longest number of milliseconds a thread waited for a connection.
+         *
+         * @return the longest number of milliseconds a thread waited for a connection
+         */
+        public long getMaxWaitTime() {
+            return maxWaitTime;
+        }
+
+        @Override
+        public String toString() {
+            return "active=" + nbActive + " idle=" + nbIdle + " waiting=" + nbWaiting + " created=" + nbCreated
+                    + " evicted=" + nbEvicted + " waits=" + nbWaits + " averageWaitTime=" + getAverageWaitTime()
+                    + " maxWaitTime=" + maxWaitTime;
+        }
+    }
 }
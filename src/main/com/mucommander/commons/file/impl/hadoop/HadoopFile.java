@@ -294,7 +294,7 @@ public abstract class HadoopFile extends ProtocolFile {
 
     @Override
     public RandomAccessInputStream getRandomAccessInputStream() throws IOException {
-        return new HadoopRandomAccessInputStream(fs.open(path), getSize());
+        return RandomAccessCache.getRandomAccessInputStream(this, () -> new HadoopRandomAccessInputStream(fs.open(path), getSize()));
     }
 
     @Override
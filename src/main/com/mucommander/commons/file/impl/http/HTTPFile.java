@@ -1,9 +1,11 @@
 package com.mucommander.commons.file.impl.http;
 
 import com.mucommander.commons.file.*;
-import com.mucommander.commons.io.BlockRandomInputStream;
+import com.mucommander.commons.io.BlockCache;
+import com.mucommander.commons.io.CachedBlockRandomInputStream;
 import com.mucommander.commons.io.RandomAccessInputStream;
 import com.mucommander.commons.io.RandomAccessOutputStream;
+import com.mucommander.commons.io.StreamUtils;
 import com.mucommander.commons.io.base64.Base64Encoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -81,6 +83,12 @@ public class HTTPFile extends ProtocolFile {
                                             + "; " + System.getProperty("os.name") + " " +
                                             System.getProperty("os.version") + " " + System.getProperty("os.arch") + ")";
 
+    /** Blocks of the files read randomly, shared by all HTTP files */
+    private static BlockCache randomAccessCache = new BlockCache(64 * 1024, 16 * 1024 * 1024);
+
+    /** Number of blocks prefetched when a file is read sequentially with a random access stream */
+    private static int randomAccessPrefetchBlocks = 4;
+
     /** Matches HTML and XHTML attribute key/value pairs, where the value is surrounded by Single Quotes */
     private final static Pattern linkAttributePatternSQ = Pattern.compile("(src|href|SRC|HREF)='.*?'");
 
@@ -122,6 +130,37 @@ public class HTTPFile extends ProtocolFile {
     }
 
 
+    /**
+     * Sets the size of the blocks requested by random access streams and the number of bytes of the cache that holds
+     * them. The blocks of a file are shared by all the streams that read it, as long as its size and date do not
+     * change. The current cache is discarded.
+     *
+     * @param blockSize number of bytes requested at a time
+     * @param capacity maximum number of bytes held by the cache
+     */
+    public static void setRandomAccessCache(int blockSize, long capacity) {
+        randomAccessCache = new BlockCache(blockSize, capacity);
+    }
+
+    /**
+     * Sets the number of blocks that random access streams prefetch in the background once they are read
+     * sequentially, <code>0</code> to disable prefetching.
+     *
+     * @param nbBlocks number of blocks to prefetch
+     */
+    public static void setRandomAccessPrefetch(int nbBlocks) {
+        randomAccessPrefetchBlocks = nbBlocks;
+    }
+
+    /**
+     * Returns the cache that holds the blocks read by random access streams, which reports its hit ratio.
+     *
+     * @return the cache that holds the blocks read by random access streams
+     */
+    public static BlockCache getRandomAccessCache() {
+        return randomAccessCache;
+    }
+
     private static SimpleFileAttributes getDefaultAttributes() {
         SimpleFileAttributes attributes = new SimpleFileAttributes();
         attributes.setDate(System.currentTimeMillis());
@@ -431,7 +470,19 @@ public class HTTPFile extends ProtocolFile {
 
     @Override
     public RandomAccessInputStream getRandomAccessInputStream() throws IOException {
-        return new HTTPRandomAccessInputStream();
+        // HEAD the HTTP resource to get its length
+        if (!fileResolved) {
+            resolveFile();
+        }
+
+        long length = getSize();
+        if (length == -1) {        // Knowing the content length is required
+            throw new IOException();
+        }
+
+        // Blocks are shared with the streams that read the same version of the file
+        return new CachedBlockRandomInputStream(randomAccessCache, RandomAccessCache.getFileKey(this), length,
+                this::readRange, randomAccessPrefetchBlocks);
     }
 
     /**
@@ -722,76 +773,42 @@ public class HTTPFile extends ProtocolFile {
     }
 
 
-    ///////////////////
-    // Inner classes //
-    ///////////////////
-
-
     /**
-     * HTTPRandomAccessInputStream extends BlockRandomInputStream to provide random read access to an HTTPFile.
-     * It uses the 'Range' request header to read the HTTP resource partially, chunk by chunk and reposition the offset
-     * when {@link #seek(long)} is called.
+     * Reads a range of the file with a 'Range' request. The response is read entirely so that the connection can be
+     * kept alive and reused by the next request.
+     *
+     * @param offset offset of the first byte to read
+     * @param b the buffer to read into, starting at index 0
+     * @param len number of bytes to read
+     * @return the number of bytes read, less than <code>len</code> only if the end of the file was reached
+     * @throws IOException if the server does not support 'Range' requests or if an error occurred
      */
-    private class HTTPRandomAccessInputStream extends BlockRandomInputStream {
-
-        /** Amount of data returned  */
-        private final static int CHUNK_SIZE = 1024;
-
-        /** Length of the HTTP resource */
-        private long length;
-
-
-        private HTTPRandomAccessInputStream() throws IOException {
-            super(CHUNK_SIZE);
-
-            // HEAD the HTTP resource to get its length
-            if (!fileResolved) {
-                resolveFile();
-            }
-
-            length = getSize();
-            if (length == -1) {        // Knowing the content length is required
-                throw new IOException();
-            }
+    private int readRange(long offset, byte b[], int len) throws IOException {
+        if (len == 0) {
+            return 0;
         }
 
-        ///////////////////////////////////////////
-        // BlockRandomInputStream implementation //
-        ///////////////////////////////////////////
-
-        @Override
-        protected int readBlock(long fileOffset, byte block[], int blockLen) throws IOException {
-            HttpURLConnection conn = getHttpURLConnection(url);
-
-            // Note: 'Range' may not be supported by the HTTP server, in that case an IOException will be thrown
-            conn.setRequestProperty("Range", "bytes="+fileOffset +"-"+ Math.min(fileOffset+blockLen, length-1));
-
-            conn.connect();
-            checkHTTPResponse(conn);
+        HttpURLConnection conn = getHttpURLConnection(url);
+        conn.setRequestProperty("Range", "bytes=" + offset + "-" + (offset + len - 1));
 
-            // Read up to blockLen bytes
-            try (InputStream in = conn.getInputStream()) {
-                int totalRead = 0;
-                int read;
-                while (totalRead < blockLen) {
-                    read = in.read(block, totalRead, blockLen - totalRead);
-                    if (read == -1) {
-                        break;
-                    }
-                    totalRead += read;
-                }
+        conn.connect();
+        checkHTTPResponse(conn);
 
-                return totalRead;
+        try (InputStream in = conn.getInputStream()) {
+            int nbRead;
+            if (conn.getResponseCode() == HttpURLConnection.HTTP_PARTIAL) {
+                nbRead = StreamUtils.readUpTo(in, b, 0, len);
+                // Drain whatever the server sent beyond the requested range, if anything
+                StreamUtils.readUntilEOF(in);
+            } else if (offset == 0) {
+                // The server ignored the range and is sending the whole file, which must not be read entirely
+                nbRead = StreamUtils.readUpTo(in, b, 0, len);
+                conn.disconnect();
+            } else {
+                conn.disconnect();
+                throw new IOException("Server does not support Range requests");
             }
-        }
-
-        public long getLength() {
-            return length;
-        }
-
-        @Override
-        public void close() throws IOException {
-            // No-op, the underlying stream is already closed
+            return nbRead;
         }
     }
 }
@@ -90,6 +90,9 @@ public class LocalFile extends ProtocolFile {
     protected File file;
     private FilePermissions permissions;
 
+    /** Attributes read when the parent folder was listed, null if this file was not listed or if they are outdated */
+    private volatile LocalFileAttributes attributes;
+
     /** Absolute file path, free of trailing separator */
     protected String absPath;
 
@@ -167,6 +170,18 @@ public class LocalFile extends ProtocolFile {
      * @param file
      */
     protected LocalFile(FileURL fileURL, File file) throws IOException {
+        this(fileURL, file, null);
+    }
+
+    /**
+     * Creates a new instance of LocalFile for a file returned by {@link #ls()}, using the given {@link File} and the
+     * attributes that were read along with it.
+     *
+     * @param fileURL
+     * @param file
+     * @param attributes the attributes of the file, can be <code>null</code>
+     */
+    LocalFile(FileURL fileURL, File file, LocalFileAttributes attributes) throws IOException {
         super(fileURL);
 
         if (file == null) {
@@ -202,6 +217,7 @@ public class LocalFile extends ProtocolFile {
 
         this.file = file;
         this.permissions = new LocalFilePermissions(file);
+        this.attributes = attributes;
     }
 
 
@@ -209,6 +225,41 @@ public class LocalFile extends ProtocolFile {
     // LocalFile-specific methods //
     ////////////////////////////////
 
+    /**
+     * Returns the attributes that were read when this file's parent folder was listed, <code>null</code> if this file
+     * was not created by {@link #ls()}, if the attributes have expired or if the file has been modified since.
+     *
+     * @return the attributes that were read when this file's parent folder was listed, <code>null</code> if unknown
+     */
+    private LocalFileAttributes getListedAttributes() {
+        LocalFileAttributes attributes = this.attributes;
+        if (attributes != null && attributes.hasExpired()) {
+            this.attributes = attributes = null;
+        }
+        return attributes;
+    }
+
+    /**
+     * Discards the attributes read when this file's parent folder was listed, this method must be called whenever
+     * the file is modified. The attributes held by the pooled instance of this file, the one returned by
+     * {@link FileFactory#getFile(FileURL)} and usually by the last listing, are discarded as well.
+     *
+     * <p>Other instances of the file, for instance those returned by an earlier listing, and changes made outside of
+     * this class, e.g. by another process, go unnoticed until the listed attributes expire, that is for up to
+     * {@link LocalFileAttributes#TTL} milliseconds after the listing, or until the folder is listed again.
+     */
+    private void discardListedAttributes() {
+        attributes = null;
+
+        AbstractFile pooledFile = FileFactory.getPooledFile(fileURL);
+        if (pooledFile != null) {
+            LocalFile pooledLocalFile = pooledFile.getAncestor(LocalFile.class);
+            if (pooledLocalFile != null && pooledLocalFile != this) {
+                pooledLocalFile.attributes = null;
+            }
+        }
+    }
+
     /**
      * Returns the user home folder. Most if not all OSes have one, but in the unlikely event that the OS doesn't have
      * one or that the folder cannot be resolved, <code>null</code> will be returned.
@@ -612,6 +663,11 @@ public class LocalFile extends ProtocolFile {
             return false;
         }
 
+        LocalFileAttributes attributes = getListedAttributes();
+        if (attributes != null) {
+            return attributes.isSymlink();
+        }
+
         // Check the case if we have a symbolic link with wrong target path
         if (!file.isFile()) {
             Path path = FileSystems.getDefault().getPath(getAbsolutePath(), "");
@@ -670,6 +726,10 @@ public class LocalFile extends ProtocolFile {
 
     @Override
     public long getLastModifiedDate() {
+        LocalFileAttributes attributes = getListedAttributes();
+        if (attributes != null) {
+            return attributes.getLastModifiedDate();
+        }
         return file.lastModified();
     }
 
@@ -691,6 +751,7 @@ public class LocalFile extends ProtocolFile {
             lastModified = 0;
         }
 
+        discardListedAttributes();
         if (!file.setLastModified(lastModified)) {
             throw new IOException();
         }
@@ -698,6 +759,10 @@ public class LocalFile extends ProtocolFile {
 		
     @Override
     public long getSize() {
+        LocalFileAttributes attributes = getListedAttributes();
+        if (attributes != null) {
+            return attributes.getSize();
+        }
         return file.length();
     }
 	
@@ -724,11 +789,15 @@ public class LocalFile extends ProtocolFile {
 		
     @Override
     public boolean exists() {
-        return file.exists();
+        return getListedAttributes() != null || file.exists();
     }
 	
     @Override
     public FilePermissions getPermissions() {
+        LocalFileAttributes attributes = getListedAttributes();
+        if (attributes != null && attributes.getPermissions() != null) {
+            return attributes.getPermissions();
+        }
         return permissions;
     }
 
@@ -744,6 +813,7 @@ public class LocalFile extends ProtocolFile {
             throw new IOException();
         }
 
+        discardListedAttributes();
         boolean success = false;
         if (permission == READ_PERMISSION) {
             success = file.setReadable(enabled);
@@ -769,6 +839,10 @@ public class LocalFile extends ProtocolFile {
 //    }
 	@Override
 	public String getOwner() {
+        LocalFileAttributes attributes = getListedAttributes();
+        if (attributes != null && attributes.getOwner() != null) {
+            return attributes.getOwner();
+        }
 		try {
 			Path path = Paths.get(file.toURI());
 			if (Files.exists(path)) {
@@ -798,6 +872,10 @@ public class LocalFile extends ProtocolFile {
 
 	@Override
 	public String getGroup() {
+        LocalFileAttributes attributes = getListedAttributes();
+        if (attributes != null && attributes.getGroup() != null) {
+            return attributes.getGroup();
+        }
         Path path = Paths.get(file.toURI());
         if (!Files.exists(path)) {
             return null;
@@ -834,6 +912,10 @@ public class LocalFile extends ProtocolFile {
 
     @Override
     public boolean isDirectory() {
+        LocalFileAttributes attributes = getListedAttributes();
+        if (attributes != null) {
+            return attributes.isDirectory();
+        }
         if (NATIVE_FILE_UTILS_AVAILABLE) {
             return NativeFileUtils.isLocalDirectory(file.getAbsolutePath());
         }
@@ -865,7 +947,7 @@ public class LocalFile extends ProtocolFile {
      */
     @Override
     public OutputStream getOutputStream() throws IOException {
-        return new LocalOutputStream(new FileOutputStream(absPath, false).getChannel());
+        return new LocalOutputStream(getOutputChannel(false));
     }
 
     /**
@@ -875,7 +957,20 @@ public class LocalFile extends ProtocolFile {
      */
     @Override
     public OutputStream getAppendOutputStream() throws IOException {
-        return new LocalOutputStream(new FileOutputStream(absPath, true).getChannel());
+        return new LocalOutputStream(getOutputChannel(true));
+    }
+
+    /**
+     * Opens a {@link FileChannel} to write this file, for callers that transfer bytes between channels instead of
+     * streams. Like {@link #getOutputStream()}, this discards the attributes read when the parent folder was listed.
+     *
+     * @param append <code>true</code> to write at the end of the file, <code>false</code> to overwrite it
+     * @return a FileChannel to write this file
+     * @throws IOException if the file could not be opened for writing
+     */
+    public FileChannel getOutputChannel(boolean append) throws IOException {
+        discardListedAttributes();
+        return new FileOutputStream(absPath, append).getChannel();
     }
 
     /**
@@ -895,11 +990,13 @@ public class LocalFile extends ProtocolFile {
      */
     @Override
     public RandomAccessOutputStream getRandomAccessOutputStream() throws IOException {
+        discardListedAttributes();
         return new LocalRandomAccessOutputStream(new RandomAccessFile(file, "rw").getChannel());
     }
 
     @Override
     public void delete() throws IOException {
+        discardListedAttributes();
         if (!file.delete()) {
             throw new IOException();
         }
@@ -913,6 +1010,7 @@ public class LocalFile extends ProtocolFile {
 
     @Override
     public void mkdir() throws IOException {
+        discardListedAttributes();
         Path path = FileSystems.getDefault().getPath(getAbsolutePath(), "");
         try {
             Files.createDirectory(path);
@@ -944,6 +1042,8 @@ public class LocalFile extends ProtocolFile {
 
         destFile = destFile.getTopAncestor();
         File destJavaIoFile = ((LocalFile)destFile).file;
+        discardListedAttributes();
+        ((LocalFile)destFile).discardListedAttributes();
 
         if (IS_WINDOWS) {
             // This check is necessary under Windows because java.io.File#renameTo(java.io.File) does not return false
@@ -1098,34 +1198,47 @@ public class LocalFile extends ProtocolFile {
     }
 
 
+    /**
+     * Implementation notes: the folder is read through a {@link DirectoryStream} and the attributes of each child are
+     * read with a single call to the file system, see {@link LocalFileAttributes}. The returned files use those
+     * attributes instead of querying the file system for each of them.
+     */
     @Override
     public AbstractFile[] ls(FilenameFilter filenameFilter) throws IOException {
-        File files[] = file.listFiles(filenameFilter == null ? null : new LocalFilenameFilter(filenameFilter));
-
-        if (files == null) {
-            throw new IOException();
-        }
-
-        int nbFiles = files.length;
-        AbstractFile children[] = new AbstractFile[nbFiles];
-
-        for(int i = 0; i < nbFiles; i++) {
-            // Clone the FileURL of this file and set the child's path, this is more efficient than creating a new
-            // FileURL instance from scratch.
-            FileURL childURL = (FileURL)fileURL.clone();
-
-			childURL.setPath(absPath + SEPARATOR + files[i].getName());
-
-            // Retrieves an AbstractFile (LocalFile or AbstractArchiveFile) instance that's potentially already in
-            // the cache, reuse this file as the file's parent, and the already-created java.io.File instance.
-            children[i] = FileFactory.getFile(childURL, this, files[i]);
+        List<AbstractFile> children = new ArrayList<>();
+        LocalFileAttributes.Listing listing = new LocalFileAttributes.Listing();
+
+        try (DirectoryStream<Path> stream = filenameFilter == null ? Files.newDirectoryStream(file.toPath())
+                : Files.newDirectoryStream(file.toPath(), new LocalFilenameFilter(filenameFilter))) {
+            for (Path entry : stream) {
+                String name = entry.getFileName().toString();
+
+                // Clone the FileURL of this file and set the child's path, this is more efficient than creating a new
+                // FileURL instance from scratch.
+                FileURL childURL = (FileURL)fileURL.clone();
+                childURL.setPath(absPath + SEPARATOR + name);
+
+                // Retrieves an AbstractFile (LocalFile or AbstractArchiveFile) instance that's potentially already in
+                // the cache, reuse this file as the file's parent, the java.io.File instance and the attributes.
+                children.add(FileFactory.getFile(childURL, this, new File(file, name), LocalFileAttributes.read(entry, listing)));
+            }
+        } catch (DirectoryIteratorException e) {
+            throw e.getCause();
+        } catch (InvalidPathException e) {
+            throw new IOException(e);
+        } finally {
+            listing.finish();
         }
 
-        return children;
+        return children.toArray(new AbstractFile[children.size()]);
     }
 
     @Override
     public boolean isHidden() {
+        LocalFileAttributes attributes = getListedAttributes();
+        if (attributes != null && attributes.isHidden() != null) {
+            return attributes.isHidden();
+        }
         if (NATIVE_FILE_UTILS_AVAILABLE) {
             return NativeFileUtils.isLocalFileHidden(file.getAbsolutePath());
         }
@@ -1137,6 +1250,10 @@ public class LocalFile extends ProtocolFile {
         if (NATIVE_FILE_UTILS_AVAILABLE) {
             return NativeFileUtils.isLocalFileExecutable(file.getAbsolutePath());
         } else if (IS_UNIX_BASED) {
+            LocalFileAttributes attributes = getListedAttributes();
+            if (attributes != null && attributes.getPermissions() != null) {
+                return !attributes.isDirectory() && attributes.getPermissions().getBitValue(USER_ACCESS, EXECUTE_PERMISSION);
+            }
             return !file.isDirectory() && file.canExecute();
         }
         return super.isExecutable();
@@ -1496,9 +1613,9 @@ public class LocalFile extends ProtocolFile {
 
 
     /**
-     * Turns a {@link FilenameFilter} into a {@link java.io.FilenameFilter}.
+     * Turns a {@link FilenameFilter} into a {@link DirectoryStream.Filter}.
      */
-    private static class LocalFilenameFilter implements java.io.FilenameFilter {
+    private static class LocalFilenameFilter implements DirectoryStream.Filter<Path> {
 
         private FilenameFilter filter;
 
@@ -1507,12 +1624,12 @@ public class LocalFile extends ProtocolFile {
         }
 
 
-        ///////////////////////////////////////////
-        // java.io.FilenameFilter implementation //
-        ///////////////////////////////////////////
+        /////////////////////////////////////////
+        // DirectoryStream.Filter implementation //
+        /////////////////////////////////////////
 
-        public boolean accept(File dir, String name) {
-            return filter.accept(name);
+        public boolean accept(Path entry) {
+            return filter.accept(entry.getFileName().toString());
         }
     }
 }
@@ -0,0 +1,282 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.impl.local;
+
+import com.mucommander.commons.file.FilePermissions;
+import com.mucommander.commons.file.SimpleFilePermissions;
+import com.mucommander.commons.runtime.OsFamily;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable snapshot of the attributes of a {@link LocalFile}, read with a single call to the file system when the
+ * file's parent folder is listed. A listed <code>LocalFile</code> consults its snapshot instead of querying the file
+ * system each time one of those attributes is requested, until the snapshot expires or the file is modified.
+ *
+ * <p>Under Unix-like systems, attributes are read from the <code>unix</code> view when the JRE provides it, so that
+ * only the numeric ids of the owner and group are read. Their names are looked up once per id and kept in a table
+ * shared by all snapshots, instead of being resolved for every single file.
+ *
+ * <p>Attributes that could not be read are left unknown, for instance the owner under Windows, and are then
+ * retrieved from the file system as usual.
+ */
+final class LocalFileAttributes {
+    private final static org.slf4j.Logger LOGGER = org.slf4j.LoggerFactory.getLogger(LocalFileAttributes.class);
+
+    /** Number of milliseconds after the end of a listing after which its snapshots expire, long enough to sort and
+     * display a very large folder */
+    final static long TTL = 10000;
+
+    /** Value of the user permissions when the permissions are not known */
+    private final static int UNKNOWN_PERMISSIONS = -1;
+
+    private final static boolean IS_WINDOWS = OsFamily.WINDOWS.isCurrent();
+
+    /** Attributes read from the <code>unix</code> view */
+    private final static String UNIX_ATTRIBUTES = "unix:mode,uid,gid,size,lastModifiedTime,isDirectory,isSymbolicLink";
+
+    /** Name of the user running this JVM, permission bits are only meaningful for the files it owns */
+    private final static String USER_NAME = System.getProperty("user.name");
+
+    /** The permissions of the superuser do not depend on the permission bits */
+    private final static boolean IS_SUPERUSER = "root".equals(USER_NAME);
+
+    /** Permissions supported by {@link LocalFile}, see <code>LocalFilePermissions</code> */
+    private final static int PERMISSIONS_MASK = 448;    // rwx------ (700 octal)
+
+    /** <code>false</code> once the <code>unix</code> view turned out to be unavailable */
+    private static volatile boolean unixViewAvailable = OsFamily.getCurrent().isUnixBased();
+
+    /** Names of the users, by uid */
+    private final static Map<Integer, String> USER_NAMES = new ConcurrentHashMap<>();
+
+    /** Names of the groups, by gid */
+    private final static Map<Integer, String> GROUP_NAMES = new ConcurrentHashMap<>();
+
+    private final boolean directory;
+    private final boolean symlink;
+    private final long size;
+    private final long lastModifiedDate;
+    private final String owner;
+    private final String group;
+    private final FilePermissions permissions;
+    private final Boolean hidden;
+    private final Listing listing;
+
+    private LocalFileAttributes(boolean directory, boolean symlink, long size, long lastModifiedDate, String owner,
+                                String group, int userPermissions, Boolean hidden, Listing listing) {
+        this.directory = directory;
+        this.symlink = symlink;
+        this.size = size;
+        this.lastModifiedDate = lastModifiedDate;
+        this.owner = owner;
+        this.group = group;
+        this.permissions = userPermissions == UNKNOWN_PERMISSIONS ? null : new SimpleFilePermissions(userPermissions << 6, PERMISSIONS_MASK);
+        this.hidden = hidden;
+        this.listing = listing;
+    }
+
+    /**
+     * Reads the attributes of the given file. Like <code>java.io.File</code>, size, date and type are those of the
+     * target of symbolic links.
+     *
+     * @param path the file to read the attributes of
+     * @param listing the listing the file is part of, the snapshot expires with it
+     * @return the attributes of the file, <code>null</code> if they could not be read, for example if the file is a
+     * broken symbolic link or no longer exists
+     */
+    static LocalFileAttributes read(Path path, Listing listing) {
+        try {
+            if (IS_WINDOWS) {
+                DosFileAttributes attributes = Files.readAttributes(path, DosFileAttributes.class);
+                return new LocalFileAttributes(attributes.isDirectory(), false, attributes.size(),
+                        attributes.lastModifiedTime().toMillis(), null, null, UNKNOWN_PERMISSIONS, attributes.isHidden(), listing);
+            }
+            if (unixViewAvailable) {
+                try {
+                    return readUnixAttributes(path, listing);
+                } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                    LOGGER.debug("unix attribute view not available, falling back to posix", e);
+                    unixViewAvailable = false;
+                }
+            }
+            return readPosixAttributes(path, listing);
+        } catch (IOException e) {
+            LOGGER.trace("Could not read attributes of " + path, e);
+            return null;
+        }
+    }
+
+    private static LocalFileAttributes readUnixAttributes(Path path, Listing listing) throws IOException {
+        Map<String, Object> attributes = Files.readAttributes(path, UNIX_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+        boolean symlink = (Boolean)attributes.get("isSymbolicLink");
+        if (symlink) {
+            attributes = Files.readAttributes(path, UNIX_ATTRIBUTES);
+        }
+
+        int uid = (Integer)attributes.get("uid");
+        int gid = (Integer)attributes.get("gid");
+        String owner = USER_NAMES.get(uid);
+        String group = GROUP_NAMES.get(gid);
+        if (owner == null || group == null) {
+            // Let the posix view resolve the names, once for each id
+            PosixFileAttributes posixAttributes = Files.readAttributes(path, PosixFileAttributes.class);
+            owner = posixAttributes.owner().getName();
+            group = posixAttributes.group().getName();
+            USER_NAMES.put(uid, owner);
+            GROUP_NAMES.put(gid, group);
+        }
+
+        int mode = (Integer)attributes.get("mode");
+        return new LocalFileAttributes((Boolean)attributes.get("isDirectory"), symlink, (Long)attributes.get("size"),
+                ((FileTime)attributes.get("lastModifiedTime")).toMillis(), owner, group,
+                getUserPermissions(owner, (mode & PERMISSIONS_MASK) >> 6), null, listing);
+    }
+
+    private static LocalFileAttributes readPosixAttributes(Path path, Listing listing) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (UnsupportedOperationException e) {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        }
+        boolean symlink = attributes.isSymbolicLink();
+        if (symlink) {
+            if (attributes instanceof PosixFileAttributes) {
+                attributes = Files.readAttributes(path, PosixFileAttributes.class);
+            } else {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            }
+        }
+
+        String owner = null;
+        String group = null;
+        int userPermissions = UNKNOWN_PERMISSIONS;
+        if (attributes instanceof PosixFileAttributes) {
+            PosixFileAttributes posixAttributes = (PosixFileAttributes)attributes;
+            owner = posixAttributes.owner().getName();
+            group = posixAttributes.group().getName();
+            Set<PosixFilePermission> permissions = posixAttributes.permissions();
+            userPermissions = getUserPermissions(owner,
+                    (permissions.contains(PosixFilePermission.OWNER_READ) ? 4 : 0)
+                    | (permissions.contains(PosixFilePermission.OWNER_WRITE) ? 2 : 0)
+                    | (permissions.contains(PosixFilePermission.OWNER_EXECUTE) ? 1 : 0));
+        }
+
+        return new LocalFileAttributes(attributes.isDirectory(), symlink, attributes.size(),
+                attributes.lastModifiedTime().toMillis(), owner, group, userPermissions, null, listing);
+    }
+
+    /**
+     * Returns the given owner permission bits if they tell what the current user can do with the file, i.e. if the
+     * user owns the file and is not the superuser, {@link #UNKNOWN_PERMISSIONS} otherwise.
+     */
+    private static int getUserPermissions(String owner, int ownerPermissions) {
+        return !IS_SUPERUSER && owner.equals(USER_NAME) ? ownerPermissions : UNKNOWN_PERMISSIONS;
+    }
+
+    /**
+     * Returns <code>true</code> if this snapshot is too old to be used.
+     *
+     * @return <code>true</code> if this snapshot is too old to be used
+     */
+    boolean hasExpired() {
+        return System.currentTimeMillis() > listing.expirationDate;
+    }
+
+    boolean isDirectory() {
+        return directory;
+    }
+
+    boolean isSymlink() {
+        return symlink;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    long getLastModifiedDate() {
+        return lastModifiedDate;
+    }
+
+    /**
+     * Returns the name of the file's owner, <code>null</code> if it is not known.
+     *
+     * @return the name of the file's owner, <code>null</code> if it is not known
+     */
+    String getOwner() {
+        return owner;
+    }
+
+    /**
+     * Returns the name of the file's group, <code>null</code> if it is not known.
+     *
+     * @return the name of the file's group, <code>null</code> if it is not known
+     */
+    String getGroup() {
+        return group;
+    }
+
+    /**
+     * Returns the permissions of the current user on the file, <code>null</code> if they are not known.
+     *
+     * @return the permissions of the current user on the file, <code>null</code> if they are not known
+     */
+    FilePermissions getPermissions() {
+        return permissions;
+    }
+
+    /**
+     * Returns whether the file is hidden, <code>null</code> if the file system does not tell.
+     *
+     * @return whether the file is hidden, <code>null</code> if the file system does not tell
+     */
+    Boolean isHidden() {
+        return hidden;
+    }
+
+
+    /**
+     * The listing of a folder, whose snapshots all expire {@link #TTL} milliseconds after the listing has finished,
+     * however long it took to list the folder.
+     */
+    static final class Listing {
+
+        private volatile long expirationDate = Long.MAX_VALUE;
+
+        /**
+         * Starts the countdown to the expiration of the snapshots of this listing.
+         */
+        void finish() {
+            expirationDate = System.currentTimeMillis() + TTL;
+        }
+    }
+}
@@ -23,7 +23,8 @@ public class LocalProtocolProvider implements ProtocolProvider {
     public AbstractFile getFile(FileURL url, Object... instantiationParams) throws IOException {
         return isUncFile(url)?
         	 (instantiationParams.length==0?new UNCFile(url):new UNCFile(url ,(java.io.File)instantiationParams[0]))
-        	:(instantiationParams.length==0?new LocalFile(url):new LocalFile(url, (java.io.File)instantiationParams[0]));
+        	:(instantiationParams.length==0?new LocalFile(url):new LocalFile(url, (java.io.File)instantiationParams[0],
+                instantiationParams.length>1?(LocalFileAttributes)instantiationParams[1]:null));
     }
 	
 	/**
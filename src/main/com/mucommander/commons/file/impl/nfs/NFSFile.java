@@ -282,7 +282,7 @@ public class NFSFile extends ProtocolFile {
 
     @Override
     public RandomAccessInputStream getRandomAccessInputStream() throws IOException {
-        return new NFSRandomAccessInputStream(new XRandomAccessFile(file, "r"));
+        return RandomAccessCache.getRandomAccessInputStream(this, () -> new NFSRandomAccessInputStream(new XRandomAccessFile(file, "r")));
     }
 
     /**
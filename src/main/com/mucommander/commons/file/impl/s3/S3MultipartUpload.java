@@ -0,0 +1,246 @@
+package com.mucommander.commons.file.impl.s3;
+
+import com.mucommander.commons.io.StreamUtils;
+import org.jets3t.service.S3ServiceException;
+import org.jets3t.service.security.AWSCredentials;
+import org.jets3t.service.utils.RestUtils;
+import org.jets3t.service.utils.ServiceUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Performs the requests of an S3 multipart upload: 'Initiate Multipart Upload', 'Upload Part',
+ * 'Complete Multipart Upload' and 'Abort Multipart Upload'.
+ *
+ * <p>The version of JetS3t in use predates multipart uploads and its request signer does not account for the
+ * <code>uploads</code>, <code>uploadId</code> and <code>partNumber</code> sub-resources, so requests are signed and
+ * sent here. Objects are addressed with path-style URLs on the given endpoint. Parts may be uploaded concurrently, the
+ * other requests must not.
+ *
+ * @see S3Object#setMultipartUploads(int, int, long)
+ */
+class S3MultipartUpload {
+
+    /** Matches the upload id in the response to 'Initiate Multipart Upload' */
+    private final static Pattern UPLOAD_ID_PATTERN = Pattern.compile("<UploadId>([^<]*)</UploadId>");
+
+    /** Content type of the object, and of the parts. A content type must be sent with requests that have a body, as
+     * <code>HttpURLConnection</code> would otherwise send one of its own that would not be signed. */
+    private final static String OCTET_STREAM_CONTENT_TYPE = "application/octet-stream";
+
+    /** Matches the error code in an error response */
+    private final static Pattern ERROR_CODE_PATTERN = Pattern.compile("<Code>([^<]*)</Code>");
+
+    /** Scheme, host and port of the S3 server */
+    private final String endpoint;
+
+    private final AWSCredentials credentials;
+
+    /** Path of the object on the server, with a URL-encoded key */
+    private final String resource;
+
+    /** Upload id returned by S3, null until the upload has been initiated */
+    private String uploadId;
+
+    /**
+     * Creates a new upload of the given object, which must then be {@link #initiate() initiated}.
+     *
+     * @param endpoint scheme, host and port of the S3 server, for instance <code>https://s3.amazonaws.com:443</code>
+     * @param credentials the credentials to sign requests with
+     * @param bucketName name of the bucket that contains the object
+     * @param objectKey key of the object
+     * @throws IOException if the key could not be encoded
+     */
+    S3MultipartUpload(String endpoint, AWSCredentials credentials, String bucketName, String objectKey) throws IOException {
+        this.endpoint = endpoint;
+        this.credentials = credentials;
+        try {
+            this.resource = "/" + bucketName + "/" + RestUtils.encodeUrlPath(objectKey, "/");
+        } catch (S3ServiceException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Starts the upload. Parts can be uploaded once this method has returned.
+     *
+     * @throws IOException if the request failed
+     */
+    void initiate() throws IOException {
+        String response = execute("POST", "uploads", null, 0, OCTET_STREAM_CONTENT_TYPE);
+        Matcher matcher = UPLOAD_ID_PATTERN.matcher(response);
+        if (!matcher.find()) {
+            throw new IOException("No upload id in response: " + response);
+        }
+        uploadId = matcher.group(1);
+    }
+
+    /**
+     * Uploads a part of the object. All parts but the last must be at least 5MB long.
+     *
+     * @param partNumber number of the part, starting at 1
+     * @param data the buffer that holds the part
+     * @param length length of the part
+     * @return the ETag of the part, to be passed to {@link #complete(List)}
+     * @throws IOException if the request failed
+     */
+    String uploadPart(int partNumber, byte data[], int length) throws IOException {
+        HttpURLConnection conn = open("PUT", "partNumber=" + partNumber + "&uploadId=" + uploadId, data, length, OCTET_STREAM_CONTENT_TYPE);
+        read(conn);
+        String etag = conn.getHeaderField("ETag");
+        if (etag == null) {
+            throw new IOException("No ETag for part " + partNumber);
+        }
+        return etag;
+    }
+
+    /**
+     * Assembles the uploaded parts into the object.
+     *
+     * @param etags the ETags of the parts, in order
+     * @throws IOException if the request failed
+     */
+    void complete(List<String> etags) throws IOException {
+        StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+        for (int i = 0; i < etags.size(); i++) {
+            xml.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>").append(etags.get(i)).append("</ETag></Part>");
+        }
+        xml.append("</CompleteMultipartUpload>");
+
+        byte body[] = xml.toString().getBytes(StandardCharsets.UTF_8);
+        String response = execute("POST", "uploadId=" + uploadId, body, body.length, "application/xml");
+
+        // The request may fail after a 200 status has been sent, in which case the body contains the error
+        if (response.contains("<Error>")) {
+            throw new IOException("Complete Multipart Upload failed: " + getErrorCode(response));
+        }
+    }
+
+    /**
+     * Discards the parts that have been uploaded. Does nothing if the upload has not been initiated.
+     *
+     * @throws IOException if the request failed
+     */
+    void abort() throws IOException {
+        if (uploadId != null) {
+            execute("DELETE", "uploadId=" + uploadId, null, 0, null);
+        }
+    }
+
+    /**
+     * Executes a request on the object with the given sub-resources, and returns the body of the response.
+     */
+    private String execute(String method, String subResources, byte body[], int length, String contentType) throws IOException {
+        return read(open(method, subResources, body, length, contentType));
+    }
+
+    /**
+     * Signs and sends a request on the object with the given sub-resources and body.
+     */
+    private HttpURLConnection open(String method, String subResources, byte body[], int length, String contentType) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection)new URL(endpoint + resource + "?" + encodeSubResources(subResources)).openConnection();
+        conn.setRequestMethod(method);
+
+        String md5 = body == null ? null : getMD5(body, length);
+        String date = ServiceUtils.formatRfc822Date(new Date());
+        conn.setRequestProperty("Date", date);
+        if (md5 != null) {
+            conn.setRequestProperty("Content-MD5", md5);
+        }
+        if (contentType != null) {
+            conn.setRequestProperty("Content-Type", contentType);
+        }
+
+        // Sub-resources are signed in lexicographical order, with values that are not URL-encoded
+        String canonicalString = method + "\n" + (md5 == null ? "" : md5) + "\n"
+                + (contentType == null ? "" : contentType) + "\n" + date + "\n" + resource + "?" + subResources;
+        try {
+            conn.setRequestProperty("Authorization", "AWS " + credentials.getAccessKey() + ":"
+                    + ServiceUtils.signWithHmacSha1(credentials.getSecretKey(), canonicalString));
+        } catch (S3ServiceException e) {
+            throw new IOException(e);
+        }
+
+        if (body != null || !"DELETE".equals(method)) {
+            // Stream the body rather than letting the connection buffer it
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode(length);
+            try (OutputStream out = conn.getOutputStream()) {
+                if (body != null) {
+                    out.write(body, 0, length);
+                }
+            }
+        }
+
+        return conn;
+    }
+
+    /**
+     * Reads the body of the response, throwing an exception if the request failed. The body is read entirely so that
+     * the connection can be reused.
+     */
+    private static String read(HttpURLConnection conn) throws IOException {
+        int status = conn.getResponseCode();
+        InputStream in = status / 100 == 2 ? conn.getInputStream() : conn.getErrorStream();
+        String response = "";
+        if (in != null) {
+            try {
+                ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                StreamUtils.copyStream(in, bout);
+                response = new String(bout.toByteArray(), StandardCharsets.UTF_8);
+            } finally {
+                in.close();
+            }
+        }
+
+        if (status / 100 != 2) {
+            throw new IOException(conn.getRequestMethod() + " " + conn.getURL().getQuery().replaceAll("=.*", "")
+                    + " failed with status " + status + ": " + getErrorCode(response));
+        }
+        return response;
+    }
+
+    private static String encodeSubResources(String subResources) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String subResource : subResources.split("&")) {
+            if (sb.length() > 0) {
+                sb.append('&');
+            }
+            int i = subResource.indexOf('=');
+            try {
+                sb.append(i == -1 ? subResource : subResource.substring(0, i + 1) + RestUtils.encodeUrlString(subResource.substring(i + 1)));
+            } catch (S3ServiceException e) {
+                throw new IOException(e);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String getMD5(byte data[], int length) {
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            md5.update(data, 0, length);
+            return ServiceUtils.toBase64(md5.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 is available on all platforms
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String getErrorCode(String response) {
+        Matcher matcher = ERROR_CODE_PATTERN.matcher(response == null ? "" : response);
+        return matcher.find() ? matcher.group(1) : "no error code";
+    }
+}
@@ -3,17 +3,32 @@ package com.mucommander.commons.file.impl.s3;
 import com.mucommander.commons.file.*;
 import com.mucommander.commons.io.BufferPool;
 import com.mucommander.commons.io.FileTransferException;
+import com.mucommander.commons.io.ParallelRangeInputStream;
 import com.mucommander.commons.io.RandomAccessInputStream;
 import com.mucommander.commons.io.StreamUtils;
+import org.jets3t.service.Constants;
+import org.jets3t.service.Jets3tProperties;
 import org.jets3t.service.S3Service;
 import org.jets3t.service.S3ServiceException;
 import org.jets3t.service.model.S3Owner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <code>S3Object</code> represents an Amazon S3 object.
@@ -29,6 +44,42 @@ public class S3Object extends S3File {
     /** Maximum size of an S3 object (5GB) */
     private final static long MAX_OBJECT_SIZE = 5368709120l;
 
+    /** Minimum size of the parts of a multipart upload, except for the last one (5MB) */
+    private final static int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    /** Maximum number of parts of a multipart upload */
+    private final static int MAX_PARTS = 10000;
+
+    /** Number of bytes fetched by each GET request of a parallel download */
+    private final static int PARALLEL_DOWNLOAD_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /** Size of the parts of multipart uploads */
+    private static int multipartPartSize = 8 * 1024 * 1024;
+
+    /** Number of parts of a multipart upload that are uploaded concurrently */
+    private static int multipartConcurrency = 4;
+
+    /** Minimum size of the objects of known size that are uploaded in several parts */
+    private static long multipartThreshold = 16 * 1024 * 1024;
+
+    /** Maximum number of GET requests an object is downloaded with concurrently */
+    private static int parallelDownloadRequests = 4;
+
+    /** Minimum number of bytes to download for several requests to be used */
+    private static long parallelDownloadThreshold = 32 * 1024 * 1024;
+
+    /** Uploads the parts of multipart uploads */
+    private final static ExecutorService uploadExecutor;
+
+    static {
+        AtomicInteger threadCount = new AtomicInteger();
+        uploadExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "S3Object-upload-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
     // TODO: add support for ACL ? (would cost an extra request per object)
     /** Default permissions for S3 objects */
     private final static FilePermissions DEFAULT_PERMISSIONS = new SimpleFilePermissions(384);   // rw-------
@@ -48,6 +99,41 @@ public class S3Object extends S3File {
         atts = new S3ObjectFileAttributes(object);
     }
 
+    /**
+     * Sets how objects are uploaded in several parts. Objects whose size is unknown, or at least <code>minSize</code>
+     * bytes long, are uploaded in parts of <code>partSize</code> bytes, <code>concurrency</code> parts being uploaded
+     * at a time while the next one is read. This takes up to <code>(concurrency+1)*partSize</code> bytes of memory per
+     * upload. Smaller objects are uploaded with a single request.
+     *
+     * @param partSize size of the parts, at least 5MB as required by S3
+     * @param concurrency number of parts that are uploaded concurrently
+     * @param minSize minimum size of the objects of known size that are uploaded in several parts
+     */
+    public static void setMultipartUploads(int partSize, int concurrency, long minSize) {
+        if (partSize < MIN_PART_SIZE || concurrency < 1) {
+            throw new IllegalArgumentException("partSize=" + partSize + ", concurrency=" + concurrency);
+        }
+        multipartPartSize = partSize;
+        multipartConcurrency = concurrency;
+        multipartThreshold = minSize;
+    }
+
+    /**
+     * Sets the number of concurrent GET requests used to download the objects larger than the given size. Each
+     * request fetches a range of the object ahead of the reader. A value of <code>1</code> disables parallel
+     * downloads.
+     *
+     * @param maxRequests maximum number of concurrent requests an object is downloaded with
+     * @param minSize minimum number of bytes to download for several requests to be used
+     */
+    public static void setParallelDownloads(int maxRequests, long minSize) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("maxRequests=" + maxRequests);
+        }
+        parallelDownloadRequests = maxRequests;
+        parallelDownloadThreshold = minSize;
+    }
+
     private String getObjectKey() {
         String urlPath = fileURL.getPath();
         // Strip out the bucket name from the path
@@ -59,6 +145,18 @@ public class S3Object extends S3File {
         return wantTrailingSeparator?addTrailingSeparator(objectKey):removeTrailingSeparator(objectKey);
     }
 
+    /**
+     * Returns the scheme, host and port of the S3 server the service sends its requests to.
+     */
+    private String getEndpoint() {
+        Jets3tProperties properties = service.getJetS3tProperties();
+        boolean https = service.isHttpsOnly();
+        return (https?"https":"http") + "://"
+            + properties.getStringProperty("s3service.s3-endpoint", Constants.S3_HOSTNAME) + ":"
+            + (https?properties.getIntProperty("s3service.s3-endpoint-https-port", 443)
+                    :properties.getIntProperty("s3service.s3-endpoint-http-port", 80));
+    }
+
     /**
      * Uploads the object contained in the given input stream to S3 by performing a 'PUT Object' request.
      * The input stream is always closed, whether the operation failed or succeeded.
@@ -93,6 +191,127 @@ public class S3Object extends S3File {
         }
     }
 
+    /**
+     * Uploads the object contained in the given input stream to S3 in several parts, without having to know its
+     * length in advance. Parts are read into a bounded pool of buffers and uploaded concurrently. The object is
+     * uploaded with a single 'PUT Object' request if it fits in a single part. The upload is aborted if an error
+     * occurs, leaving the object unchanged. The input stream is not closed.
+     *
+     * @param in the stream that contains the object to be uploaded
+     * @param objectLength length of the object, <code>-1</code> if unknown
+     * @throws FileTransferException if an error occurred during the transfer
+     */
+    private void uploadMultipart(InputStream in, long objectLength) throws FileTransferException {
+        // Use larger parts if the object would otherwise have too many
+        int partSize = (int)Math.max(multipartPartSize, (objectLength + MAX_PARTS - 1) / MAX_PARTS);
+        // Buffers are returned to the pool once their part has been uploaded. The pool holds one more buffer than
+        // there are concurrent uploads so that the next part can be read in the meantime.
+        int maxBuffers = multipartConcurrency + 1;
+        BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(maxBuffers);
+        int nbBuffers = 0;
+
+        S3MultipartUpload upload = null;
+        List<Future<String>> parts = new ArrayList<>();
+        int nbCheckedParts = 0;
+        long nbBytesRead = 0;
+        try {
+            while (true) {
+                byte buffer[] = buffers.poll();
+                if (buffer == null) {
+                    if (nbBuffers < maxBuffers) {
+                        buffer = new byte[partSize];
+                        nbBuffers++;
+                    } else {
+                        buffer = buffers.take();
+                    }
+                }
+
+                // Fail early if a part could not be uploaded
+                while (nbCheckedParts < parts.size() && parts.get(nbCheckedParts).isDone()) {
+                    parts.get(nbCheckedParts++).get();
+                }
+
+                int partLength;
+                try {
+                    partLength = StreamUtils.readUpTo(in, buffer, 0, partSize);
+                } catch (IOException e) {
+                    throw new FileTransferException(FileTransferException.READING_SOURCE, nbBytesRead, e);
+                }
+                nbBytesRead += partLength;
+
+                if (upload == null) {
+                    if (partLength < partSize) {
+                        // The object fits in a single part
+                        putObject(new ByteArrayInputStream(buffer, 0, partLength), partLength);
+                        return;
+                    }
+                    try {
+                        upload = new S3MultipartUpload(getEndpoint(), service.getAWSCredentials(), bucketName, getObjectKey(false));
+                        upload.initiate();
+                    } catch (IOException e) {
+                        throw new FileTransferException(FileTransferException.OPENING_DESTINATION, e);
+                    }
+                } else if (partLength == 0) {
+                    // The previous part was the last one
+                    break;
+                }
+
+                if (parts.size() == MAX_PARTS) {
+                    throw new FileTransferException(FileTransferException.WRITING_DESTINATION, nbBytesRead);
+                }
+
+                final S3MultipartUpload finalUpload = upload;
+                final int partNumber = parts.size() + 1;
+                final byte partBuffer[] = buffer;
+                parts.add(uploadExecutor.submit(() -> {
+                    try {
+                        return finalUpload.uploadPart(partNumber, partBuffer, partLength);
+                    } finally {
+                        buffers.add(partBuffer);
+                    }
+                }));
+
+                if (partLength < partSize) {
+                    break;
+                }
+            }
+
+            List<String> etags = new ArrayList<>();
+            for (Future<String> part : parts) {
+                etags.add(part.get());
+            }
+            try {
+                upload.complete(etags);
+            } catch (IOException e) {
+                throw new FileTransferException(FileTransferException.CLOSING_DESTINATION, nbBytesRead, e);
+            }
+            LOGGER.debug("uploaded {} bytes in {} parts", nbBytesRead, parts.size());
+
+            // 'Complete Multipart Upload' does not return the object's attributes
+            atts.updateAttributes();
+            atts.updateExpirationDate();
+        } catch (FileTransferException | InterruptedException | ExecutionException e) {
+            for (Future<String> part : parts) {
+                part.cancel(true);
+            }
+            if (upload != null) {
+                try {
+                    upload.abort();
+                } catch (IOException e2) {
+                    LOGGER.info("Failed to abort multipart upload", e2);
+                }
+            }
+
+            if (e instanceof FileTransferException) {
+                throw (FileTransferException)e;
+            }
+            if (e instanceof InterruptedException) {
+                throw new FileTransferException(FileTransferException.UNKNOWN_REASON, nbBytesRead, new InterruptedIOException());
+            }
+            throw new FileTransferException(FileTransferException.WRITING_DESTINATION, nbBytesRead, e.getCause());
+        }
+    }
+
 
     ///////////////////////////
     // S3File implementation //
@@ -209,6 +428,18 @@ public class S3Object extends S3File {
 
     @Override
     public InputStream getInputStream(long offset) throws IOException {
+        if (parallelDownloadRequests > 1 && getSize() - offset >= parallelDownloadThreshold) {
+            // The size tells how much data can be requested ahead, it must be current
+            atts.updateAttributes();
+            atts.updateExpirationDate();
+            long size = getSize();
+            if (size - offset >= parallelDownloadThreshold) {
+                ParallelRangeInputStream.RangeReader reader = this::readRange;
+                return new ParallelRangeInputStream(Collections.nCopies(parallelDownloadRequests, reader),
+                        offset, size, PARALLEL_DOWNLOAD_CHUNK_SIZE);
+            }
+        }
+
         try {
             // Note: do *not* use S3ObjectRandomAccessInputStream if the object is to be read sequentially, as it would
             // add unnecessary billing overhead since it reads the object chunk by chunk, each in a separate GET request.
@@ -219,12 +450,31 @@ public class S3Object extends S3File {
         }
     }
 
+    /**
+     * Reads a range of the object with a 'GET Object' request, reading fewer bytes only if the object is shorter.
+     */
+    private int readRange(long offset, byte b[], int len) throws IOException {
+        try {
+            InputStream in = service.getObject(bucketName, getObjectKey(false), null, null, null, null, offset, offset+len-1)
+                .getDataInputStream();
+            try {
+                return StreamUtils.readUpTo(in, b, 0, len);
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch(S3ServiceException e) {
+            throw getIOException(e);
+        }
+    }
+
     @Override
     public RandomAccessInputStream getRandomAccessInputStream() throws IOException {
         if(!exists())
             throw new IOException();
 
-        return new S3ObjectRandomAccessInputStream();
+        return RandomAccessCache.getRandomAccessInputStream(this, S3ObjectRandomAccessInputStream::new);
     }
 
     @Override
@@ -317,54 +567,13 @@ public class S3Object extends S3File {
 
         // TODO: compute md5 ?
 
-        // If the length is known, we can upload the object directly without having to go through the tedious process
-        // of copying the stream to a temporary file.
-        if(length>=0) {
-            putObject(in, length);
+        // Upload the object in parts if its length is not known in advance, which saves copying it to a temporary
+        // file, or if it is large enough to benefit from concurrent uploads (or too large for a single request).
+        if(length<0 || length>=multipartThreshold || length>MAX_OBJECT_SIZE) {
+            uploadMultipart(in, length);
         }
         else {
-            // Copy the stream to a temporary file so that we can know the object's length, which has to be declared
-            // in the PUT request's headers (that is before the transfer is started).
-            final AbstractFile tempFile;
-            final OutputStream tempOut;
-            try {
-                tempFile = FileFactory.getTemporaryFile(false);
-                tempOut = tempFile.getOutputStream();
-            } catch (IOException e) {
-                throw new FileTransferException(FileTransferException.OPENING_DESTINATION);
-            }
-
-            try {
-                // Copy the stream to the temporary file
-                try {
-                    StreamUtils.copyStream(in, tempOut, IO_BUFFER_SIZE);
-                }
-                finally {
-                    // Close the stream even if copyStream() threw an IOException
-                    try {
-                        tempOut.close();
-                    } catch(IOException e) {
-                        // Do not re-throw the exception to prevent swallowing the exception thrown in the try block
-                    }
-                }
-
-                InputStream tempIn;
-                try {
-                    tempIn = tempFile.getInputStream();
-                } catch(IOException e) {
-                    throw new FileTransferException(FileTransferException.OPENING_SOURCE);
-                }
-
-                putObject(tempIn, tempFile.getSize());
-            }
-            finally {
-                // Delete the temporary file, no matter what.
-                try {
-                    tempFile.delete();
-                } catch(IOException e) {
-                    // Do not re-throw the exception to prevent exceptions caught in the catch block from being replaced
-                }
-            }
+            putObject(in, length);
         }
     }
 
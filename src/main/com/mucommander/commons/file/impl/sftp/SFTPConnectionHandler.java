@@ -10,7 +10,7 @@ import com.sshtools.publickey.SshPrivateKeyFile;
 import com.sshtools.publickey.SshPrivateKeyFileFactory;
 import com.sshtools.sftp.SftpClient;
 import com.sshtools.sftp.SftpStatusException;
-import com.sshtools.sftp.SftpSubsystemChannel;
+import com.sshtools.sftp.SftpSubsystemChannelEx;
 import com.sshtools.ssh.*;
 import com.sshtools.ssh.components.SshKeyPair;
 import com.sshtools.ssh2.*;
@@ -34,7 +34,7 @@ class SFTPConnectionHandler extends ConnectionHandler {
 
     Ssh2Client sshClient;
     SftpClient sftpClient;
-    SftpSubsystemChannel sftpSubsystem;
+    SftpSubsystemChannelEx sftpSubsystem;
 
     /** 'Password' SSH authentication method */
     private final static String PASSWORD_AUTH_METHOD = "password";
@@ -190,7 +190,7 @@ class SFTPConnectionHandler extends ConnectionHandler {
             if (session instanceof Ssh2Session) {
                 ((Ssh2Session) session).startSubsystem("sftp");
             }
-            sftpSubsystem = new SftpSubsystemChannel(session);
+            sftpSubsystem = new SftpSubsystemChannelEx(session);
             sftpSubsystem.initialize();
         } catch(IOException | SftpStatusException | SshException | ChannelOpenException e) {
             LOGGER.info("IOException thrown while starting connection", e);
@@ -30,7 +30,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
 
 
 /**
@@ -73,11 +77,34 @@ public class SFTPFile extends ProtocolFile {
     private String canonicalPath;
     /** Timestamp when the canonical path value was fetched */
     private long canonicalPathFetchedTime;
+    /** The file this symlink points to as resolved by {@link #ls()}, null if it hasn't been resolved */
+    private AbstractFile canonicalFile;
+    /** The raw symlink target as resolved by {@link #ls()}, null if it hasn't been resolved */
+    private String linkTarget;
 
 
     /** Period of time during which file attributes are cached, before being fetched again from the server. */
     private static long attributeCachingPeriod = 60000;
 
+    /** Period of time during which the attributes of the files returned by {@link #ls()} are cached, -1 for as long as
+     * the files are not listed again */
+    private static long listingCachingPeriod = -1;
+
+    /** Number of read or write requests that streams keep outstanding */
+    private static int transferWindow = 64;
+
+    /** Number of bytes read or written by each request */
+    private static int transferBlockSize = 32768;
+
+    /** Maximum number of connections a file is downloaded with */
+    private static int parallelDownloadConnections = 4;
+
+    /** Minimum number of bytes to download for several connections to be used */
+    private static long parallelDownloadThreshold = 32 * 1024 * 1024;
+
+    /** Number of bytes downloaded by a connection at a time during a parallel download */
+    private final static int PARALLEL_DOWNLOAD_CHUNK_SIZE = 1024 * 1024;
+
     /** a SFTPConnectionHandlerFactory instance */
     private final static SFTPConnectionHandlerFactory CONN_HANDLER_FACTORY = new SFTPConnectionHandlerFactory();
 
@@ -124,6 +151,55 @@ public class SFTPFile extends ProtocolFile {
         attributeCachingPeriod = period;
     }
 
+    /**
+     * Sets the time period during which the attributes of the files returned by {@link #ls()}, and the targets of the
+     * symlinks amongst them, are cached. The default value <code>-1</code> keeps them until the folder is listed again,
+     * which replaces them, so that displaying and sorting a large folder does not cause any request to the server.
+     * Folders are not affected and use the {@link #setAttributeCachingPeriod(long) attribute caching period}, as
+     * changes to the current folder are detected by polling its date.
+     *
+     * @param period time period during which the attributes of listed files are cached, in milliseconds, -1 to keep
+     * them until the next listing
+     */
+    public static void setListingCachingPeriod(long period) {
+        listingCachingPeriod = period;
+    }
+
+    /**
+     * Sets the number of read or write requests that the streams returned by this class keep outstanding, and the
+     * number of bytes each request reads or writes. A window large enough to cover the round-trip time to the server
+     * keeps the link busy: with the default 64 requests of 32 KB, a link with a 50 ms round-trip can be filled up to
+     * 40 MB/s. Some servers cap the number of bytes returned by a read request, requests are then split.
+     *
+     * @param window number of outstanding requests, at least 1
+     * @param blockSize number of bytes read or written by each request
+     */
+    public static void setTransferWindow(int window, int blockSize) {
+        if (window < 1 || blockSize < 1) {
+            throw new IllegalArgumentException("window=" + window + ", blockSize=" + blockSize);
+        }
+        transferWindow = window;
+        transferBlockSize = blockSize;
+    }
+
+    /**
+     * Sets the number of connections used to download the files larger than the given size. Each connection downloads
+     * chunks of the file ahead of the reader. Additional connections are only opened if the
+     * {@link ConnectionPool#getMaxConnections(FileURL) maximum} for the server has not been reached, the download
+     * otherwise proceeds with the connections that are available. A value of <code>1</code> disables parallel
+     * downloads.
+     *
+     * @param maxConnections maximum number of connections a file is downloaded with
+     * @param minSize minimum number of bytes to download for several connections to be used
+     */
+    public static void setParallelDownloads(int maxConnections, long minSize) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections=" + maxConnections);
+        }
+        parallelDownloadConnections = maxConnections;
+        parallelDownloadThreshold = minSize;
+    }
+
     private OutputStream getOutputStream(boolean append) throws IOException {
         // Retrieve a ConnectionHandler and lock it
         final SFTPConnectionHandler connHandler = (SFTPConnectionHandler)ConnectionPool.getConnectionHandler(CONN_HANDLER_FACTORY, fileURL, true);
@@ -153,15 +229,16 @@ public class SFTPFile extends ProtocolFile {
                 fileAttributes.setSize(0);
             }
 
-            // Custom SftpFileOutputStream constructor, not part of the official J2SSH API
-            OutputStream os = new SftpFileOutputStreamEx(sftpFile, append ? getSize() : 0L) {
+            OutputStream os = new SftpPipelinedOutputStream(sftpFile, append ? getSize() : 0L, transferWindow, transferBlockSize) {
                 @Override
                 public void close() throws IOException {
-                    // SftpFileOutputStream.close() closes the open SftpFile file handle
-                    super.close();
-
-                    // Release the lock on the ConnectionHandler
-                    connHandler.releaseLock();
+                    try {
+                        // SftpPipelinedOutputStream.close() closes the open SftpFile file handle
+                        super.close();
+                    } finally {
+                        // Release the lock on the ConnectionHandler
+                        connHandler.releaseLock();
+                    }
                 }
             };
             ByteCounter byteCounter = new ByteCounter() {
@@ -364,7 +441,7 @@ public class SFTPFile extends ProtocolFile {
 
     @Override
     public RandomAccessInputStream getRandomAccessInputStream() throws IOException {
-        return new SFTPRandomAccessInputStream();
+        return RandomAccessCache.getRandomAccessInputStream(this, SFTPRandomAccessInputStream::new);
     }
 
     @Override
@@ -405,17 +482,65 @@ public class SFTPFile extends ProtocolFile {
 
     @Override
     public AbstractFile[] ls() throws IOException {
+        String parentPath = fileURL.getPath();
+        if (!parentPath.endsWith(SEPARATOR)) {
+            parentPath += SEPARATOR;
+        }
+
+        List<SftpFile> files = new ArrayList<>();
+        List<SftpFile> links = new ArrayList<>();
+        String linkTargets[];
+        SftpFileAttributes targetAttributes[];
+
         // Retrieve a ConnectionHandler and lock it
         SFTPConnectionHandler connHandler = (SFTPConnectionHandler)ConnectionPool.getConnectionHandler(CONN_HANDLER_FACTORY, fileURL, true);
-        SftpFile[] files;
         try {
             // Makes sure the connection is started, if not starts it
             connHandler.checkConnection();
 
-    //        connHandler.sftpSubsystem.listChildren(file, files);        // Modified J2SSH method to remove the 100 files limitation
+            long start = System.currentTimeMillis();
+            long nbRequests = connHandler.sftpSubsystem.getRequestCount();
+            long nbRoundTrips = connHandler.sftpSubsystem.getRoundTripCount();
+
+            // List the folder on the channel that is used for the other requests, rather than with SftpClient#ls()
+            // which has a channel of its own, so that the requests can be accounted for
+            SftpFile folder = connHandler.sftpSubsystem.openDirectory(absPath);
+            try {
+                Vector<SftpFile> children = new Vector<>();
+                while (connHandler.sftpSubsystem.listChildren(folder, children) > -1) {
+                    // Keep reading until the end of the folder
+                }
+
+                // Discard '.' and '..' files, dunno why these are returned
+                for (SftpFile file : children) {
+                    String filename = file.getFilename();
+                    if (filename.equals(".") || filename.equals("..")) {
+                        continue;
+                    }
+                    files.add(file);
+                    if (file.getAttributes().isLink()) {
+                        links.add(file);
+                    }
+                }
+            } finally {
+                folder.close();
+            }
 
-            // Use SftpClient.ls() rather than SftpChannel.listChildren() as it seems to be working better
-            files = connHandler.sftpClient.ls(absPath);
+            // Resolve the symlinks and read the attributes of their targets in two batches, rather than with two
+            // requests per symlink when their attributes are first displayed
+            String linkPaths[] = new String[links.size()];
+            for (int i = 0; i < linkPaths.length; i++) {
+                linkPaths[i] = parentPath + links.get(i).getFilename();
+            }
+            linkTargets = connHandler.sftpSubsystem.getSymbolicLinkTargets(linkPaths);
+            targetAttributes = connHandler.sftpSubsystem.getAttributes(linkPaths);
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("listed {} in {} ms: {} files, {} symlinks, {} requests, {} round trips", new Object[] {absPath,
+                        System.currentTimeMillis() - start, files.size(), links.size(),
+                        connHandler.sftpSubsystem.getRequestCount() - nbRequests,
+                        connHandler.sftpSubsystem.getRoundTripCount() - nbRoundTrips});
+            }
         } catch (SftpStatusException | SshException e) {
             e.printStackTrace();
             throw new IOException(e);
@@ -424,49 +549,59 @@ public class SFTPFile extends ProtocolFile {
             connHandler.releaseLock();
         }
 
-        int nbFiles = files.length;
-
-        // File doesn't exist, return an empty file array
-        if (nbFiles == 0)
-            return new AbstractFile[] {};
-
-        AbstractFile children[] = new AbstractFile[nbFiles];
-
-        int fileCount = 0;
-        String parentPath = fileURL.getPath();
-        if (!parentPath.endsWith(SEPARATOR)) {
-            parentPath += SEPARATOR;
-        }
-
-        // Fill AbstractFile array and discard '.' and '..' files
-        for (SftpFile file : files) {
-            String filename = file.getFilename();
-            // Discard '.' and '..' files, dunno why these are returned
-            if (filename.equals(".") || filename.equals(".."))
-                continue;
-
+        AbstractFile children[] = new AbstractFile[files.size()];
+        int linkIndex = 0;
+        for (int i = 0; i < children.length; i++) {
+            SftpFile file = files.get(i);
             FileURL childURL = (FileURL) fileURL.clone();
-            childURL.setPath(parentPath + filename);
+            childURL.setPath(parentPath + file.getFilename());
 
             try {
-                children[fileCount++] = FileFactory.getFile(childURL, this, new SFTPFileAttributes(childURL, file.getAttributes()));
+                children[i] = FileFactory.getFile(childURL, this, new SFTPFileAttributes(childURL, file.getAttributes()));
             } catch (SftpStatusException | SshException e) {
                 e.printStackTrace();
                 throw new IOException(e);
             }
-        }
 
-        // create new array of the exact file count
-        if (fileCount < nbFiles) {
-            AbstractFile newChildren[] = new AbstractFile[fileCount];
-            System.arraycopy(children, 0, newChildren, 0, fileCount);
-            return newChildren;
+            if (linkIndex < links.size() && links.get(linkIndex) == file) {
+                String linkTarget = linkTargets[linkIndex];
+                SftpFileAttributes attributes = targetAttributes[linkIndex];
+                linkIndex++;
+
+                SFTPFile child = children[i].getAncestor(SFTPFile.class);
+                if (linkTarget != null && attributes != null && child != null) {
+                    FileURL canonicalURL = (FileURL)fileURL.clone();
+                    canonicalURL.setPath(linkTarget.startsWith("/") ? linkTarget : parentPath + linkTarget);
+                    child.setResolvedLink(linkTarget, FileFactory.getFile(canonicalURL, null, new SFTPFileAttributes(canonicalURL, attributes)));
+                }
+            }
         }
 
         return children;
     }
 
-	
+    /**
+     * Sets the target of this symlink and the file it points to, as resolved by {@link #ls()}.
+     *
+     * @param linkTarget the raw symlink target
+     * @param canonicalFile the file this symlink points to
+     */
+    private void setResolvedLink(String linkTarget, AbstractFile canonicalFile) {
+        this.linkTarget = linkTarget;
+        this.canonicalFile = canonicalFile;
+        this.canonicalPath = canonicalFile.getURL().toString(false);
+        this.canonicalPathFetchedTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns <code>true</code> if the canonical path has been fetched and has not expired. It expires along with the
+     * attributes of this file.
+     */
+    private boolean isCanonicalPathFresh() {
+        long ttl = fileAttributes.getTtl();
+        return canonicalPath != null && (ttl < 0 || System.currentTimeMillis() - canonicalPathFetchedTime < ttl);
+    }
+
     @Override
     public void mkdir() throws IOException {
         // Retrieve a ConnectionHandler and lock it
@@ -654,18 +789,29 @@ public class SFTPFile extends ProtocolFile {
             connHandler.checkConnection();
 
             SftpFile sftpFile = connHandler.sftpSubsystem.openFile(absPath, SftpSubsystemChannel.OPEN_READ);
+            // The size tells how much data can be requested ahead, it must be current
+            long size = connHandler.sftpSubsystem.getAttributes(absPath).getSize().longValue();
+
+            if (parallelDownloadConnections > 1 && size - offset >= parallelDownloadThreshold) {
+                List<ParallelDownloadSource> sources = getParallelDownloadSources(size);
+                if (!sources.isEmpty()) {
+                    sources.add(0, new ParallelDownloadSource(connHandler,
+                            new SftpPipelinedInputStream(sftpFile, offset, size, transferWindow, transferBlockSize)));
+                    return new ParallelRangeInputStream(sources, offset, size, PARALLEL_DOWNLOAD_CHUNK_SIZE);
+                }
+            }
 
-            // Custom made constructor, not part of the official J2SSH API
-            return new SftpFileInputStream(sftpFile, offset) {
-
-                    @Override
-                    public void close() throws IOException {
-                        // SftpFileInputStream.close() closes the open SftpFile file handle
+            return new SftpPipelinedInputStream(sftpFile, offset, size, transferWindow, transferBlockSize) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        // SftpPipelinedInputStream.close() closes the open SftpFile file handle
                         super.close();
+                    } finally {
                         // Release the lock on the ConnectionHandler
                         connHandler.releaseLock();
+                    }
                 }
-
             };
         } catch(IOException e) {
             // Release the lock on the ConnectionHandler if the InputStream could not be created
@@ -674,16 +820,47 @@ public class SFTPFile extends ProtocolFile {
             // Re-throw IOException
             throw e;
         } catch (SshException | SftpStatusException e) {
-            e.printStackTrace();
+            // Release the lock on the ConnectionHandler if the InputStream could not be created
+            connHandler.releaseLock();
             throw new IOException(e);
         }
     }
 
+    /**
+     * Opens this file with the additional connections that can be used for a parallel download, without waiting for
+     * connections in use by others. Connections that fail to connect or open the file are released and skipped.
+     *
+     * @param size the size of the file
+     * @return the additional connections and their streams, empty if none could be obtained
+     * @throws InterruptedIOException if the thread was interrupted
+     */
+    private List<ParallelDownloadSource> getParallelDownloadSources(long size) throws InterruptedIOException {
+        List<ParallelDownloadSource> sources = new ArrayList<>();
+        for (int i = 1; i < parallelDownloadConnections; i++) {
+            SFTPConnectionHandler connHandler = (SFTPConnectionHandler)ConnectionPool.tryGetConnectionHandler(CONN_HANDLER_FACTORY, fileURL, true);
+            if (connHandler == null) {
+                break;
+            }
+
+            try {
+                connHandler.checkConnection();
+                SftpFile sftpFile = connHandler.sftpSubsystem.openFile(absPath, SftpSubsystemChannel.OPEN_READ);
+                sources.add(new ParallelDownloadSource(connHandler,
+                        new SftpPipelinedInputStream(sftpFile, 0, size, transferWindow, transferBlockSize)));
+            } catch (IOException | SshException | SftpStatusException e) {
+                LOGGER.info("Could not open an additional connection to {}", fileURL, e);
+                connHandler.releaseLock();
+                break;
+            }
+        }
+        return sources;
+    }
+
     @Override
     public String getCanonicalPath() {
         if (isSymlink()) {
             // Check if there is a previous value that hasn't expired yet
-            if (canonicalPath != null && (System.currentTimeMillis() - canonicalPathFetchedTime < attributeCachingPeriod))
+            if (isCanonicalPathFresh())
                 return canonicalPath;
 
             SFTPConnectionHandler connHandler = null;
@@ -711,6 +888,8 @@ public class SFTPFile extends ProtocolFile {
                 // Cache the value and return it until it expires
                 canonicalPath = canonicalURL.toString(false);
                 canonicalPathFetchedTime = System.currentTimeMillis();
+                canonicalFile = null;
+                linkTarget = null;
                 return canonicalPath;
             } catch(IOException | SftpStatusException | SshException e) {
                 // Simply continue and return the absolute path
@@ -726,6 +905,16 @@ public class SFTPFile extends ProtocolFile {
         return getAbsolutePath();
     }
 
+    @Override
+    public AbstractFile getCanonicalFile() {
+        // Reuse the file resolved by ls() as long as it is fresh, rather than looking it up and fetching its attributes
+        AbstractFile canonicalFile = this.canonicalFile;
+        if (canonicalFile != null && isSymlink() && isCanonicalPathFresh()) {
+            return canonicalFile;
+        }
+        return super.getCanonicalFile();
+    }
+
     /**
      * If the SFTPFile is a symbolic link, this method returns the name of the file being pointed to by the symbolic link.
      * @return The file pointed to by the symbolic link (null if the FTPFile is not a symbolic link).
@@ -734,6 +923,10 @@ public class SFTPFile extends ProtocolFile {
         if (!isSymlink()) {
             return null;
         }
+        String linkTarget = this.linkTarget;
+        if (linkTarget != null && isCanonicalPathFresh()) {
+            return linkTarget;
+        }
         String symlinkTargetPath;
         SFTPConnectionHandler connHandler = null;
         // Retrieve a ConnectionHandler and lock it
@@ -789,7 +982,8 @@ public class SFTPFile extends ProtocolFile {
 
         // this constructor is called by #ls()
         private SFTPFileAttributes(FileURL url, SftpFileAttributes attrs) {
-            super(attributeCachingPeriod, false);   // no initial update
+            // no initial update, the attributes of listed folders expire as the date of the current folder is polled
+            super(attrs.isDirectory() ? attributeCachingPeriod : listingCachingPeriod, false);
 
             this.url = url;
             setPermissions(FilePermissions.EMPTY_FILE_PERMISSIONS);
@@ -911,17 +1105,22 @@ public class SFTPFile extends ProtocolFile {
      */
     private class SFTPRandomAccessInputStream extends RandomAccessInputStream {
 
-        private SftpFileInputStreamEx in;
+        private final SFTPConnectionHandler connHandler;
+
+        private SftpPipelinedInputStream in;
 
         private SFTPRandomAccessInputStream() throws IOException {
+            connHandler = (SFTPConnectionHandler)ConnectionPool.getConnectionHandler(CONN_HANDLER_FACTORY, fileURL, true);
             try {
-                final SFTPConnectionHandler connHandler = (SFTPConnectionHandler)ConnectionPool.getConnectionHandler(CONN_HANDLER_FACTORY, fileURL, true);
-                    // Makes sure the connection is started, if not starts it
-                    connHandler.checkConnection();
+                // Makes sure the connection is started, if not starts it
+                connHandler.checkConnection();
                 SftpFile sftpFile = connHandler.sftpSubsystem.openFile(absPath, SftpSubsystemChannel.OPEN_READ);
-                this.in = new SftpFileInputStreamEx(sftpFile);//SftpFileInputStreamEx)getInputStream();
+                this.in = new SftpPipelinedInputStream(sftpFile, 0, getSize(), transferWindow, transferBlockSize);
+            } catch (IOException e) {
+                connHandler.releaseLock();
+                throw e;
             } catch (SftpStatusException | SshException e) {
-                e.printStackTrace();
+                connHandler.releaseLock();
                 throw new IOException(e);
             }
         }
@@ -937,7 +1136,6 @@ public class SFTPFile extends ProtocolFile {
         }
 
         public long getOffset() {
-            // Custom method, not part of the official J2SSH API
             return in.getPosition();
         }
 
@@ -945,14 +1143,46 @@ public class SFTPFile extends ProtocolFile {
             return getSize();
         }
 
-        public void seek(long offset) {
-            // Custom method, not part of the official J2SSH API
-            in.setPosition(offset);
+        public void seek(long offset) throws IOException {
+            in.seek(offset);
         }
 
         @Override
         public void close() throws IOException {
-            in.close();
+            try {
+                in.close();
+            } finally {
+                connHandler.releaseLock();
+            }
+        }
+    }
+
+    /**
+     * Downloads chunks of a file for a {@link ParallelRangeInputStream} with a locked connection and a stream on the
+     * file opened with it. The stream is closed and the connection released once the download is over.
+     */
+    private static class ParallelDownloadSource implements ParallelRangeInputStream.RangeReader {
+
+        private final ConnectionHandler connHandler;
+
+        private final SftpPipelinedInputStream in;
+
+        private ParallelDownloadSource(ConnectionHandler connHandler, SftpPipelinedInputStream in) {
+            this.connHandler = connHandler;
+            this.in = in;
+        }
+
+        public int read(long offset, byte b[], int len) throws IOException {
+            in.setRange(offset, offset + len);
+            return StreamUtils.readUpTo(in, b, 0, len);
+        }
+
+        public void close() throws IOException {
+            try {
+                in.close();
+            } finally {
+                connHandler.releaseLock();
+            }
         }
     }
 
@@ -334,7 +334,7 @@ import java.net.MalformedURLException;
 
 //        // Explicitly allow the file to be read/write/delete by another random access file while this one is open
 //        return new SMBRandomAccessInputStream(new SmbRandomAccessFile(fileURL.toString(true), "r", SmbFile.FILE_SHARE_READ | SmbFile.FILE_SHARE_WRITE | SmbFile.FILE_SHARE_DELETE));
-        return new SMBRandomAccessInputStream(new SmbRandomAccessFile(file, "r"));
+        return RandomAccessCache.getRandomAccessInputStream(this, () -> new SMBRandomAccessInputStream(new SmbRandomAccessFile(file, "r")));
     }
 
     @Override
@@ -0,0 +1,353 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.file.impl.zip.provider;
+
+import com.mucommander.commons.io.RandomAccessOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A {@link ZipOutputStream} that deflates entries on a pool of threads, so that creating an archive is not limited
+ * by the speed of a single core.
+ *
+ * <p>The data of each entry is split into chunks that are deflated independently, the way <i>pigz</i> does: each
+ * chunk is deflated with the end of the previous one as a preset dictionary, so that the compression ratio is almost
+ * the same as with a single <code>Deflater</code>, and ends with a sync flush so that the compressed chunks can simply
+ * be concatenated. The last chunk of an entry finishes the deflate stream. The entries that follow do not wait for the
+ * previous ones to be deflated, so that small files are deflated in parallel as well.
+ *
+ * <p>Local file headers, compressed data, data descriptors and the central directory are written in order by the
+ * thread that writes to this stream, as the deflated chunks become available. The number of chunks waiting to be
+ * written is bounded so that memory use does not depend on the size of the entries, writing to this stream blocks
+ * once the limit has been reached. CRCs are calculated by the thread that writes to this stream.
+ *
+ * @see ZipOutputStream
+ */
+public class ParallelZipOutputStream extends ZipOutputStream {
+
+    /** Size of the chunks that entries are split into: 1MB */
+    public final static int CHUNK_SIZE = 1024 * 1024;
+
+    /** Size of the deflate window, the end of a chunk is the dictionary of the next one */
+    private final static int DICTIONARY_SIZE = 32 * 1024;
+
+    /** Size of the buffer that a chunk is deflated into */
+    private final static int DEFLATE_BUFFER_SIZE = 64 * 1024;
+
+    /** Deflater of each thread of the pools, reused for all the chunks the thread deflates */
+    private final static ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(DEFAULT_DEFLATER_COMPRESSION, true));
+
+    /** Deflates chunks */
+    private final ExecutorService executor;
+
+    /** Maximum number of chunks waiting to be written */
+    private final int maxPendingChunks;
+
+    /** Headers, chunks and entry ends waiting to be written, in order */
+    private final Deque<PendingWrite> pendingWrites = new ArrayDeque<>();
+
+    /** Number of chunks in {@link #pendingWrites} */
+    private int nbPendingChunks;
+
+    /** Current entry, null if none */
+    private ZipEntry entry;
+
+    /** CRC of the current entry */
+    private final CRC32 crc = new CRC32();
+
+    /** Uncompressed size of the current entry */
+    private long entrySize;
+
+    /** Chunk being filled, null until the current entry's first byte or the first one after a chunk is full */
+    private byte chunk[];
+
+    /** Number of bytes in {@link #chunk} */
+    private int chunkLength;
+
+    /** The previous chunk of the current entry, whose end is the next chunk's dictionary, null for the first chunk */
+    private byte previousChunk[];
+
+    /**
+     * Creates a new <code>ParallelZipOutputStream</code> that writes Zip-compressed data to the given
+     * <code>OutputStream</code>, deflating entries with the given number of threads. If a
+     * {@link RandomAccessOutputStream} is supplied, the Zip entries will be written without data descriptor.
+     *
+     * @param out the underlying OutputStream stream where compressed data is written to
+     * @param nbThreads number of threads that deflate entries
+     */
+    public ParallelZipOutputStream(OutputStream out, int nbThreads) {
+        super(out);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(nbThreads, runnable -> {
+            Thread thread = new Thread(runnable, "ZipDeflater-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        maxPendingChunks = nbThreads * 2;
+    }
+
+    @Override
+    public void putNextEntry(ZipEntry ze) throws IOException {
+        closeEntry();
+
+        entry = ze;
+        addEntry(ze);
+        crc.reset();
+        entrySize = 0;
+        chunk = null;
+        previousChunk = null;
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        writeLocalFileHeader(ze, header, encoding, !hasRandomAccess, zipBuffer);
+        enqueue(new PendingWrite(CompletableFuture.completedFuture(header.toByteArray()), ze, false));
+    }
+
+    @Override
+    public void closeEntry() throws IOException {
+        if (entry == null) {
+            return;
+        }
+
+        submitChunk(true);
+
+        entry.setSize(entrySize);
+        entry.setCrc(crc.getValue());
+        // The compressed size is set once the compressed data has been written
+        enqueue(new PendingWrite(null, entry, true));
+
+        entry = null;
+        chunk = null;
+        previousChunk = null;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        closeEntry();
+        while (!pendingWrites.isEmpty()) {
+            writeNext();
+        }
+        super.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Submits the chunk being filled to be deflated, or passes it as is if the current entry is stored.
+     */
+    private void submitChunk(boolean last) throws IOException {
+        byte data[] = chunk == null ? new byte[0] : chunk;
+        int length = chunkLength;
+        byte dictionary[] = previousChunk;
+
+        CompletableFuture<byte[]> future;
+        if (entry.getMethod() == DEFLATED) {
+            int level = this.level;
+            future = CompletableFuture.supplyAsync(() -> deflate(data, length, dictionary, level, last), executor);
+        } else {
+            future = CompletableFuture.completedFuture(length == data.length ? data : Arrays.copyOf(data, length));
+        }
+
+        previousChunk = data;
+        chunk = null;
+        chunkLength = 0;
+        enqueue(new PendingWrite(future, null, false));
+    }
+
+    /**
+     * Deflates a chunk, ending it with a sync flush unless it is the last of its entry.
+     */
+    private static byte[] deflate(byte chunk[], int length, byte dictionary[], int level, boolean last) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+        }
+        deflater.setInput(chunk, 0, length);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+        byte buffer[] = new byte[DEFLATE_BUFFER_SIZE];
+        if (last) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } else {
+            // The output buffer being filled means that there may be more output
+            int nbDeflated;
+            do {
+                nbDeflated = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                compressed.write(buffer, 0, nbDeflated);
+            } while (nbDeflated == buffer.length);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Adds a write to the queue, writes the ones that are ready, and waits for the oldest chunks if too many are pending.
+     */
+    private void enqueue(PendingWrite pendingWrite) throws IOException {
+        pendingWrites.add(pendingWrite);
+        if (pendingWrite.isChunk()) {
+            nbPendingChunks++;
+        }
+
+        while (!pendingWrites.isEmpty() && (nbPendingChunks > maxPendingChunks || pendingWrites.peek().isReady())) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Writes the oldest pending write, waiting for it to be ready.
+     */
+    private void writeNext() throws IOException {
+        PendingWrite pendingWrite = pendingWrites.poll();
+        ZipEntry ze = pendingWrite.entry;
+
+        if (pendingWrite.entryEnd) {
+            ze.setCompressedSize(written - ze.getEntryInfo().dataOffset);
+            if (hasRandomAccess) {
+                updateLocalFileHeader(ze, (RandomAccessOutputStream)out, zipBuffer);
+            } else {
+                written += writeDataDescriptor(ze, out, zipBuffer);
+            }
+            return;
+        }
+
+        byte data[];
+        try {
+            data = pendingWrite.data.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to deflate Zip entry", e.getCause());
+        }
+
+        if (ze != null) {
+            ze.getEntryInfo().headerOffset = written;
+        } else {
+            nbPendingChunks--;
+        }
+        out.write(data);
+        written += data.length;
+        if (ze != null) {
+            ze.getEntryInfo().dataOffset = written;
+        }
+    }
+
+
+    /////////////////////////////////
+    // OutputStream implementation //
+    /////////////////////////////////
+
+    /**
+     * Writes the given bytes to the current Zip entry opened with {@link #putNextEntry(ZipEntry)}. If no entry is
+     * currently open, the bytes are written as-is to the underlying <code>OutputStream</code> once the pending entries
+     * have been written.
+     *
+     * @param b the byte array to write
+     * @param offset the start position to write from
+     * @param length the number of bytes to write
+     * @throws IOException on error
+     */
+    @Override
+    public void write(byte[] b, int offset, int length) throws IOException {
+        if (entry == null) {
+            while (!pendingWrites.isEmpty()) {
+                writeNext();
+            }
+            out.write(b, offset, length);
+            return;
+        }
+
+        crc.update(b, offset, length);
+        entrySize += length;
+        while (length > 0) {
+            if (chunk == null) {
+                chunk = new byte[CHUNK_SIZE];
+            }
+            int nbCopied = Math.min(length, CHUNK_SIZE - chunkLength);
+            System.arraycopy(b, offset, chunk, chunkLength, nbCopied);
+            chunkLength += nbCopied;
+            offset += nbCopied;
+            length -= nbCopied;
+
+            if (chunkLength == CHUNK_SIZE) {
+                submitChunk(false);
+            }
+        }
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte)b}, 0, 1);
+    }
+
+
+    /**
+     * Data waiting to be written: the local file header of an entry, a chunk of its data, or the end of the entry.
+     */
+    private static class PendingWrite {
+        /** The bytes to write, null for the end of an entry */
+        private final CompletableFuture<byte[]> data;
+        /** The entry this is the header or the end of, null for a chunk */
+        private final ZipEntry entry;
+        private final boolean entryEnd;
+
+        private PendingWrite(CompletableFuture<byte[]> data, ZipEntry entry, boolean entryEnd) {
+            this.data = data;
+            this.entry = entry;
+            this.entryEnd = entryEnd;
+        }
+
+        private boolean isChunk() {
+            return entry == null;
+        }
+
+        private boolean isReady() {
+            return data == null || data.isDone();
+        }
+    }
+}
@@ -56,10 +56,10 @@ public class ZipOutputStream extends OutputStream implements ZipConstants {
     private String comment = "";
 
     /** Compression level for zip entries */
-    private int level = DEFAULT_DEFLATER_COMPRESSION;
+    protected int level = DEFAULT_DEFLATER_COMPRESSION;
 
     /** Compression method zip entries */
-    private int method = DEFLATED;
+    protected int method = DEFLATED;
 
     /** Deflater instance that is used to compress DEFLATED entries */
     protected Deflater deflater = new Deflater(level, true);
@@ -68,16 +68,16 @@ public class ZipOutputStream extends OutputStream implements ZipConstants {
     protected byte[] deflaterBuf;
 
     /** List of zip entries written so far */
-    private Vector<ZipEntry> entries;
+    protected Vector<ZipEntry> entries;
 
     /** Count the bytes written to out */
-    private long written = 0;
+    protected long written = 0;
 
     /** The encoding to use for filenames and the file comment, UTF-8 by default */
-    private String encoding = UTF_8;
+    protected String encoding = UTF_8;
 
     /** Holds byte buffer instance used to convert short and longs, avoids creating lots of small arrays */
-    private ZipBuffer zipBuffer = new ZipBuffer();
+    protected ZipBuffer zipBuffer = new ZipBuffer();
 
     /** 0 (zero) as ZipShort */
     private static final byte[] SHORT_0 = ZipShort.getBytes(0);
@@ -112,7 +112,7 @@ public class ZipOutputStream extends OutputStream implements ZipConstants {
     /**
      * Is the underlying stream a RandomAccessOutputStream? Avoids excessive instanceof comparisons.
      */
-    private boolean hasRandomAccess;
+    protected boolean hasRandomAccess;
 
 
     /**
@@ -254,18 +254,29 @@ public class ZipOutputStream extends OutputStream implements ZipConstants {
         // If random access output, write the local file header containing
         // the correct CRC and compressed/uncompressed sizes
         if (!useDataDescriptor) {
-            RandomAccessOutputStream raos = (RandomAccessOutputStream)out;
-
-            long save = raos.getOffset();
-
-            raos.seek(entry.getEntryInfo().headerOffset + 14);
-            raos.write(ZipLong.getBytes(entry.getCrc(), zipBuffer.longBuffer));
-            raos.write(ZipLong.getBytes(entry.getCompressedSize(), zipBuffer.longBuffer));
-            raos.write(ZipLong.getBytes(entry.getSize(), zipBuffer.longBuffer));
-            raos.seek(save);
+            updateLocalFileHeader(entry, (RandomAccessOutputStream)out, zipBuffer);
         }
     }
 
+    /**
+     * Writes the CRC and the compressed and uncompressed sizes of the given entry to its local file header, which has
+     * already been written, and returns to the current offset.
+     *
+     * @param entry the entry, its CRC and sizes must have been set
+     * @param raos the stream the local file header was written to
+     * @param zipBuffer a ZipBuffer instance used to convert integer values to Zip variants
+     * @throws IOException if an I/O error occurred
+     */
+    protected static void updateLocalFileHeader(ZipEntry entry, RandomAccessOutputStream raos, ZipBuffer zipBuffer) throws IOException {
+        long save = raos.getOffset();
+
+        raos.seek(entry.getEntryInfo().headerOffset + 14);
+        raos.write(ZipLong.getBytes(entry.getCrc(), zipBuffer.longBuffer));
+        raos.write(ZipLong.getBytes(entry.getCompressedSize(), zipBuffer.longBuffer));
+        raos.write(ZipLong.getBytes(entry.getSize(), zipBuffer.longBuffer));
+        raos.seek(save);
+    }
+
     /**
      * Start writing the given entry. The entry is written by calling the <code>write()</code> of this class.
      * When the entry has finished being written, {@link #closeEntry()} must be called.
@@ -277,23 +288,9 @@ public class ZipOutputStream extends OutputStream implements ZipConstants {
         closeEntry();
 
         entry = ze;
-        entryInfo = new ZipEntryInfo();
-        entry.setEntryInfo(entryInfo);
-        entries.addElement(entry);
+        entryInfo = addEntry(entry);
 
-        int entryMethod = entry.getMethod();
-        if (entryMethod == -1) {
-            // method not specified in the entry, use the one set in this ZipOutputStream
-            entryMethod = method;
-            entry.setMethod(method);
-        }
-
-        if (entry.getTime() == -1) {
-            // date not specified in the entry, set it to now
-            entry.setTime(System.currentTimeMillis());
-        }
-
-        if(entryMethod == DEFLATED) {
+        if(entry.getMethod() == DEFLATED) {
             deflater.reset();
             deflater.setLevel(level);
 
@@ -308,6 +305,31 @@ public class ZipOutputStream extends OutputStream implements ZipConstants {
         entryInfo.dataOffset = written;
     }
 
+    /**
+     * Adds the given entry to the list of entries written to the central directory, and sets its method and date if
+     * they have not been specified.
+     *
+     * @param ze the entry that is about to be written
+     * @return the info about the entry, which has been set in the entry
+     */
+    protected ZipEntryInfo addEntry(ZipEntry ze) {
+        ZipEntryInfo info = new ZipEntryInfo();
+        ze.setEntryInfo(info);
+        entries.addElement(ze);
+
+        if (ze.getMethod() == -1) {
+            // method not specified in the entry, use the one set in this ZipOutputStream
+            ze.setMethod(method);
+        }
+
+        if (ze.getTime() == -1) {
+            // date not specified in the entry, set it to now
+            ze.setTime(System.currentTimeMillis());
+        }
+
+        return info;
+    }
+
     /**
      * Sets the file comment.
      *
@@ -0,0 +1,706 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of file blocks that can be shared by several streams and threads, typically to spare network requests when
+ * a remote file is read randomly, for instance when an archive is browsed. Blocks are identified by a file key and
+ * their index, the file key must change when the file does, for instance by including its size and date.
+ *
+ * <p>The cache holds up to a given number of bytes in memory, the least recently used blocks being evicted first.
+ * Blocks are held on the heap, or in direct buffers outside of it if the cache is created with <code>offHeap</code>
+ * set, so that a large cache does not weigh on the garbage collector. A {@link #setDiskCache(File, long) disk cache}
+ * can be enabled, in which case evicted blocks are written to a local file and read back from it rather than loaded
+ * again.
+ *
+ * <p>A block is loaded only once when several threads request it at the same time, the other threads wait for it to be
+ * loaded. Blocks can also be {@link #prefetch(Object, long, long, BlockLoader) prefetched} on a background thread before
+ * they are needed.
+ *
+ * <p>Hit, miss and prefetch counters are always updated, see {@link #getHitRatio()}.
+ *
+ * @see CachedBlockRandomInputStream
+ */
+public class BlockCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlockCache.class);
+
+    /** Maximum number of blocks that are prefetched at the same time by all caches */
+    private final static int MAX_PREFETCH_THREADS = 4;
+
+    /** Loads the blocks that are prefetched */
+    private final static ExecutorService prefetchExecutor;
+
+    static {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PREFETCH_THREADS, MAX_PREFETCH_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "BlockCache-prefetch-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        prefetchExecutor = executor;
+    }
+
+    /** Size of the blocks, all blocks but the last of a file have this size */
+    private final int blockSize;
+
+    /** Maximum number of bytes held in memory by the cache */
+    private final long capacity;
+
+    /** True if blocks are held in direct buffers */
+    private final boolean offHeap;
+
+    /** Cached blocks, least recently used first. Guarded by this cache. */
+    private final LinkedHashMap<BlockKey, ByteBuffer> blocks = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Blocks that are being loaded. Guarded by this cache. */
+    private final Map<BlockKey, CompletableFuture<ByteBuffer>> loadingBlocks = new HashMap<>();
+
+    /** Number of bytes held in memory by the cache. Guarded by this cache. */
+    private long size;
+
+    /** The disk cache, null if disabled. Guarded by this cache. */
+    private DiskCache diskCache;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder diskHits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder prefetches = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Loads the blocks of a file.
+     */
+    public interface BlockLoader {
+
+        /**
+         * Reads <code>len</code> bytes of the file starting at the given offset into the given buffer. Fewer bytes may
+         * only be returned if the end of the file has been reached. This method may be called by several threads at
+         * once.
+         *
+         * @param offset offset of the first byte to read
+         * @param b the buffer to read into, starting at index 0
+         * @param len number of bytes to read
+         * @return the number of bytes read
+         * @throws IOException if an error occurred
+         */
+        int load(long offset, byte b[], int len) throws IOException;
+    }
+
+    /**
+     * Creates an initially empty cache that holds its blocks on the heap.
+     *
+     * @param blockSize size of the blocks
+     * @param capacity maximum number of bytes held by the cache
+     */
+    public BlockCache(int blockSize, long capacity) {
+        this(blockSize, capacity, false);
+    }
+
+    /**
+     * Creates an initially empty cache.
+     *
+     * @param blockSize size of the blocks
+     * @param capacity maximum number of bytes held in memory by the cache
+     * @param offHeap <code>true</code> to hold blocks in direct buffers outside of the heap
+     */
+    public BlockCache(int blockSize, long capacity, boolean offHeap) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize=" + blockSize);
+        }
+        this.blockSize = blockSize;
+        this.capacity = capacity;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Enables or disables the disk cache. When enabled, the blocks evicted from memory are written to a file in the
+     * given directory, up to the given number of bytes, and read back from it when they are requested again. The file is
+     * deleted when the disk cache is disabled or replaced, and when the JVM exits. Blocks that are already on disk are
+     * discarded.
+     *
+     * @param directory the directory to create the cache file in, <code>null</code> to disable the disk cache
+     * @param capacity maximum number of bytes held on disk
+     * @throws IOException if the cache file could not be created
+     */
+    public void setDiskCache(File directory, long capacity) throws IOException {
+        DiskCache newDiskCache = directory == null || capacity < blockSize ? null : new DiskCache(directory, capacity);
+        DiskCache oldDiskCache;
+        synchronized (this) {
+            oldDiskCache = diskCache;
+            diskCache = newDiskCache;
+        }
+        if (oldDiskCache != null) {
+            oldDiskCache.close();
+        }
+    }
+
+    /**
+     * Returns the size of the blocks.
+     *
+     * @return the size of the blocks
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Returns the maximum number of bytes held in memory by this cache.
+     *
+     * @return the maximum number of bytes held in memory by this cache
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns <code>true</code> if blocks are held in direct buffers outside of the heap.
+     *
+     * @return <code>true</code> if blocks are held in direct buffers outside of the heap
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Returns the number of bytes currently held in memory by this cache.
+     *
+     * @return the number of bytes currently held in memory by this cache
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes currently held on disk by this cache, <code>0</code> if the disk cache is disabled.
+     *
+     * @return the number of bytes currently held on disk by this cache
+     */
+    public synchronized long getDiskSize() {
+        return diskCache == null ? 0 : diskCache.size;
+    }
+
+    /**
+     * Returns the given block of the given file, loading it with the given loader if it is not cached. The returned
+     * buffer is read-only and positioned at the start of the block, its limit is the length of the block, which is
+     * shorter than the block size for the last block of the file.
+     *
+     * @param fileKey identifies the file and its version
+     * @param index index of the block
+     * @param fileLength length of the file
+     * @param loader loads the block if it is not cached
+     * @return the block
+     * @throws IOException if the block could not be loaded
+     */
+    public ByteBuffer getBlock(Object fileKey, long index, long fileLength, BlockLoader loader) throws IOException {
+        return getBlock(fileKey, index, fileLength, loader, true);
+    }
+
+    /**
+     * Returns the given block, retrying once with the given loader if it was being loaded by another loader that
+     * failed, for instance because the stream it reads from has been closed.
+     */
+    private ByteBuffer getBlock(Object fileKey, long index, long fileLength, BlockLoader loader, boolean retry) throws IOException {
+        BlockKey key = new BlockKey(fileKey, index);
+        CompletableFuture<ByteBuffer> future;
+        DiskBlock diskBlock = null;
+        DiskCache diskCache;
+        boolean loadHere;
+        synchronized (this) {
+            ByteBuffer block = blocks.get(key);
+            if (block != null) {
+                hits.increment();
+                return block.asReadOnlyBuffer();
+            }
+
+            future = loadingBlocks.get(key);
+            loadHere = future == null;
+            diskCache = this.diskCache;
+            if (loadHere) {
+                future = new CompletableFuture<>();
+                loadingBlocks.put(key, future);
+                diskBlock = diskCache == null ? null : diskCache.remove(key);
+                if (diskBlock != null) {
+                    hits.increment();
+                    diskHits.increment();
+                } else {
+                    misses.increment();
+                }
+            } else {
+                // The block is being prefetched or loaded by another thread, no request is needed
+                hits.increment();
+            }
+        }
+
+        if (loadHere) {
+            return load(key, future, fileLength, loader, diskCache, diskBlock).asReadOnlyBuffer();
+        }
+
+        try {
+            return future.get().asReadOnlyBuffer();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (retry) {
+                return getBlock(fileKey, index, fileLength, loader, false);
+            }
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException)cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * Loads the given block of the given file on a background thread, unless it is cached or being loaded already.
+     * Errors are ignored, the block will be loaded again when it is requested.
+     *
+     * @param fileKey identifies the file and its version
+     * @param index index of the block
+     * @param fileLength length of the file
+     * @param loader loads the block
+     */
+    public void prefetch(Object fileKey, long index, long fileLength, BlockLoader loader) {
+        if (index * blockSize >= fileLength) {
+            return;
+        }
+
+        BlockKey key = new BlockKey(fileKey, index);
+        CompletableFuture<ByteBuffer> future;
+        DiskCache diskCache;
+        DiskBlock diskBlock;
+        synchronized (this) {
+            if (blocks.containsKey(key) || loadingBlocks.containsKey(key)) {
+                return;
+            }
+            future = new CompletableFuture<>();
+            loadingBlocks.put(key, future);
+            diskCache = this.diskCache;
+            diskBlock = diskCache == null ? null : diskCache.remove(key);
+        }
+
+        if (diskBlock == null) {
+            prefetches.increment();
+        }
+        prefetchExecutor.execute(() -> {
+            try {
+                load(key, future, fileLength, loader, diskCache, diskBlock);
+            } catch (IOException e) {
+                LOGGER.debug("Failed to prefetch block " + index + " of " + fileKey, e);
+            }
+        });
+    }
+
+    /**
+     * Loads a block that has been registered as being loaded, from the disk cache if it has been spilled there or with
+     * the given loader otherwise, caches it and completes the given future.
+     */
+    private ByteBuffer load(BlockKey key, CompletableFuture<ByteBuffer> future, long fileLength, BlockLoader loader,
+                            DiskCache diskCache, DiskBlock diskBlock) throws IOException {
+        try {
+            ByteBuffer block = null;
+            if (diskBlock != null) {
+                block = diskCache.read(diskBlock, allocate(diskBlock.length));
+            }
+            if (block == null) {
+                int length = (int)Math.max(0, Math.min(blockSize, fileLength - key.index * blockSize));
+                byte bytes[] = new byte[length];
+                int nbRead = Math.max(0, loader.load(key.index * blockSize, bytes, length));
+                // The block is shorter than expected if the file is
+                block = offHeap ? (ByteBuffer)allocate(nbRead).put(bytes, 0, nbRead).flip() : ByteBuffer.wrap(bytes, 0, nbRead).slice();
+            }
+
+            List<Map.Entry<BlockKey, ByteBuffer>> evictedBlocks;
+            synchronized (this) {
+                loadingBlocks.remove(key);
+                evictedBlocks = put(key, block);
+            }
+            future.complete(block);
+
+            spill(evictedBlocks);
+            return block;
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                loadingBlocks.remove(key);
+            }
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private ByteBuffer allocate(int length) {
+        return offHeap ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+    }
+
+    /**
+     * Adds a block to the cache and evicts the least recently used blocks if the cache is full. Must be called with
+     * the lock held. Returns the evicted blocks if they are to be spilled to disk.
+     */
+    private List<Map.Entry<BlockKey, ByteBuffer>> put(BlockKey key, ByteBuffer block) {
+        ByteBuffer previousBlock = blocks.put(key, block);
+        if (previousBlock != null) {
+            size -= previousBlock.limit();
+        }
+        size += block.limit();
+
+        List<Map.Entry<BlockKey, ByteBuffer>> evictedBlocks = Collections.emptyList();
+        Iterator<Map.Entry<BlockKey, ByteBuffer>> iterator = blocks.entrySet().iterator();
+        while (size > capacity && iterator.hasNext()) {
+            Map.Entry<BlockKey, ByteBuffer> eldestBlock = iterator.next();
+            iterator.remove();
+            size -= eldestBlock.getValue().limit();
+            evictions.increment();
+
+            if (diskCache != null) {
+                if (evictedBlocks.isEmpty()) {
+                    evictedBlocks = new ArrayList<>();
+                }
+                evictedBlocks.add(eldestBlock);
+            }
+        }
+        return evictedBlocks;
+    }
+
+    /**
+     * Writes the given blocks to the disk cache, outside of the lock.
+     */
+    private void spill(List<Map.Entry<BlockKey, ByteBuffer>> evictedBlocks) {
+        if (evictedBlocks.isEmpty()) {
+            return;
+        }
+
+        DiskCache diskCache;
+        synchronized (this) {
+            diskCache = this.diskCache;
+        }
+        if (diskCache == null) {
+            return;
+        }
+
+        for (Map.Entry<BlockKey, ByteBuffer> evictedBlock : evictedBlocks) {
+            BlockKey key = evictedBlock.getKey();
+            DiskBlock diskBlock;
+            synchronized (this) {
+                // The block may have been requested again in the meantime
+                if (blocks.containsKey(key) || loadingBlocks.containsKey(key)) {
+                    continue;
+                }
+                diskBlock = diskCache.allocate(evictedBlock.getValue().limit());
+            }
+            if (diskBlock == null) {
+                return;
+            }
+
+            boolean written = diskCache.write(diskBlock, evictedBlock.getValue().duplicate());
+            synchronized (this) {
+                if (written && !blocks.containsKey(key) && !loadingBlocks.containsKey(key)) {
+                    diskCache.put(key, diskBlock);
+                } else {
+                    diskCache.free(diskBlock);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all blocks from this cache, in memory and on disk.
+     */
+    public synchronized void clear() {
+        blocks.clear();
+        size = 0;
+        if (diskCache != null) {
+            diskCache.clear();
+        }
+    }
+
+    /**
+     * Returns the number of blocks that were found in the cache, in memory or on disk, or being loaded, since this cache
+     * was created.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of blocks that were read back from the disk cache when they were requested since this cache was
+     * created. These are included in the {@link #getHitCount() hit count}.
+     *
+     * @return the number of disk cache hits
+     */
+    public long getDiskHitCount() {
+        return diskHits.sum();
+    }
+
+    /**
+     * Returns the number of blocks that had to be loaded when they were requested since this cache was created.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of blocks that were prefetched since this cache was created.
+     *
+     * @return the number of prefetched blocks
+     */
+    public long getPrefetchCount() {
+        return prefetches.sum();
+    }
+
+    /**
+     * Returns the number of blocks that were evicted from memory to make room for new ones since this cache was created.
+     *
+     * @return the number of evicted blocks
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the ratio of requested blocks that did not have to be loaded, between 0 and 1, or 0 if no block has
+     * been requested yet.
+     *
+     * @return the ratio of requested blocks that did not have to be loaded
+     */
+    public double getHitRatio() {
+        long hits = getHitCount();
+        long requests = hits + getMissCount();
+        return requests == 0 ? 0 : hits / (double)requests;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + " blockSize=" + blockSize + " capacity=" + capacity + " offHeap=" + offHeap
+                + " size=" + getSize() + " diskSize=" + getDiskSize() + " hits=" + getHitCount()
+                + " diskHits=" + getDiskHitCount() + " misses=" + getMissCount() + " prefetches=" + getPrefetchCount()
+                + " evictions=" + getEvictionCount();
+    }
+
+
+    /**
+     * Identifies a block of a file.
+     */
+    private static final class BlockKey {
+        private final Object fileKey;
+        private final long index;
+
+        private BlockKey(Object fileKey, long index) {
+            this.fileKey = fileKey;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey key = (BlockKey)o;
+            return index == key.index && fileKey.equals(key.fileKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * fileKey.hashCode() + Long.hashCode(index);
+        }
+    }
+
+    /**
+     * A block written to a slot of the disk cache file.
+     */
+    private static final class DiskBlock {
+        private final int slot;
+        private final int length;
+
+        private DiskBlock(int slot, int length) {
+            this.slot = slot;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Holds blocks in a file divided into slots of the block size. Slots are allocated and freed with the lock of the
+     * enclosing cache held, while reads and writes happen outside of it.
+     */
+    private final class DiskCache {
+
+        private final File file;
+
+        private final FileChannel channel;
+
+        /** Number of slots of the file */
+        private final int nbSlots;
+
+        /** Blocks held on disk, least recently used first */
+        private final LinkedHashMap<BlockKey, DiskBlock> diskBlocks = new LinkedHashMap<>(16, 0.75f, true);
+
+        /** Slots that have been used and freed since */
+        private final Deque<Integer> freeSlots = new ArrayDeque<>();
+
+        /** Number of slots that have been used so far */
+        private int nbUsedSlots;
+
+        /** Number of bytes held on disk */
+        private long size;
+
+        private DiskCache(File directory, long capacity) throws IOException {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+            file = File.createTempFile("blocks", ".cache", directory);
+            file.deleteOnExit();
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            nbSlots = (int)Math.min(Integer.MAX_VALUE, capacity / blockSize);
+        }
+
+        /**
+         * Removes a block from the index, its slot must be freed once it has been read.
+         */
+        private DiskBlock remove(BlockKey key) {
+            DiskBlock diskBlock = diskBlocks.remove(key);
+            if (diskBlock != null) {
+                size -= diskBlock.length;
+            }
+            return diskBlock;
+        }
+
+        /**
+         * Returns a slot for a block of the given length, evicting the least recently used block if all slots are used,
+         * or <code>null</code> if all slots are being read or written.
+         */
+        private DiskBlock allocate(int length) {
+            Integer slot = freeSlots.poll();
+            if (slot == null && nbUsedSlots < nbSlots) {
+                slot = nbUsedSlots++;
+            }
+            if (slot == null) {
+                Iterator<DiskBlock> iterator = diskBlocks.values().iterator();
+                if (!iterator.hasNext()) {
+                    return null;
+                }
+                DiskBlock eldestBlock = iterator.next();
+                iterator.remove();
+                size -= eldestBlock.length;
+                slot = eldestBlock.slot;
+            }
+            return new DiskBlock(slot, length);
+        }
+
+        private void put(BlockKey key, DiskBlock diskBlock) {
+            diskBlocks.put(key, diskBlock);
+            size += diskBlock.length;
+        }
+
+        private void free(DiskBlock diskBlock) {
+            freeSlots.add(diskBlock.slot);
+        }
+
+        private boolean write(DiskBlock diskBlock, ByteBuffer block) {
+            try {
+                long position = (long)diskBlock.slot * blockSize;
+                block.rewind();
+                while (block.hasRemaining()) {
+                    position += channel.write(block, position);
+                }
+                return true;
+            } catch (IOException e) {
+                LOGGER.debug("Failed to write block to " + file, e);
+                return false;
+            }
+        }
+
+        /**
+         * Reads a block into the given buffer and frees its slot. Returns <code>null</code> if the block could not be
+         * read.
+         */
+        private ByteBuffer read(DiskBlock diskBlock, ByteBuffer block) {
+            try {
+                long position = (long)diskBlock.slot * blockSize;
+                while (block.hasRemaining()) {
+                    int nbRead = channel.read(block, position);
+                    if (nbRead < 0) {
+                        return null;
+                    }
+                    position += nbRead;
+                }
+                block.flip();
+                return block;
+            } catch (IOException e) {
+                LOGGER.debug("Failed to read block from " + file, e);
+                return null;
+            } finally {
+                synchronized (BlockCache.this) {
+                    free(diskBlock);
+                }
+            }
+        }
+
+        private void clear() {
+            for (DiskBlock diskBlock : diskBlocks.values()) {
+                free(diskBlock);
+            }
+            diskBlocks.clear();
+            size = 0;
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.debug("Failed to close " + file, e);
+            }
+            if (!file.delete()) {
+                LOGGER.debug("Failed to delete " + file);
+            }
+        }
+    }
+}
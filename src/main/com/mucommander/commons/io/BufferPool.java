@@ -23,9 +23,13 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This class allows to share and reuse byte buffers to avoid excessive memory allocation and garbage collection.
@@ -47,7 +51,11 @@ import java.util.List;
  * used again and from being garbage-collected.</li>
  * </ul>
  *
- * <p>Note: this class is thread safe and thus can safely be used by concurrent threads.
+ * <p>Note: this class is thread safe and thus can safely be used by concurrent threads. The pool is split into
+ * stripes, each thread getting and releasing buffers from the same stripe, so that concurrent threads do not contend
+ * on a single lock. A thread whose stripe has no matching buffer takes one from the other stripes. A buffer released
+ * twice is detected whatever the stripe it is in, the buffers in the pool being tracked in a concurrent set so that
+ * a release does not lock every stripe.
  *
  * @author Maxence Bernard, Nicolas Rinaudo
  * @see com.mucommander.commons.io.StreamUtils
@@ -56,23 +64,32 @@ public class BufferPool {
     /** Logger used by this class. */
     private static final Logger LOGGER = LoggerFactory.getLogger(BufferPool.class);
 
-    /** List of BufferContainer instances that wraps available buffers */
-    private static List<BufferContainer> bufferContainers = new ArrayList<>();
+    /** Available buffers, a thread uses the stripe at the index given by {@link #getStripeIndex()} */
+    private static final Stripe stripes[] = createStripes();
+
+    /** Buffers that are in one of the stripes, containers being compared by buffer identity */
+    private static final Set<BufferContainer> pooledBuffers = ConcurrentHashMap.newKeySet();
 
     /** The initial default buffer size */
     final static int INITIAL_DEFAULT_BUFFER_SIZE = 65536;
 
     /** Size of buffers returned by get*Buffer methods without a size argument */
-    private static int defaultBufferSize = INITIAL_DEFAULT_BUFFER_SIZE;
+    private static volatile int defaultBufferSize = INITIAL_DEFAULT_BUFFER_SIZE;
 
     /** The initial max pool size */
     final static long INITIAL_POOL_LIMIT = 10485760;
 
     /** Maximum combined size of all pooled buffers, in bytes */
-    private static long maxPoolSize = INITIAL_POOL_LIMIT;
+    private static volatile long maxPoolSize = INITIAL_POOL_LIMIT;
 
     /** Current combined size of all pooled buffers, in bytes */
-    private static long poolSize;
+    private static final LongAdder poolSize = new LongAdder();
+
+    /** Number of buffers that were found in the pool */
+    private static final LongAdder nbHits = new LongAdder();
+
+    /** Number of buffers that had to be created because none was found in the pool */
+    private static final LongAdder nbMisses = new LongAdder();
 
 
     /**
@@ -81,7 +98,7 @@ public class BufferPool {
      *
      * @return a byte array with a length of {@link #getDefaultBufferSize()}
      */
-    public static synchronized byte[] getByteArray() {
+    public static byte[] getByteArray() {
         return getByteArray(getDefaultBufferSize());
     }
 
@@ -99,7 +116,7 @@ public class BufferPool {
      * @param length length of the byte array
      * @return a byte array of the specified size
      */
-    public static synchronized byte[] getByteArray(int length) {
+    public static byte[] getByteArray(int length) {
         return (byte[])getBuffer(new ByteArrayFactory(), length);
     }
 
@@ -109,7 +126,7 @@ public class BufferPool {
      *
      * @return a char array with a length of {@link #getDefaultBufferSize()}
      */
-    public static synchronized char[] getCharArray() {
+    public static char[] getCharArray() {
         return getCharArray(getDefaultBufferSize());
     }
 
@@ -127,7 +144,7 @@ public class BufferPool {
      * @param length length of the char array
      * @return a char array of the specified length
      */
-    public static synchronized char[] getCharArray(int length) {
+    public static char[] getCharArray(int length) {
         return (char[])getBuffer(new CharArrayFactory(), length);
     }
 
@@ -137,7 +154,7 @@ public class BufferPool {
      *
      * @return a ByteBuffer with a capacity equal to {@link #getDefaultBufferSize()}
      */
-    public static synchronized ByteBuffer getByteBuffer() {
+    public static ByteBuffer getByteBuffer() {
         return getByteBuffer(getDefaultBufferSize());
     }
 
@@ -155,7 +172,7 @@ public class BufferPool {
      * @param capacity capacity of the ByteBuffer
      * @return a ByteBuffer with the specified capacity
      */
-    public static synchronized ByteBuffer getByteBuffer(int capacity) {
+    public static ByteBuffer getByteBuffer(int capacity) {
         return (ByteBuffer)getBuffer(new ByteBufferFactory(), capacity);
     }
 
@@ -166,7 +183,7 @@ public class BufferPool {
      *
      * @return a CharBuffer with a capacity equal to {@link #getDefaultBufferSize()}
      */
-    public static synchronized CharBuffer getCharBuffer() {
+    public static CharBuffer getCharBuffer() {
         return getCharBuffer(getDefaultBufferSize());
     }
 
@@ -184,7 +201,7 @@ public class BufferPool {
      * @param capacity capacity of the CharBuffer
      * @return a CharBuffer with the specified capacity
      */
-    public static synchronized CharBuffer getCharBuffer(int capacity) {
+    public static CharBuffer getCharBuffer(int capacity) {
         return (CharBuffer)getBuffer(new CharBufferFactory(), capacity);
     }
 
@@ -196,7 +213,7 @@ public class BufferPool {
      * @param factory BufferFactory used to identify the target buffer class and create a new buffer (if necessary)
      * @return a buffer with a size equal to {@link #getDefaultBufferSize()}
      */
-    public static synchronized Object getBuffer(BufferFactory factory) {
+    public static Object getBuffer(BufferFactory factory) {
         return getBuffer(factory, getDefaultBufferSize());
     }
 
@@ -213,22 +230,23 @@ public class BufferPool {
      * @param size size of the buffer
      * @return a buffer of the specified size
      */
-    public static synchronized Object getBuffer(BufferFactory factory, int size) {
-        // Looks for a buffer container in the pool that matches the specified size and buffer class.
-        Iterator<BufferContainer> it = bufferContainers.iterator();
-        while (it.hasNext()) {
-            BufferContainer bufferContainer = it.next();
-            Object buffer = bufferContainer.getBuffer();
-
-            // Caution: mind the difference between BufferContainer#getLength() and BufferContainer#getSize()
-            if (bufferContainer.getLength() == size && (factory.matchesBufferClass(buffer.getClass()))) {
-                it.remove();
-                //bufferContainers.removeElementAt(i);
-                poolSize -= bufferContainer.getSize();
-                return buffer;
+    public static Object getBuffer(BufferFactory factory, int size) {
+        // Looks for a buffer container in the pool that matches the specified size and buffer class, in the current
+        // thread's stripe first and then in the other stripes.
+        Class<?> bufferClass = factory.getBufferClass();
+        int stripeIndex = getStripeIndex();
+        for (int i = 0; i < stripes.length; i++) {
+            BufferContainer bufferContainer = stripes[(stripeIndex + i) & (stripes.length - 1)].poll(bufferClass, size);
+            if (bufferContainer != null) {
+                pooledBuffers.remove(bufferContainer);
+                // Caution: mind the difference between BufferContainer#getLength() and BufferContainer#getSize()
+                poolSize.add(-bufferContainer.getSize());
+                nbHits.increment();
+                return bufferContainer.getBuffer();
             }
         }
 
+        nbMisses.increment();
         LOGGER.trace("Creating new buffer with {} size=", factory, size);
 
         // No buffer with the same class and size found in the pool, create a new one and return it
@@ -248,7 +266,7 @@ public class BufferPool {
      * @return <code>true</code> if the buffer was added to the pool, <code>false</code> if the buffer was already in the pool
      * @throws IllegalArgumentException if specified buffer is null
      */
-    public static synchronized boolean releaseByteArray(byte buffer[]) {
+    public static boolean releaseByteArray(byte buffer[]) {
         return releaseBuffer(buffer, new ByteArrayFactory());
     }
 
@@ -264,7 +282,7 @@ public class BufferPool {
      * @return <code>true</code> if the buffer was added to the pool, <code>false</code> if the buffer was already in the pool
      * @throws IllegalArgumentException if specified buffer is null
      */
-    public static synchronized boolean releaseCharArray(char buffer[]) {
+    public static boolean releaseCharArray(char buffer[]) {
         return releaseBuffer(buffer, new CharArrayFactory());
     }
 
@@ -280,7 +298,7 @@ public class BufferPool {
      * @return <code>true</code> if the buffer was added to the pool, <code>false</code> if the buffer was already in the pool
      * @throws IllegalArgumentException if specified buffer is null
      */
-    public static synchronized boolean releaseByteBuffer(ByteBuffer buffer) {
+    public static boolean releaseByteBuffer(ByteBuffer buffer) {
         return releaseBuffer(buffer, new ByteBufferFactory());
     }
 
@@ -296,7 +314,7 @@ public class BufferPool {
      * @return <code>true</code> if the buffer was added to the pool, <code>false</code> if the buffer was already in the pool
      * @throws IllegalArgumentException if specified buffer is null
      */
-    public static synchronized boolean releaseCharBuffer(CharBuffer buffer) {
+    public static boolean releaseCharBuffer(CharBuffer buffer) {
         return releaseBuffer(buffer, new CharBufferFactory());
     }
 
@@ -314,27 +332,27 @@ public class BufferPool {
      * @return <code>true</code> if the buffer was added to the pool, <code>false</code> if the buffer was already in the pool or the pool size limit has been reached
      * @throws IllegalArgumentException if specified buffer is null
      */
-    public static synchronized boolean releaseBuffer(Object buffer, BufferFactory factory) {
+    public static boolean releaseBuffer(Object buffer, BufferFactory factory) {
         if(buffer==null)
             throw new IllegalArgumentException("specified buffer is null");
 
         BufferContainer bufferContainer = factory.newBufferContainer(buffer);
-
-        if(bufferContainers.contains(bufferContainer)) {
-            LOGGER.info("Warning: specified buffer is already in the pool: {}", buffer);
-            return false;
-        }
-
         long bufferSize = bufferContainer.getSize();        // size in bytes (!= length)
 
-        if(maxPoolSize!=-1 && poolSize+bufferSize>maxPoolSize) {
+        // Note: concurrent releases may exceed the max pool size by a few buffers, this is harmless
+        if(maxPoolSize!=-1 && poolSize.sum()+bufferSize>maxPoolSize) {
             LOGGER.info("Warning: maximum pool size reached, buffer not added to the pool of type {}. Enable trace to get the buffer.", buffer.getClass());
             LOGGER.trace("Warning: maximum pool size reached, buffer not added to the pool of type {} : {}", buffer.getClass(), buffer);
             return false;
         }
 
-        bufferContainers.add(bufferContainer);
-        poolSize += bufferSize;
+        // The buffer may have been released by another thread, and thus be in another stripe
+        if(!pooledBuffers.add(bufferContainer)) {
+            LOGGER.info("Warning: specified buffer is already in the pool: {}", buffer);
+            return false;
+        }
+        stripes[getStripeIndex()].push(factory.getBufferClass(), bufferContainer);
+        poolSize.add(bufferSize);
 
         return true;
     }
@@ -350,7 +368,7 @@ public class BufferPool {
      * @return <code>true</code> if the specified buffer is already in the pool
      */
     public static boolean containsBuffer(Object buffer, BufferFactory factory) {
-        return bufferContainers.contains(factory.newBufferContainer(buffer));
+        return pooledBuffers.contains(factory.newBufferContainer(buffer));
     }
 
 
@@ -361,7 +379,11 @@ public class BufferPool {
      * @return the number of buffers currently in the pool
      */
     public static int getBufferCount() {
-        return bufferContainers.size();
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            count += stripe.getBufferContainers().size();
+        }
+        return count;
     }
 
     /**
@@ -373,11 +395,12 @@ public class BufferPool {
      */
     public static int getBufferCount(BufferFactory factory) {
         int count = 0;
-        for (BufferContainer bufferContainer : bufferContainers) {
-            if (factory.matchesBufferClass(bufferContainer.getBuffer().getClass())) {
-                count ++;
+        for (Stripe stripe : stripes) {
+            for (BufferContainer bufferContainer : stripe.getBufferContainers()) {
+                if (factory.matchesBufferClass(bufferContainer.getBuffer().getClass())) {
+                    count ++;
+                }
             }
-
         }
         return count;
     }
@@ -399,7 +422,7 @@ public class BufferPool {
      *
      * @param bufferSize the new buffer size
      */
-    public static synchronized void setDefaultBufferSize(int bufferSize) {
+    public static void setDefaultBufferSize(int bufferSize) {
         BufferPool.defaultBufferSize = bufferSize;
     }
 
@@ -410,7 +433,27 @@ public class BufferPool {
      * @return the combined size in bytes of all buffers that are currenty in the pool
      */
     public static long getPoolSize() {
-        return poolSize;
+        return poolSize.sum();
+    }
+
+    /**
+     * Returns the number of buffers returned by <code>get*Buffer</code> methods that were found in the pool.
+     * This method is provided for monitoring purposes.
+     *
+     * @return the number of buffers that were found in the pool
+     */
+    public static long getHitCount() {
+        return nbHits.sum();
+    }
+
+    /**
+     * Returns the number of buffers returned by <code>get*Buffer</code> methods that had to be created because no
+     * matching buffer was in the pool. This method is provided for monitoring purposes.
+     *
+     * @return the number of buffers that had to be created
+     */
+    public static long getMissCount() {
+        return nbMisses.sum();
     }
 
     /**
@@ -433,7 +476,7 @@ public class BufferPool {
      *
      * @param maxPoolSize the maximum combined size in bytes for all buffers in the pool
      */
-    public static synchronized void setMaxPoolSize(long maxPoolSize) {
+    public static void setMaxPoolSize(long maxPoolSize) {
         BufferPool.maxPoolSize = maxPoolSize;
     }
 
@@ -472,10 +515,17 @@ public class BufferPool {
          * Implements a shallow equal comparison.
          */
         public boolean equals(Object o) {
-            // Note: this method is used by Vector.contains()
+            // Note: this method is used to look up the buffers that are in the pool
             return (o instanceof BufferContainer) && buffer == ((BufferContainer)o).buffer;
         }
 
+        /**
+         * Returns the identity hash code of the wrapped buffer, consistently with {@link #equals(Object)}.
+         */
+        public int hashCode() {
+            return System.identityHashCode(buffer);
+        }
+
         /**
          * Returns the length of the wrapped buffer instance.
          *
@@ -491,6 +541,93 @@ public class BufferPool {
         protected abstract int getSize();
     }
 
+    /**
+     * Creates the stripes of the pool, twice as many as there are processors so that concurrent threads are unlikely
+     * to share the same stripe.
+     *
+     * @return the stripes of the pool
+     */
+    private static Stripe[] createStripes() {
+        int nbStripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) << 1;
+        Stripe stripes[] = new Stripe[nbStripes];
+        for (int i = 0; i < nbStripes; i++) {
+            stripes[i] = new Stripe();
+        }
+        return stripes;
+    }
+
+    /**
+     * Returns the index of the current thread's stripe.
+     *
+     * @return the index of the current thread's stripe
+     */
+    private static int getStripeIndex() {
+        return (int)Thread.currentThread().getId() & (stripes.length - 1);
+    }
+
+    /**
+     * A part of the pool, holding buffers grouped by class and length. Only a few different buffer lengths are
+     * used in practice, buffer groups are thus looked up linearly.
+     */
+    private static final class Stripe {
+
+        /** Classes of the buffer groups */
+        private Class<?> bufferClasses[] = new Class<?>[0];
+
+        /** Lengths of the buffer groups */
+        private int lengths[] = new int[0];
+
+        /** Buffer groups, most recently released buffers first as they are more likely to be in the CPU caches */
+        private ArrayDeque<BufferContainer> groups[] = newGroups(0);
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static ArrayDeque<BufferContainer>[] newGroups(int length) {
+            return new ArrayDeque[length];
+        }
+
+        synchronized BufferContainer poll(Class<?> bufferClass, int length) {
+            for (int i = 0; i < groups.length; i++) {
+                if (lengths[i] == length && bufferClasses[i] == bufferClass) {
+                    return groups[i].pollFirst();
+                }
+            }
+            return null;
+        }
+
+        synchronized void push(Class<?> bufferClass, BufferContainer bufferContainer) {
+            int length = bufferContainer.getLength();
+            for (int i = 0; i < groups.length; i++) {
+                if (lengths[i] == length && bufferClasses[i] == bufferClass) {
+                    groups[i].addFirst(bufferContainer);
+                    return;
+                }
+            }
+
+            int nbGroups = groups.length;
+            bufferClasses = Arrays.copyOf(bufferClasses, nbGroups + 1);
+            lengths = Arrays.copyOf(lengths, nbGroups + 1);
+            groups = Arrays.copyOf(groups, nbGroups + 1);
+            bufferClasses[nbGroups] = bufferClass;
+            lengths[nbGroups] = length;
+            groups[nbGroups] = new ArrayDeque<>();
+            groups[nbGroups].addFirst(bufferContainer);
+        }
+
+        synchronized List<BufferContainer> getBufferContainers() {
+            List<BufferContainer> bufferContainers = new ArrayList<>();
+            for (ArrayDeque<BufferContainer> group : groups) {
+                bufferContainers.addAll(group);
+            }
+            return bufferContainers;
+        }
+
+        synchronized void clear() {
+            bufferClasses = new Class<?>[0];
+            lengths = new int[0];
+            groups = newGroups(0);
+        }
+    }
+
     /**
      * A BufferFactory is responsible for creating buffer and {@link BufferContainer} instances, and for returning the buffer
      * Class. The Class returned by {@link #getBufferClass()} may be a superclass or superinterface of the actual
@@ -659,8 +796,11 @@ public class BufferPool {
         }
     }
 
-	public static synchronized void releaseAll() {
-		bufferContainers.clear();
-		poolSize = 0;
+	public static void releaseAll() {
+		for (Stripe stripe : stripes) {
+			stripe.clear();
+		}
+		pooledBuffers.clear();
+		poolSize.reset();
 	}
 }
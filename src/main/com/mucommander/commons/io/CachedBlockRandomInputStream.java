@@ -0,0 +1,255 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A <code>RandomAccessInputStream</code> that reads a file block by block through a {@link BlockCache}, so that the
+ * blocks read by one stream can be reused by the others and seeking back to a block that has been read already does
+ * not cause it to be loaded again.
+ *
+ * <p>Once several consecutive blocks have been read, the stream is considered to be read sequentially and the blocks
+ * that follow are prefetched in the background, so that the next blocks are ready or on their way by the time they are
+ * needed.
+ *
+ * <p>Blocks are loaded either by a {@link BlockCache.BlockLoader} that reads ranges of the file directly, or from a
+ * <code>RandomAccessInputStream</code> on the file, which this stream then decorates. That stream is only opened
+ * when a block that is not cached has to be loaded, so that a file whose blocks are all cached can be read without
+ * opening it.
+ *
+ * @see BlockCache
+ */
+public class CachedBlockRandomInputStream extends RandomAccessInputStream {
+
+    /** Number of consecutive blocks that must be read for the following blocks to be prefetched */
+    private final static int SEQUENTIAL_THRESHOLD = 2;
+
+    private final BlockCache cache;
+
+    private final Object fileKey;
+
+    private final long length;
+
+    private final BlockCache.BlockLoader loader;
+
+    /** Number of blocks prefetched ahead of the current one when reading sequentially */
+    private final int prefetchBlocks;
+
+    /** The loader that reads from the decorated stream, null if blocks are loaded otherwise */
+    private final StreamLoader streamLoader;
+
+    /** Global offset within the file */
+    private long offset;
+
+    /** The block that contains the current offset, null until a block is read */
+    private ByteBuffer block;
+
+    /** Index of the current block */
+    private long blockIndex = -1;
+
+    /** Number of consecutive blocks read so far */
+    private int nbSequentialBlocks;
+
+    /**
+     * Creates a new stream on the given file.
+     *
+     * @param cache the cache to read blocks through
+     * @param fileKey identifies the file and its version, see {@link BlockCache}
+     * @param length length of the file
+     * @param loader loads the blocks of the file that are not cached
+     * @param prefetchBlocks number of blocks to prefetch when the file is read sequentially, <code>0</code> to disable
+     * prefetching
+     */
+    public CachedBlockRandomInputStream(BlockCache cache, Object fileKey, long length, BlockCache.BlockLoader loader, int prefetchBlocks) {
+        this(cache, fileKey, length, loader, prefetchBlocks, null);
+    }
+
+    /**
+     * Creates a new stream on the given file, that loads the blocks that are not cached from a
+     * <code>RandomAccessInputStream</code> opened by the given opener. The stream is opened the first time a block
+     * has to be loaded and closed when this stream is.
+     *
+     * @param cache the cache to read blocks through
+     * @param fileKey identifies the file and its version, see {@link BlockCache}
+     * @param length length of the file
+     * @param opener opens the stream that blocks are loaded from
+     * @param prefetchBlocks number of blocks to prefetch when the file is read sequentially, <code>0</code> to disable
+     * prefetching
+     */
+    public CachedBlockRandomInputStream(BlockCache cache, Object fileKey, long length, StreamOpener opener, int prefetchBlocks) {
+        this(cache, fileKey, length, new StreamLoader(opener), prefetchBlocks);
+    }
+
+    private CachedBlockRandomInputStream(BlockCache cache, Object fileKey, long length, StreamLoader streamLoader, int prefetchBlocks) {
+        this(cache, fileKey, length, streamLoader, prefetchBlocks, streamLoader);
+    }
+
+    private CachedBlockRandomInputStream(BlockCache cache, Object fileKey, long length, BlockCache.BlockLoader loader, int prefetchBlocks, StreamLoader streamLoader) {
+        this.cache = cache;
+        this.fileKey = fileKey;
+        this.length = length;
+        this.loader = loader;
+        this.prefetchBlocks = prefetchBlocks;
+        this.streamLoader = streamLoader;
+    }
+
+    /**
+     * Makes the block that contains the current offset the current block, and returns the offset within it.
+     */
+    private int checkBlock() throws IOException {
+        int blockSize = cache.getBlockSize();
+        long index = offset / blockSize;
+        if (index != blockIndex) {
+            block = cache.getBlock(fileKey, index, length, loader);
+
+            nbSequentialBlocks = index == blockIndex + 1 ? nbSequentialBlocks + 1 : 1;
+            blockIndex = index;
+
+            if (nbSequentialBlocks >= SEQUENTIAL_THRESHOLD) {
+                for (int i = 1; i <= prefetchBlocks; i++) {
+                    cache.prefetch(fileKey, index + i, length, loader);
+                }
+            }
+        }
+        return (int)(offset - index * blockSize);
+    }
+
+
+    ////////////////////////////////////////////
+    // RandomAccessInputStream implementation //
+    ////////////////////////////////////////////
+
+    @Override
+    public int read() throws IOException {
+        if (offset >= length) {
+            return -1;
+        }
+
+        int blockOff = checkBlock();
+        if (blockOff >= block.limit()) {
+            // The file is shorter than expected
+            return -1;
+        }
+
+        offset++;
+        return block.get(blockOff) & 0xFF;
+    }
+
+    @Override
+    public int read(byte b[], int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (offset >= length) {
+            return -1;
+        }
+
+        int blockOff = checkBlock();
+        if (blockOff >= block.limit()) {
+            // The file is shorter than expected
+            return -1;
+        }
+
+        int nbBytes = Math.min(len, block.limit() - blockOff);
+        block.position(blockOff);
+        block.get(b, off, nbBytes);
+        offset += nbBytes;
+        return nbBytes;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public void seek(long offset) {
+        // The block is read lazily
+        this.offset = offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Cached blocks are kept for other streams
+        block = null;
+        blockIndex = -1;
+
+        if (streamLoader != null) {
+            streamLoader.close();
+        }
+    }
+
+
+    /**
+     * Opens the <code>RandomAccessInputStream</code> that blocks are loaded from.
+     */
+    public interface StreamOpener {
+
+        /**
+         * Opens a new <code>RandomAccessInputStream</code> on the file.
+         *
+         * @return a new stream on the file
+         * @throws IOException if the stream could not be opened
+         */
+        RandomAccessInputStream open() throws IOException;
+    }
+
+    /**
+     * Loads blocks from a <code>RandomAccessInputStream</code> that is opened on demand. Blocks are loaded one at a
+     * time, as prefetching threads share the stream with the thread that reads.
+     */
+    private static class StreamLoader implements BlockCache.BlockLoader {
+
+        private final StreamOpener opener;
+
+        /** The stream, null until a block has been loaded. Guarded by this loader. */
+        private RandomAccessInputStream in;
+
+        /** Guarded by this loader */
+        private boolean closed;
+
+        private StreamLoader(StreamOpener opener) {
+            this.opener = opener;
+        }
+
+        public synchronized int load(long offset, byte b[], int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (in == null) {
+                in = opener.open();
+            }
+
+            in.seek(offset);
+            return StreamUtils.readUpTo(in, b, 0, len);
+        }
+
+        private synchronized void close() throws IOException {
+            closed = true;
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Calculates several digests of the same data in a single pass.
+ *
+ * <p>Streams are read by the calling thread into a small ring of blocks while each digest is updated by its own thread
+ * of the executor, so that reading the next block overlaps with digesting the previous ones. Files are mapped into
+ * memory one region at a time, and each region is digested by all digests concurrently. Without an executor, the
+ * digests are updated one after the other by the calling thread.
+ *
+ * <p>The time spent updating each digest is accumulated, see {@link #getThroughput(int)}. A pipeline can be reused
+ * for any number of files, but by one thread at a time.
+ */
+public class DigestPipeline {
+
+    /** Size of the blocks read from streams */
+    public final static int BLOCK_SIZE = 256 * 1024;
+
+    /** Number of blocks read ahead of the digests */
+    private final static int NB_BLOCKS = 4;
+
+    /** Maximum number of bytes mapped at once */
+    private final static long MAP_REGION_SIZE = 64 * 1024 * 1024;
+
+    /** Queued after the last block, tells the digest threads to stop */
+    private final static Block END = new Block(null, 0, 0);
+
+    private final MessageDigest digests[];
+
+    /** Runs the digest threads, null to update the digests on the calling thread */
+    private final ExecutorService executor;
+
+    /** Number of nanoseconds spent updating each digest */
+    private final LongAdder digestNanos[];
+
+    /** Number of bytes digested, by each digest */
+    private final LongAdder nbBytesDigested = new LongAdder();
+
+    /**
+     * Creates a pipeline that calculates the given digests, using threads of the given executor.
+     *
+     * @param executor runs the threads that update the digests, <code>null</code> to update them on the calling thread
+     * @param digests the digests to calculate, reset before each calculation
+     */
+    public DigestPipeline(ExecutorService executor, MessageDigest... digests) {
+        this.executor = executor;
+        this.digests = digests;
+        this.digestNanos = new LongAdder[digests.length];
+        for (int i = 0; i < digests.length; i++) {
+            digestNanos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Returns the digests this pipeline calculates.
+     *
+     * @return the digests this pipeline calculates
+     */
+    public MessageDigest[] getDigests() {
+        return digests;
+    }
+
+    /**
+     * Reads the given stream until EOF and returns its digests, in the same order as the digests passed to the
+     * constructor. The stream is not closed.
+     *
+     * @param in the stream to digest
+     * @return the digests of the stream
+     * @throws IOException if an error occurred while reading the stream
+     */
+    public byte[][] digest(InputStream in) throws IOException {
+        reset();
+        if (executor == null) {
+            byte buffer[] = BufferPool.getByteArray(BLOCK_SIZE);
+            try {
+                int nbRead;
+                while ((nbRead = StreamUtils.readUpTo(in, buffer)) > 0) {
+                    update(buffer, nbRead);
+                    bytesDigested(nbRead);
+                }
+            } finally {
+                BufferPool.releaseByteArray(buffer);
+            }
+            return finish();
+        }
+
+        BlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<>(NB_BLOCKS);
+        for (int i = 0; i < NB_BLOCKS; i++) {
+            freeBuffers.add(BufferPool.getByteArray(BLOCK_SIZE));
+        }
+
+        List<BlockingQueue<Block>> queues = new ArrayList<>(digests.length);
+        List<Future<?>> futures = new ArrayList<>(digests.length);
+        try {
+            for (int i = 0; i < digests.length; i++) {
+                BlockingQueue<Block> queue = new LinkedBlockingQueue<>();
+                queues.add(queue);
+                int index = i;
+                futures.add(executor.submit(() -> {
+                    digestBlocks(index, queue, freeBuffers);
+                    return null;
+                }));
+            }
+
+            try {
+                while (true) {
+                    byte buffer[] = freeBuffers.poll(100, TimeUnit.MILLISECONDS);
+                    if (buffer == null) {
+                        // Stop reading if a digest thread has died, the error is reported by awaitAll
+                        if (futures.stream().anyMatch(Future::isDone)) {
+                            break;
+                        }
+                        continue;
+                    }
+                    int nbRead = StreamUtils.readUpTo(in, buffer);
+                    if (nbRead <= 0) {
+                        freeBuffers.add(buffer);
+                        break;
+                    }
+                    Block block = new Block(buffer, nbRead, digests.length);
+                    for (BlockingQueue<Block> queue : queues) {
+                        queue.add(block);
+                    }
+                    bytesDigested(nbRead);
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            } finally {
+                for (BlockingQueue<Block> queue : queues) {
+                    queue.add(END);
+                }
+                // The digest threads must be done before the digests can be used again, even if reading failed
+                awaitAll(futures);
+            }
+
+            return finish();
+        } finally {
+            // Buffers still held by a digest thread that failed are left to the garbage collector
+            byte buffer[];
+            while ((buffer = freeBuffers.poll()) != null) {
+                BufferPool.releaseByteArray(buffer);
+            }
+        }
+    }
+
+    /**
+     * Maps the given file channel into memory one region at a time and returns its digests, in the same order as
+     * the digests passed to the constructor. The channel is not closed.
+     *
+     * @param channel the file channel to digest
+     * @return the digests of the file
+     * @throws IOException if an error occurred while mapping the file
+     */
+    public byte[][] digest(FileChannel channel) throws IOException {
+        reset();
+        long size = channel.size();
+        for (long offset = 0; offset < size; ) {
+            long regionSize = Math.min(MAP_REGION_SIZE, size - offset);
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, offset, regionSize);
+
+            if (executor == null || digests.length == 1) {
+                for (int i = 0; i < digests.length; i++) {
+                    update(i, region.duplicate());
+                }
+            } else {
+                // The first digest is updated by the calling thread while the others are updated by the executor
+                List<Future<?>> futures = new ArrayList<>(digests.length - 1);
+                for (int i = 1; i < digests.length; i++) {
+                    int index = i;
+                    futures.add(executor.submit(() -> update(index, region.duplicate())));
+                }
+                try {
+                    update(0, region.duplicate());
+                } finally {
+                    awaitAll(futures);
+                }
+            }
+
+            offset += regionSize;
+            bytesDigested(regionSize);
+        }
+        return finish();
+    }
+
+    /**
+     * Called each time a block or region has been read, by the thread that called <code>digest</code>. This method
+     * does nothing by default, it can be overridden to account for the bytes processed or to abort the calculation
+     * by throwing an exception.
+     *
+     * @param nbBytes number of bytes read
+     * @throws IOException to abort the calculation
+     */
+    protected void bytesDigested(long nbBytes) throws IOException {
+    }
+
+    /**
+     * Returns the number of bytes per second each digest was updated at so far, the time spent reading being left
+     * out.
+     *
+     * @param index index of the digest, in the order they were passed to the constructor
+     * @return the number of bytes per second, 0 if no byte has been digested
+     */
+    public long getThroughput(int index) {
+        long nanos = digestNanos[index].sum();
+        return nanos == 0 ? 0 : (long)(nbBytesDigested.sum() * 1000000000d / nanos);
+    }
+
+    /**
+     * Returns the number of nanoseconds spent updating the given digest so far.
+     *
+     * @param index index of the digest, in the order they were passed to the constructor
+     * @return the number of nanoseconds spent updating the digest
+     */
+    public long getDigestTime(int index) {
+        return digestNanos[index].sum();
+    }
+
+    /**
+     * Returns the number of bytes digested so far, by each digest.
+     *
+     * @return the number of bytes digested so far
+     */
+    public long getDigestedByteCount() {
+        return nbBytesDigested.sum();
+    }
+
+    private void reset() {
+        for (MessageDigest digest : digests) {
+            digest.reset();
+        }
+    }
+
+    private byte[][] finish() {
+        byte results[][] = new byte[digests.length][];
+        for (int i = 0; i < digests.length; i++) {
+            results[i] = digests[i].digest();
+        }
+        return results;
+    }
+
+    private void update(byte buffer[], int length) {
+        for (int i = 0; i < digests.length; i++) {
+            long start = System.nanoTime();
+            digests[i].update(buffer, 0, length);
+            digestNanos[i].add(System.nanoTime() - start);
+        }
+        nbBytesDigested.add(length);
+    }
+
+    private void update(int index, ByteBuffer region) {
+        long start = System.nanoTime();
+        digests[index].update(region);
+        digestNanos[index].add(System.nanoTime() - start);
+        if (index == 0) {
+            nbBytesDigested.add(region.limit());
+        }
+    }
+
+    /**
+     * Updates a digest with the blocks of the queue until {@link #END} is found, and hands the blocks that have been
+     * digested by all digests back to the reader.
+     */
+    private void digestBlocks(int index, BlockingQueue<Block> queue, BlockingQueue<byte[]> freeBuffers) throws InterruptedException {
+        MessageDigest digest = digests[index];
+        Block block;
+        while ((block = queue.take()) != END) {
+            long start = System.nanoTime();
+            digest.update(block.buffer, 0, block.length);
+            digestNanos[index].add(System.nanoTime() - start);
+            if (block.pending.decrementAndGet() == 0) {
+                nbBytesDigested.add(block.length);
+                freeBuffers.add(block.buffer);
+            }
+        }
+    }
+
+    private static void awaitAll(List<Future<?>> futures) throws IOException {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * A block of data read from a stream, digested by all digests before its buffer is reused.
+     */
+    private static class Block {
+        private final byte buffer[];
+        private final int length;
+        /** Number of digests that have not digested this block yet */
+        private final AtomicInteger pending;
+
+        private Block(byte buffer[], int length, int nbDigests) {
+            this.buffer = buffer;
+            this.length = length;
+            this.pending = new AtomicInteger(nbDigests);
+        }
+    }
+}
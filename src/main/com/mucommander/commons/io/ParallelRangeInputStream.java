@@ -0,0 +1,290 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads a range of a remote file with several readers at once, for instance several connections to the same server,
+ * each reader fetching a chunk of the range ahead of the consumer. Chunks are returned in order, and no more than two
+ * chunks per reader are buffered so that a slow consumer does not cause the whole range to be held in memory.
+ *
+ * <p>An error on any of the readers fails the stream. If the file turns out to be shorter than expected, the stream
+ * ends after the first chunk that could not be read completely.
+ *
+ * @see RangeReader
+ */
+public class ParallelRangeInputStream extends InputStream {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelRangeInputStream.class);
+
+    /** Runs the readers of all parallel streams */
+    private final static ExecutorService executor;
+
+    static {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ParallelRangeInputStream-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Offset of the first byte of the range */
+    private final long start;
+
+    /** Number of bytes fetched by a reader at a time */
+    private final int chunkSize;
+
+    /** Maximum number of chunks fetched ahead of the consumer */
+    private final int maxBufferedChunks;
+
+    /** Guards the fields below, and is notified when a chunk has been fetched or read */
+    private final Object lock = new Object();
+
+    /** Chunks that have been fetched but not read yet, by chunk index */
+    private final Map<Long, byte[]> chunks = new HashMap<>();
+
+    /** Number of chunks in the range, lowered if the file turns out to be shorter */
+    private long nbChunks;
+
+    /** Index of the next chunk to fetch */
+    private long nextChunk;
+
+    /** Index of the next chunk to read */
+    private long readChunk;
+
+    /** The error that prevented the chunk at {@link #errorChunk} from being fetched, null if none occurred */
+    private IOException error;
+
+    /** Index of the lowest chunk that will not be fetched because of an error, <code>Long.MAX_VALUE</code> if none.
+     * The chunks that precede it are still returned, as they have been or are being fetched by the other readers. */
+    private long errorChunk = Long.MAX_VALUE;
+
+    private boolean closed;
+
+    /** The chunk being read, null if none */
+    private byte current[];
+
+    /** Offset of the next byte to read in the current chunk */
+    private int currentPos;
+
+    /**
+     * Fetches chunks of a range of a file.
+     */
+    public interface RangeReader {
+
+        /**
+         * Reads <code>len</code> bytes of the file starting at the given offset into the given buffer. Fewer bytes may
+         * only be returned if the end of the file has been reached.
+         *
+         * @param offset offset of the first byte to read
+         * @param b the buffer to read into, starting at index 0
+         * @param len number of bytes to read
+         * @return the number of bytes read
+         * @throws IOException if an error occurred
+         */
+        int read(long offset, byte b[], int len) throws IOException;
+
+        /**
+         * Releases the resources held by this reader, called once it has no more chunks to fetch.
+         *
+         * @throws IOException if an error occurred
+         */
+        default void close() throws IOException {
+        }
+    }
+
+    /**
+     * Starts reading the given range of the file with the given readers. Readers are each used by a single thread, a
+     * reader that is passed several times must thus be thread-safe. They are closed once the range has been read, or
+     * once this stream is closed.
+     *
+     * @param readers the readers to fetch chunks with
+     * @param start offset of the first byte to read
+     * @param end offset of the end of the range
+     * @param chunkSize number of bytes fetched by a reader at a time
+     */
+    public ParallelRangeInputStream(List<? extends RangeReader> readers, long start, long end, int chunkSize) {
+        this.start = start;
+        this.chunkSize = chunkSize;
+        this.nbChunks = (end - start + chunkSize - 1) / chunkSize;
+        this.maxBufferedChunks = 2 * readers.size();
+
+        LOGGER.debug("reading {} chunks with {} readers", nbChunks, readers.size());
+        for (RangeReader reader : readers) {
+            executor.execute(() -> fetch(reader, end));
+        }
+    }
+
+    /**
+     * Fetches chunks with the given reader until there are none left or this stream has been closed.
+     */
+    private void fetch(RangeReader reader, long end) {
+        // Index of the chunk being fetched by this reader, -1 if none
+        long index = -1;
+        try {
+            while (true) {
+                synchronized (lock) {
+                    while (!closed && error == null && nextChunk < nbChunks && nextChunk >= readChunk + maxBufferedChunks) {
+                        lock.wait();
+                    }
+                    if (closed || error != null || nextChunk >= nbChunks) {
+                        return;
+                    }
+                    index = nextChunk++;
+                }
+
+                long chunkStart = start + index * chunkSize;
+                byte chunk[] = new byte[(int)Math.min(chunkSize, end - chunkStart)];
+                int length = reader.read(chunkStart, chunk, chunk.length);
+
+                synchronized (lock) {
+                    if (length < chunk.length) {
+                        // The file is shorter than expected, it ends with this chunk
+                        chunk = Arrays.copyOf(chunk, length);
+                        nbChunks = Math.min(nbChunks, index + 1);
+                    }
+                    chunks.put(index, chunk);
+                    index = -1;
+                    lock.notifyAll();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.info("Caught exception while reading a chunk", e);
+            setError(index, e instanceof IOException ? (IOException)e : new IOException(e));
+        } catch (InterruptedException e) {
+            setError(index, new InterruptedIOException());
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                LOGGER.info("Caught exception while closing a reader", e);
+            }
+        }
+    }
+
+    /**
+     * Records an error that occurred while fetching the given chunk, or while waiting to fetch one if the index is -1.
+     * The error that affects the lowest chunk is the one thrown, as the stream fails when it reaches that chunk. Once
+     * an error has been recorded, readers stop fetching new chunks.
+     */
+    private void setError(long index, IOException e) {
+        synchronized (lock) {
+            // Without a chunk of its own, the reader leaves the first chunk that has not been claimed unfetched
+            long chunk = index == -1 ? nextChunk : index;
+            if (chunk < errorChunk) {
+                error = e;
+                errorChunk = chunk;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Makes the next fetched chunk the current one, waiting for it if needed. Returns <code>false</code> if there
+     * are no more chunks.
+     */
+    private boolean nextChunk() throws IOException {
+        synchronized (lock) {
+            while (true) {
+                if (readChunk >= nbChunks) {
+                    return false;
+                }
+                current = chunks.remove(readChunk);
+                if (current != null) {
+                    readChunk++;
+                    currentPos = 0;
+                    lock.notifyAll();
+                    return true;
+                }
+                if (readChunk >= errorChunk) {
+                    throw error;
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+
+    ////////////////////////////////
+    // InputStream implementation //
+    ////////////////////////////////
+
+    @Override
+    public int read(byte b[], int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        while (current == null || currentPos == current.length) {
+            if (!nextChunk()) {
+                return -1;
+            }
+        }
+
+        int n = Math.min(len, current.length - currentPos);
+        System.arraycopy(current, currentPos, b, off, n);
+        currentPos += n;
+        return n;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte b[] = new byte[1];
+        return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - currentPos;
+    }
+
+    /**
+     * Closes this stream. Readers that are fetching a chunk finish it before being closed.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            chunks.clear();
+            current = null;
+            lock.notifyAll();
+        }
+    }
+
+}
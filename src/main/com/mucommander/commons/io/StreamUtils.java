@@ -19,6 +19,7 @@
 package com.mucommander.commons.io;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 
 /**
  * This class provides convenience static methods that operate on streams. All read/write buffers are allocated using
@@ -28,6 +29,10 @@ import java.io.*;
  */
 public class StreamUtils {
 
+    /** Maximum number of bytes moved by a single {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+     * call in {@link #transferChannel(FileChannel, FileChannel, long, ByteCounter, ThroughputLimitInputStream)} */
+    public final static int TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+
     /**
      * This method is a shorthand for {@link #copyStream(java.io.InputStream, java.io.OutputStream, int)} called with a
      * {@link BufferPool#getDefaultBufferSize() default buffer size}.
@@ -136,6 +141,110 @@ public class StreamUtils {
         return totalRead;
     }
 
+    /**
+     * Copies up to {@code length} bytes from the given source {@code FileChannel}, starting at its current position,
+     * to the specified destination {@code FileChannel}, less if the end-of-file was reached before that.
+     * This method does *NOT* close any of the given channels.
+     *
+     * <p>Bytes are moved with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, which
+     * lets the operating system copy the data without bringing it to a user-space buffer (sendfile, copy_file_range).
+     * The transfer is carried out in chunks of at most {@link #TRANSFER_CHUNK_SIZE} bytes so that progress can be
+     * monitored with the given {@link ByteCounter}, and throttled or paused by the given
+     * {@link ThroughputLimitInputStream}. Closing the source channel from another thread interrupts the transfer.
+     *
+     * @param in the channel to read from
+     * @param out the channel to write to
+     * @param length number of bytes to copy from the source channel
+     * @param counter counter increased by the number of bytes transferred, may be <code>null</code>
+     * @param limiter throughput limit to honor, may be <code>null</code>
+     * @return the number of bytes that were copied
+     * @throws FileTransferException if something went wrong while reading from or writing to one of the provided channels
+     */
+    public static long transferChannel(FileChannel in, FileChannel out, long length, ByteCounter counter, ThroughputLimitInputStream limiter) throws FileTransferException {
+        long position;
+        try {
+            position = in.position();
+        } catch(IOException e) {
+            throw new FileTransferException(FileTransferException.READING_SOURCE, e);
+        }
+
+        long totalRead = 0;
+        int failureCounter = 0;
+        while (length > 0) {
+            int chunkSize = (int)Math.min(TRANSFER_CHUNK_SIZE, length);
+            if (limiter != null) {
+                chunkSize = limiter.reserve(chunkSize);
+            }
+
+            long nbTransferred;
+            try {
+                nbTransferred = in.transferTo(position, chunkSize, out);
+            } catch(IOException e) {
+                throw new FileTransferException(getTransferErrorReason(in, out), totalRead, e);
+            }
+
+            if (nbTransferred == 0) {
+                try {
+                    // End of file reached, the source file is shorter than expected
+                    if (position >= in.size()) {
+                        break;
+                    }
+                } catch(IOException e) {
+                    throw new FileTransferException(FileTransferException.READING_SOURCE, totalRead, e);
+                }
+                failureCounter++;
+                if (failureCounter > 10) {
+                    throw new FileTransferException(FileTransferException.UNKNOWN_REASON, totalRead);
+                }
+                sleepIfNoRead();
+                continue;
+            }
+            failureCounter = 0;
+
+            if (counter != null) {
+                counter.add(nbTransferred);
+            }
+
+            position += nbTransferred;
+            length -= nbTransferred;
+            totalRead += nbTransferred;
+        }
+
+        try {
+            in.position(position);
+        } catch(IOException e) {
+            throw new FileTransferException(FileTransferException.READING_SOURCE, totalRead, e);
+        }
+
+        return totalRead;
+    }
+
+    /**
+     * Returns the {@link FileTransferException} reason of a failed {@link FileChannel#transferTo} call. The call does
+     * not tell which channel failed, so each of them is probed in turn: the source channel is closed when the transfer
+     * is stopped or skipped. {@link FileTransferException#UNKNOWN_REASON} is returned if both channels can still be
+     * queried.
+     *
+     * @param in the channel that was read from
+     * @param out the channel that was written to
+     * @return the reason of the failure
+     */
+    private static int getTransferErrorReason(FileChannel in, FileChannel out) {
+        try {
+            in.size();
+        } catch(IOException e) {
+            return FileTransferException.READING_SOURCE;
+        }
+
+        try {
+            out.size();
+        } catch(IOException e) {
+            return FileTransferException.WRITING_DESTINATION;
+        }
+
+        return FileTransferException.UNKNOWN_REASON;
+    }
+
     /**
      * This method is a shorthand for {@link #transcode(java.io.InputStream, String, java.io.OutputStream, String, int)}
      * called with a {@link BufferPool#getDefaultBufferSize() default buffer size}.
@@ -200,6 +200,27 @@ public class ThroughputLimitInputStream extends InputStream {
     }
 
 
+    /**
+     * Reserves up to the given number of bytes for a transfer that bypasses this stream's read methods, for instance
+     * a <code>FileChannel</code> to <code>FileChannel</code> transfer. This method blocks exactly like a read call
+     * would if the throughput limit has been reached or if the limit is 0 (paused), and returns the number of bytes
+     * that can be transferred without exceeding the limit. The returned number of bytes is accounted as having been
+     * read this second.
+     *
+     * @param len maximum number of bytes to reserve
+     * @return the number of bytes that can be transferred, comprised between 1 and <code>len</code>
+     */
+    public int reserve(int len) {
+        if(bpsLimit<0)
+            return len;
+
+        int nbAllowed = Math.min(getNbAllowedBytes(), len);
+        addToLimitCounter(nbAllowed);
+
+        return nbAllowed;
+    }
+
+
     ////////////////////////////////
     // InputStream implementation //
     ////////////////////////////////
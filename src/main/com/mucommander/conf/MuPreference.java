@@ -72,6 +72,7 @@ public enum MuPreference {
 	WAIT_AFTER_REFRESH(MuPreferences.WAIT_AFTER_REFRESH),
 	PROGRESS_DIALOG_EXPANDED(MuPreferences.PROGRESS_DIALOG_EXPANDED),
 	PROGRESS_DIALOG_CLOSE_WHEN_FINISHED(MuPreferences.PROGRESS_DIALOG_CLOSE_WHEN_FINISHED),
+	TRANSFER_CONCURRENCY(MuPreferences.TRANSFER_CONCURRENCY),
 	THEME_TYPE(MuPreferences.THEME_TYPE),
 	THEME_NAME(MuPreferences.THEME_NAME),
     SYNTAX_THEME_NAME(MuPreferences.SYNTAX_THEME_NAME),
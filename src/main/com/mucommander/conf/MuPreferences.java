@@ -350,6 +350,17 @@ public class MuPreferences implements MuPreferencesAPI {
 
 
 
+	// - File transfer variables ---------------------------------------------
+	// -----------------------------------------------------------------------
+	/** Section describing the behavior of file transfer jobs. */
+	public static final String TRANSFER_SECTION                   = "transfer";
+	/** Number of files copied in parallel by copy and move jobs, per protocol, e.g. <code>sftp:8,smb:4,file:1</code>. */
+	public static final String TRANSFER_CONCURRENCY               = TRANSFER_SECTION + '.' + "concurrency";
+	/** Default number of parallel transfers: protocols that are not listed copy files one at a time. */
+	public static final String DEFAULT_TRANSFER_CONCURRENCY       = "";
+
+
+
 	// - Variables used for themes -------------------------------------------
 	// -----------------------------------------------------------------------
 	/** Section controlling which theme should be applied to muCommander. */
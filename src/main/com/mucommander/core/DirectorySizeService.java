@@ -0,0 +1,456 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.cache.ConcurrentLRUCache;
+import com.mucommander.cache.LRUCache;
+import com.mucommander.commons.file.AbstractArchiveFile;
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.impl.local.LocalFile;
+
+
+/**
+ * Calculates the combined size of the files contained by folders, walking their subfolders in parallel.
+ *
+ * <p>Local folders are walked by a <code>ForkJoinPool</code> with as many threads as there are processors, remote
+ * folders by a pool limited to {@link #REMOTE_CONCURRENCY} threads so as not to flood servers with requests.
+ * Folders inside archives are walked by a single thread, as archive files are not meant to be listed concurrently.
+ *
+ * <p>The size of every folder that has been walked is cached along with the folder's date, and reused as long as
+ * the folder's date has not changed, for up to {@link #CACHE_TIME_TO_LIVE} milliseconds as a folder's date does not
+ * change when files are modified deeper in its subfolders.
+ *
+ * <p>Symbolic links are not followed and their size is not accounted for, except for the folder whose size is
+ * calculated. The size of the files they point to is accounted for separately, see
+ * {@link DirectorySize#getSymlinkSize()}.
+ *
+ * <p>The size of a folder is not cached if one of its subfolders could not be listed, so that the folder is walked
+ * again the next time its size is calculated.
+ */
+public class DirectorySizeService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DirectorySizeService.class);
+
+    /** Maximum number of remote folders listed concurrently */
+    public final static int REMOTE_CONCURRENCY = 2;
+
+    /** Minimum number of milliseconds between two partial totals notified to a listener */
+    private final static long PARTIAL_RESULT_PERIOD = 300;
+
+    /** Maximum number of folder sizes kept in the cache */
+    private final static int CACHE_CAPACITY = 10000;
+
+    /** Number of milliseconds a folder size is kept in the cache */
+    public final static long CACHE_TIME_TO_LIVE = 5 * 60 * 1000;
+
+    /** The shared instance */
+    private static DirectorySizeService instance;
+
+    /** Walks local folders */
+    private final ForkJoinPool localPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /** Walks remote folders, and folders inside archives */
+    private final ForkJoinPool remotePool = new ForkJoinPool(REMOTE_CONCURRENCY);
+
+    /** Sizes of the folders that have been walked, keyed by folder URL */
+    private final LRUCache<String, CachedSize> cache = new ConcurrentLRUCache<>(CACHE_CAPACITY);
+
+
+    /**
+     * Notified of the partial and final totals of a calculation.
+     */
+    public interface Listener {
+
+        /**
+         * Called with the totals accounted for so far, periodically while the calculation is running and once when
+         * it has finished. This method is called by the threads that walk the folders, or by the thread that
+         * started the calculation if the size was cached, and is not called anymore once the calculation has been
+         * cancelled.
+         *
+         * @param calculation the calculation
+         * @param size the totals accounted for so far
+         * @param finished <code>true</code> if the calculation has finished and <code>size</code> is the final total
+         */
+        void sizeUpdated(Calculation calculation, DirectorySize size, boolean finished);
+    }
+
+    /**
+     * The combined size of the files contained by a folder and its subfolders, and the number of files and folders.
+     */
+    public static final class DirectorySize {
+        private final long size;
+        private final long symlinkSize;
+        private final long nbFiles;
+        private final long nbFolders;
+
+        DirectorySize(long size, long symlinkSize, long nbFiles, long nbFolders) {
+            this.size = size;
+            this.symlinkSize = symlinkSize;
+            this.nbFiles = nbFiles;
+            this.nbFolders = nbFolders;
+        }
+
+        /**
+         * Returns the combined size in bytes of the files.
+         *
+         * @return the combined size in bytes of the files
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Returns the combined size in bytes of the files that symbolic links point to, which is not part of
+         * {@link #getSize()}.
+         *
+         * @return the combined size in bytes of the files that symbolic links point to
+         */
+        public long getSymlinkSize() {
+            return symlinkSize;
+        }
+
+        /**
+         * Returns the number of files, symbolic links to folders being counted as files.
+         *
+         * @return the number of files
+         */
+        public long getFileCount() {
+            return nbFiles;
+        }
+
+        /**
+         * Returns the number of folders, including the folder itself.
+         *
+         * @return the number of folders
+         */
+        public long getFolderCount() {
+            return nbFolders;
+        }
+    }
+
+    /**
+     * A folder size and the date the folder had when it was calculated.
+     */
+    private static final class CachedSize {
+        private final long date;
+        private final DirectorySize size;
+
+        private CachedSize(long date, DirectorySize size) {
+            this.date = date;
+            this.size = size;
+        }
+    }
+
+
+    /**
+     * Returns the shared instance.
+     *
+     * @return the shared instance
+     */
+    public static synchronized DirectorySizeService getInstance() {
+        if (instance == null) {
+            instance = new DirectorySizeService();
+        }
+        return instance;
+    }
+
+    DirectorySizeService() {
+    }
+
+    /**
+     * Starts calculating the size of the given folder and returns immediately. If the size of the folder is cached,
+     * the listener is notified of it before this method returns.
+     *
+     * @param folder the folder whose size to calculate
+     * @param listener notified of the partial and final totals
+     * @return the calculation, which can be waited for or cancelled
+     */
+    public Calculation calculate(AbstractFile folder, Listener listener) {
+        Calculation calculation = new Calculation(folder, listener);
+
+        DirectorySize cachedSize = getCachedSize(folder);
+        if (cachedSize != null) {
+            calculation.finish(cachedSize);
+            return calculation;
+        }
+
+        boolean local = folder.getTopAncestor() instanceof LocalFile;
+        boolean parallel = !folder.hasAncestor(AbstractArchiveFile.class);
+        FolderTask task = new FolderTask(calculation, folder, parallel);
+        calculation.task = task;
+        (local && parallel ? localPool : remotePool).execute(task);
+
+        return calculation;
+    }
+
+    /**
+     * Returns the cached size of the given folder, <code>null</code> if it is not cached or if the folder's date has
+     * changed since it was calculated.
+     *
+     * @param folder a folder
+     * @return the cached size of the given folder, <code>null</code> if there is none
+     */
+    public DirectorySize getCachedSize(AbstractFile folder) {
+        CachedSize cachedSize = cache.get(getKey(folder));
+        return cachedSize == null || cachedSize.date != folder.getLastModifiedDate() ? null : cachedSize.size;
+    }
+
+    /**
+     * Removes all folder sizes from the cache.
+     */
+    public void clearCache() {
+        cache.clearAll();
+    }
+
+    private static String getKey(AbstractFile folder) {
+        return folder.getURL().toString(false);
+    }
+
+
+    /**
+     * A running or finished size calculation.
+     */
+    public static final class Calculation {
+        private final AbstractFile folder;
+        private final Listener listener;
+        private final LongAdder size = new LongAdder();
+        private final LongAdder symlinkSize = new LongAdder();
+        private final LongAdder nbFiles = new LongAdder();
+        private final LongAdder nbFolders = new LongAdder();
+        private final AtomicLong lastPartialResultTime = new AtomicLong(System.currentTimeMillis());
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean cancelled;
+        private volatile DirectorySize result;
+        private FolderTask task;
+
+        private Calculation(AbstractFile folder, Listener listener) {
+            this.folder = folder;
+            this.listener = listener;
+        }
+
+        /**
+         * Returns the folder whose size is calculated.
+         *
+         * @return the folder whose size is calculated
+         */
+        public AbstractFile getFolder() {
+            return folder;
+        }
+
+        /**
+         * Cancels this calculation, the listener is not notified anymore.
+         */
+        public void cancel() {
+            cancelled = true;
+            if (task != null) {
+                task.cancel(false);
+            }
+            done.countDown();
+        }
+
+        /**
+         * Returns <code>true</code> if this calculation has been cancelled.
+         *
+         * @return <code>true</code> if this calculation has been cancelled
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Waits for this calculation to finish or to be cancelled, for up to the given number of milliseconds.
+         *
+         * @param timeout maximum number of milliseconds to wait for
+         * @return <code>true</code> if this calculation has finished or has been cancelled
+         * @throws InterruptedException if the current thread was interrupted while waiting
+         */
+        public boolean await(long timeout) throws InterruptedException {
+            return done.await(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Returns the final totals, <code>null</code> if this calculation has not finished or has been cancelled.
+         *
+         * @return the final totals
+         */
+        public DirectorySize getResult() {
+            return cancelled ? null : result;
+        }
+
+        /**
+         * Returns the totals accounted for so far.
+         *
+         * @return the totals accounted for so far
+         */
+        public DirectorySize getPartialResult() {
+            DirectorySize result = this.result;
+            return result != null ? result : new DirectorySize(size.sum(), symlinkSize.sum(), nbFiles.sum(), nbFolders.sum());
+        }
+
+        private void add(long size, long symlinkSize, long nbFiles, long nbFolders) {
+            this.size.add(size);
+            this.symlinkSize.add(symlinkSize);
+            this.nbFiles.add(nbFiles);
+            this.nbFolders.add(nbFolders);
+
+            // Notify the listener of the partial totals, at most once per period
+            long now = System.currentTimeMillis();
+            long last = lastPartialResultTime.get();
+            if (now - last >= PARTIAL_RESULT_PERIOD && lastPartialResultTime.compareAndSet(last, now)) {
+                notifyListener(getPartialResult(), false);
+            }
+        }
+
+        private void finish(DirectorySize result) {
+            this.result = result;
+            notifyListener(result, true);
+            done.countDown();
+        }
+
+        private void notifyListener(DirectorySize size, boolean finished) {
+            if (cancelled) {
+                return;
+            }
+            try {
+                listener.sizeUpdated(this, size, finished);
+            } catch (RuntimeException e) {
+                LOGGER.info("Caught exception notifying directory size of {}", folder, e);
+            }
+        }
+    }
+
+    /**
+     * Walks a folder, forking a task for each of its subfolders, and caches the folder's size.
+     */
+    private class FolderTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Calculation calculation;
+        private final AbstractFile folder;
+        private final boolean parallel;
+        private long size;
+        private long symlinkSize;
+        private long nbFiles;
+        private long nbFolders;
+        /** <code>false</code> if the folder or one of its subfolders could not be listed */
+        private boolean complete;
+
+        private FolderTask(Calculation calculation, AbstractFile folder, boolean parallel) {
+            this.calculation = calculation;
+            this.folder = folder;
+            this.parallel = parallel;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                walk();
+                // The task that walks the calculated folder finishes the calculation
+                if (calculation.task == this && !calculation.isCancelled()) {
+                    calculation.finish(new DirectorySize(size, symlinkSize, nbFiles, nbFolders));
+                }
+            } catch (RuntimeException e) {
+                LOGGER.info("Caught exception calculating the size of {}", folder, e);
+                // Report what could be accounted for, the subfolders that failed are left out
+                if (calculation.task == this && !calculation.isCancelled()) {
+                    calculation.finish(calculation.getPartialResult());
+                }
+            }
+        }
+
+        private void walk() {
+            if (calculation.isCancelled()) {
+                return;
+            }
+
+            long date = folder.getLastModifiedDate();
+            CachedSize cachedSize = cache.get(getKey(folder));
+            if (cachedSize != null && cachedSize.date == date) {
+                size = cachedSize.size.size;
+                symlinkSize = cachedSize.size.symlinkSize;
+                nbFiles = cachedSize.size.nbFiles;
+                nbFolders = cachedSize.size.nbFolders;
+                complete = true;
+                calculation.add(size, symlinkSize, nbFiles, nbFolders);
+                return;
+            }
+
+            AbstractFile children[];
+            try {
+                children = folder.ls();
+            } catch (IOException e) {
+                LOGGER.debug("Could not list {}", folder, e);
+                return;
+            }
+
+            nbFolders = 1;
+            List<FolderTask> subTasks = new ArrayList<>();
+            for (AbstractFile child : children) {
+                if (child.isDirectory() && !child.isSymlink()) {
+                    subTasks.add(new FolderTask(calculation, child, parallel));
+                } else {
+                    nbFiles++;
+                    long fileSize = child.getSize();
+                    if (fileSize > 0) {     // Can be equal to -1 if size not available
+                        if (child.isSymlink()) {
+                            symlinkSize += fileSize;
+                        } else {
+                            size += fileSize;
+                        }
+                    }
+                }
+            }
+            calculation.add(size, symlinkSize, nbFiles, nbFolders);
+
+            if (parallel) {
+                invokeAll(subTasks);
+            } else {
+                for (FolderTask subTask : subTasks) {
+                    subTask.walk();
+                }
+            }
+
+            complete = true;
+            for (FolderTask subTask : subTasks) {
+                size += subTask.size;
+                symlinkSize += subTask.symlinkSize;
+                nbFiles += subTask.nbFiles;
+                nbFolders += subTask.nbFolders;
+                complete &= subTask.complete;
+            }
+
+            // The totals of a folder that could not be listed entirely are reported but not cached
+            if (complete && !calculation.isCancelled()) {
+                cache.add(getKey(folder), new CachedSize(date, new DirectorySize(size, symlinkSize, nbFiles, nbFolders)), CACHE_TIME_TO_LIVE);
+            }
+        }
+    }
+}
@@ -20,9 +20,11 @@ package com.mucommander.core;
 
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
+import java.nio.file.WatchKey;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +45,10 @@ import com.mucommander.ui.main.FolderPanel;
 /**
  * This file monitors changes in the current folder of a FolderPanel, checking periodically if the current folder's
  * date has changed. If a change has been detected, the FolderPanel will be asked to refresh its current folder.
+ *
+ * <p>Local folders are not polled: they are watched by a {@link LocalFolderWatcher} and refreshed only when
+ * changes are reported, a burst of changes yielding a single refresh. Folders that cannot be watched (remote
+ * protocols, archives, or if the platform provides no WatchService) are polled as described above.
  * 
  * <p>If the MainFrame which contains the monitored FolderPanel becomes inactive (lies in the background), monitoring
  * on will be not happen until the MainFrame becomes active again.
@@ -53,7 +59,7 @@ import com.mucommander.ui.main.FolderPanel;
  * @author Maxence Bernard
  * @see <a href="http://trac.mucommander.com/wiki/FolderAutoRefresh">FolderAutoRefresh wiki entry</a>
  */
-public class FolderChangeMonitor implements Runnable, WindowListener, LocationListener {
+public class FolderChangeMonitor implements Runnable, WindowListener, LocationListener, LocalFolderWatcher.Listener {
 	private static final Logger LOGGER = LoggerFactory.getLogger(FolderChangeMonitor.class);
 	
     /** Folder panel we are monitoring */
@@ -83,6 +89,18 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
     /** Number of checks in current folder */
     private int nbSamples = 0;
 
+    /** Key of the current folder if it is watched by {@link LocalFolderWatcher}, <code>null</code> if it is polled */
+    private volatile WatchKey watchKey;
+
+    /** True when changes have been reported for the watched folder and it has not been refreshed yet */
+    private volatile boolean watchEventsPending;
+
+    /** Time at which the last change has been reported for the watched folder */
+    private volatile long lastWatchEventTimestamp;
+
+    /** Time at which the current folder started being changed */
+    private long folderChangingTimestamp;
+
     /**
      * If not null then refresh folder that contains this files
      */
@@ -111,6 +129,9 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
     /** Granularity of the thread check (number of milliseconds to sleep before next loop) */
     private final static int TICK = 300;
 
+    /** Number of folder refreshes triggered by all monitors */
+    private final static AtomicLong nbRefreshes = new AtomicLong();
+
     static {
         instances = new Vector<>();
 
@@ -145,6 +166,7 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
 
         this.currentFolder = folderPanel.getCurrentFolder();
         this.currentFolderDate = currentFolder.getLastModifiedDate();
+        watchCurrentFolder();
 
         // Folder contents is up-to-date let's wait before checking it for changes
         this.lastCheckTimestamp = System.currentTimeMillis();
@@ -209,6 +231,14 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
             monitor.waitBeforeCheckTime = checkPeriod;
             return;
         }
+        // Watched folders need not be checked, changes are reported by LocalFolderWatcher. Changes reported less
+        // than waitAfterRefresh after the last refresh are coalesced into a single refresh.
+        if (monitor.watchKey != null) {
+            if (System.currentTimeMillis() - monitor.folderPanel.getLastFolderChangeTime() > waitAfterRefresh) {
+                monitor.checkAndRefresh();
+            }
+            return;
+        }
         // By checking FolderPanel.getLastFolderChangeTime(), we ensure that we don't check right after
         // the folder has been refreshed.
         if (System.currentTimeMillis() - Math.max(monitor.lastCheckTimestamp, monitor.folderPanel.getLastFolderChangeTime()) > monitor.waitBeforeCheckTime) {
@@ -264,13 +294,65 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
      * @param folder the new current folder
      */
     private void updateFolderInfo(AbstractFile folder) {
-        this.currentFolder = folder;
+        if (!folder.equals(currentFolder) || watchKey == null) {
+            unwatchCurrentFolder();
+            this.currentFolder = folder;
+            watchCurrentFolder();
+        }
         this.currentFolderDate = currentFolder.getLastModifiedDate();
 
+        // Changes reported before the folder started being changed are part of the new folder contents
+        if (lastWatchEventTimestamp < folderChangingTimestamp) {
+            watchEventsPending = false;
+        }
+
         // Reset time average
         totalCheckTime = 0;
         nbSamples = 0;
     }
+
+
+    /**
+     * Starts watching the current folder if it is a local folder, in which case it is no longer polled.
+     */
+    private void watchCurrentFolder() {
+        if (checkPeriod < 0 || !LocalFolderWatcher.isWatchable(currentFolder)) {
+            return;
+        }
+
+        LocalFolderWatcher watcher = LocalFolderWatcher.getInstance();
+        if (watcher != null) {
+            watchKey = watcher.watch(currentFolder, this);
+        }
+    }
+
+
+    /**
+     * Stops watching the current folder.
+     */
+    private void unwatchCurrentFolder() {
+        if (watchKey != null) {
+            LocalFolderWatcher.getInstance().unwatch(watchKey, this);
+            watchKey = null;
+        }
+        watchEventsPending = false;
+    }
+
+
+    @Override
+    public void folderChanged(WatchKey key, boolean valid) {
+        if (key != watchKey) {
+            return;
+        }
+
+        lastWatchEventTimestamp = System.currentTimeMillis();
+        watchEventsPending = true;
+
+        // Poll the folder from now on, the refresh will change the current folder if it no longer exists
+        if (!valid) {
+            watchKey = null;
+        }
+    }
 	
 	
     /**
@@ -284,22 +366,34 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
 //            return false;
 //        }
 
-        // Update time average next loop
-        long timeStamp = System.currentTimeMillis();
-		
-        // Check folder's date
-        long date = currentFolder.getLastModifiedDate();
+        boolean changed;
+        if (watchEventsPending) {
+            // Changes reported by LocalFolderWatcher, no need to check the date
+            changed = true;
+        } else if (watchKey != null) {
+            changed = false;
+        } else {
+            // Update time average next loop
+            long timeStamp = System.currentTimeMillis();
+
+            // Check folder's date
+            long date = currentFolder.getLastModifiedDate();
+
+            totalCheckTime += System.currentTimeMillis() - timeStamp;
+            nbSamples++;
+
+            // Has date changed ?
+            // Note that date will be 0 if the folder is no longer available, and thus yield a refresh: this is exactly
+            // what we want (the folder will be changed to a 'workable' folder).
+            changed = date != currentFolderDate;
+        }
 
-        totalCheckTime += System.currentTimeMillis() - timeStamp;
-        nbSamples++;
-		
-        // Has date changed ?
-        // Note that date will be 0 if the folder is no longer available, and thus yield a refresh: this is exactly
-        // what we want (the folder will be changed to a 'workable' folder).
         boolean result = false;
-        if (date != currentFolderDate) {
+        if (changed) {
             LOGGER.debug(this+" ("+currentFolder.getName()+") Detected changes in current folder, refreshing table!");
-			
+
+            watchEventsPending = false;
+            nbRefreshes.incrementAndGet();
             // Try and refresh current folder in a separate thread as to not lock monitor thread
             folderPanel.tryRefreshCurrentFolder();
             result = true;
@@ -311,6 +405,7 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
                 for (String path : forceRefreshFilePath) {
                     if (path.startsWith(folderPath)) {
                         forceRefreshFilePath.remove(path);
+                        nbRefreshes.incrementAndGet();
                         folderPanel.tryRefreshCurrentFolder();
                         result = true;
                         break;
@@ -328,6 +423,7 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
     /////////////////////////////////////
 
     public void locationChanging(LocationEvent locationEvent) {
+        folderChangingTimestamp = System.currentTimeMillis();
         folderChanging = true;
     }
 
@@ -366,6 +462,7 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
     public void windowClosed(WindowEvent e) {
         // Remove the MainFrame from the list of monitored instances
         instances.remove(this);
+        unwatchCurrentFolder();
         LOGGER.debug("nbInstances="+instances.size());
     }
 
@@ -378,5 +475,25 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
             forceRefreshFilePath.add(path);
         }
     }
+
+    /**
+     * Returns the number of changes reported for watched local folders since startup. Compared to
+     * {@link #getRefreshCount()}, this tells how many changes were coalesced into a single refresh.
+     *
+     * @return the number of changes reported for watched local folders
+     */
+    public static long getWatchEventCount() {
+        LocalFolderWatcher watcher = LocalFolderWatcher.getInstance();
+        return watcher == null ? 0 : watcher.getEventCount();
+    }
+
+    /**
+     * Returns the number of folder refreshes triggered by the monitors since startup.
+     *
+     * @return the number of folder refreshes triggered by the monitors
+     */
+    public static long getRefreshCount() {
+        return nbRefreshes.get();
+    }
 	
 }
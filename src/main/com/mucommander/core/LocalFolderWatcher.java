@@ -0,0 +1,213 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/en/soft/trolcommander
+ * Copyright (C) 2013-2016 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractArchiveFile;
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.impl.local.LocalFile;
+
+
+/**
+ * Watches local folders for changes using the <code>java.nio</code> {@link WatchService} on behalf of
+ * {@link FolderChangeMonitor}, so that local folders are refreshed when they are actually modified instead of
+ * having their date checked periodically.
+ *
+ * <p>A single daemon thread receives the events of all watched folders and notifies the monitors watching them.
+ * Several monitors may watch the same folder, for instance when both panels show it.
+ */
+class LocalFolderWatcher implements Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalFolderWatcher.class);
+
+    /** The shared instance, <code>null</code> if no WatchService is available */
+    private static LocalFolderWatcher instance;
+
+    /** True once the creation of the shared instance has been attempted */
+    private static boolean initialized;
+
+    /** The WatchService folders are registered with */
+    private final WatchService watchService;
+
+    /** Listeners of each watched folder */
+    private final Map<WatchKey, List<Listener>> listeners = new HashMap<>();
+
+    /** Number of events received since startup */
+    private final AtomicLong nbEvents = new AtomicLong();
+
+
+    /**
+     * Notified of the changes of a watched folder.
+     */
+    interface Listener {
+        /**
+         * Called when changes have been reported for a watched folder.
+         *
+         * @param key the key of the folder that changed
+         * @param valid <code>false</code> if the folder is no longer watched, e.g. because it has been deleted
+         */
+        void folderChanged(WatchKey key, boolean valid);
+    }
+
+
+    private LocalFolderWatcher(WatchService watchService) {
+        this.watchService = watchService;
+
+        Thread thread = new Thread(this, getClass().getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the shared instance, creating it on the first call. <code>null</code> is returned if the platform
+     * provides no WatchService, in which case local folders have to be polled.
+     *
+     * @return the shared instance, <code>null</code> if no WatchService is available
+     */
+    static synchronized LocalFolderWatcher getInstance() {
+        if (!initialized) {
+            initialized = true;
+            try {
+                instance = new LocalFolderWatcher(FileSystems.getDefault().newWatchService());
+            } catch (IOException | UnsupportedOperationException e) {
+                LOGGER.info("WatchService not available, local folders will be polled", e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Returns <code>true</code> if the given folder is a local folder that can be watched. Archives are not
+     * watched: their contents is not a folder of the local filesystem.
+     *
+     * @param folder the folder to test
+     * @return true if the given folder can be watched
+     */
+    static boolean isWatchable(AbstractFile folder) {
+        return folder.getTopAncestor() instanceof LocalFile && !folder.hasAncestor(AbstractArchiveFile.class);
+    }
+
+    /**
+     * Starts watching the given folder on behalf of the given listener.
+     *
+     * @param folder the folder to watch
+     * @param listener the listener to notify of changes
+     * @return the key identifying the watched folder, <code>null</code> if the folder cannot be watched
+     */
+    synchronized WatchKey watch(AbstractFile folder, Listener listener) {
+        if (!isWatchable(folder)) {
+            return null;
+        }
+
+        try {
+            Path path = ((File)folder.getTopAncestor().getUnderlyingFileObject()).toPath();
+            WatchKey key = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            // Registering a folder that is already watched returns the existing key
+            List<Listener> keyListeners = listeners.get(key);
+            if (keyListeners == null) {
+                keyListeners = new CopyOnWriteArrayList<>();
+                listeners.put(key, keyListeners);
+            }
+            keyListeners.add(listener);
+            return key;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Cannot watch "+folder+", it will be polled", e);
+            return null;
+        }
+    }
+
+    /**
+     * Stops watching a folder on behalf of the given listener. The folder is no longer watched once no listener
+     * watches it.
+     *
+     * @param key the key returned by {@link #watch(AbstractFile, Listener)}
+     * @param listener the listener that no longer watches the folder
+     */
+    synchronized void unwatch(WatchKey key, Listener listener) {
+        List<Listener> keyListeners = listeners.get(key);
+        if (keyListeners == null) {
+            return;
+        }
+
+        keyListeners.remove(listener);
+        if (keyListeners.isEmpty()) {
+            listeners.remove(key);
+            key.cancel();
+        }
+    }
+
+    /**
+     * Returns the number of events received since startup.
+     *
+     * @return the number of events received since startup
+     */
+    long getEventCount() {
+        return nbEvents.get();
+    }
+
+
+    public void run() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException ignore) {
+                continue;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+
+            // A burst of changes is delivered as several events, monitors only need to know that something changed
+            for (WatchEvent<?> event : key.pollEvents()) {
+                nbEvents.addAndGet(event.count());
+            }
+
+            List<Listener> keyListeners;
+            boolean valid = key.reset();
+            synchronized(this) {
+                keyListeners = valid ? listeners.get(key) : listeners.remove(key);
+            }
+            if (keyListeners == null) {
+                continue;
+            }
+
+            for (Listener listener : keyListeners) {
+                // The key is no longer valid if the folder has been deleted or has become inaccessible
+                listener.folderChanged(key, valid);
+            }
+        }
+    }
+}
@@ -249,6 +249,11 @@ public class ArchiveJob extends TransferFileJob {
         super.interrupt();
     }
 
+    @Override
+    public ScanDirectoryThread getScanDirectoryThread() {
+        return scanDirectoryThread;
+    }
+
 
     @Override
     public float getTotalPercentDone() {
@@ -18,17 +18,40 @@
 
 package com.mucommander.job;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.mucommander.commons.file.AbstractArchiveEntryFile;
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.util.FileSet;
+import com.mucommander.commons.io.ByteUtils;
+import com.mucommander.commons.io.DigestPipeline;
+import com.mucommander.conf.MuConfigurations;
+import com.mucommander.conf.MuPreference;
+import com.mucommander.conf.MuPreferences;
+import com.mucommander.job.utils.TransferWorkerPool;
+import com.mucommander.utils.text.SizeFormat;
 import com.mucommander.utils.text.Translator;
 import com.mucommander.ui.dialog.file.FileCollisionDialog;
 import com.mucommander.ui.dialog.file.ProgressDialog;
@@ -37,7 +60,8 @@ import com.mucommander.ui.main.MainFrame;
 import com.mucommander.ui.viewer.ViewerRegistrar;
 
 /**
- * This job calculates a checksum for a list of files and stores the results in a checksum file.
+ * This job calculates a checksum for a list of files and stores the results in a checksum file. Several checksums
+ * can be calculated in a single pass, each algorithm having its own checksum file.
  *
  * <p>The format of this file is a de facto standard ; a line is created for each file and goes like this:
  * <pre>
@@ -58,36 +82,165 @@ import com.mucommander.ui.viewer.ViewerRegistrar;
  * ...
  * </pre>
  *
+ * <p>Local files are digested by several threads at the same time and are mapped into memory rather than read. Files
+ * of other protocols are digested in parallel if {@link com.mucommander.conf.MuPreferences#TRANSFER_CONCURRENCY}
+ * allows several files to be transferred at the same time, and on the job thread otherwise. Either way, reading the
+ * next block of a file overlaps with digesting the current one, see {@link DigestPipeline}. Lines are written to the
+ * checksum files in the order files are listed, whichever thread digested them.
+ *
  * @author Maxence Bernard
  */
 public class CalculateChecksumJob extends TransferFileJob {
 	private static final Logger LOGGER = LoggerFactory.getLogger(CalculateChecksumJob.class);
-	
-    /** The checksum file where the checksum of each file is written */
-    private AbstractFile checksumFile;
-    /** The OutputStream of the checksum file */
-    private OutputStream checksumFileOut;
+
+    /** Maximum number of local files digested at the same time */
+    private final static int MAX_LOCAL_CONCURRENCY = 4;
+
+    /** The checksum files where the checksum of each file is written, one per digest */
+    private final AbstractFile checksumFiles[];
+    /** The OutputStreams of the checksum files */
+    private final OutputStream checksumFileOuts[];
 
     /** The path to the base source folder, i.e. the folder which contains all the files this job operates on */
     private String baseSourcePath;
 
-    /** True if the SFV format is used rather than the default 'SUMS' format */
-    private boolean useSfvFormat;
+    /** True for the digests whose checksum file uses the SFV format rather than the default 'SUMS' format */
+    private final boolean useSfvFormat[];
+
+    /** The MessageDigests that serve to calculate the checksums */
+    private final MessageDigest digests[];
+
+    /** Runs the threads that update the digests while files are being read */
+    private final ExecutorService digestExecutor;
+
+    /** Digests files on the job thread */
+    private final DigestPipeline pipeline;
+
+    /** Digests files on the parallel workers, each worker thread having its own pipeline and digests */
+    private final ThreadLocal<DigestPipeline> workerPipelines = ThreadLocal.withInitial(this::createWorkerPipeline);
+
+    /** All the pipelines that have been created, to report the speed of each digest */
+    private final List<DigestPipeline> pipelines = new ArrayList<>();
+
+    /** Workers digesting files in parallel, created when the first file that can be digested in parallel is found */
+    private TransferWorkerPool checksumWorkers;
 
-    /** The MessageDigest that serves to calculate the checksum */
-    private MessageDigest digest;
+    /** Files whose checksums have not been written yet, in the order they must be written */
+    private final Queue<PendingChecksum> pendingChecksums = new ArrayDeque<>();
 
 
     public CalculateChecksumJob(ProgressDialog progressDialog, MainFrame mainFrame, FileSet files, AbstractFile checksumFile, MessageDigest digest) {
+        this(progressDialog, mainFrame, files, new AbstractFile[] {checksumFile}, new MessageDigest[] {digest});
+    }
+
+    /**
+     * Creates a job that calculates several checksums of each file in a single pass.
+     *
+     * @param progressDialog dialog which shows this job's progress
+     * @param mainFrame mainFrame this job has been triggered by
+     * @param files files which are going to be processed
+     * @param checksumFiles the checksum file of each digest
+     * @param digests the digests to calculate
+     */
+    public CalculateChecksumJob(ProgressDialog progressDialog, MainFrame mainFrame, FileSet files, AbstractFile checksumFiles[], MessageDigest digests[]) {
         super(progressDialog, mainFrame, files);
 
-        this.checksumFile = checksumFile;
-        this.digest = digest;
-        this.useSfvFormat = digest.getAlgorithm().equalsIgnoreCase("CRC32");
+        this.checksumFiles = checksumFiles;
+        this.checksumFileOuts = new OutputStream[checksumFiles.length];
+        this.digests = digests;
+        this.useSfvFormat = new boolean[digests.length];
+        for (int i = 0; i < digests.length; i++) {
+            useSfvFormat[i] = digests[i].getAlgorithm().equalsIgnoreCase("CRC32");
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.digestExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, getClass().getSimpleName() + " digest #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pipeline = new DigestPipeline(digestExecutor, digests);
+        pipelines.add(pipeline);
 
         this.baseSourcePath = getBaseSourceFolder().getAbsolutePath(true);
     }
 
+    /**
+     * Returns the number of bytes per second the given digest has been calculated at so far, by all threads, the
+     * time spent reading files being left out.
+     *
+     * @param index index of the digest, in the order they were passed to the constructor
+     * @return the number of bytes per second, 0 if no byte has been digested yet
+     */
+    public long getDigestThroughput(int index) {
+        long nanos = 0;
+        long nbBytes = 0;
+        synchronized(pipelines) {
+            for (DigestPipeline pipeline : pipelines) {
+                nanos += pipeline.getDigestTime(index);
+                nbBytes += pipeline.getDigestedByteCount();
+            }
+        }
+        return nanos == 0 ? 0 : (long)(nbBytes * 1000000000d / nanos);
+    }
+
+    /**
+     * Creates the pipeline of a worker thread, with its own copy of the digests.
+     */
+    private DigestPipeline createWorkerPipeline() {
+        MessageDigest workerDigests[] = new MessageDigest[digests.length];
+        for (int i = 0; i < digests.length; i++) {
+            try {
+                workerDigests[i] = (MessageDigest)digests[i].clone();
+            } catch (CloneNotSupportedException e) {
+                try {
+                    workerDigests[i] = MessageDigest.getInstance(digests[i].getAlgorithm(), digests[i].getProvider());
+                } catch (NoSuchAlgorithmException e2) {
+                    // Should never happen, the algorithm is provided by the very same provider
+                    throw new IllegalStateException(e2);
+                }
+            }
+        }
+
+        DigestPipeline workerPipeline = new DigestPipeline(digestExecutor, workerDigests) {
+            @Override
+            protected void bytesDigested(long nbBytes) throws IOException {
+                getTotalByteCounter().add(nbBytes);
+                // Workers do not read through a throughput-limited stream, pause them here instead
+                while (getState() == State.PAUSED) {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (getState() == State.INTERRUPTED) {
+                    throw new InterruptedIOException();
+                }
+            }
+        };
+        synchronized(pipelines) {
+            pipelines.add(workerPipeline);
+        }
+        return workerPipeline;
+    }
+
+    /**
+     * Returns the number of files that can be digested at the same time for the given file's protocol: up to
+     * {@link #MAX_LOCAL_CONCURRENCY} for local files, as configured by {@link MuPreferences#TRANSFER_CONCURRENCY}
+     * for other protocols, and 1 for files located inside archives.
+     */
+    private static int getConcurrency(AbstractFile file) {
+        if (file.hasAncestor(AbstractArchiveEntryFile.class)) {
+            return 1;
+        }
+        if (file.getUnderlyingFileObject() instanceof File) {
+            return Math.min(MAX_LOCAL_CONCURRENCY, Runtime.getRuntime().availableProcessors());
+        }
+        String concurrency = MuConfigurations.getPreferences().getVariable(MuPreference.TRANSFER_CONCURRENCY, MuPreferences.DEFAULT_TRANSFER_CONCURRENCY);
+        return getTransferConcurrency(concurrency, file.getURL().getScheme());
+    }
+
 
     ////////////////////////////////////
     // TransferFileJob implementation //
@@ -121,36 +274,52 @@ public class CalculateChecksumJob extends TransferFileJob {
             } while(true);
         }
 
-        // Calculate the file's checksum
-        do {		// Loop for retry
+        // Determine the path relative to the base source folder
+        String relativePath = file.getAbsolutePath();
+        relativePath = relativePath.substring(baseSourcePath.length());
+        PendingChecksum checksum = new PendingChecksum(file, relativePath);
+
+        int concurrency = getConcurrency(file);
+        if (concurrency > 1 && getState() != State.INTERRUPTED) {
+            synchronized(this) {
+                if (checksumWorkers == null) {
+                    LOGGER.debug("calculating checksums of up to " + concurrency + " files in parallel");
+                    checksumWorkers = new TransferWorkerPool(getClass().getSimpleName(), concurrency);
+                }
+            }
 
+            pendingChecksums.add(checksum);
             try {
-                // Determine the path relative to the base source folder
-                String relativePath = file.getAbsolutePath();
-                relativePath = relativePath.substring(baseSourcePath.length());
+                checksumWorkers.execute(() -> calculateChecksumInParallel(checksum));
+            } catch (InterruptedException | RejectedExecutionException e) {
+                return false;
+            }
+            return writeCompletedChecksums(false);
+        }
 
-                // Resets the digest before use
-                digest.reset();
-                String checksum;
-                try (InputStream is = setCurrentInputStream(file.getInputStream())) {
-                    checksum = AbstractFile.calculateChecksum(is, digest);
-                }
+        // Lines must be written in order, wait for the files that are being digested in parallel
+        if (!writeCompletedChecksums(true)) {
+            return false;
+        }
+        return calculateChecksum(checksum) && writeChecksum(checksum);
+    }
 
-                // Write a new line in the checksum file, in the appropriate format
-                String line;
-                if (useSfvFormat) {
-                    // SFV format for CRC32 checksum
-                    line = relativePath + " " + checksum;     // 1 space character
-                } else {
-                    // 'SUMS' format for other checksum algorithms
-                    line = checksum + "  " + relativePath;    // 2 space characters, that's how the format is
+    /**
+     * Calculates the checksums of a file on the job thread, reporting errors to the user.
+     *
+     * @return <code>false</code> if the file was skipped or the job interrupted
+     */
+    private boolean calculateChecksum(PendingChecksum checksum) {
+        AbstractFile file = checksum.file;
+        do {		// Loop for retry
+            try {
+                try (InputStream is = setCurrentInputStream(file.getInputStream())) {
+                    checksum.checksums = pipeline.digest(is);
                 }
-
-                line += '\n';
-
-                checksumFileOut.write(line.getBytes(StandardCharsets.UTF_8));
-
                 return true;
+            } catch (RejectedExecutionException e) {
+                // The digest threads have been stopped, the job was interrupted
+                return false;
             } catch (IOException e) {
                 // If the job was interrupted by the user at the time the exception occurred, it most likely means that
                 // the IOException was caused by the stream being closed as a result of the user interruption.
@@ -161,7 +330,7 @@ public class CalculateChecksumJob extends TransferFileJob {
                 }
 
                 LOGGER.debug("Caught IOException", e);
-                
+
                 int ret = showErrorDialog(Translator.get("error"), Translator.get("error_while_transferring", file.getAbsolutePath()));
                 // Retry loops
                 if (ret == RETRY_ACTION) {
@@ -177,10 +346,109 @@ public class CalculateChecksumJob extends TransferFileJob {
         } while(true);
     }
 
+    /**
+     * Calculates the checksums of a file on a parallel worker. Failures are retried by the job thread, see
+     * {@link #writeCompletedChecksums(boolean)}.
+     */
+    private void calculateChecksumInParallel(PendingChecksum checksum) {
+        try {
+            if (getState() != State.INTERRUPTED) {
+                DigestPipeline workerPipeline = workerPipelines.get();
+                Object fileObject = checksum.file.getUnderlyingFileObject();
+                if (fileObject instanceof File) {
+                    try (FileChannel channel = FileChannel.open(((File)fileObject).toPath(), StandardOpenOption.READ)) {
+                        checksum.checksums = workerPipeline.digest(channel);
+                    }
+                } else {
+                    try (InputStream in = checksum.file.getInputStream()) {
+                        checksum.checksums = workerPipeline.digest(in);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Parallel checksum of " + checksum.file + " failed, will be retried", e);
+        } finally {
+            checksum.done.countDown();
+        }
+    }
+
+    /**
+     * Writes the lines of the files at the head of {@link #pendingChecksums} whose checksums have been calculated,
+     * retrying the files that failed on the job thread.
+     *
+     * @param wait true to wait for all pending files, false to stop at the first file not digested yet
+     * @return <code>false</code> if the job was interrupted or a line could not be written
+     */
+    private boolean writeCompletedChecksums(boolean wait) {
+        PendingChecksum checksum;
+        while ((checksum = pendingChecksums.peek()) != null) {
+            try {
+                while (!checksum.done.await(wait ? 100 : 0, TimeUnit.MILLISECONDS)) {
+                    if (!wait) {
+                        return true;
+                    }
+                    if (getState() == State.INTERRUPTED) {
+                        return false;
+                    }
+                }
+            } catch (InterruptedException e) {
+                return false;
+            }
+            pendingChecksums.poll();
+
+            if (getState() == State.INTERRUPTED) {
+                return false;
+            }
+            if (checksum.checksums == null) {
+                nextFile(checksum.file);
+                if (!calculateChecksum(checksum)) {
+                    continue;
+                }
+            }
+            if (!writeChecksum(checksum)) {
+                return false;
+            }
+        }
+        return getState() != State.INTERRUPTED;
+    }
+
+    /**
+     * Writes a new line in each checksum file, in the appropriate format.
+     */
+    private boolean writeChecksum(PendingChecksum checksum) {
+        try {
+            for (int i = 0; i < digests.length; i++) {
+                String hexChecksum = ByteUtils.toHexString(checksum.checksums[i]);
+                String line;
+                if (useSfvFormat[i]) {
+                    // SFV format for CRC32 checksum
+                    line = checksum.relativePath + " " + hexChecksum;     // 1 space character
+                } else {
+                    // 'SUMS' format for other checksum algorithms
+                    line = hexChecksum + "  " + checksum.relativePath;    // 2 space characters, that's how the format is
+                }
+
+                line += '\n';
+
+                checksumFileOuts[i].write(line.getBytes(StandardCharsets.UTF_8));
+            }
+            return true;
+        } catch (IOException e) {
+            LOGGER.debug("Caught IOException", e);
+            showErrorDialog(Translator.get("error"), Translator.get("error_while_transferring", checksum.file.getAbsolutePath()));
+            return false;
+        }
+    }
+
     @Override
     protected boolean hasFolderChanged(AbstractFile folder) {
-        // This job modifies the folder where the checksum file is
-        return folder.equalsCanonical(checksumFile.getParent());     // Note: parent may be null
+        // This job modifies the folder where the checksum files are
+        for (AbstractFile checksumFile : checksumFiles) {
+            if (folder.equalsCanonical(checksumFile.getParent())) {     // Note: parent may be null
+                return true;
+            }
+        }
+        return false;
     }
 
 
@@ -192,70 +460,120 @@ public class CalculateChecksumJob extends TransferFileJob {
     protected void jobStarted() {
         super.jobStarted();
 
-        // Check for file collisions, i.e. if the file already exists in the destination
-        int collision = FileCollisionChecker.checkForCollision(null, checksumFile);
-        if (collision != FileCollisionChecker.NO_COLLOSION) {
-            // File already exists in destination, ask the user what to do (cancel, overwrite,...) but
-            // do not offer the multiple files mode options such as 'skip' and 'apply to all'.
-            int choice = waitForUserResponse(new FileCollisionDialog(getProgressDialog(), getMainFrame(), collision, null, checksumFile, false, false));
+        for (int i = 0; i < checksumFiles.length; i++) {
+            AbstractFile checksumFile = checksumFiles[i];
 
-            // Overwrite file
-            if (choice == FileCollisionDialog.OVERWRITE_ACTION) {
-                // Do nothing, simply continue and file will be overwritten
-            }
-            // 'Cancel' or close dialog interrupts the job
-            else {
-                interrupt();
-                return;
+            // Check for file collisions, i.e. if the file already exists in the destination
+            int collision = FileCollisionChecker.checkForCollision(null, checksumFile);
+            if (collision != FileCollisionChecker.NO_COLLOSION) {
+                // File already exists in destination, ask the user what to do (cancel, overwrite,...) but
+                // do not offer the multiple files mode options such as 'skip' and 'apply to all'.
+                int choice = waitForUserResponse(new FileCollisionDialog(getProgressDialog(), getMainFrame(), collision, null, checksumFile, false, false));
+
+                // Overwrite file
+                if (choice == FileCollisionDialog.OVERWRITE_ACTION) {
+                    // Do nothing, simply continue and file will be overwritten
+                }
+                // 'Cancel' or close dialog interrupts the job
+                else {
+                    interrupt();
+                    return;
+                }
             }
-        }
 
-        // Loop for retry
-        do {
-            try {
-                // Tries to get an OutputStream on the destination file
-                this.checksumFileOut = checksumFile.getOutputStream();
+            // Loop for retry
+            do {
+                try {
+                    // Tries to get an OutputStream on the destination file
+                    this.checksumFileOuts[i] = checksumFile.getOutputStream();
 
-                break;
+                    break;
 
-            } catch (Exception e) {
-                int choice = showErrorDialog(Translator.get("error"),
-                                             Translator.get("cannot_write_file", checksumFile.getName()),
-                                             new String[] {CANCEL_TEXT, RETRY_TEXT},
-                                             new int[]  {CANCEL_ACTION, RETRY_ACTION}
-                                             );
+                } catch (Exception e) {
+                    int choice = showErrorDialog(Translator.get("error"),
+                                                 Translator.get("cannot_write_file", checksumFile.getName()),
+                                                 new String[] {CANCEL_TEXT, RETRY_TEXT},
+                                                 new int[]  {CANCEL_ACTION, RETRY_ACTION}
+                                                 );
 
-                // Retry loops
-                if (choice == RETRY_ACTION) {
-                    continue;
+                    // Retry loops
+                    if (choice == RETRY_ACTION) {
+                        continue;
+                    }
+
+                    // 'Cancel' or close dialog interrupts the job
+                    interrupt();
+                    return;
                 }
+            } while(true);
+        }
+    }
 
-                // 'Cancel' or close dialog interrupts the job
-                interrupt();
-                return;
-            }
-        } while(true);
+    /**
+     * Overrides {@link TransferFileJob#lastFileProcessed()} to write the checksums of the files that are still being
+     * digested in parallel.
+     */
+    @Override
+    protected void lastFileProcessed() {
+        super.lastFileProcessed();
+
+        writeCompletedChecksums(true);
     }
 
     @Override
     protected void jobCompleted() {
         super.jobCompleted();
 
-        // Open the checksum file in a viewer
-        ViewerRegistrar.createViewerFrame(getMainFrame(), checksumFile, IconManager.getImageIcon(checksumFile.getIcon()).getImage());
+        // Open the checksum files in a viewer
+        for (AbstractFile checksumFile : checksumFiles) {
+            ViewerRegistrar.createViewerFrame(getMainFrame(), checksumFile, IconManager.getImageIcon(checksumFile.getIcon()).getImage());
+        }
     }
 
     @Override
     protected void jobStopped() {
         super.jobStopped();
-        
-        // Close the checksum file's OutputStream
-        if (checksumFileOut != null) {
-            try {
-                checksumFileOut.close();
-            } catch (IOException ignore) {
-                // No need to inform the user
+
+        synchronized(this) {
+            if (checksumWorkers != null) {
+                checksumWorkers.shutdownNow();
+            }
+        }
+        digestExecutor.shutdownNow();
+
+        if (LOGGER.isDebugEnabled()) {
+            for (int i = 0; i < digests.length; i++) {
+                LOGGER.debug(digests[i].getAlgorithm() + " calculated at "
+                        + SizeFormat.format(getDigestThroughput(i), SizeFormat.UNIT_SPEED | SizeFormat.DIGITS_MEDIUM | SizeFormat.UNIT_SHORT));
             }
         }
+
+        // Close the checksum files' OutputStreams
+        for (OutputStream checksumFileOut : checksumFileOuts) {
+            if (checksumFileOut != null) {
+                try {
+                    checksumFileOut.close();
+                } catch (IOException ignore) {
+                    // No need to inform the user
+                }
+            }
+        }
+    }
+
+    /**
+     * A file whose checksums are being calculated, or have been calculated but not written yet.
+     */
+    private static class PendingChecksum {
+        private final AbstractFile file;
+        private final String relativePath;
+        /** The checksums of the file, null if they have not been calculated or if the calculation failed */
+        private volatile byte checksums[][];
+        /** Released once the calculation has completed or failed */
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        PendingChecksum(AbstractFile file, String relativePath) {
+            this.file = file;
+            this.relativePath = relativePath;
+        }
     }
 }
@@ -31,6 +31,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 
 /**
@@ -50,6 +52,9 @@ public class CopyJob extends AbstractCopyJob {
     /** Processed files counter */
     private long processedFilesCount;
 
+    /** Dates of the destination folders whose files were still being copied in parallel when the folder was done */
+    private final Map<AbstractFile, Long> pendingFolderDates = new LinkedHashMap<>();
+
 
 
     /** Operating mode : COPY or DOWNLOAD */
@@ -77,7 +82,7 @@ public class CopyJob extends AbstractCopyJob {
 
         this.mode = mode;
         this.errorDialogTitle = Translator.get(mode==Mode.DOWNLOAD ? "download_dialog.error_title" : "copy_dialog.error_title");
-        scanDirectoryThread = new ScanDirectoryThread(files);
+        scanDirectoryThread = new ScanDirectoryThread(files, true, true);
         scanDirectoryThread.start();
     }
 
@@ -178,8 +183,9 @@ public class CopyJob extends AbstractCopyJob {
             // and copy each file in this folder recursively
             do {		// Loop for retry
                 try {
-                    // for each file in folder...
-                    AbstractFile subFiles[] = file.ls();
+                    // for each file in folder, as listed by the scan if it has already listed it: files created in the
+                    // folder since then are not copied, the job copies the files the scan has counted...
+                    AbstractFile subFiles[] = scanDirectoryThread.ls(file);
 //filesDiscovered(subFiles);
                     for (int i = 0; i < subFiles.length && getState() != State.INTERRUPTED; i++) {
                         // Notify job that we're starting to process this file (needed for recursive calls to processFile)
@@ -191,13 +197,13 @@ public class CopyJob extends AbstractCopyJob {
                     // needs to work with the folder after calling super.processFile.
                     currentDestFile = destFile;
 
-                    // Only when finished with folder, set destination folder's date to match the original folder one
+                    // Only when finished with folder, set destination folder's date to match the original folder one.
+                    // Files still being copied in parallel would modify it, so wait for them to complete.
                     if (destFile.isFileOperationSupported(FileOperation.CHANGE_DATE)) {
-                        try {
-                            destFile.setLastModifiedDate(file.getLastModifiedDate());
-                        } catch (IOException e) {
-                            LOGGER.debug("failed to change the date of "+destFile, e);
-                            // Fail silently
+                        if (hasParallelTransfers()) {
+                            pendingFolderDates.put(destFile, file.getLastModifiedDate());
+                        } else {
+                            setFolderDate(destFile, file.getLastModifiedDate());
                         }
                     }
 
@@ -217,7 +223,16 @@ public class CopyJob extends AbstractCopyJob {
         // File is a regular file, copy it
         else  {
             // Copy the file
-            return tryCopyFile(file, destFile, append, errorDialogTitle);
+            return tryCopyFileInParallel(file, destFile, append, errorDialogTitle);
+        }
+    }
+
+    private void setFolderDate(AbstractFile folder, long date) {
+        try {
+            folder.setLastModifiedDate(date);
+        } catch (IOException e) {
+            LOGGER.debug("failed to change the date of "+folder, e);
+            // Fail silently
         }
     }
 
@@ -234,6 +249,17 @@ public class CopyJob extends AbstractCopyJob {
     // Overridden methods //
     ////////////////////////
 
+    @Override
+    protected void lastFileProcessed() {
+        super.lastFileProcessed();
+
+        // All parallel transfers are over, folders can be dated
+        for (Map.Entry<AbstractFile, Long> folderDate : pendingFolderDates.entrySet()) {
+            setFolderDate(folderDate.getKey(), folderDate.getValue());
+        }
+        pendingFolderDates.clear();
+    }
+
     @Override
     protected void jobCompleted() {
         super.jobCompleted();
@@ -265,6 +291,12 @@ public class CopyJob extends AbstractCopyJob {
         return Translator.get(mode == Mode.DOWNLOAD ? "download_dialog.downloading_file" : "copy_dialog.copying_file", getCurrentFilename());
     }
 
+    @Override
+    protected void jobStopped() {
+        super.jobStopped();
+        scanDirectoryThread.releaseListings();
+    }
+
     @Override
     public void interrupt() {
         if (scanDirectoryThread != null) {
@@ -273,6 +305,11 @@ public class CopyJob extends AbstractCopyJob {
         super.interrupt();
     }
 
+    @Override
+    public ScanDirectoryThread getScanDirectoryThread() {
+        return scanDirectoryThread;
+    }
+
     @Override
     public float getTotalPercentDone() {
         if (scanDirectoryThread == null || !scanDirectoryThread.isCompleted()) {
@@ -20,6 +20,10 @@
 package com.mucommander.job;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import com.mucommander.job.utils.ScanDirectoryThread;
 import org.slf4j.Logger;
@@ -89,7 +93,8 @@ public class DeleteJob extends FileJob {
             trash = DesktopManager.getTrash();
         }
 
-        scanDirectoryThread = new ScanDirectoryThread(files, false);
+        // Files moved to the trash are not listed by this job
+        scanDirectoryThread = new ScanDirectoryThread(files, false, !moveToTrash);
         scanDirectoryThread.start();
     }
 
@@ -130,6 +135,8 @@ public class DeleteJob extends FileJob {
 
         // Delete files recursively, only if trash is not used.
         int ret;
+        // Listing of the folder taken from the scan, null if the folder was listed by this job
+        AbstractFile scannedFiles[] = null;
         if(!moveToTrash && file.isDirectory()) {
             String filePath = file.getAbsolutePath();
             filePath = filePath.substring(getBaseSourceFolder().getAbsolutePath(false).length()+1);
@@ -139,12 +146,13 @@ public class DeleteJob extends FileJob {
                 do {		// Loop for retry
                     // Delete each file in this folder
                     try {
-                        AbstractFile subFiles[] = file.ls();
-                        for(int i=0; i<subFiles.length && getState() != State.INTERRUPTED; i++) {
-                            // Notify job that we're starting to process this file (needed for recursive calls to processFile)
-                            nextFile(subFiles[i]);
-                            processFile(subFiles[i], null);
+                        AbstractFile subFiles[] = scanDirectoryThread.takeListing(file);
+                        if (subFiles != null) {
+                            scannedFiles = subFiles;
+                        } else {
+                            subFiles = file.ls();
                         }
+                        processFiles(subFiles);
                         break;
                     }
                     catch(IOException e) {
@@ -172,6 +180,16 @@ public class DeleteJob extends FileJob {
             } catch(IOException e) {
                 LOGGER.debug("IOException caught", e);
 
+                // The folder was listed by the scan and may contain files that have been created since then: list it
+                // again, only now that it could not be deleted, and retry once its new files have been deleted
+                if (scannedFiles != null && deleteNewFiles(file, scannedFiles)) {
+                    scannedFiles = null;
+                    if (getState() == State.INTERRUPTED) {
+                        return false;
+                    }
+                    continue;
+                }
+
                 ret = showErrorDialog(errorDialogTitle,
                                       Translator.get(file.isDirectory()?"cannot_delete_folder":"cannot_delete_file", file.getName())
                                       );
@@ -185,6 +203,54 @@ public class DeleteJob extends FileJob {
         } while(true);
     }
 
+    /**
+     * Deletes the given files, see {@link #processFile(AbstractFile, Object)}.
+     */
+    private void processFiles(AbstractFile files[]) {
+        for(int i=0; i<files.length && getState() != State.INTERRUPTED; i++) {
+            // Notify job that we're starting to process this file (needed for recursive calls to processFile)
+            nextFile(files[i]);
+            processFile(files[i], null);
+        }
+    }
+
+    /**
+     * Deletes the files of the given folder that were not part of the given listing of the folder.
+     *
+     * @return <code>false</code> if the folder could not be listed or contains no new files
+     */
+    private boolean deleteNewFiles(AbstractFile folder, AbstractFile previousFiles[]) {
+        AbstractFile newFiles[];
+        try {
+            newFiles = getNewFiles(folder.ls(), previousFiles);
+        } catch (IOException e) {
+            LOGGER.debug("IOException caught", e);
+            return false;
+        }
+        if (newFiles.length == 0) {
+            return false;
+        }
+        processFiles(newFiles);
+        return true;
+    }
+
+    /**
+     * Returns the files of the current listing of a folder that were not part of a previous listing.
+     */
+    private static AbstractFile[] getNewFiles(AbstractFile files[], AbstractFile previousFiles[]) {
+        Set<String> previousNames = new HashSet<>();
+        for (AbstractFile file : previousFiles) {
+            previousNames.add(file.getName());
+        }
+        List<AbstractFile> newFiles = new ArrayList<>();
+        for (AbstractFile file : files) {
+            if (!previousNames.contains(file.getName())) {
+                newFiles.add(file);
+            }
+        }
+        return newFiles.toArray(new AbstractFile[newFiles.size()]);
+    }
+
     // This job modifies baseFolder and subfolders
     @Override
     protected boolean hasFolderChanged(AbstractFile folder) {
@@ -199,6 +265,7 @@ public class DeleteJob extends FileJob {
     @Override
     protected void jobStopped() {
         super.jobStopped();
+        scanDirectoryThread.releaseListings();
 
         if (moveToTrash) {
             trash.waitForPendingOperations();
@@ -251,6 +318,11 @@ public class DeleteJob extends FileJob {
         }
     }
 
+    @Override
+    public ScanDirectoryThread getScanDirectoryThread() {
+        return scanDirectoryThread;
+    }
+
     @Override
     public float getTotalPercentDone() {
         if (scanDirectoryThread == null || !scanDirectoryThread.isCompleted()) {
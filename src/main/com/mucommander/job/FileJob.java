@@ -31,6 +31,8 @@ import com.mucommander.commons.file.util.FileSet;
 import com.mucommander.job.progress.JobProgress;
 import com.mucommander.job.ui.DialogResult;
 import com.mucommander.job.ui.UserInputHelper;
+import com.mucommander.job.utils.ScanDirectoryThread;
+import com.mucommander.profiler.Tracer;
 import com.mucommander.utils.text.Translator;
 import com.mucommander.ui.dialog.QuestionDialog;
 import com.mucommander.ui.dialog.file.ProgressDialog;
@@ -99,13 +101,13 @@ public abstract class FileJob implements Runnable {
     private int nbFiles;
 
     /** Index of file currently being processed, see {@link #getCurrentFileIndex()} */
-    private int currentFileIndex = -1;
+    private volatile int currentFileIndex = -1;
 
-    /** File currently being processed */
-    private AbstractFile currentFile;
+    /** File currently being processed, may be set by other threads than the job's, see {@link #nextFile(AbstractFile)} */
+    private volatile AbstractFile currentFile;
 
     /** Name of the file currently being processed */
-    private String currentFilename = "";
+    private volatile String currentFilename = "";
 
     /** If set to true, processed files will be unmarked from current table */
     private boolean autoUnmark = true;
@@ -476,6 +478,7 @@ public abstract class FileJob implements Runnable {
      * starts processing a new file other than a top-level file, i.e. one that was passed
      * as an argument to {@link #processFile(AbstractFile, Object) processFile()}.
      * ({#nextFile(AbstractFile) nextFile()} is automatically called for files in base folder).
+     * This method may be called concurrently by threads processing files in parallel on behalf of the job.
      * @param file file to process
      */
     protected void nextFile(AbstractFile file) {
@@ -540,6 +543,17 @@ public abstract class FileJob implements Runnable {
     }
 	
 
+    /**
+     * This method is called by {@link #run()} after the last call to {@link #processFile(AbstractFile,Object)},
+     * before the job is stopped and {@link #jobCompleted()} is called. Jobs that process some files asynchronously
+     * can override this method to wait for them; the job is not completed if it was interrupted in the meantime.
+     *
+     * <p>This method implementation does nothing.
+     */
+    protected void lastFileProcessed() {
+    }
+
+
     /**
      * This method is called when this job has completed normal execution : all files have been processed without any interruption
      * (without any call to {@link #interrupt()}).
@@ -730,6 +744,16 @@ public abstract class FileJob implements Runnable {
     }
 	
 
+    /**
+     * Returns the thread that scans the files of this job to compute its total progress, so that the progress of the
+     * scan can be displayed while it is running.
+     *
+     * @return the thread that scans the files of this job, <code>null</code> if this job does not scan its files
+     */
+    public ScanDirectoryThread getScanDirectoryThread() {
+        return null;
+    }
+
     /**
      * Returns this job's percentage of completion, as a float comprised between 0 and 1.
      *
@@ -758,10 +782,11 @@ public abstract class FileJob implements Runnable {
     }
     
     /**
-     * Sets the file currently being processed.
+     * Sets the file currently being processed, without the side effects of {@link #nextFile(AbstractFile)}. This
+     * method can be used by subclasses that process again a file that was already notified to {@link #nextFile}.
      * @param file the file currently being processed.
      */
-    private void setCurrentFile(AbstractFile file) {
+    protected void setCurrentFile(AbstractFile file) {
         this.currentFile = file;
         // Update current file information returned by getCurrentFilename()
         this.currentFilename = "'" + file.getName() + "'";
@@ -857,7 +882,13 @@ public abstract class FileJob implements Runnable {
             nextFile(currentFile);
 
             // Process current file
-            boolean success = processFile(currentFile, null);
+            boolean success;
+            Tracer.Span span = Tracer.span("job.process-file");
+            try {
+                success = processFile(currentFile, null);
+            } finally {
+                span.close();
+            }
 
             // Stop if job was interrupted
             if (getState() == State.INTERRUPTED)
@@ -873,6 +904,11 @@ public abstract class FileJob implements Runnable {
             // If last file was reached without any user interruption, all files have been processed with or
             // without errors, switch to FINISHED state and notify listeners
             if (currentFileIndex >= nbFiles-1 && getState() != FileJob.State.INTERRUPTED) {
+                // Give jobs that process files asynchronously a chance to wait for them
+                lastFileProcessed();
+                if (getState() == FileJob.State.INTERRUPTED)
+                    break;
+
                 currentFileIndex++;
                 stop();
                 jobCompleted();
@@ -17,8 +17,11 @@
  */
 package com.mucommander.job;
 
+import com.mucommander.commons.file.AbstractArchiveFile;
 import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.impl.local.LocalFile;
 import com.mucommander.commons.file.util.FileSet;
+import com.mucommander.commons.io.BufferPool;
 import com.mucommander.commons.runtime.OsFamily;
 import com.mucommander.ui.main.MainFrame;
 import org.apache.commons.io.IOCase;
@@ -26,18 +29,44 @@ import org.apache.commons.io.filefilter.AbstractFileFilter;
 import org.apache.commons.io.filefilter.IOFileFilter;
 import org.apache.commons.io.filefilter.OrFileFilter;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import ru.trolsoft.utils.search.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Job for directory scanning
+ * Job for directory scanning.
+ *
+ * Local folders are scanned by a ForkJoinPool, each subfolder being searched by its own task. Remote folders and
+ * archives are scanned by a single task. Matching files are added to the results as soon as they are found.
  */
 public class FindFileJob extends FileJob {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FindFileJob.class);
+
+    /** Local files at least this large are memory-mapped to search their content, smaller ones are read */
+    private static final long MAP_THRESHOLD = 256 * 1024;
+
+    /** Maximum number of bytes of a file mapped at once */
+    private static final int MAP_REGION_SIZE = 64 * 1024 * 1024;
+
+    /** Number of milliseconds between two checks for the interruption of the job while the search is running */
+    private static final long INTERRUPT_CHECK_PERIOD = 100;
 
     private AbstractFile startDirectory;
     private String fileContent;
@@ -45,11 +74,18 @@ public class FindFileJob extends FileJob {
     private boolean searchArchives;
     private boolean ignoreHidden;
     private SearchPattern searchPattern;
+    private HorspoolSearcher searcher;
 
     private AbstractFileFilter fileFilter;
 
     private final List<AbstractFile> list = new ArrayList<>();
 
+    /** Number of files and folders examined so far */
+    private final LongAdder nbFilesProcessed = new LongAdder();
+
+    /** Number of bytes searched so far */
+    private final LongAdder nbBytesProcessed = new LongAdder();
+
     public FindFileJob(MainFrame mainFrame) {
         super(mainFrame);
         setAutoUnmark(false);
@@ -67,51 +103,99 @@ public class FindFileJob extends FileJob {
         if (getState() == State.INTERRUPTED) {
             return false;
         }
-        // If file is a directory, recurs
-        if (file.isDirectory() && (!file.isSymlink() || file.equals(startDirectory))) {
-            searchInFile(file);
-            if (!searchSubdirectories && !file.equals(startDirectory)) {
-                return true;
-            }
-            try {
-                AbstractFile subFiles[] = file.ls();
-                for (int i = 0; i < subFiles.length && getState() != State.INTERRUPTED; i++) {
-                    if (ignoreHidden && file.isHidden()) {
-                        continue;
-                    }
-                    // Notify job that we're starting to process this file (needed for recursive calls to processFile)
-                    nextFile(subFiles[i]);
-                    processFile(subFiles[i], null);
-                }
-            } catch(Throwable e) {
-                // Should we tell the user?
-            }
-        } else { // If not, increase file counter and bytes total
-            if (!ignoreHidden || !file.isHidden()) {
-                searchInFile(file);
-            }
+        searchInFile(file);
+        if (!file.isDirectory() && !(file.isArchive() && searchArchives)) {
+            return true;
         }
 
-        if (file.isArchive() && searchArchives) {
-            try {
-                AbstractFile subFiles[] = file.ls();
-                for (int i = 0; i < subFiles.length && getState() != State.INTERRUPTED; i++) {
-                    if (ignoreHidden && file.isHidden()) {
-                        continue;
+        // Archive files and remote files are not meant to be listed concurrently
+        boolean parallel = file.isDirectory() && file.getTopAncestor() instanceof LocalFile
+                && !file.hasAncestor(AbstractArchiveFile.class);
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            ForkJoinTask<?> task = pool.submit(new SearchTask(file, parallel));
+            while (true) {
+                try {
+                    task.get(INTERRUPT_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    if (getState() == State.INTERRUPTED) {
+                        return false;
                     }
-                    // Notify job that we're starting to process this file (needed for recursive calls to processFile)
-                    nextFile(subFiles[i]);
-                    processFile(subFiles[i], null);
+                } catch (InterruptedException e) {
+                    return false;
+                } catch (ExecutionException e) {
+                    LOGGER.info("Caught exception searching {}", file, e.getCause());
+                    break;
                 }
-            } catch(Throwable e) {
-                // Should we tell the user?
             }
+        } finally {
+            pool.shutdownNow();
         }
 
         return true;
     }
 
+    /**
+     * Searches the children of a folder or archive, forking a task for each subfolder if the folder is searched in
+     * parallel, and searching the subfolders in the same task otherwise.
+     */
+    private class SearchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final AbstractFile folder;
+        private final boolean parallel;
+
+        private SearchTask(AbstractFile folder, boolean parallel) {
+            this.folder = folder;
+            this.parallel = parallel;
+        }
+
+        @Override
+        protected void compute() {
+            searchFolder(folder, parallel);
+        }
+    }
+
+    private void searchFolder(AbstractFile folder, boolean parallel) {
+        AbstractFile subFiles[];
+        try {
+            subFiles = folder.ls();
+        } catch (Throwable e) {
+            // Should we tell the user?
+            return;
+        }
+
+        List<SearchTask> subTasks = new ArrayList<>();
+        for (AbstractFile subFile : subFiles) {
+            if (getState() == State.INTERRUPTED) {
+                return;
+            }
+            if (ignoreHidden && subFile.isHidden()) {
+                continue;
+            }
+            // Notify job that we're starting to process this file
+            nextFile(subFile);
+            searchInFile(subFile);
+
+            if (subFile.isDirectory() && !subFile.isSymlink()) {
+                if (!searchSubdirectories) {
+                    continue;
+                }
+                if (parallel) {
+                    subTasks.add(new SearchTask(subFile, true));
+                } else {
+                    searchFolder(subFile, false);
+                }
+            } else if (subFile.isArchive() && searchArchives) {
+                searchFolder(subFile, false);
+            }
+        }
+        ForkJoinTask.invokeAll(subTasks);
+    }
+
     private void searchInFile(AbstractFile file) {
+        nbFilesProcessed.increment();
         File f = new File(file.toString());
         if (fileFilter.accept(f) && fileContainsString(file)) {
             synchronized (this) {
@@ -122,31 +206,78 @@ public class FindFileJob extends FileJob {
 
 
     private boolean fileContainsString(AbstractFile f) {
-        //Profiler.start("check_new");
-        if (fileContent == null || fileContent.isEmpty()) {
+        if (searcher == null) {
             return true;
         }
         if (f.isDirectory()) {
             return false;
         }
 
-        try (SearchSourceStream source = new InputStreamSource(f.getInputStream())) {
-            long pos = SearchUtils.indexOf(source, searchPattern);
-            //Profiler.stop("check_new");
-            return pos >= 0;
-        } catch (IOException | SearchException e) {
-            e.printStackTrace();
+        long size = f.getSize();
+        long pos;
+        try {
+            if (f instanceof LocalFile && size >= MAP_THRESHOLD) {
+                pos = indexOfMapped((File)f.getUnderlyingFileObject());
+            } else {
+                byte buffer[] = BufferPool.getByteArray();
+                try (InputStream in = f.getInputStream()) {
+                    pos = searcher.indexOf(in, buffer);
+                } finally {
+                    BufferPool.releaseByteArray(buffer);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Could not search {}", f, e);
             return false;
         }
+        nbBytesProcessed.add(pos >= 0 ? pos + searchPattern.length() : Math.max(size, 0));
+        return pos >= 0;
     }
 
-
+    /**
+     * Searches a local file by mapping it into memory one region at a time.
+     */
+    private long indexOfMapped(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            // Consecutive regions overlap so that occurrences that span two regions are found
+            int overlap = searchPattern.length() - 1;
+            long offset = 0;
+            while (offset < size && getState() != State.INTERRUPTED) {
+                long regionSize = Math.min(MAP_REGION_SIZE, size - offset);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, regionSize);
+                int index = searcher.indexOf(buffer);
+                if (index >= 0) {
+                    return offset + index;
+                }
+                if (offset + regionSize >= size || regionSize <= overlap) {
+                    break;
+                }
+                offset += regionSize - overlap;
+            }
+        }
+        return -1;
+    }
 
 
     public List<AbstractFile> getResults() {
         return list;
     }
 
+    /**
+     * @return the number of files and folders examined so far
+     */
+    public long getNbFilesProcessed() {
+        return nbFilesProcessed.sum();
+    }
+
+    /**
+     * @return the number of bytes of file content searched so far
+     */
+    public long getNbBytesProcessed() {
+        return nbBytesProcessed.sum();
+    }
+
     public void setStartDirectory(AbstractFile startDirectory) {
         this.startDirectory = startDirectory;
         FileSet fs = new FileSet();
@@ -188,6 +319,7 @@ public class FindFileJob extends FileJob {
                 e.printStackTrace();
             }
         }
+        searcher = fileContent == null || fileContent.isEmpty() || searchPattern == null ? null : new HorspoolSearcher(searchPattern);
 
     }
 
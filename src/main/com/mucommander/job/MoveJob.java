@@ -20,6 +20,8 @@
 package com.mucommander.job;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,6 +48,9 @@ public class MoveJob extends AbstractCopyJob {
     /** True if this job corresponds to a single file renaming */
     private boolean renameMode = false;
 
+    /** Folders whose files were still being moved in parallel when the folder was done, in the order they were done */
+    private final List<PendingFolder> pendingFolders = new ArrayList<>();
+
     
     /**
      * Creates a new MoveJob without starting it.
@@ -183,17 +188,17 @@ public class MoveJob extends AbstractCopyJob {
                             isFolderEmpty = false;
                     }
 
-                    // Only when finished with folder, set destination folder's date to match the original folder one
-                    if (destFile.isFileOperationSupported(FileOperation.CHANGE_DATE)) {
-                        try {
-                            destFile.setLastModifiedDate(file.getLastModifiedDate());
-                        }
-                        catch (IOException e) {
-                            LOGGER.debug("failed to change the date of "+destFile, e);
-                            // Fail silently
-                        }
+                    // Files of this folder may still be moved in parallel, which would modify the destination folder's
+                    // date and prevent this folder from being deleted: date and delete it once they are (see
+                    // lastFileProcessed). Its parent folder then has to wait as well.
+                    if (hasParallelTransfers() || !pendingFolders.isEmpty()) {
+                        pendingFolders.add(new PendingFolder(file, destFile, isFolderEmpty));
+                        return isFolderEmpty;
                     }
 
+                    // Only when finished with folder, set destination folder's date to match the original folder one
+                    setFolderDate(destFile, file.getLastModifiedDate());
+
                     // If one file failed to be moved, return false (failure) since this folder could not be moved totally
                     if (!isFolderEmpty) {
                         return false;
@@ -210,53 +215,94 @@ public class MoveJob extends AbstractCopyJob {
                 break;
             } while(true);
 
-            // Return now if the job was interrupted, so that we do not attempt to delete this folder
-            if (getState() == State.INTERRUPTED) {
+            // Files of this folder that were moved in parallel may have failed
+            if (hasAbortedTransfers(file)) {
                 return false;
             }
 
             // finally, delete the empty folder
-            do {		// Loop for retry
-                try  {
-                    file.delete();
-                    return true;
-                } catch(IOException e) {
-                    int ret = showErrorDialog(errorDialogTitle, Translator.get("cannot_delete_folder", file.getAbsolutePath()));
-                    // Retry loops
-                    if (ret == RETRY_ACTION)
-                        continue;
-                    // Cancel, skip or close dialog returns false
-                    return false;
-                }
-            } while(true);
+            return deleteFolder(file);
         }
         // File is a regular file, move it by copying it to the destination and then deleting it
         else  {
             // if renameTo() was not supported or failed, or if it wasn't possible because of 'append',
-            // try the hard way by copying the file first, and then deleting the source file.
-            if (tryCopyFile(file, destFile, append, errorDialogTitle) && getState() != State.INTERRUPTED) {
-                // Delete the source file
-                do {		// Loop for retry
-                    try  {
-                        file.delete();
-                        // All OK
-                        return true;
-                    } catch(IOException e) {
-                        LOGGER.debug("IOException caught", e);
+            // try the hard way by copying the file first, and then deleting the source file (see transferCompleted).
+            return tryCopyFileInParallel(file, destFile, append, errorDialogTitle);
+        }
+    }
 
-                        int ret = showErrorDialog(errorDialogTitle, Translator.get("cannot_delete_file", file.getAbsolutePath()));
-                        // Retry loops
-                        if (ret == RETRY_ACTION) {
-                            continue;
-                        }
-                        // Cancel, skip or close dialog returns false
-                        return false;
-                    }
-                } while(true);
+    /**
+     * Sets the date of the given destination folder if its file protocol supports it, failing silently.
+     */
+    private void setFolderDate(AbstractFile folder, long date) {
+        if (folder.isFileOperationSupported(FileOperation.CHANGE_DATE)) {
+            try {
+                folder.setLastModifiedDate(date);
+            } catch (IOException e) {
+                LOGGER.debug("failed to change the date of "+folder, e);
+                // Fail silently
             }
+        }
+    }
 
+    /**
+     * Deletes the given source folder once all its files have been moved.
+     *
+     * @return <code>true</code> if the folder was deleted
+     */
+    private boolean deleteFolder(AbstractFile folder) {
+        // Return now if the job was interrupted, so that we do not attempt to delete this folder
+        if (getState() == State.INTERRUPTED) {
             return false;
         }
+
+        do {		// Loop for retry
+            try  {
+                folder.delete();
+                return true;
+            } catch(IOException e) {
+                int ret = showErrorDialog(errorDialogTitle, Translator.get("cannot_delete_folder", folder.getAbsolutePath()));
+                // Retry loops
+                if (ret == RETRY_ACTION)
+                    continue;
+                // Cancel, skip or close dialog returns false
+                return false;
+            }
+        } while(true);
+    }
+
+    /**
+     * Deletes the source file once it has been copied to the destination.
+     */
+    @Override
+    protected boolean transferCompleted(AbstractFile sourceFile, AbstractFile destFile, boolean interactive) {
+        if (getState() == State.INTERRUPTED) {
+            return false;
+        }
+
+        // Delete the source file
+        do {		// Loop for retry
+            try  {
+                sourceFile.delete();
+                // All OK
+                return true;
+            } catch(IOException e) {
+                LOGGER.debug("IOException caught", e);
+
+                // Parallel transfers cannot show dialogs, the job thread will retry
+                if (!interactive) {
+                    return false;
+                }
+
+                int ret = showErrorDialog(errorDialogTitle, Translator.get("cannot_delete_file", sourceFile.getAbsolutePath()));
+                // Retry loops
+                if (ret == RETRY_ACTION) {
+                    continue;
+                }
+                // Cancel, skip or close dialog returns false
+                return false;
+            }
+        } while(true);
     }
 
     // This job modifies baseDestFolder and its subfolders
@@ -270,6 +316,36 @@ public class MoveJob extends AbstractCopyJob {
     // Overridden methods //
     ////////////////////////
 
+    @Override
+    protected void lastFileProcessed() {
+        super.lastFileProcessed();
+
+        // All parallel transfers are over, folders can be dated and deleted. A folder is done after its subfolders,
+        // which are thus deleted first.
+        List<AbstractFile> remainingFolders = new ArrayList<>();
+        for (PendingFolder pendingFolder : pendingFolders) {
+            AbstractFile folder = pendingFolder.sourceFolder;
+            setFolderDate(pendingFolder.destFolder, pendingFolder.date);
+            if (!pendingFolder.moved || hasAbortedTransfers(folder) || isParentOfAny(folder, remainingFolders)
+                    || !deleteFolder(folder)) {
+                remainingFolders.add(folder);
+            }
+        }
+        pendingFolders.clear();
+    }
+
+    /**
+     * Returns <code>true</code> if the given folder contains one of the given files.
+     */
+    private static boolean isParentOfAny(AbstractFile folder, List<AbstractFile> files) {
+        for (AbstractFile file : files) {
+            if (folder.isParentOf(file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     protected void jobCompleted() {
         super.jobCompleted();
@@ -309,4 +385,27 @@ public class MoveJob extends AbstractCopyJob {
 
         return Translator.get("move_dialog.moving_file", getCurrentFilename());
     }
+
+
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * A source folder to delete once the parallel transfers are over, and its destination folder to date.
+     */
+    private static class PendingFolder {
+        private final AbstractFile sourceFolder;
+        private final AbstractFile destFolder;
+        private final long date;
+        /** False if a file of the folder could not be moved by the job thread */
+        private final boolean moved;
+
+        PendingFolder(AbstractFile sourceFolder, AbstractFile destFolder, boolean moved) {
+            this.sourceFolder = sourceFolder;
+            this.destFolder = destFolder;
+            this.date = sourceFolder.getLastModifiedDate();
+            this.moved = moved;
+        }
+    }
 }
@@ -21,9 +21,9 @@ package com.mucommander.job;
 
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.util.FileSet;
+import com.mucommander.core.DirectorySizeService;
 import com.mucommander.ui.main.MainFrame;
 
-import java.io.IOException;
 
 
 /**
@@ -42,6 +42,9 @@ public class PropertiesJob extends FileJob {
 	
     /** Combined size of all files encountered so far */
     private long totalBytes;
+
+    /** Totals accounted for so far by the folder being calculated, null if none */
+    private volatile DirectorySizeService.DirectorySize folderSize;
 	
 	
     public PropertiesJob(FileSet files, MainFrame mainFrame) {
@@ -53,21 +56,24 @@ public class PropertiesJob extends FileJob {
      * Returns the size in bytes of all the files seen so far.
      */
     public long getTotalBytes() {
-        return totalBytes;
+        DirectorySizeService.DirectorySize folderSize = this.folderSize;
+        return totalBytes + (folderSize == null ? 0 : folderSize.getSize() + folderSize.getSymlinkSize());
     }
 
     /**
      * Returns the number of folders counted so far.
      */
     public int getNbFolders() {
-        return nbFolders;
+        DirectorySizeService.DirectorySize folderSize = this.folderSize;
+        return nbFolders + (folderSize == null ? 0 : (int)folderSize.getFolderCount());
     }
  
     /**
      * Returns the number of files (folders excluded) counted so far.
      */
     public int getNbFilesRecurse() {
-        return nbFilesRecurse;
+        DirectorySizeService.DirectorySize folderSize = this.folderSize;
+        return nbFilesRecurse + (folderSize == null ? 0 : (int)folderSize.getFileCount());
     }
  
 
@@ -76,8 +82,8 @@ public class PropertiesJob extends FileJob {
     ////////////////////////////
 
     /**
-     * Adds the given file to the total of files or folders and the total size,
-     * and recurses if it is a folder.
+     * Adds the given file to the total of files or folders and the total size.
+     * The size of folders is calculated by {@link DirectorySizeService}.
      */
     @Override
     protected boolean processFile(AbstractFile file, Object recurseParams) {
@@ -85,21 +91,31 @@ public class PropertiesJob extends FileJob {
         if (getState() == State.INTERRUPTED)
             return false;
 
-        // If file is a directory, increase folder counter and recurse
+        // If file is a directory, add its totals once they have been calculated
         if (file.isDirectory() && !file.isSymlink()) {
-            nbFolders++;
-
+            DirectorySizeService.Calculation calculation = DirectorySizeService.getInstance().calculate(file, (c, size, finished) -> {});
             try {
-                AbstractFile subFiles[] = file.ls();
-                for(int i=0; i<subFiles.length && getState() != State.INTERRUPTED; i++) {
-                    // Notify job that we're starting to process this file (needed for recursive calls to processFile)
-                    nextFile(subFiles[i]);
-                    processFile(subFiles[i], null);
+                while (!calculation.await(100)) {
+                    if (getState() == State.INTERRUPTED) {
+                        calculation.cancel();
+                        return false;
+                    }
+                    folderSize = calculation.getPartialResult();
                 }
             }
-            catch(IOException e) {
-                // Should we tell the user?
+            catch(InterruptedException e) {
+                calculation.cancel();
+                return false;
+            }
+
+            DirectorySizeService.DirectorySize size = calculation.getResult();
+            if (size != null) {
+                nbFolders += size.getFolderCount();
+                nbFilesRecurse += size.getFileCount();
+                // Symlinked files count toward the total, as they do for the files of the selection
+                totalBytes += size.getSize() + size.getSymlinkSize();
             }
+            folderSize = null;
         }
         // If not, increase file counter and bytes total
         else {
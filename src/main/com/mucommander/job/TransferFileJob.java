@@ -20,12 +20,23 @@
 package com.mucommander.job;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.mucommander.commons.file.*;
 import com.mucommander.commons.file.impl.adb.AdbFile;
@@ -39,9 +50,15 @@ import com.mucommander.commons.io.ByteCounter;
 import com.mucommander.commons.io.ChecksumInputStream;
 import com.mucommander.commons.io.CounterInputStream;
 import com.mucommander.commons.io.FileTransferException;
+import com.mucommander.commons.io.StreamUtils;
 import com.mucommander.commons.io.ThroughputLimitInputStream;
 import com.mucommander.commons.io.security.MuProvider;
 import com.mucommander.commons.runtime.OsFamily;
+import com.mucommander.conf.MuConfigurations;
+import com.mucommander.conf.MuPreference;
+import com.mucommander.conf.MuPreferences;
+import com.mucommander.job.utils.TransferWorkerPool;
+import com.mucommander.profiler.Tracer;
 import com.mucommander.utils.text.Translator;
 import com.mucommander.ui.dialog.file.ProgressDialog;
 import com.mucommander.ui.main.MainFrame;
@@ -70,8 +87,26 @@ public abstract class TransferFileJob extends FileJob {
     /** Contains the number of bytes skipped so far (resumed files), see {@link #getTotalSkippedByteCounter()} */
     private ByteCounter totalSkippedByteCounter;
 
-    /** InputStream currently being processed, may be null */
-    private ThroughputLimitInputStream tlin;
+    /** Transfer of the file currently processed by the job thread */
+    private final Transfer mainTransfer;
+
+    /** Workers copying files in parallel, created by the first parallel transfer, see {@link #tryCopyFileInParallel} */
+    private TransferWorkerPool transferWorkers;
+
+    /** Transfers in progress on {@link #transferWorkers}, also used to synchronize the parallel byte counters */
+    private final Set<Transfer> parallelTransfers = new HashSet<>();
+
+    /** Bytes of the completed parallel transfers, plus those in progress */
+    private final ParallelByteCounter parallelByteCounter;
+
+    /** Skipped bytes of the completed parallel transfers, plus those in progress */
+    private final ParallelByteCounter parallelSkippedByteCounter;
+
+    /** Parallel transfers that failed and have to be retried on the job thread */
+    private final Queue<FailedTransfer> failedTransfers = new ConcurrentLinkedQueue<>();
+
+    /** Source files of the parallel transfers that could not be completed, even after being retried */
+    private final List<AbstractFile> abortedSourceFiles = new ArrayList<>();
 
     /** ThroughputLimit in bytes per second, -1 initially (no limit) */
     private long throughputLimit = -1;
@@ -113,16 +148,19 @@ public abstract class TransferFileJob extends FileJob {
 
         this.currentFileByteCounter = new ByteCounter();
         this.currentFileSkippedByteCounter = new ByteCounter();
+        this.mainTransfer = new Transfer(currentFileByteCounter, currentFileSkippedByteCounter);
 
-        // Account the current file's byte counter in the total byte counter
-        this.totalByteCounter = new ByteCounter(currentFileByteCounter);
-        this.totalSkippedByteCounter = new ByteCounter(currentFileSkippedByteCounter);
+        // Account the current file's and parallel transfers' byte counters in the total byte counter
+        this.parallelByteCounter = new ParallelByteCounter(currentFileByteCounter, false);
+        this.parallelSkippedByteCounter = new ParallelByteCounter(currentFileSkippedByteCounter, true);
+        this.totalByteCounter = new ByteCounter(parallelByteCounter);
+        this.totalSkippedByteCounter = new ByteCounter(parallelSkippedByteCounter);
     }
 
     void copyToReadonlyFile(AbstractFile sourceFile, AbstractFile destFile, boolean append) throws FileTransferException {
         try {
             destFile.changePermission(PermissionAccesses.USER_ACCESS, PermissionTypes.WRITE_PERMISSION, true);
-            copyFile(sourceFile, destFile, append);
+            copyFile(sourceFile, destFile, append, mainTransfer);
             destFile.changePermission(PermissionAccesses.USER_ACCESS, PermissionTypes.WRITE_PERMISSION, false);
         } catch (IOException e) {
             e.printStackTrace();
@@ -138,11 +176,14 @@ public abstract class TransferFileJob extends FileJob {
      * @param sourceFile source file
      * @param destFile destination file
      * @param append append or overwrite
+     * @param transfer the stream and byte counters to use, {@link #mainTransfer} on the job thread
      * @throws FileTransferException on transfer error
      */
-    private void copyFile(AbstractFile sourceFile, AbstractFile destFile, boolean append) throws FileTransferException {
+    private void copyFile(AbstractFile sourceFile, AbstractFile destFile, boolean append, Transfer transfer) throws FileTransferException {
         // Reset this field in case it was set to true for the previous file
-        isCheckingIntegrity = false;
+        if (transfer == mainTransfer) {
+            isCheckingIntegrity = false;
+        }
 
         // Throw a specific FileTransferException if source and destination files are identical
         if (sourceFile.equalsCanonical(destFile)) {
@@ -163,6 +204,12 @@ public abstract class TransferFileJob extends FileJob {
             }
         }
 
+        // Local to local copies are handed to the kernel, see #transferLocalFile()
+        if (!copied && isLocalTransfer(sourceFile, destFile)) {
+            transferLocalFile(sourceFile, destFile, append, transfer);
+            copied = true;
+        }
+
         // If the file wasn't copied using copyRemotelyTo(), or if copyRemotelyTo() failed
         InputStream in = null;
         if (!copied) {
@@ -179,9 +226,9 @@ public abstract class TransferFileJob extends FileJob {
 
                         inLength -= destFileSize;
                         // Increase current file ByteCounter by the number of bytes skipped
-                        currentFileByteCounter.add(destFileSize);
+                        transfer.byteCounter.add(destFileSize);
                         // Increase skipped ByteCounter by the number of bytes skipped
-                        currentFileSkippedByteCounter.add(destFileSize);
+                        transfer.skippedByteCounter.add(destFileSize);
                     } else {
                         in = sourceFile.getInputStream();
                         if (integrityCheckEnabled) {
@@ -189,7 +236,7 @@ public abstract class TransferFileJob extends FileJob {
                         }
                     }
 
-                    setCurrentInputStream(in);
+                    transfer.setInputStream(in);
                 } catch(Exception e) {
                     LOGGER.debug("IOException caught, throwing FileTransferException", e);
                     throw new FileTransferException(FileTransferException.OPENING_SOURCE);
@@ -207,13 +254,13 @@ public abstract class TransferFileJob extends FileJob {
                     return;
                 }
                 // Copy source stream to destination file
-                destFile.copyStream(tlin, append, inLength);
+                destFile.copyStream(transfer.getInputStream(), append, inLength);
             } finally {
                 // This block will always be executed, even if an exception
                 // was thrown in the catch block
 
                 // Tries to close the streams no matter what happened before
-                closeCurrentInputStream();
+                transfer.closeInputStream();
             }
         }
 
@@ -253,7 +300,9 @@ public abstract class TransferFileJob extends FileJob {
         // This block is executed only if integrity check has been enabled (disabled by default)
         if (integrityCheckEnabled) {
             // Indicate that integrity is being checked, the value is reset when the next file starts
-            isCheckingIntegrity = true;
+            if (transfer == mainTransfer) {
+                isCheckingIntegrity = true;
+            }
 
             String sourceChecksum;
             if (in != null && (in instanceof ChecksumInputStream)) {
@@ -264,7 +313,7 @@ public abstract class TransferFileJob extends FileJob {
                 // The file was copied using AbstractFile#copyRemotelyTo(), or the transfer was resumed:
                 // we have to calculate the source file's checksum from scratch.
                 try {
-                    sourceChecksum = calculateChecksum(sourceFile);
+                    sourceChecksum = calculateChecksum(sourceFile, transfer);
                 } catch (Exception e) {
                     throw new FileTransferException(FileTransferException.READING_SOURCE);
                 }
@@ -275,7 +324,7 @@ public abstract class TransferFileJob extends FileJob {
             // Calculate the destination file's checksum
             String destinationChecksum;
             try {
-                destinationChecksum = calculateChecksum(destFile);
+                destinationChecksum = calculateChecksum(destFile, transfer);
             } catch(Exception e) {
                 throw new FileTransferException(FileTransferException.READING_DESTINATION);
             }
@@ -289,13 +338,112 @@ public abstract class TransferFileJob extends FileJob {
         }
     }
 
-    private String calculateChecksum(AbstractFile file) throws IOException, NoSuchAlgorithmException {
-        currentFileByteCounter.reset();
-        InputStream in = setCurrentInputStream(file.getInputStream());
+    /**
+     * Returns <code>true</code> if both the source and destination files are plain local files, in which case
+     * {@link #transferLocalFile(AbstractFile, AbstractFile, boolean)} can be used to copy them.
+     *
+     * @param sourceFile source file
+     * @param destFile destination file
+     * @return true if the file can be copied with a FileChannel transfer
+     */
+    private static boolean isLocalTransfer(AbstractFile sourceFile, AbstractFile destFile) {
+        return sourceFile.getTopAncestor() instanceof LocalFile && destFile.getTopAncestor() instanceof LocalFile;
+    }
+
+    /**
+     * Copies a local file to a local destination using {@link StreamUtils#transferChannel}, which lets the operating
+     * system move the bytes without copying them through a user-space buffer.
+     *
+     * <p>The source channel is registered as the current InputStream so that the transfer is throttled, paused,
+     * stopped and skipped exactly like a stream copy, and its bytes are accounted in the current file's
+     * {@link ByteCounter}. Since the data never reaches the JVM, the source checksum is calculated after the transfer
+     * when integrity check is enabled.
+     *
+     * @param sourceFile source file
+     * @param destFile destination file
+     * @param append append (resume) or overwrite
+     * @param transfer the stream and byte counters to use
+     * @throws FileTransferException on transfer error
+     */
+    private void transferLocalFile(AbstractFile sourceFile, AbstractFile destFile, boolean append, Transfer transfer) throws FileTransferException {
+        File source = (File)sourceFile.getTopAncestor().getUnderlyingFileObject();
+        LocalFile localDestFile = (LocalFile)destFile.getTopAncestor();
+        File dest = (File)localDestFile.getUnderlyingFileObject();
+
+        FileChannel in;
+        long inLength;
+        try {
+            in = new FileInputStream(source).getChannel();
+            inLength = in.size();
+            long destFileSize = dest.length();
+            if (append && destFileSize > 0) {
+                in.position(destFileSize);
+
+                inLength -= destFileSize;
+                // Increase current file ByteCounter by the number of bytes skipped
+                transfer.byteCounter.add(destFileSize);
+                // Increase skipped ByteCounter by the number of bytes skipped
+                transfer.skippedByteCounter.add(destFileSize);
+            }
+
+            transfer.setInputStream(Channels.newInputStream(in));
+        } catch(IOException e) {
+            LOGGER.debug("IOException caught, throwing FileTransferException", e);
+            throw new FileTransferException(FileTransferException.OPENING_SOURCE, e);
+        }
+
+        FileChannel out = null;
+        try {
+            try {
+                // Opened through LocalFile so that the destination's listed attributes are discarded
+                out = localDestFile.getOutputChannel(append);
+            } catch(IOException e) {
+                throw new FileTransferException(FileTransferException.OPENING_DESTINATION, e);
+            }
+
+            StreamUtils.transferChannel(in, out, inLength, transfer.byteCounter, transfer.getInputStream());
+
+            // The transfer succeeded, a failure to close the destination fails it
+            FileChannel transferredOut = out;
+            out = null;
+            try {
+                transferredOut.close();
+            } catch(IOException e) {
+                throw new FileTransferException(FileTransferException.CLOSING_DESTINATION, e);
+            }
+        } catch(FileTransferException e) {
+            // The transfer failed, a failure to close the destination must not mask the reason why
+            if (out != null) {
+                try {
+                    out.close();
+                } catch(IOException closeException) {
+                    e.addSuppressed(closeException);
+                }
+                out = null;
+            }
+            throw e;
+        } finally {
+            // Closing the current InputStream also closes the source channel
+            transfer.closeInputStream();
+
+            // Not closed yet if an unchecked exception was thrown
+            if (out != null) {
+                try {
+                    out.close();
+                } catch(IOException e) {
+                    LOGGER.debug("failed to close "+dest, e);
+                }
+            }
+        }
+    }
+
+    private String calculateChecksum(AbstractFile file, Transfer transfer) throws IOException, NoSuchAlgorithmException {
+        transfer.byteCounter.reset();
+        InputStream in = transfer.setInputStream(file.getInputStream());
         try {
             return AbstractFile.calculateChecksum(in, MessageDigest.getInstance(CHECKSUM_VERIFICATION_ALGORITHM));
         } finally {
-            closeCurrentInputStream();
+            transfer.closeInputStream();
         }
     }
 
@@ -312,10 +460,15 @@ public abstract class TransferFileJob extends FileJob {
         // Copy file to destination
         do {				// Loop for retry
             try {
-                if (overwriteReadonly) {
-                    copyToReadonlyFile(sourceFile, destFile, append);
-                } else {
-                    copyFile(sourceFile, destFile, append);
+                Tracer.Span span = Tracer.span("io.copy-file");
+                try {
+                    if (overwriteReadonly) {
+                        copyToReadonlyFile(sourceFile, destFile, append);
+                    } else {
+                        copyFile(sourceFile, destFile, append, mainTransfer);
+                    }
+                } finally {
+                    span.close();
                 }
                 return true;
             } catch(FileTransferException e) {
@@ -412,25 +565,251 @@ public abstract class TransferFileJob extends FileJob {
      * @param in the InputStream to be used
      * @return the 'augmented' InputStream using the given stream as the underlying InputStream
      */
-    synchronized InputStream setCurrentInputStream(InputStream in) {
-        if (tlin == null) {
-            tlin = new ThroughputLimitInputStream(new CounterInputStream(in, currentFileByteCounter), throughputLimit);
-        } else {
-            tlin.setUnderlyingInputStream(new CounterInputStream(in, currentFileByteCounter));
+    InputStream setCurrentInputStream(InputStream in) {
+        return mainTransfer.setInputStream(in);
+    }
+
+    /**
+     * Closes the currently registered source InputStream.
+     */
+    void closeCurrentInputStream() {
+        mainTransfer.closeInputStream();
+    }
+
+
+    /**
+     * Copies the given source file to the specified destination file like
+     * {@link #tryCopyFile(AbstractFile, AbstractFile, boolean, String)}, on a parallel transfer worker if the source
+     * and destination protocols allow several files to be copied at the same time (see
+     * {@link MuPreferences#TRANSFER_CONCURRENCY}). {@link #transferCompleted(AbstractFile, AbstractFile, boolean)}
+     * is called once the file has been copied.
+     *
+     * <p>Folders, collisions and error dialogs remain the job thread's business: a parallel transfer that fails is
+     * retried on the job thread, with the usual error dialogs, the next time this method or
+     * {@link #awaitParallelTransfers()} is called.
+     *
+     * @return true if the file was copied or handed to a worker, false if the transfer was interrupted / aborted by
+     * the user
+     */
+    boolean tryCopyFileInParallel(AbstractFile sourceFile, AbstractFile destFile, boolean append, String errorDialogTitle) {
+        retryFailedTransfers();
+
+        int concurrency = getTransferConcurrency(sourceFile, destFile);
+        if (concurrency <= 1 || getState() == State.INTERRUPTED) {
+            return tryCopyFile(sourceFile, destFile, append, errorDialogTitle) && transferCompleted(sourceFile, destFile, true);
+        }
+
+        synchronized(this) {
+            if (transferWorkers == null) {
+                LOGGER.debug("copying up to " + concurrency + " files in parallel");
+                transferWorkers = new TransferWorkerPool(getClass().getSimpleName(), concurrency);
+                updateThroughputLimits(false);
+            }
         }
 
-        return tlin;
+        try {
+            transferWorkers.execute(() -> copyFileInParallel(sourceFile, destFile, append, errorDialogTitle));
+        } catch (InterruptedException | RejectedExecutionException e) {
+            return false;
+        }
+        return true;
     }
 
     /**
-     * Closes the currently registered source InputStream.
+     * Copies a file on a parallel transfer worker, see {@link #tryCopyFileInParallel}.
+     */
+    private void copyFileInParallel(AbstractFile sourceFile, AbstractFile destFile, boolean append, String errorDialogTitle) {
+        Transfer transfer = new Transfer(new ByteCounter(), new ByteCounter());
+        synchronized(parallelTransfers) {
+            parallelTransfers.add(transfer);
+        }
+
+        boolean copied = false;
+        try {
+            if (getState() != State.INTERRUPTED) {
+                copyFile(sourceFile, destFile, append, transfer);
+                copied = true;
+            }
+        } catch (FileTransferException e) {
+            LOGGER.debug("Parallel copy of " + sourceFile + " failed, will be retried", e);
+        } finally {
+            synchronized(parallelTransfers) {
+                parallelTransfers.remove(transfer);
+                // Bytes of a failed transfer are accounted again when the file is retried
+                if (copied) {
+                    parallelByteCounter.add(transfer.byteCounter, true);
+                    parallelSkippedByteCounter.add(transfer.skippedByteCounter, true);
+                }
+            }
+        }
+
+        if (getState() == State.INTERRUPTED) {
+            return;
+        }
+
+        if (!copied || !transferCompleted(sourceFile, destFile, false)) {
+            failedTransfers.add(new FailedTransfer(sourceFile, destFile, append, errorDialogTitle, copied));
+        }
+    }
+
+    /**
+     * Retries the parallel transfers that failed, on the job thread so that errors can be reported to the user.
+     */
+    private void retryFailedTransfers() {
+        AbstractFile currentFile = getCurrentFile();
+        FailedTransfer failedTransfer;
+        while (getState() != State.INTERRUPTED && (failedTransfer = failedTransfers.poll()) != null) {
+            AbstractFile sourceFile = failedTransfer.sourceFile;
+            AbstractFile destFile = failedTransfer.destFile;
+
+            // The file was already counted when it was handed to a worker, nextFile() is not called again: only the
+            // bytes of the retry are accounted. The file is made current so that the progress and error dialogs
+            // show its name.
+            addCurrentFileCounters();
+            currentFileSkipped = false;
+            setCurrentFile(sourceFile);
+            boolean success = failedTransfer.copied
+                    || tryCopyFile(sourceFile, destFile, failedTransfer.append, failedTransfer.errorDialogTitle);
+            addCurrentFileCounters();
+            if (!success || !transferCompleted(sourceFile, destFile, true)) {
+                synchronized(abortedSourceFiles) {
+                    abortedSourceFiles.add(sourceFile);
+                }
+            }
+        }
+
+        // Back to the file the job thread was processing
+        if (currentFile != null) {
+            setCurrentFile(currentFile);
+        }
+    }
+
+    /**
+     * Waits for all parallel transfers to complete, retrying those that failed. This method must be called by the
+     * job thread.
+     *
+     * @return <code>false</code> if the job was interrupted while waiting
      */
-    synchronized void closeCurrentInputStream() {
-        if (tlin != null) {
+    boolean awaitParallelTransfers() {
+        if (transferWorkers == null) {
+            return getState() != State.INTERRUPTED;
+        }
+
+        do {
             try {
-                tlin.close();
-            } catch(IOException e) {
-                e.printStackTrace();
+                transferWorkers.awaitCompletion();
+            } catch (InterruptedException e) {
+                return false;
+            }
+            retryFailedTransfers();
+        } while (getState() != State.INTERRUPTED && !transferWorkers.isIdle());
+
+        return getState() != State.INTERRUPTED;
+    }
+
+    /**
+     * Returns <code>true</code> if files are being copied by parallel transfer workers. This method is meant to be
+     * called by the job thread, in which case the returned value cannot change from <code>false</code> to
+     * <code>true</code> until the next call to {@link #tryCopyFileInParallel}.
+     *
+     * @return true if files are being copied by parallel transfer workers
+     */
+    boolean hasParallelTransfers() {
+        return transferWorkers != null && (!transferWorkers.isIdle() || !failedTransfers.isEmpty());
+    }
+
+    /**
+     * Returns <code>true</code> if a file located in the given folder could not be transferred by a parallel transfer,
+     * even after being retried. Pending transfers must be awaited with {@link #awaitParallelTransfers()} first.
+     *
+     * @param folder the folder to test
+     * @return true if a file located in the given folder could not be transferred
+     */
+    boolean hasAbortedTransfers(AbstractFile folder) {
+        synchronized(abortedSourceFiles) {
+            for (AbstractFile file : abortedSourceFiles) {
+                if (folder.isParentOf(file)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called once a file has been copied by {@link #tryCopyFileInParallel}. The default implementation does nothing
+     * and returns <code>true</code>, subclasses can override it to complete the processing of the file, e.g. delete
+     * the source file.
+     *
+     * @param sourceFile the file that was copied
+     * @param destFile the destination file
+     * @param interactive <code>true</code> when called by the job thread, which may report errors to the user;
+     * <code>false</code> when called by a parallel transfer worker, which must fail silently
+     * @return <code>false</code> if the operation failed, in which case a worker's call is retried by the job thread
+     */
+    protected boolean transferCompleted(AbstractFile sourceFile, AbstractFile destFile, boolean interactive) {
+        return true;
+    }
+
+    /**
+     * Returns the number of files that can be copied in parallel from the source file's protocol to the destination
+     * file's protocol, as configured by {@link MuPreferences#TRANSFER_CONCURRENCY}. Files located inside archives are
+     * always copied one at a time.
+     *
+     * @param sourceFile source file
+     * @param destFile destination file
+     * @return the number of files that can be copied at the same time, 1 to copy files sequentially
+     */
+    private static int getTransferConcurrency(AbstractFile sourceFile, AbstractFile destFile) {
+        if (sourceFile.hasAncestor(AbstractArchiveEntryFile.class) || destFile.hasAncestor(AbstractArchiveEntryFile.class)) {
+            return 1;
+        }
+
+        String concurrency = MuConfigurations.getPreferences().getVariable(MuPreference.TRANSFER_CONCURRENCY, MuPreferences.DEFAULT_TRANSFER_CONCURRENCY);
+        return Math.min(getTransferConcurrency(concurrency, sourceFile.getURL().getScheme()),
+                        getTransferConcurrency(concurrency, destFile.getURL().getScheme()));
+    }
+
+    /**
+     * Parses the number of parallel transfers for the given scheme from a <code>scheme:count</code> comma-separated
+     * list, returns 1 if the scheme is not listed or if its value is invalid.
+     */
+    static int getTransferConcurrency(String concurrency, String scheme) {
+        for (String token : concurrency.split(",")) {
+            int pos = token.indexOf(':');
+            if (pos > 0 && token.substring(0, pos).trim().equalsIgnoreCase(scheme)) {
+                try {
+                    return Math.max(1, Integer.parseInt(token.substring(pos + 1).trim()));
+                } catch (NumberFormatException e) {
+                    LOGGER.debug("invalid transfer concurrency " + token);
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Returns the throughput limit of each transfer: the job's limit is split evenly between the job thread's
+     * transfer and the parallel transfer workers.
+     */
+    private synchronized long getTransferThroughputLimit() {
+        if (throughputLimit <= 0 || transferWorkers == null) {
+            return throughputLimit;
+        }
+        return Math.max(1, throughputLimit / (transferWorkers.getNbWorkers() + 1));
+    }
+
+    /**
+     * Applies the current throughput limit to all transfers in progress, or blocks them if the job is being paused.
+     *
+     * @param paused true to block all transfers
+     */
+    private synchronized void updateThroughputLimits(boolean paused) {
+        long limit = paused ? 0 : getTransferThroughputLimit();
+        mainTransfer.setThroughputLimit(limit);
+        synchronized(parallelTransfers) {
+            for (Transfer transfer : parallelTransfers) {
+                transfer.setThroughputLimit(limit);
             }
         }
     }
@@ -470,8 +849,8 @@ public abstract class TransferFileJob extends FileJob {
      * Interrupts the current file transfer and advance to the next one.
      */
     public synchronized void skipCurrentFile() {
-        if (tlin != null) {
-            LOGGER.debug("skipping current file, closing "+ tlin);
+        if (mainTransfer.getInputStream() != null) {
+            LOGGER.debug("skipping current file, closing "+ mainTransfer.getInputStream());
 
             // Prevents an error from being reported when the current InputStream is closed
             currentFileSkipped = true;
@@ -572,8 +951,8 @@ public abstract class TransferFileJob extends FileJob {
         this.throughputLimit = bytesPerSecond <= 0 ? -1 : bytesPerSecond;
 
         synchronized(this) {
-            if (getState() != State.PAUSED && tlin != null) {
-                tlin.setThroughputLimit(throughputLimit);
+            if (getState() != State.PAUSED) {
+                updateThroughputLimits(false);
             }
         }
     }
@@ -594,21 +973,40 @@ public abstract class TransferFileJob extends FileJob {
     ////////////////////////
 
     /**
-     * Overrides {@link FileJob#jobStopped()} to stop any file processing by closing the source InputStream.
+     * Overrides {@link FileJob#jobStopped()} to stop any file processing by closing the source InputStreams.
      */
     @Override
     protected void jobStopped() {
         super.jobStopped();
 
         synchronized(this) {
-            if (tlin !=null) {
-                LOGGER.debug("closing current InputStream "+ tlin);
+            if (mainTransfer.getInputStream() != null) {
+                LOGGER.debug("closing current InputStream "+ mainTransfer.getInputStream());
 
                 closeCurrentInputStream();
             }
+
+            if (transferWorkers != null) {
+                transferWorkers.shutdownNow();
+                synchronized(parallelTransfers) {
+                    for (Transfer transfer : parallelTransfers) {
+                        transfer.closeInputStream();
+                    }
+                }
+            }
         }
     }
 
+    /**
+     * Overrides {@link FileJob#lastFileProcessed()} to wait for the parallel transfers to complete.
+     */
+    @Override
+    protected void lastFileProcessed() {
+        super.lastFileProcessed();
+
+        awaitParallelTransfers();
+    }
+
 
     /**
      * Overrides {@link FileJob#jobPaused()} to pause any file processing
@@ -619,8 +1017,7 @@ public abstract class TransferFileJob extends FileJob {
         super.jobPaused();
 
         synchronized(this) {
-            if (tlin != null)
-                tlin.setThroughputLimit(0);
+            updateThroughputLimits(true);
         }
     }
 
@@ -635,9 +1032,7 @@ public abstract class TransferFileJob extends FileJob {
 
         synchronized(this) {
             // Restore previous throughput limit (if any, -1 by default)
-            if (tlin != null) {
-                tlin.setThroughputLimit(throughputLimit);
-            }
+            updateThroughputLimits(false);
         }
     }
 
@@ -648,8 +1043,7 @@ public abstract class TransferFileJob extends FileJob {
      */
     @Override
     protected void nextFile(AbstractFile file) {
-        totalByteCounter.add(currentFileByteCounter, true);
-        totalSkippedByteCounter.add(currentFileSkippedByteCounter, true);
+        addCurrentFileCounters();
 
         // Reset some fields that need it
         currentFileSkipped = false;
@@ -657,6 +1051,14 @@ public abstract class TransferFileJob extends FileJob {
         super.nextFile(file);
     }
 
+    /**
+     * Adds the current file's byte counters to the total byte counters and resets them.
+     */
+    private void addCurrentFileCounters() {
+        totalByteCounter.add(currentFileByteCounter, true);
+        totalSkippedByteCounter.add(currentFileSkippedByteCounter, true);
+    }
+
     /**
      * Method overridden to return a more accurate percentage of job processed so far by taking into account the current
      * file's percentage of completion.
@@ -745,6 +1147,118 @@ public abstract class TransferFileJob extends FileJob {
     }
 
 
+    ///////////////////
+    // Inner classes //
+    ///////////////////
+
+    /**
+     * The source stream and byte counters of a file transfer. The job thread uses {@link #mainTransfer}, files copied
+     * by parallel transfer workers each have their own.
+     */
+    private class Transfer {
+
+        /** Number of bytes processed in the file so far */
+        private final ByteCounter byteCounter;
+
+        /** Number of bytes skipped in the file so far (resumed transfer) */
+        private final ByteCounter skippedByteCounter;
+
+        /** InputStream currently being processed, may be null */
+        private ThroughputLimitInputStream tlin;
+
+        Transfer(ByteCounter byteCounter, ByteCounter skippedByteCounter) {
+            this.byteCounter = byteCounter;
+            this.skippedByteCounter = skippedByteCounter;
+        }
+
+        /**
+         * Registers the given InputStream as the one being read, see {@link TransferFileJob#setCurrentInputStream(InputStream)}.
+         *
+         * @param in the InputStream to be used
+         * @return the 'augmented' InputStream using the given stream as the underlying InputStream
+         */
+        InputStream setInputStream(InputStream in) {
+            // Retrieved before locking this transfer, the job's lock must always be acquired first
+            long limit = getState() == State.PAUSED ? 0 : getTransferThroughputLimit();
+
+            synchronized(this) {
+                if (tlin == null) {
+                    tlin = new ThroughputLimitInputStream(new CounterInputStream(in, byteCounter), limit);
+                } else {
+                    tlin.setUnderlyingInputStream(new CounterInputStream(in, byteCounter));
+                }
+
+                return tlin;
+            }
+        }
+
+        synchronized ThroughputLimitInputStream getInputStream() {
+            return tlin;
+        }
+
+        synchronized void closeInputStream() {
+            if (tlin != null) {
+                try {
+                    tlin.close();
+                } catch(IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        synchronized void setThroughputLimit(long bytesPerSecond) {
+            if (tlin != null) {
+                tlin.setThroughputLimit(bytesPerSecond);
+            }
+        }
+    }
+
+    /**
+     * A parallel transfer that failed, to be retried by the job thread.
+     */
+    private static class FailedTransfer {
+        private final AbstractFile sourceFile;
+        private final AbstractFile destFile;
+        private final boolean append;
+        private final String errorDialogTitle;
+        /** True if the file was copied but {@link #transferCompleted(AbstractFile, AbstractFile, boolean)} failed */
+        private final boolean copied;
+
+        FailedTransfer(AbstractFile sourceFile, AbstractFile destFile, boolean append, String errorDialogTitle, boolean copied) {
+            this.sourceFile = sourceFile;
+            this.destFile = destFile;
+            this.append = append;
+            this.errorDialogTitle = errorDialogTitle;
+            this.copied = copied;
+        }
+    }
+
+    /**
+     * Accounts the bytes of the job thread's current file and of the parallel transfers: those in progress, and those
+     * that have completed, which are added to this counter.
+     */
+    private class ParallelByteCounter extends ByteCounter {
+
+        private final boolean skipped;
+
+        ParallelByteCounter(ByteCounter currentFileCounter, boolean skipped) {
+            super(currentFileCounter);
+            this.skipped = skipped;
+        }
+
+        @Override
+        public long getByteCount() {
+            synchronized(parallelTransfers) {
+                long count = super.getByteCount();
+                for (Transfer transfer : parallelTransfers) {
+                    count += (skipped ? transfer.skippedByteCounter : transfer.byteCounter).getByteCount();
+                }
+                return count;
+            }
+        }
+    }
+
+
 //    /**
 //     * Method overridden to return a more accurate percentage of job processed so far by taking
 //     * into account the current file's processed percentage.
@@ -20,7 +20,9 @@ package com.mucommander.job.progress;
 
 import com.mucommander.job.FileJob;
 import com.mucommander.job.TransferFileJob;
+import com.mucommander.job.utils.ScanDirectoryThread;
 import com.mucommander.utils.text.DurationFormat;
+import com.mucommander.utils.text.SizeFormat;
 import com.mucommander.utils.text.Translator;
 
 /**
@@ -159,7 +161,14 @@ public class JobProgress {
 		// of files remaining, not their actual size. So this is very
 		// approximate.
 		// Do not add ETA if job is already finished (100%)
-		if (totalPercentFloat < 1) {
+		// While the files are being scanned, show what has been found so far instead, as the ETA is meaningless
+		ScanDirectoryThread scanDirectoryThread = job.getScanDirectoryThread();
+		if (totalPercentFloat < 1 && scanDirectoryThread != null && !scanDirectoryThread.isCompleted()) {
+			totalProgressText += " - " + (scanDirectoryThread.isCalcSize()
+					? Translator.get("progress_dialog.scanning", Long.toString(scanDirectoryThread.getFilesCount()),
+							SizeFormat.format(scanDirectoryThread.getTotalBytes(), SizeFormat.DIGITS_MEDIUM | SizeFormat.UNIT_SHORT | SizeFormat.ROUND_TO_KB))
+					: Translator.get("progress_dialog.scanning_files", Long.toString(scanDirectoryThread.getFilesCount())));
+		} else if (totalPercentFloat < 1) {
 			totalProgressText += " - ";
 
 			// Avoid potential divisions by zero
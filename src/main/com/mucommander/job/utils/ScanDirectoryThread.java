@@ -19,90 +19,275 @@ package com.mucommander.job.utils;
 
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.util.FileSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Thread to calculating the total size of files
+ * Thread to calculating the total size of files.
+ *
+ * <p>Folders are listed by a few worker threads at once, which matters on remote file systems where listing a folder
+ * mostly waits for the server. The counters can be read while the scan is running, they grow as folders are listed.
+ *
+ * <p>The listings can be retained so that the job which follows the scan gets them with {@link #ls(AbstractFile)}
+ * instead of listing the same folders a second time. Retained listings are bounded by an estimate of the memory they
+ * take, see {@link #setMaxRetainedBytes(long)}: once the bound is reached, further listings are not retained until the
+ * job has taken some. A folder the job has listed itself, because the scan had not reached it yet, is not retained
+ * when the scan reaches it.
+ *
+ * <p>A retained listing is the state of the folder when the scan listed it: files created in the folder after that
+ * are not part of it, and files deleted since then are still part of it. The job then processes the files counted by
+ * the scan, but unlike a job that lists each folder when it gets to it, it ignores the files created between the
+ * scan and the job. Jobs that must not leave files behind, such as deleting a folder, have to check the folder again
+ * when it matters.
  */
 public class ScanDirectoryThread extends Thread {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScanDirectoryThread.class);
+
+    /** Number of folders listed at once */
+    private static final int NB_WORKERS = 4;
+
+    /** Default bound of the memory taken by retained listings, in bytes */
+    public static final long DEFAULT_MAX_RETAINED_BYTES = 32 * 1024 * 1024;
+
+    /** Estimated memory taken by a retained file instance, its URL and its cached attributes, in bytes */
+    static final int ESTIMATED_FILE_SIZE = 512;
+
+    private static volatile long maxRetainedBytes = DEFAULT_MAX_RETAINED_BYTES;
 
     private final FileSet files;
-    private long totalBytes;
-    private boolean completed;
+    private final LongAdder totalBytes = new LongAdder();
+    private volatile boolean completed;
     private long executionTime;
-    private long filesCount;
-    private boolean interrupted;
+    private final LongAdder filesCount = new LongAdder();
+    private volatile boolean interrupted;
     private final boolean calcSize;
+    private final boolean retainListings;
+
+    /** Marks in {@link #listings} the folders the job has taken or listed itself */
+    private static final AbstractFile[] TAKEN = new AbstractFile[0];
+
+    /** Listings retained for the job, or {@link #TAKEN}, by absolute path of the folder */
+    private final Map<String, AbstractFile[]> listings = new ConcurrentHashMap<>();
+
+    /** Estimated memory taken by the retained listings */
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    /** Folders listed or waiting to be, plus one until all the top-level files have been processed */
+    private final AtomicInteger pendingFolders = new AtomicInteger(1);
+
+    /** Released once all folders have been listed */
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private final ThreadPoolExecutor executor;
 
     public ScanDirectoryThread(FileSet files) {
-        this.files = files;
-        this.calcSize = true;
-        setName("ScanDirectoryThread " + files.getBaseFolder());
+        this(files, true);
     }
 
     public ScanDirectoryThread(FileSet files, boolean calcSize) {
+        this(files, calcSize, false);
+    }
+
+    /**
+     * Creates a new thread that scans the given files, and retains the listings of the folders if requested.
+     *
+     * @param files the files to scan
+     * @param calcSize <code>true</code> to compute the total size of the files
+     * @param retainListings <code>true</code> to retain the listings of the folders for {@link #ls(AbstractFile)}
+     */
+    public ScanDirectoryThread(FileSet files, boolean calcSize, boolean retainListings) {
         this.files = files;
         this.calcSize = calcSize;
+        this.retainListings = retainListings;
         setName("ScanDirectoryThread " + files.getBaseFolder());
+        AtomicInteger workerNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(NB_WORKERS, NB_WORKERS, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, getName() + " worker " + workerNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Sets the bound of the memory taken by the listings retained by each scan.
+     *
+     * @param maxRetainedBytes the estimated memory retained listings may take, in bytes
+     */
+    public static void setMaxRetainedBytes(long maxRetainedBytes) {
+        ScanDirectoryThread.maxRetainedBytes = maxRetainedBytes;
     }
 
     @Override
     public void run() {
         executionTime = System.currentTimeMillis();
-        for (AbstractFile file : files) {
-            if (interrupted) {
-                break;
-            }
-            try {
+        try {
+            for (AbstractFile file : files) {
+                if (interrupted) {
+                    break;
+                }
                 processFile(file);
-            } catch (Throwable ignore) {}
+            }
+            folderDone();
+            done.await();
+        } catch (InterruptedException ignore) {
+        } finally {
+            executor.shutdownNow();
         }
         completed = true;
         executionTime = System.currentTimeMillis() - executionTime;
-//System.out.println("finished  " + totalBytes + " " + filesCount + "    time " + executionTime);
     }
 
     private void processFile(AbstractFile file) {
         if (interrupted) {
             return;
         }
-        filesCount++;
-        if (file.isSymlink()) {
-            return; // ignore symlinks
+        try {
+            filesCount.increment();
+            if (file.isSymlink()) {
+                return; // ignore symlinks
+            }
+            if (file.isDirectory()) {
+                pendingFolders.incrementAndGet();
+                try {
+                    executor.execute(() -> scanFolder(file));
+                } catch (RejectedExecutionException e) {
+                    // The scan was interrupted
+                    folderDone();
+                }
+            } else if (calcSize) {
+                totalBytes.add(file.getSize());
+            }
+        } catch (Throwable e) {
+            LOGGER.debug("Could not scan " + file, e);
         }
-        if (file.isDirectory()) {
-            try {
-                AbstractFile[] subfiles = file.ls();
-                for (AbstractFile subfile : subfiles ) {
+    }
+
+    private void scanFolder(AbstractFile folder) {
+        try {
+            if (!interrupted) {
+                AbstractFile[] subfiles = folder.ls();
+                retain(folder, subfiles);
+                for (AbstractFile subfile : subfiles) {
                     if (interrupted) {
                         return;
                     }
                     processFile(subfile);
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        } else {
-            if (calcSize) {
-                totalBytes += file.getSize();
             }
+        } catch (IOException e) {
+            LOGGER.debug("Could not list " + folder, e);
+        } finally {
+            folderDone();
         }
     }
 
+    private void folderDone() {
+        if (pendingFolders.decrementAndGet() == 0) {
+            done.countDown();
+        }
+    }
+
+    /**
+     * Retains the listing of a folder if the bound of retained listings allows it.
+     */
+    private void retain(AbstractFile folder, AbstractFile[] subfiles) {
+        if (!retainListings || interrupted) {
+            return;
+        }
+        long size = getEstimatedSize(subfiles);
+        if (retainedBytes.addAndGet(size) > maxRetainedBytes || listings.putIfAbsent(folder.getAbsolutePath(), subfiles) != null) {
+            retainedBytes.addAndGet(-size);
+        }
+    }
+
+    private static long getEstimatedSize(AbstractFile[] subfiles) {
+        return (long)ESTIMATED_FILE_SIZE * (subfiles.length + 1);
+    }
+
+    /**
+     * Returns the files of the given folder: the listing retained by the scan if there is one, which is handed over
+     * and no longer retained, or a new listing otherwise. A retained listing does not include the files created in
+     * the folder since the scan listed it.
+     *
+     * @param folder the folder to list
+     * @return the files of the folder
+     * @throws IOException if the folder could not be listed
+     */
+    public AbstractFile[] ls(AbstractFile folder) throws IOException {
+        AbstractFile[] subfiles = takeListing(folder);
+        return subfiles == null ? folder.ls() : subfiles;
+    }
+
+    /**
+     * Returns the listing of the given folder retained by the scan, which is handed over and no longer retained,
+     * <code>null</code> if there is none. In the latter case the folder will not be retained if the scan has yet to
+     * list it, the job is expected to list it itself.
+     *
+     * @param folder the folder whose listing to return
+     * @return the listing retained by the scan, <code>null</code> if there is none
+     */
+    public AbstractFile[] takeListing(AbstractFile folder) {
+        if (!retainListings) {
+            return null;
+        }
+        AbstractFile[] subfiles = listings.put(folder.getAbsolutePath(), TAKEN);
+        if (subfiles == null || subfiles == TAKEN) {
+            return null;
+        }
+        retainedBytes.addAndGet(-getEstimatedSize(subfiles));
+        return subfiles;
+    }
+
+    /**
+     * Discards the retained listings, and stops retaining new ones. To be called once the job no longer needs them.
+     */
+    public void releaseListings() {
+        interrupted = true;
+        listings.clear();
+        retainedBytes.set(0);
+    }
+
+    /**
+     * Returns the estimated memory taken by the listings that are currently retained.
+     *
+     * @return the estimated memory taken by the retained listings, in bytes
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
     public long getTotalBytes() {
-        return totalBytes;
+        return totalBytes.sum();
     }
 
     public boolean isCompleted() {
         return completed;
     }
 
+    public boolean isCalcSize() {
+        return calcSize;
+    }
+
     public long getFilesCount() {
-        return filesCount;
+        return filesCount.sum();
     }
 
     public void interrupt() {
         interrupted = true;
+        executor.shutdownNow();
+        done.countDown();
     }
 }
@@ -0,0 +1,106 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/en/soft/trolcommander
+ * Copyright (C) 2013-2016 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.job.utils;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed number of worker threads used by a transfer job to copy several files at the same time.
+ *
+ * <p>{@link #execute(Runnable)} blocks while all workers are busy, so that the job thread does not run ahead of
+ * the transfers and queue the whole file set in memory.
+ */
+public class TransferWorkerPool {
+
+    private final ThreadPoolExecutor executor;
+
+    /** One permit per worker, taken while a task is queued or running */
+    private final Semaphore permits;
+
+    private final int nbWorkers;
+
+    public TransferWorkerPool(String name, int nbWorkers) {
+        this.nbWorkers = nbWorkers;
+        this.permits = new Semaphore(nbWorkers);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(nbWorkers, nbWorkers, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, name + " #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs the given task on a worker, waiting for one to be available.
+     *
+     * @param task the task to run
+     * @throws InterruptedException if the calling thread was interrupted while waiting for a worker
+     */
+    public void execute(Runnable task) throws InterruptedException {
+        permits.acquire();
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until all the tasks passed to {@link #execute(Runnable)} have completed.
+     *
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    public void awaitCompletion() throws InterruptedException {
+        permits.acquire(nbWorkers);
+        permits.release(nbWorkers);
+    }
+
+    /**
+     * Returns <code>true</code> if no task is queued or running.
+     *
+     * @return true if no task is queued or running
+     */
+    public boolean isIdle() {
+        return permits.availablePermits() == nbWorkers;
+    }
+
+    public int getNbWorkers() {
+        return nbWorkers;
+    }
+
+    /**
+     * Stops the workers, tasks that have not started yet are discarded.
+     */
+    public void shutdownNow() {
+        // Discarded tasks never release their permit, running ones release it when they finish
+        permits.release(executor.shutdownNow().size());
+    }
+}
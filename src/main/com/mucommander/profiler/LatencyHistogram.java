@@ -0,0 +1,147 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/en/soft/trolcommander
+ * Copyright (C) 2013-2016 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.profiler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records durations in nanoseconds into buckets that grow exponentially, four per power of two, so that percentiles
+ * are known within 25% whatever the magnitude of the durations, in constant memory. Recording is lock-free and may be
+ * done by several threads at once.
+ */
+public class LatencyHistogram {
+
+    /** Number of buckets per power of two */
+    private static final int SUB_BUCKETS = 4;
+
+    /** Number of buckets needed for all positive longs */
+    private static final int NB_BUCKETS = getBucketIndex(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NB_BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder total = new LongAdder();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Returns the index of the bucket of the given duration: durations below 4 have their own bucket, the others
+     * share a bucket with the durations that have the same 3 most significant bits.
+     */
+    static int getBucketIndex(long duration) {
+        if (duration < SUB_BUCKETS) {
+            return (int)Math.max(0, duration);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(duration);
+        int mantissa = (int)(duration >>> (exponent - 2));
+        return (exponent - 2) * SUB_BUCKETS + mantissa;
+    }
+
+    /**
+     * Returns the lowest duration of the bucket with the given index.
+     */
+    static long getBucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + 1;
+        int mantissa = SUB_BUCKETS + index % SUB_BUCKETS;
+        return (long)mantissa << (exponent - 2);
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param duration the duration in nanoseconds
+     */
+    public void record(long duration) {
+        counts.incrementAndGet(getBucketIndex(duration));
+        count.increment();
+        total.add(duration);
+        long currentMax = max.get();
+        while (duration > currentMax && !max.compareAndSet(currentMax, duration)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Returns the number of durations that have been recorded.
+     *
+     * @return the number of durations that have been recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the sum of the durations that have been recorded.
+     *
+     * @return the sum of the durations in nanoseconds
+     */
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /**
+     * Returns the longest duration that has been recorded.
+     *
+     * @return the longest duration in nanoseconds, 0 if none has been recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the average of the durations that have been recorded.
+     *
+     * @return the average duration in nanoseconds, 0 if none has been recorded
+     */
+    public long getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : getTotal() / count;
+    }
+
+    /**
+     * Returns an upper bound of the given percentile: the given percentage of the recorded durations are shorter than
+     * or equal to the returned duration, which is at most 25% above the actual percentile.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the percentile in nanoseconds, 0 if no duration has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < NB_BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                long upperBound = i + 1 < NB_BUCKETS ? getBucketLowerBound(i + 1) - 1 : Long.MAX_VALUE;
+                return Math.min(upperBound, getMax());
+            }
+        }
+        // Durations recorded while iterating
+        return getMax();
+    }
+}
@@ -19,20 +19,22 @@
 package com.mucommander.profiler;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
 
 /**
- * Created on 01/01/14.
+ * Measures named sections of code that are started and stopped by name, possibly by different threads, and prints
+ * statistics about them. Sections are recorded as {@link Tracer} spans: several sections with the same name may be
+ * running at once, on the same thread or not.
+ *
+ * <p>Created on 01/01/14.
  */
 public class Profiler {
     public static final boolean ENABLED = true;
 
-    private static final Map<String, Long> timesStart = new HashMap<>();
-    private static final Map<String, Long> timesDuration = new HashMap<>();
-    private static final Map<String, Integer> callCount = new HashMap<>();
-    private static final Set<String> hiddenGroups = new HashSet<>();
-
-    private static String lastSectionName;
-    private static List<String> initThreads = new ArrayList<>();
+    /** Sections that have been started and not stopped yet, most recent first, by name */
+    private static final Map<String, Deque<Tracer.Span>> openSections = new ConcurrentHashMap<>();
+    private static final Set<String> hiddenGroups = ConcurrentHashMap.newKeySet();
 
     public static long getTime() {
 //        return System.nanoTime();
@@ -43,80 +45,87 @@ public class Profiler {
         if (!ENABLED) {
             return;
         }
-        lastSectionName = name;
-        synchronized (timesStart) {
-            timesStart.put(name, getTime());
-        }
-        synchronized (callCount) {
-            Integer cnt = callCount.get(name);
-            if (cnt == null) {
-                cnt = 1;
-            } else {
-                cnt++;
-            }
-            callCount.put(name, cnt);
-        }
+        openSections.computeIfAbsent(name, key -> new ConcurrentLinkedDeque<>()).push(Tracer.span(name));
     }
 
+    /**
+     * Stops the section with the given name that was most recently started by the current thread, or by any thread if
+     * the current thread has not started one.
+     */
     public static void stop(String name) {
         if (!ENABLED) {
             return;
         }
-        long endTime = getTime();
-        long startTime;
-        synchronized (timesStart) {
-            startTime = timesStart.get(name);
+        Deque<Tracer.Span> spans = openSections.get(name);
+        if (spans == null) {
+            return;
         }
-        long duration = endTime - startTime;
-        synchronized (timesDuration) {
-            Long sum = timesDuration.get(name);
-            if (sum == null) {
-                sum = duration;
-            } else {
-                sum += duration;
+        long threadId = Thread.currentThread().getId();
+        Tracer.Span span = null;
+        for (Tracer.Span openSpan : spans) {
+            if (openSpan.getThreadId() == threadId) {
+                span = openSpan;
+                break;
             }
-            timesDuration.put(name, sum);
+        }
+        if (span == null) {
+            span = spans.peekFirst();
+        }
+        if (span != null && spans.remove(span)) {
+            span.close();
         }
     }
 
+    /**
+     * Stops the innermost section that is running on the current thread.
+     */
     public static void stop() {
         if (!ENABLED) {
             return;
         }
-        stop(lastSectionName);
+        Tracer.Span span = Tracer.getCurrentSpan();
+        if (span != null) {
+            stop(span.getName());
+        }
     }
 
     public static void print() {
         if (!ENABLED) {
             return;
         }
-        synchronized (timesDuration) {
-            TreeMap<String, Long> sortedMap = new TreeMap<>(new ValueComparator(timesDuration));
-            sortedMap.putAll(timesDuration);
-            System.out.println(withSpaces("Name", 40) + "\t" + withSpaces("Total", 10) + "\t" + withSpaces("Count", 7) + "\t" + "Average");
-            System.out.println(withSpaces("-----------", 40) + "\t" + withSpaces("--------", 10) + "\t" + withSpaces("-------", 7) + "\t" + "----------");
-            for (String name : sortedMap.keySet()) {
-                boolean isHidden = false;
-                for (String hiddenName : hiddenGroups) {
-                    if (name.contains(hiddenName)) {
-                        isHidden = true;
-                        break;
-                    }
-                }
-                if (isHidden) {
-                    continue;
-                }
-                long duration = timesDuration.get(name);
-                int count = callCount.get(name);
-                String avgDuration = String.valueOf(duration/count);
-                if (avgDuration.equals("0") && duration != 0) {
-                    avgDuration = String.valueOf(1.0*duration/count);
+        List<Map.Entry<String, LatencyHistogram>> histograms = new ArrayList<>(Tracer.getHistograms().entrySet());
+        histograms.sort((a, b) -> Long.compare(b.getValue().getTotal(), a.getValue().getTotal()));
+        System.out.println(withSpaces("Name", 40) + "\t" + withSpaces("Total", 10) + "\t" + withSpaces("Count", 7) + "\t"
+                + withSpaces("Average", 10) + "\t" + withSpaces("Median", 10) + "\t" + withSpaces("99%", 10) + "\t" + "Max");
+        System.out.println(withSpaces("-----------", 40) + "\t" + withSpaces("--------", 10) + "\t" + withSpaces("-------", 7) + "\t"
+                + withSpaces("--------", 10) + "\t" + withSpaces("--------", 10) + "\t" + withSpaces("--------", 10) + "\t" + "--------");
+        for (Map.Entry<String, LatencyHistogram> entry : histograms) {
+            String name = entry.getKey();
+            boolean isHidden = false;
+            for (String hiddenName : hiddenGroups) {
+                if (name.contains(hiddenName)) {
+                    isHidden = true;
+                    break;
                 }
-                System.out.println(withSpaces(name, 40) + "\t" + withSpaces(Long.toString(duration), 10) + "\t" + withSpaces(Integer.toString(count), 7) + "\t" + avgDuration);
             }
+            if (isHidden) {
+                continue;
+            }
+            LatencyHistogram histogram = entry.getValue();
+            System.out.println(withSpaces(name, 40) + "\t" + withSpaces(toMillis(histogram.getTotal()), 10) + "\t"
+                    + withSpaces(Long.toString(histogram.getCount()), 7) + "\t" + withSpaces(toMillis(histogram.getMean()), 10) + "\t"
+                    + withSpaces(toMillis(histogram.getPercentile(50)), 10) + "\t" + withSpaces(toMillis(histogram.getPercentile(99)), 10) + "\t"
+                    + toMillis(histogram.getMax()));
         }
     }
 
+    /**
+     * Formats a duration in nanoseconds as milliseconds, with a microsecond precision.
+     */
+    private static String toMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+    }
+
     private static String withSpaces(String name, int len) {
         while (name.length() < len) {
             name += " ";
@@ -124,23 +133,6 @@ public class Profiler {
         return name;
     }
 
-    static class ValueComparator implements Comparator<String> {
-
-        Map<String, Long> base;
-        public ValueComparator(Map<String, Long> base) {
-            this.base = base;
-        }
-
-        // Note: this comparator imposes orderings that are inconsistent with equals.
-        public int compare(String a, String b) {
-            if (base.get(a) >= base.get(b)) {
-                return -1;
-            } else {
-                return 1;
-            } // returning 0 would merge keys
-        }
-    }
-
     public static void hide(String name) {
         hiddenGroups.add(name);
     }
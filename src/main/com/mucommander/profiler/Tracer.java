@@ -0,0 +1,449 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/en/soft/trolcommander
+ * Copyright (C) 2013-2016 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.profiler;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Measures the duration of sections of code, or spans, in nanoseconds:
+ * <pre>
+ * Tracer.Span span = Tracer.span("io.copy-file");
+ * try {
+ *     ...
+ * } finally {
+ *     span.close();
+ * }
+ * </pre>
+ *
+ * <p>Spans are {@link AutoCloseable} and can be opened by a try-with-resources statement as well, but javac then
+ * warns that the span is not referenced in the statement's body.
+ *
+ * <p>Spans opened by a thread while another one is open are nested in it. The durations of the spans are added to a
+ * {@link LatencyHistogram} per span name.
+ *
+ * <p>The spans themselves are only kept once {@link #setRecordingSpans(boolean) recording} has been turned on, as
+ * they are never discarded before {@link #reset()}. Each thread then records the spans it closes in a buffer of its
+ * own, which only that thread writes to, so that recording needs no lock. Recorded spans can be exported as Chrome
+ * trace events, which can be loaded in <code>chrome://tracing</code> or in Perfetto to see what each thread was doing
+ * over time.
+ *
+ * @see Profiler
+ */
+public final class Tracer {
+
+    /** Maximum number of spans recorded per thread, spans closed beyond that are only added to the histograms */
+    private static final int MAX_SPANS_PER_THREAD = 100000;
+
+    /** Time spans are measured from */
+    private static final long EPOCH = System.nanoTime();
+
+    /** Span returned while the tracer is disabled */
+    private static final Span DISABLED_SPAN = new Span(null, null);
+
+    private static volatile boolean enabled = Profiler.ENABLED;
+
+    /** Whether closed spans are kept in addition to being added to the histograms */
+    private static volatile boolean recordingSpans;
+
+    /** Incremented by {@link #reset()}, so that threads replace the buffers that were discarded */
+    private static volatile int generation;
+
+    /** Buffers of all threads, including the ones that have terminated */
+    private static final Queue<SpanBuffer> BUFFERS = new ConcurrentLinkedQueue<>();
+
+    private static final ThreadLocal<SpanBuffer> BUFFER = new ThreadLocal<>();
+
+    /** Innermost open span of each thread */
+    private static final ThreadLocal<Span> CURRENT_SPAN = new ThreadLocal<>();
+
+    private static final Map<String, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    /**
+     * Makes sure no instance of <code>Tracer</code> is created.
+     */
+    private Tracer() {
+    }
+
+    /**
+     * Opens a span with the given name, nested in the innermost span that is open on the current thread. The span
+     * must be closed, preferably by a try-with-resources statement.
+     *
+     * @param name the name of the span, which spans that measure the same section of code share
+     * @return the new span, or a span that records nothing if the tracer is disabled
+     */
+    public static Span span(String name) {
+        if (!enabled) {
+            return DISABLED_SPAN;
+        }
+        Span span = new Span(name, getCurrentSpan());
+        CURRENT_SPAN.set(span);
+        return span;
+    }
+
+    /**
+     * Returns the innermost span that is open on the current thread.
+     *
+     * @return the innermost open span, <code>null</code> if there is none
+     */
+    public static Span getCurrentSpan() {
+        return getOpenSpan(CURRENT_SPAN.get());
+    }
+
+    /**
+     * Returns the given span if it is open, or its innermost open ancestor, skipping the spans closed by another
+     * thread than the one that opened them.
+     */
+    private static Span getOpenSpan(Span span) {
+        while (span != null && span.closed) {
+            span = span.parent;
+        }
+        return span;
+    }
+
+    /**
+     * Enables or disables the tracer. Spans opened while the tracer is disabled record nothing.
+     *
+     * @param enabled <code>true</code> to enable the tracer
+     */
+    public static void setEnabled(boolean enabled) {
+        Tracer.enabled = enabled;
+    }
+
+    /**
+     * Returns <code>true</code> if the tracer is enabled.
+     *
+     * @return <code>true</code> if the tracer is enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns the recording of closed spans on or off. Spans are not recorded by default, only their durations are added
+     * to the histograms.
+     *
+     * @param recordingSpans <code>true</code> to keep the closed spans, so that they can be exported
+     */
+    public static void setRecordingSpans(boolean recordingSpans) {
+        Tracer.recordingSpans = recordingSpans;
+    }
+
+    /**
+     * Returns <code>true</code> if closed spans are recorded.
+     *
+     * @return <code>true</code> if closed spans are recorded
+     */
+    public static boolean isRecordingSpans() {
+        return recordingSpans;
+    }
+
+    /**
+     * Discards the spans and histograms recorded so far.
+     */
+    public static void reset() {
+        generation++;
+        BUFFERS.clear();
+        HISTOGRAMS.clear();
+    }
+
+    /**
+     * Returns the histogram of the durations of the spans with the given name.
+     *
+     * @param name the name of the spans
+     * @return the histogram of the spans with the given name, <code>null</code> if none has been closed
+     */
+    public static LatencyHistogram getHistogram(String name) {
+        return HISTOGRAMS.get(name);
+    }
+
+    /**
+     * Returns the histograms of the durations of the spans, by span name.
+     *
+     * @return the histograms of the spans that have been closed
+     */
+    public static Map<String, LatencyHistogram> getHistograms() {
+        return Collections.unmodifiableMap(HISTOGRAMS);
+    }
+
+    /**
+     * Returns the spans that have been recorded, in no particular order.
+     *
+     * @return the recorded spans
+     */
+    public static List<Span> getSpans() {
+        List<Span> spans = new ArrayList<>();
+        for (SpanBuffer buffer : BUFFERS) {
+            buffer.addTo(spans);
+        }
+        return spans;
+    }
+
+    private static void record(Span span) {
+        if (recordingSpans) {
+            SpanBuffer buffer = BUFFER.get();
+            if (buffer == null || buffer.generation != generation) {
+                buffer = new SpanBuffer(generation);
+                BUFFER.set(buffer);
+                BUFFERS.add(buffer);
+            }
+            buffer.add(span);
+        }
+
+        LatencyHistogram histogram = HISTOGRAMS.get(span.name);
+        if (histogram == null) {
+            histogram = HISTOGRAMS.computeIfAbsent(span.name, name -> new LatencyHistogram());
+        }
+        histogram.record(span.getDuration());
+    }
+
+    /**
+     * Writes the recorded spans in the Chrome trace event format, as complete events with times in microseconds.
+     *
+     * @param writer the writer to write the events to
+     */
+    public static void writeChromeTrace(Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        out.print("{\"traceEvents\":[");
+        boolean first = true;
+        Map<Long, String> threadNames = new HashMap<>();
+        for (Span span : getSpans()) {
+            threadNames.put(span.threadId, span.threadName);
+            out.print(first ? "\n" : ",\n");
+            first = false;
+            out.print("{\"name\":\"" + escape(span.name) + "\",\"cat\":\"" + escape(getCategory(span.name))
+                    + "\",\"ph\":\"X\",\"pid\":1,\"tid\":" + span.threadId
+                    + ",\"ts\":" + toMicros(span.start - EPOCH) + ",\"dur\":" + toMicros(span.getDuration())
+                    + ",\"args\":{\"depth\":" + span.depth + "}}");
+        }
+        for (Map.Entry<Long, String> threadName : threadNames.entrySet()) {
+            out.print(first ? "\n" : ",\n");
+            first = false;
+            out.print("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + threadName.getKey()
+                    + ",\"args\":{\"name\":\"" + escape(threadName.getValue()) + "\"}}");
+        }
+        out.println("\n]}");
+        out.flush();
+    }
+
+    /**
+     * Writes the spans recorded during the lifetime of the JVM to the given file, in the Chrome trace event format,
+     * when the JVM shuts down. Spans are only recorded once {@link #setRecordingSpans(boolean)} has been called.
+     *
+     * @param path the path of the file to write the spans to
+     */
+    public static void writeChromeTraceOnExit(String path) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8)) {
+                writeChromeTrace(writer);
+            } catch (IOException e) {
+                // Logging may have been shut down already
+                System.err.println("Could not write the trace to " + path + ": " + e);
+            }
+        }, "Tracer shutdown"));
+    }
+
+    /**
+     * Returns the category of a span, which is the part of its name before the first dot.
+     */
+    private static String getCategory(String name) {
+        int dot = name.indexOf('.');
+        return dot == -1 ? name : name.substring(0, dot);
+    }
+
+    private static String toMicros(long nanos) {
+        return nanos / 1000 + "." + String.format("%03d", nanos % 1000);
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format("\\u%04x", (int)c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * A section of code whose duration is measured, from the creation of the span until it is closed.
+     */
+    public static final class Span implements AutoCloseable {
+        private final String name;
+        private final Span parent;
+        private final int depth;
+        private final long threadId;
+        private final String threadName;
+        private final long start;
+        private long end;
+        private volatile boolean closed;
+
+        private Span(String name, Span parent) {
+            this.name = name;
+            this.parent = parent;
+            this.depth = parent == null ? 0 : parent.depth + 1;
+            Thread thread = Thread.currentThread();
+            this.threadId = thread.getId();
+            this.threadName = thread.getName();
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * Closes the span and records it. Spans are meant to be closed by the thread that opened them, in the reverse
+         * order they were opened, but may be closed by another thread. Closing a span more than once has no effect.
+         */
+        @Override
+        public void close() {
+            if (name == null || closed) {
+                return;
+            }
+            end = System.nanoTime();
+            closed = true;
+            if (CURRENT_SPAN.get() == this) {
+                CURRENT_SPAN.set(getOpenSpan(parent));
+            }
+            record(this);
+        }
+
+        /**
+         * Returns the name of the span.
+         *
+         * @return the name of the span, <code>null</code> if the tracer was disabled when the span was opened
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the span this one is nested in.
+         *
+         * @return the parent span, <code>null</code> if the span is not nested in another
+         */
+        public Span getParent() {
+            return parent;
+        }
+
+        /**
+         * Returns the number of spans this one is nested in.
+         *
+         * @return the nesting depth of the span
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * Returns the id of the thread that opened the span.
+         *
+         * @return the id of the thread that opened the span
+         */
+        public long getThreadId() {
+            return threadId;
+        }
+
+        /**
+         * Returns the name of the thread that opened the span.
+         *
+         * @return the name of the thread that opened the span
+         */
+        public String getThreadName() {
+            return threadName;
+        }
+
+        /**
+         * Returns the duration of the span.
+         *
+         * @return the duration of the span in nanoseconds, 0 if it is still open
+         */
+        public long getDuration() {
+            return closed ? end - start : 0;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * The spans closed by a thread. Only that thread adds spans to the buffer, which other threads may read at the
+     * same time: spans are stored in fixed-size chunks that are never moved, and published by the volatile size.
+     */
+    private static final class SpanBuffer {
+        private static final int CHUNK_SIZE = 1024;
+
+        private final int generation;
+        private final Chunk head = new Chunk();
+        private Chunk tail = head;
+        private volatile int size;
+
+        private SpanBuffer(int generation) {
+            this.generation = generation;
+        }
+
+        private void add(Span span) {
+            int size = this.size;
+            if (size >= MAX_SPANS_PER_THREAD) {
+                return;
+            }
+            int index = size % CHUNK_SIZE;
+            if (index == 0 && size > 0) {
+                Chunk chunk = new Chunk();
+                tail.next = chunk;
+                tail = chunk;
+            }
+            tail.spans[index] = span;
+            this.size = size + 1;
+        }
+
+        private void addTo(List<Span> spans) {
+            int size = this.size;
+            Chunk chunk = head;
+            for (int i = 0; i < size; i++) {
+                if (i > 0 && i % CHUNK_SIZE == 0) {
+                    chunk = chunk.next;
+                }
+                spans.add(chunk.spans[i % CHUNK_SIZE]);
+            }
+        }
+    }
+
+    private static final class Chunk {
+        private final Span[] spans = new Span[SpanBuffer.CHUNK_SIZE];
+        private volatile Chunk next;
+    }
+}
@@ -57,6 +57,7 @@ import java.util.TreeSet;
 public class CalculateChecksumDialog extends JobDialog implements ActionListener, ItemListener {
 
     private MuComboBox<String> algorithmComboBox = new MuComboBox<>();
+    private MuComboBox<String> additionalAlgorithmComboBox = new MuComboBox<>();
     private JRadioButton specificLocationRadioButton;
     private JTextField specificLocationTextField;
     private JButton okButton;
@@ -70,6 +71,9 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
     /** Last algorithm used, saved after validation of this dialog */
     private static String lastUsedAlgorithm = DEFAULT_ALGORITHM;
 
+    /** Last additional algorithm used, null if none */
+    private static String lastUsedAdditionalAlgorithm;
+
     /** Dialog size constraints */
     private final static Dimension MINIMUM_DIALOG_DIMENSION = new Dimension(320,0);
 
@@ -117,6 +121,22 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
         tempPanel.add(new JLabel(i18n("calculate_checksum_dialog.checksum_algorithm")+" : "));
         tempPanel.add(algorithmComboBox);
 
+        mainPanel.add(tempPanel);
+        mainPanel.addSpace(5);
+
+        // Another checksum can be calculated in the same pass, and written to its own checksum file
+        additionalAlgorithmComboBox.addItem(i18n("calculate_checksum_dialog.no_additional_algorithm"));
+        for (MessageDigest messageDigest : messageDigests) {
+            additionalAlgorithmComboBox.addItem(messageDigest.getAlgorithm());
+        }
+        if (lastUsedAdditionalAlgorithm != null) {
+            additionalAlgorithmComboBox.setSelectedItem(lastUsedAdditionalAlgorithm);
+        }
+
+        tempPanel = new JPanel(flowLayout);
+        tempPanel.add(new JLabel(i18n("calculate_checksum_dialog.additional_algorithm")+" : "));
+        tempPanel.add(additionalAlgorithmComboBox);
+
         mainPanel.add(tempPanel);
         mainPanel.addSpace(10);
 
@@ -184,6 +204,17 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
         return messageDigests[algorithmComboBox.getSelectedIndex()];
     }
 
+    /**
+     * Returns the MessageDigest instance corresponding to the additional algorithm, <code>null</code> if none is
+     * selected or if it is the same as the main algorithm.
+     *
+     * @return the MessageDigest instance corresponding to the additional algorithm, null if none
+     */
+    private MessageDigest getAdditionalMessageDigest() {
+        int index = additionalAlgorithmComboBox.getSelectedIndex() - 1;
+        return index < 0 || index == algorithmComboBox.getSelectedIndex() ? null : messageDigests[index];
+    }
+
     /**
      * Returns a de-facto standard filename for the specified checksum algorithm, e.g. <code>MD5SUMS</code> for
      * <code>md5</code>.
@@ -253,12 +284,29 @@ public class CalculateChecksumDialog extends JobDialog implements ActionListener
                 checksumFile = FileFactory.getTemporaryFile(getChecksumFilename(algorithm), true);
             }
 
-            // Save the algorithm that was used for the next time this dialog is invoked
+            // The additional checksum file is created next to the main one, with its standard name
+            MessageDigest additionalDigest = getAdditionalMessageDigest();
+            AbstractFile checksumFiles[];
+            MessageDigest digests[];
+            if (additionalDigest == null) {
+                checksumFiles = new AbstractFile[] {checksumFile};
+                digests = new MessageDigest[] {digest};
+            } else {
+                String additionalFilename = getChecksumFilename(additionalDigest.getAlgorithm());
+                AbstractFile checksumFolder = checksumFile.getParent();
+                AbstractFile additionalChecksumFile = specificLocationRadioButton.isSelected() && checksumFolder != null ?
+                        checksumFolder.getDirectChild(additionalFilename) : FileFactory.getTemporaryFile(additionalFilename, true);
+                checksumFiles = new AbstractFile[] {checksumFile, additionalChecksumFile};
+                digests = new MessageDigest[] {digest, additionalDigest};
+            }
+
+            // Save the algorithms that were used for the next time this dialog is invoked
             lastUsedAlgorithm = algorithm;
+            lastUsedAdditionalAlgorithm = additionalDigest == null ? null : additionalDigest.getAlgorithm();
 
             // Start processing files
             ProgressDialog progressDialog = new ProgressDialog(mainFrame, i18n("properties_dialog.calculating"));
-            CalculateChecksumJob job = new CalculateChecksumJob(progressDialog, mainFrame, files, checksumFile, digest);
+            CalculateChecksumJob job = new CalculateChecksumJob(progressDialog, mainFrame, files, checksumFiles, digests);
             progressDialog.start(job);
         } catch (IOException ex) {
             // Note: FileFactory.getTemporaryFile() should never throw an IOException
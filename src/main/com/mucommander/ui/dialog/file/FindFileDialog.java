@@ -44,6 +44,7 @@ import com.mucommander.ui.text.FilePathField;
 import com.mucommander.ui.theme.ThemeCache;
 import com.mucommander.ui.viewer.EditorRegistrar;
 import com.mucommander.ui.viewer.ViewerRegistrar;
+import com.mucommander.utils.text.SizeFormat;
 import ru.trolsoft.ui.InputField;
 
 import javax.swing.*;
@@ -101,11 +102,20 @@ public class FindFileDialog extends FocusDialog implements ActionListener, Docum
 
     private class UpdateRunner extends SwingWorker<List<AbstractFile>, AbstractFile> {
 
+        /** The job whose results and throughput are displayed */
+        private final FindFileJob searchJob;
+
+        UpdateRunner(FindFileJob searchJob) {
+            this.searchJob = searchJob;
+        }
+
         @Override
         protected List<AbstractFile> doInBackground() {
             btnNewSearch.setEnabled(false);
             while (job != null && job.getState() != FileJob.State.FINISHED) {
                 checkUpdates();
+                // Refresh the throughput even if no file has been found
+                SwingUtilities.invokeLater(() -> updateResultLabel(searchJob));
                 try {
                     Thread.sleep(REFRESH_RATE);
                 } catch(InterruptedException ignore) {}
@@ -117,6 +127,7 @@ public class FindFileDialog extends FocusDialog implements ActionListener, Docum
 
         @Override
         protected void done() {
+            updateResultLabel(searchJob);
             showProgress(false);
             updateButtons();
             super.done();
@@ -129,7 +140,7 @@ public class FindFileDialog extends FocusDialog implements ActionListener, Docum
                     break;
                 }
                 listModel.addElement(f);
-                updateResultLabel();
+                updateResultLabel(searchJob);
             }
         }
 
@@ -385,10 +396,10 @@ public class FindFileDialog extends FocusDialog implements ActionListener, Docum
         job.setup(edtFileName.getText(), edtText.getText(), cbSearchSubdirectories.isSelected(), cbSearchArchives.isSelected(),
                 cbCaseSensitive.isSelected(), cbIgnoreHidden.isSelected(), cbEncoding.getSelectedItem().toString(),
                 cbSearchHex.isSelected(), cbSearchHex.isSelected() ? edtText.getBytes() : null);
-        updateResultLabel();
+        updateResultLabel(null);
         job.start();
         updateButtons();
-        updateRunner = new UpdateRunner();
+        updateRunner = new UpdateRunner(job);
         updateRunner.execute();
     }
 
@@ -458,8 +469,21 @@ public class FindFileDialog extends FocusDialog implements ActionListener, Docum
     }
 
 
-    private void updateResultLabel() {
-        lblTotal.setText(i18n("find_dialog.found") + ": " + listModel.size() + " ");
+    /**
+     * Shows the number of files found so far, and the number of files and bytes the given job searches per second.
+     * @param searchJob the running or finished job, null if the search has not started
+     */
+    private void updateResultLabel(FindFileJob searchJob) {
+        if (listModel == null) {
+            return;
+        }
+        String text = i18n("find_dialog.found") + ": " + listModel.size() + " ";
+        long time = searchJob == null ? 0 : searchJob.getEffectiveJobTime();
+        if (time > 0) {
+            text += " " + i18n("find_dialog.throughput", String.valueOf(searchJob.getNbFilesProcessed() * 1000 / time),
+                    SizeFormat.format(searchJob.getNbBytesProcessed() * 1000 / time, SizeFormat.UNIT_SPEED | SizeFormat.DIGITS_MEDIUM | SizeFormat.UNIT_SHORT)) + " ";
+        }
+        lblTotal.setText(text);
     }
 
 
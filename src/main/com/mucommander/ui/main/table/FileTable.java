@@ -2288,6 +2288,19 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
 
         public void run() {
             try {
+                // When the current folder is refreshed, only update the files that have changed
+                if (markedFiles != null && tableModel.updateCurrentFolder(folder, children)) {
+                    selectFile(getIndexToSelect());
+                    fireSelectedFileChangedEvent();
+                    // Marked files that no longer exist have been unmarked
+                    fireMarkedFilesChangedEvent();
+                    // The full view model notifies the table of the changed rows
+                    if (viewMode != TableViewMode.FULL) {
+                        resizeAndRepaint();
+                    }
+                    return;
+                }
+
                 // Set the new current folder.
                 tableModel.setCurrentFolder(folder, children, FileTable.this);
                 // Update the visibility state of conditional columns
@@ -2363,7 +2376,7 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         }
     }
 
-    void updateSelectedFilesStatusBar() {
+    public void updateSelectedFilesStatusBar() {
         mainFrame.getStatusBar().updateSelectedFilesInfo();
     }
 
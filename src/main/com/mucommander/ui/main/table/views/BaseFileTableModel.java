@@ -26,12 +26,13 @@ import com.mucommander.commons.file.util.FileSet;
 import com.mucommander.conf.MuConfigurations;
 import com.mucommander.conf.MuPreference;
 import com.mucommander.conf.MuPreferences;
+import com.mucommander.core.DirectorySizeService;
 import com.mucommander.utils.text.SizeFormat;
-import com.mucommander.ui.main.table.CalculateDirectorySizeWorker;
 import com.mucommander.ui.main.table.FileTable;
 import com.mucommander.ui.main.table.SortInfo;
 import com.mucommander.ui.quicksearch.QuickSearch;
 
+import javax.swing.SwingUtilities;
 import javax.swing.table.AbstractTableModel;
 import java.awt.Cursor;
 import java.util.*;
@@ -50,6 +51,9 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
     /** String used as size information for directories that queued to size calculation */
     protected static final String QUEUED_DIRECTORY_SIZE_STRING = "<...>";
 
+    /** Maximum number of rows removed and inserted by {@link #updateCurrentFolder(AbstractFile, AbstractFile[])} */
+    private static final int MAX_UPDATED_ROWS = 500;
+
 
     /** True if the name column is temporarily editable */
     protected boolean nameColumnEditable;
@@ -93,8 +97,8 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
     /** Tasks queue for directory size calculate */
     protected final List<AbstractFile> calculateSizeQueue = new LinkedList<>();
 
-    /** Worker to calculate directories sizes */
-    private CalculateDirectorySizeWorker calculateDirectorySizeWorker;
+    /** Currently running directory size calculation, null if none */
+    private DirectorySizeService.Calculation sizeCalculation;
 
     /** True if the table has directories with calculated size */
     protected boolean hasCalculatedDirectories;
@@ -142,6 +146,25 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
      */
     public abstract int getFileIndexAt(int row, int col);
 
+    /**
+     * Moves the cached cell values after the current folder's files have been updated by
+     * {@link #updateCurrentFolder(AbstractFile, AbstractFile[])}.
+     *
+     * @param previousIndexes previous index of each file, <code>-1</code> for new and modified files
+     */
+    protected abstract void updateCellValuesCache(int previousIndexes[]);
+
+    /**
+     * Notifies the table that rows have been removed and inserted by
+     * {@link #updateCurrentFolder(AbstractFile, AbstractFile[])}. The default implementation does nothing, the table
+     * has to be repainted by the caller.
+     *
+     * @param removedRows removed rows, in ascending order, as they were before the update
+     * @param insertedRows inserted rows, in ascending order, as they are after the update
+     */
+    protected void fireRowsChanged(int removedRows[], int insertedRows[]) {
+    }
+
 
     protected BaseFileTableModel() {
         fileArrayIndex = new int[0];
@@ -452,6 +475,144 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
         fillCellCache(table);
     }
 
+    /**
+     * Updates the children of the current folder without rebuilding the whole model, when the current folder is
+     * refreshed. Files that are no longer in the folder are removed, new and modified files (whose date, size or type
+     * has changed) are inserted at their sorted position. Other files keep their position, cached attributes and
+     * marked state, so that neither sorting all the files again nor restoring the marked files is needed.
+     * Removed and inserted rows are reported with {@link #fireRowsChanged(int[], int[])}.
+     *
+     * <p>The model is left untouched and <code>false</code> is returned if the given folder is not the current folder
+     * or if too many files have changed, in which case
+     * {@link #setCurrentFolder(AbstractFile, AbstractFile[], FileTable)} should be used.
+     *
+     * @param folder the current folder
+     * @param children the current folder's children
+     * @return <code>true</code> if the model has been updated
+     */
+    public synchronized boolean updateCurrentFolder(AbstractFile folder, AbstractFile children[]) {
+        if (currentFolder == null || sortInfo == null || !currentFolder.equals(folder)) {
+            return false;
+        }
+
+        int nbPreviousFiles = cachedFiles.length;
+        Map<String, Integer> previousIndexByName = new HashMap<>(nbPreviousFiles * 2);
+        for (int i = 0; i < nbPreviousFiles; i++) {
+            previousIndexByName.put(cachedFiles[i].getName(), i);
+        }
+
+        // Match the new files with the previous ones by name
+        int nbFiles = children.length;
+        AbstractFile newCachedFiles[] = new AbstractFile[nbFiles];
+        int previousIndexes[] = new int[nbFiles];     // -1 for new and modified files
+        boolean newFileMarked[] = new boolean[nbFiles];
+        boolean previousFileKept[] = new boolean[nbPreviousFiles];
+        int nbInserted = 0;
+        boolean needPrefetch = nbFiles > 0 && !(children[0] instanceof LocalFile);
+        for (int i = 0; i < nbFiles; i++) {
+            AbstractFile child = children[i];
+            AbstractFile file = child instanceof CachedFile ? child : new CachedFile(child, true);
+            Integer previousIndex = previousIndexByName.remove(file.getName());
+
+            if (previousIndex != null) {
+                AbstractFile previousFile = cachedFiles[previousIndex];
+                // Marked files remain marked even if they have been modified
+                newFileMarked[i] = fileMarked[previousIndex];
+                // Attributes of the previous file that were never fetched are fetched now and thus match: neither
+                // the displayed values nor the sort order depend on them
+                if (previousFile.isDirectory() == file.isDirectory() && previousFile.getSize() == file.getSize()
+                        && previousFile.getLastModifiedDate() == file.getLastModifiedDate()) {
+                    newCachedFiles[i] = previousFile;
+                    previousIndexes[i] = previousIndex;
+                    previousFileKept[previousIndex] = true;
+                    continue;
+                }
+            }
+
+            if (needPrefetch) {
+                prefetchCachedFileAttributes(file);
+            }
+            newCachedFiles[i] = file;
+            previousIndexes[i] = -1;
+            nbInserted++;
+        }
+
+        int nbKept = nbFiles - nbInserted;
+        int nbRemoved = nbPreviousFiles - nbKept;
+        if (nbInserted + nbRemoved > MAX_UPDATED_ROWS) {
+            return false;
+        }
+
+        // Rows of the previous files that have been removed, and kept files in their sorted order
+        final int rowOffset = parent == null ? 0 : 1;
+        int removedRows[] = new int[nbRemoved];
+        int keptIndexes[] = new int[nbKept];
+        int newIndexes[] = new int[nbPreviousFiles];
+        for (int i = 0; i < nbFiles; i++) {
+            if (previousIndexes[i] >= 0) {
+                newIndexes[previousIndexes[i]] = i;
+            }
+        }
+        for (int pos = 0, nbRemovedRows = 0, nbKeptIndexes = 0; pos < nbPreviousFiles; pos++) {
+            int previousIndex = fileArrayIndex[pos];
+            if (previousFileKept[previousIndex]) {
+                keptIndexes[nbKeptIndexes++] = newIndexes[previousIndex];
+            } else {
+                removedRows[nbRemovedRows++] = pos + rowOffset;
+            }
+        }
+
+        // Sort the inserted files and merge them with the kept files, which are already sorted
+        FileComparator comparator = createFileComparator(sortInfo);
+        Integer insertedIndexes[] = new Integer[nbInserted];
+        for (int i = 0, nbInsertedIndexes = 0; i < nbFiles; i++) {
+            if (previousIndexes[i] < 0) {
+                insertedIndexes[nbInsertedIndexes++] = i;
+            }
+        }
+        Arrays.sort(insertedIndexes, (index1, index2) -> comparator.compare(newCachedFiles[index1], newCachedFiles[index2]));
+
+        int newFileArrayIndex[] = new int[nbFiles];
+        int insertedRows[] = new int[nbInserted];
+        for (int pos = 0, k = 0, n = 0; pos < nbFiles; pos++) {
+            if (n < nbInserted && (k == nbKept || comparator.compare(newCachedFiles[insertedIndexes[n]], newCachedFiles[keptIndexes[k]]) < 0)) {
+                insertedRows[n] = pos + rowOffset;
+                newFileArrayIndex[pos] = insertedIndexes[n++];
+            } else {
+                newFileArrayIndex[pos] = keptIndexes[k++];
+            }
+        }
+
+        // Directories that have been removed no longer count in the marked size
+        for (int i = 0; i < nbPreviousFiles; i++) {
+            if (!previousFileKept[i] && cachedFiles[i].isDirectory()) {
+                markedDirectories.remove(cachedFiles[i]);
+            }
+        }
+
+        this.currentFolder = (folder instanceof CachedFile) ? folder : new CachedFile(folder, true);
+        this.cachedFiles = newCachedFiles;
+        this.fileArrayIndex = newFileArrayIndex;
+        this.fileMarked = newFileMarked;
+
+        // Marked files that have been removed are no longer marked
+        this.nbFilesMarked = 0;
+        this.markedTotalSize = 0;
+        for (int i = 0; i < nbFiles; i++) {
+            if (newFileMarked[i]) {
+                nbFilesMarked++;
+                if (!newCachedFiles[i].isDirectory() && newCachedFiles[i].getSize() > 0) {
+                    markedTotalSize += newCachedFiles[i].getSize();
+                }
+            }
+        }
+
+        updateCellValuesCache(previousIndexes);
+        fireRowsChanged(removedRows, insertedRows);
+
+        return true;
+    }
+
     /**
      * Returns the date of the current folder, when it was set using
      * {@link #setCurrentFolder(com.mucommander.commons.file.AbstractFile, com.mucommander.commons.file.AbstractFile[], FileTable table)}.
@@ -837,7 +998,7 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
             }
             calculateSizeQueue.add(file);
         }
-        if (calculateDirectorySizeWorker == null) {
+        if (sizeCalculation == null) {
             processNextQueuedFile(table);
         }
     }
@@ -845,7 +1006,8 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
 
 
     /**
-     * Takes a first ask for queue and starts calculation worker
+     * Takes a first task from queue and starts its calculation.
+     * Partial and final sizes are reported on the event dispatch thread, unless the calculation has been cancelled.
      * @param table file table
      */
     private void processNextQueuedFile(FileTable table) {
@@ -854,17 +1016,27 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
             nextFile = calculateSizeQueue.isEmpty() ? null : calculateSizeQueue.remove(0);
             }
         if (nextFile == null) {
-            calculateDirectorySizeWorker = null;
+            sizeCalculation = null;
             table.getParent().setCursor(Cursor.getDefaultCursor());
         } else {
-            calculateDirectorySizeWorker = new CalculateDirectorySizeWorker(this, table, nextFile);
             table.getParent().setCursor(WAIT_CURSOR);
-            calculateDirectorySizeWorker.execute();
+            sizeCalculation = DirectorySizeService.getInstance().calculate(nextFile, (calculation, size, finished) ->
+                SwingUtilities.invokeLater(() -> {
+                    if (calculation.isCancelled()) {
+                        return;
+                    }
+                    addProcessedDirectory(calculation.getFolder(), table, size.getSize(), finished);
+                    fillCellCache(table);
+                    table.repaint();
+                    if (!finished) {
+                        table.updateSelectedFilesStatusBar();
+                    }
+                }));
         }
     }
 
     /**
-     * Called from size-calculation worker after it finish or requests to repaint table.
+     * Called when a size calculation finishes or reports a partial size.
      * Updates map of directory sizes and starts next task if worker finished
      *
      * @param path directory to process
@@ -886,7 +1058,7 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
 
 
     /**
-     * Stops directory calculation, clears calculated size ant tasks queue, interrupts currently executed worker if exists
+     * Stops directory calculation, clears calculated size ant tasks queue, cancels currently running calculation if exists
      */
     private void stopSizeCalculation() {
         synchronized (directorySizes) {
@@ -895,11 +1067,9 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
         synchronized (calculateSizeQueue) {
             calculateSizeQueue.clear();
         }
-        if (calculateDirectorySizeWorker != null) {
-            try {
-                calculateDirectorySizeWorker.cancel(true);
-            } catch (Exception ignore) { }
-            calculateDirectorySizeWorker = null;
+        if (sizeCalculation != null) {
+            sizeCalculation.cancel();
+            sizeCalculation = null;
         }
         synchronized (this) {
             markedDirectories.clear();
@@ -941,8 +1111,8 @@ public abstract class BaseFileTableModel extends AbstractTableModel {
 
 
     public AbstractFile getCurrentCalculatedSizeDirectory() {
-        if (calculateDirectorySizeWorker != null) {
-            return calculateDirectorySizeWorker.getFile();
+        if (sizeCalculation != null) {
+            return sizeCalculation.getFolder();
         }
         return null;
     }
@@ -107,6 +107,17 @@ public class CompactFileTableModel extends BaseFileTableModel {
         this.cellValuesCache = new String[getFileCount()];
     }
 
+    @Override
+    protected void updateCellValuesCache(int previousIndexes[]) {
+        String previousCellValuesCache[] = cellValuesCache;
+        initCellValuesCache();
+        for (int i = 0; i < previousIndexes.length; i++) {
+            if (previousIndexes[i] >= 0) {
+                cellValuesCache[i] = previousCellValuesCache[previousIndexes[i]];
+            }
+        }
+    }
+
     @Override
     public int getRowCount() {
         return visibleRows;
@@ -76,7 +76,26 @@ public class FileTableModel extends BaseFileTableModel {
         }
 
         columnsVisibilityMask = calcColumnVisibilityMask(fileTable);
-        // Special '..' file
+        fillParentCellCache();
+
+        int fileIndex = 0;
+        final int indexOffset = parent == null ? 0 : 1;
+        for (int i = indexOffset; i < len; i++) {
+            int cellIndex = fileIndex + indexOffset;
+            //int cellIndex = fileArrayIndex[fileIndex] + indexOffset;
+            //fillOneCellCache(cellIndex, cellIndex);
+            Object[] cell = cellValuesCache[cellIndex];
+            for (int ci = Column.NAME.ordinal()-1; ci <= Column.GROUP.ordinal()-1; ci++) {
+                cell[ci] = null;
+            }
+            fileIndex++;
+        }
+    }
+
+    /**
+     * Fills the cell cache of the special '..' file, if there is one.
+     */
+    private void fillParentCellCache() {
         if (parent != null) {
             Object[] cell = cellValuesCache[0];
             cell[Column.NAME.ordinal()-1] = "..";
@@ -89,18 +108,37 @@ public class FileTableModel extends BaseFileTableModel {
             cell[Column.OWNER.ordinal()-1] = "";
             cell[Column.GROUP.ordinal()-1] = "";
         }
+    }
 
-        int fileIndex = 0;
+    @Override
+    protected void updateCellValuesCache(int previousIndexes[]) {
         final int indexOffset = parent == null ? 0 : 1;
-        for (int i = indexOffset; i < len; i++) {
-            int cellIndex = fileIndex + indexOffset;
-            //int cellIndex = fileArrayIndex[fileIndex] + indexOffset;
-            //fillOneCellCache(cellIndex, cellIndex);
-            Object[] cell = cellValuesCache[cellIndex];
-            for (int ci = Column.NAME.ordinal()-1; ci <= Column.GROUP.ordinal()-1; ci++) {
-                cell[ci] = null;
-            }
-            fileIndex++;
+        Object previousCellValuesCache[][] = cellValuesCache;
+        cellValuesCache = new Object[previousIndexes.length + indexOffset][];
+        for (int i = 0; i < previousIndexes.length; i++) {
+            int previousIndex = previousIndexes[i];
+            // Cells of new and modified files are filled when they are displayed
+            cellValuesCache[i + indexOffset] = previousIndex >= 0 ? previousCellValuesCache[previousIndex + indexOffset]
+                                                                  : new Object[Column.values().length-1];
+        }
+        if (parent != null) {
+            cellValuesCache[0] = new Object[Column.values().length-1];
+            fillParentCellCache();
+        }
+    }
+
+    @Override
+    protected void fireRowsChanged(int removedRows[], int insertedRows[]) {
+        // Remove rows starting from the last one so that the indexes of the other removed rows remain valid
+        for (int i = removedRows.length - 1; i >= 0; i--) {
+            fireTableRowsDeleted(removedRows[i], removedRows[i]);
+        }
+        for (int row : insertedRows) {
+            fireTableRowsInserted(row, row);
+        }
+        // The folder's date is displayed on the '..' row
+        if (parent != null) {
+            fireTableRowsUpdated(0, 0);
         }
     }
 
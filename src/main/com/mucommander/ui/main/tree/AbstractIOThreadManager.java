@@ -19,81 +19,264 @@
 package com.mucommander.ui.main.tree;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.function.Predicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * A class that monitors IOThread if it is running or has been blocked.
- * This class maintains a list of tasks to execute and a thread that 
- * executes these tasks. It checks periodically if the IOThread is running.
- * If IOThread has been blocked then it's killed and a new IOThread is 
- * instantiated. Then the next getTask from the list will be executed.
+ * A class that executes i/o tasks on a pool of IOThreads and monitors them.
+ * Tasks are executed by order of priority, the ones with the lowest priority
+ * value first, and in the order they were added for a same priority. A task
+ * can be given a key, in which case adding a task with the same key while the
+ * first one is pending raises the pending task's priority rather than adding
+ * a second one, and the pending task can be cancelled. Keys are compared by
+ * identity, not with equals(), so that the tasks of files that are equal but
+ * belong to different owners, e.g. two folder trees, do not get mixed up.
+ * This class checks periodically if the IOThreads are running. If an IOThread
+ * has been blocked by a task for longer than the block threshold, then it's
+ * retired and a new IOThread is instantiated, so that a task blocked on a slow
+ * or unreachable volume does not delay the others.
  * @author Mariusz Jakubowski
  *
  */
 public class AbstractIOThreadManager extends Thread {
 	private static final Logger LOGGER = LoggerFactory.getLogger(AbstractIOThreadManager.class);
 	
-    /** a queue with tasks to execute */
-    protected final List<Runnable> queue = Collections.synchronizedList(new ArrayList<>());
+    /** priority of the tasks that are added without a priority */
+    public final static int DEFAULT_PRIORITY = 0;
+
+    /** a queue with tasks to execute, ordered by priority */
+    private final PriorityBlockingQueue<IOTask> queue = new PriorityBlockingQueue<>();
+
+    /** the pending tasks that have a key, by key identity. Guarded by this map. */
+    private final Map<Object, IOTask> pendingTasks = new IdentityHashMap<>();
+
+    /** threads that execute tasks and have not been retired. Guarded by this list. */
+    private final List<IOThread> ioThreads = new ArrayList<>();
+
+    /** number of threads that execute tasks */
+    private final int nbThreads;
 
-    /** a thread that executes tasks */
-    protected IOThread ioThread;
-    
     /** a time after i/o thread is marked as blocked */
     protected long blockThreshold;
+
+    /** number of tasks added so far, orders tasks that have the same priority */
+    private long nbTasks;
+
+    /** number of threads created so far, used to name them */
+    private int nbCreatedThreads;
     
 
     /**
-     * Creates a new monitoring thread.
+     * Creates a new monitoring thread that executes tasks on a single thread.
      * @param name a name of this thread
      * @param blockThreshold a time after an i/o getTask is marked as blocked [ms]
      */
     public AbstractIOThreadManager(String name, long blockThreshold) {
+        this(name, 1, blockThreshold);
+    }
+
+    /**
+     * Creates a new monitoring thread.
+     * @param name a name of this thread
+     * @param nbThreads number of threads that execute tasks concurrently
+     * @param blockThreshold a time after an i/o getTask is marked as blocked [ms]
+     */
+    public AbstractIOThreadManager(String name, int nbThreads, long blockThreshold) {
         super(name);
+        this.nbThreads = nbThreads;
         this.blockThreshold = blockThreshold;
-        ioThread = new IOThread(queue, blockThreshold);
-        ioThread.start();
+        synchronized (ioThreads) {
+            for (int i = 0; i < nbThreads; i++) {
+                startIOThread();
+            }
+        }
     }
 
     /**
      * Adds new getTask to execute. A getTask is an instance of Runnable interface.
      * A proper exception handling within the Runnable instance have to be implemented.
-     * If this getTask rises an exception, this exception is printed to stderr.
+     * If this getTask rises an exception, this exception is logged.
      * @param task a getTask to be executed
      */
     public void addTask(Runnable task) {
-        queue.add(task);
-        synchronized(ioThread) {
-            ioThread.notify();
+        addTask(null, DEFAULT_PRIORITY, task);
+    }
+
+    /**
+     * Adds new getTask to execute with the given priority. If a task with the same key
+     * is pending, then no task is added and the pending task gets the given priority
+     * if it is lower than its own.
+     * @param key a key that identifies the task, <code>null</code> for none
+     * @param priority a priority of the task, tasks with lower values are executed first
+     * @param task a getTask to be executed
+     * @return true if the task was added, false if a task with the same key is pending
+     */
+    public boolean addTask(Object key, int priority, Runnable task) {
+        if (key == null) {
+            queue.add(new IOTask(null, priority, nextSequenceNumber(), task));
+            return true;
+        }
+
+        synchronized (pendingTasks) {
+            if (pendingTasks.containsKey(key)) {
+                raisePriority(key, priority);
+                return false;
+            }
+
+            IOTask ioTask = new IOTask(key, priority, nextSequenceNumber(), task);
+            pendingTasks.put(key, ioTask);
+            queue.add(ioTask);
+            return true;
         }
     }
-    
+
+    /**
+     * Gives the pending task with the given key the given priority if it is lower
+     * than its own. Tasks that are being executed are not affected.
+     * @param key a key of the task
+     * @param priority a priority of the task, tasks with lower values are executed first
+     * @return true if a task with the given key is pending
+     */
+    public boolean raisePriority(Object key, int priority) {
+        synchronized (pendingTasks) {
+            IOTask pendingTask = pendingTasks.get(key);
+            if (pendingTask == null) {
+                return false;
+            }
+            // Replace the pending task unless an IOThread has just taken it
+            if (priority < pendingTask.priority && queue.remove(pendingTask)) {
+                IOTask ioTask = new IOTask(key, priority, pendingTask.sequenceNumber, pendingTask.task);
+                pendingTasks.put(key, ioTask);
+                queue.add(ioTask);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Cancels the pending task with the given key. Tasks that are being executed
+     * are not affected.
+     * @param key a key of the task
+     * @return true if a task was pending and has been removed
+     */
+    public boolean cancelTask(Object key) {
+        synchronized (pendingTasks) {
+            IOTask pendingTask = pendingTasks.remove(key);
+            return pendingTask != null && queue.remove(pendingTask);
+        }
+    }
+
+    /**
+     * Cancels the pending tasks whose key matches the given filter.
+     * @param filter a filter of keys
+     * @return the keys of the tasks that have been removed
+     */
+    public List<Object> cancelTasks(Predicate<Object> filter) {
+        List<Object> keys = new ArrayList<>();
+        synchronized (pendingTasks) {
+            for (Object key : new ArrayList<>(pendingTasks.keySet())) {
+                if (filter.test(key) && cancelTask(key)) {
+                    keys.add(key);
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the number of tasks waiting to be executed.
+     */
+    public int getPendingTaskCount() {
+        return queue.size();
+    }
+
+    /**
+     * Waits for the next task to execute and returns it. Called by IOThreads.
+     */
+    Runnable takeTask() throws InterruptedException {
+        IOTask ioTask = queue.take();
+        if (ioTask.key != null) {
+            synchronized (pendingTasks) {
+                pendingTasks.remove(ioTask.key, ioTask);
+            }
+        }
+        return ioTask.task;
+    }
+
+    private synchronized long nextSequenceNumber() {
+        return nbTasks++;
+    }
+
+    /**
+     * Starts a new IOThread. Must be called while synchronized on the list of threads.
+     */
+    private void startIOThread() {
+        IOThread ioThread = new IOThread(this, getName() + "-IOThread-" + (++nbCreatedThreads), blockThreshold);
+        ioThreads.add(ioThread);
+        ioThread.start();
+    }
 
     
     @Override
     public void run() {
         while (!interrupted()) {
-            synchronized (queue) {
-                if (ioThread.isBlocked()) {
-                	LOGGER.debug("Killing IOThread " + ioThread);
-                    ioThread.interrupt();
-                    ioThread = new IOThread(queue, blockThreshold);
-                    ioThread.start();
+            synchronized (ioThreads) {
+                ioThreads.removeIf(ioThread -> {
+                    if (ioThread.isBlocked()) {
+                        LOGGER.debug("Retiring blocked IOThread " + ioThread);
+                        ioThread.retire();
+                        return true;
+                    }
+                    return !ioThread.isAlive();
+                });
+                while (ioThreads.size() < nbThreads) {
+                    startIOThread();
                 }
             }
             try {
-                sleep(blockThreshold);
+                sleep(blockThreshold / 2);
             } catch (InterruptedException e) {
                 break;
             }
         }
-        ioThread.interrupt();
+        synchronized (ioThreads) {
+            for (IOThread ioThread : ioThreads) {
+                ioThread.retire();
+            }
+            ioThreads.clear();
+        }
+    }
+
+
+    /**
+     * A task in the queue.
+     */
+    private static class IOTask implements Comparable<IOTask> {
+        private final Object key;
+        private final int priority;
+        private final long sequenceNumber;
+        private final Runnable task;
+
+        private IOTask(Object key, int priority, long sequenceNumber, Runnable task) {
+            this.key = key;
+            this.priority = priority;
+            this.sequenceNumber = sequenceNumber;
+            this.task = task;
+        }
+
+        public int compareTo(IOTask other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return Long.compare(sequenceNumber, other.sequenceNumber);
+        }
     }
-    
     
 }
@@ -45,20 +45,32 @@ public class CachedDirectory extends ProxyFile {
 	
     private static final ImageIcon NOT_ACCESSIBLE_ICON = IconManager.getIcon(IconManager.IconSet.FILE, CustomFileIconProvider.NOT_ACCESSIBLE_FILE);
 
+    /** a minimum time between two checks that cached children are up to date [ms] */
+    private static final long VALIDATION_INTERVAL = 1000;
+
     /** an array of cached children */
     private AbstractFile[] cachedChildren = null;
     
     /** a flag indicating that a thread is running, caching children */
     private boolean readingChildren = false;
+
+    /** a priority of the current read of children */
+    private int readingPriority;
+
+    /** a flag indicating that a thread is checking if this directory has been modified */
+    private boolean validating = false;
     
     /** a timestamp of last modification time of this directory */
     private long lsTimeStamp = -1;
+
+    /** a time when cached children were last checked to be up to date */
+    private long validationTime;
     
     /** a cache in which this object is stored */
     private final DirectoryCache cache;
 
     /** a cached icon */
-    private Icon cachedIcon;
+    private volatile Icon cachedIcon;
     
 
     /**
@@ -72,30 +84,135 @@ public class CachedDirectory extends ProxyFile {
     }
 
     /**
-     * Checks if this directory is already cached. If it isn't cached then a new
-     * cache thread is started.
+     * Returns the cache in which this object is stored.
+     */
+    DirectoryCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Checks if this directory is already cached. If it isn't cached then its
+     * children are read by a caching thread, ahead of the children of folders
+     * that are not displayed.
+     * @return true if directory is cached, false otherwise
+     */
+    public boolean isCached() {
+        return isCached(TreeIOThreadManager.PRIORITY_VISIBLE);
+    }
+
+    /**
+     * Checks if this directory is already cached. If it isn't cached then its
+     * children are read by a caching thread with the given priority, or the
+     * priority of the pending read is raised.
+     * Cached children are checked to be up to date at most every
+     * {@link #VALIDATION_INTERVAL} by a caching thread, so that the modification
+     * date of a folder on a slow volume is not read by the caller. Cached children
+     * are used until they are found out of date.
+     * @param priority a priority of the read, see {@link TreeIOThreadManager}
      * @return true if directory is cached, false otherwise
      */
-    public synchronized boolean isCached() {
+    public synchronized boolean isCached(int priority) {
         // check if caching thread is running
         if (isReadingChildren()) {
+            if (priority < readingPriority) {
+                readingPriority = priority;
+                TreeIOThreadManager.getInstance().raisePriority(this, priority);
+            }
+            return false;
+        }
+        if (cachedChildren == null) {
+            startReading(priority);
             return false;
         }
         // check if directory contents changed
-        if (lsTimeStamp != file.getLastModifiedDate()) {
-            setReadingChildren(true);
-            // read children in caching thread
-            TreeIOThreadManager.getInstance().addTask(this::lsAsync);
+        long now = System.currentTimeMillis();
+        if (!validating && now - validationTime > VALIDATION_INTERVAL) {
+            validating = true;
+            validationTime = now;
+            TreeIOThreadManager.getInstance().addTask(this, TreeIOThreadManager.PRIORITY_VALIDATION, this::validateAsync);
+        }
+        return true;
+    }
+
+    /**
+     * Reads children in a caching thread.
+     * @param priority a priority of the read
+     */
+    private synchronized void startReading(int priority) {
+        readingPriority = priority;
+        setReadingChildren(true);
+        TreeIOThreadManager manager = TreeIOThreadManager.getInstance();
+        if (!manager.addTask(this, priority, this::lsAsync)) {
+            // a validation of this directory is pending under the same key, the read supersedes it
+            manager.cancelTask(this);
+            validating = false;
+            manager.addTask(this, priority, this::lsAsync);
+        }
+    }
+
+    /**
+     * Cancels reading children if a caching thread hasn't started yet.
+     * @return true if reading has been cancelled
+     */
+    synchronized boolean cancelReading() {
+        return cancelReading(Integer.MIN_VALUE);
+    }
+
+    /**
+     * Cancels reading children if a caching thread hasn't started yet, and if
+     * the read doesn't have a higher priority than the given one.
+     * @param priority a priority, see {@link TreeIOThreadManager}
+     * @return true if reading has been cancelled
+     */
+    synchronized boolean cancelReading(int priority) {
+        if (!isReadingChildren() || readingPriority < priority || !TreeIOThreadManager.getInstance().cancelTask(this)) {
             return false;
         }
+        taskCancelled();
         return true;
     }
 
+    /**
+     * Called when a pending task of this directory has been cancelled.
+     */
+    synchronized void taskCancelled() {
+        validating = false;
+        if (isReadingChildren()) {
+            readingChildren = false;
+            cache.fireCachingCancelled(this);
+        }
+    }
+
+    /**
+     * Checks if this directory has been modified since its children were read,
+     * and reads them again if so. This method is executed in caching thread.
+     */
+    private void validateAsync() {
+        long lastModifiedDate = file.getLastModifiedDate();
+        synchronized (this) {
+            if (lastModifiedDate == lsTimeStamp) {
+                validating = false;
+                return;
+            }
+        }
+        SwingUtilities.invokeLater(() -> {
+            synchronized (this) {
+                validating = false;
+                if (!isReadingChildren()) {
+                    startReading(TreeIOThreadManager.PRIORITY_VISIBLE);
+                }
+            }
+        });
+    }
+
     /**
      * Gets children of current directory. Files are filtered and then sorted. This
      * method is executed in caching thread.
      */
     private void lsAsync() {
+        // changes made while children are being read are caught by the next validation
+        long lastModifiedDate = file.getLastModifiedDate();
+
         if (getCachedIcon() == null || getCachedIcon() == NOT_ACCESSIBLE_ICON) {
             setCachedIcon(FileIcons.getFileIcon(getProxiedFile()));
         }
@@ -114,11 +231,9 @@ public class CachedDirectory extends ProxyFile {
         for (int i = 0; i < children.length; i++) {
             icons[i] = FileIcons.getFileIcon(children[i]);
         }
-        synchronized (cache) {
-            for (int i = 0; i < children.length; i++) {
-                CachedDirectory cachedChild = cache.getOrAdd(children[i]);
-                cachedChild.setCachedIcon(icons[i]);
-            }
+        for (int i = 0; i < children.length; i++) {
+            CachedDirectory cachedChild = cache.getOrAdd(children[i]);
+            cachedChild.setCachedIcon(icons[i]);
         }
         
         final AbstractFile[] children2 = children;
@@ -127,7 +242,7 @@ public class CachedDirectory extends ProxyFile {
              * Set cache to new value. This is invoked in swing thread
              * so event listeners are called from right thread. 
              */
-            SwingUtilities.invokeAndWait(() -> setLsCache(children2, file.getLastModifiedDate()));
+            SwingUtilities.invokeAndWait(() -> setLsCache(children2, lastModifiedDate));
         } catch (Exception e) {
             LOGGER.debug("Caught exception", e);
         }
@@ -141,6 +256,7 @@ public class CachedDirectory extends ProxyFile {
     private synchronized void setLsCache(AbstractFile[] children, long lsTimeStamp) {
         this.lsTimeStamp = lsTimeStamp;
         this.cachedChildren = children;
+        this.validationTime = System.currentTimeMillis();
         setReadingChildren(false);
     }
 
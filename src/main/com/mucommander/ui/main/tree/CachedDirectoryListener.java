@@ -33,4 +33,9 @@ public interface CachedDirectoryListener extends EventListener {
     
     void cachingEnded(AbstractFile parent);
 
+    /**
+     * Called instead of cachingEnded when caching was cancelled before it started.
+     */
+    void cachingCancelled(AbstractFile parent);
+
 }
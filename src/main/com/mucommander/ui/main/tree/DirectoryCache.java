@@ -18,24 +18,31 @@
 
 package com.mucommander.ui.main.tree;
 
+import com.mucommander.cache.ConcurrentLRUCache;
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.filter.FileFilter;
 import com.mucommander.commons.file.util.FileComparator;
 
 import javax.swing.event.EventListenerList;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * This class holds cached directories. 
- * It maps AbstractFiles to DirectoryCache instances.
+ * It maps AbstractFiles to DirectoryCache instances. The cache can be accessed
+ * by concurrent threads, and holds up to {@link #getCapacity()} directories,
+ * the least recently used ones being evicted first.
  * @author Mariusz Jakubowski
  *
  */
 public class DirectoryCache {
+
+    /** default maximum number of cached folders */
+    public final static int DEFAULT_CAPACITY = 10000;
+
+    /** maximum number of cached folders of the caches created from now on */
+    private static int capacity = DEFAULT_CAPACITY;
     
     /** a map that holds cached folders */
-    private final Map<AbstractFile, CachedDirectory> cache = new HashMap<>();
+    private final ConcurrentLRUCache<AbstractFile, CachedDirectory> cache = new ConcurrentLRUCache<>(capacity);
     
     /** Comparator used to sort folders */
     private FileComparator sort;
@@ -53,11 +60,25 @@ public class DirectoryCache {
      * @param sort a comparator used to sort children
      */
     DirectoryCache(FileFilter filter, FileComparator sort) {
-        //this.cache = Collections.synchronizedMap(new HashMap());
         this.filter = filter;
         this.sort = sort;
     }
 
+    /**
+     * Returns the maximum number of folders held by the caches created from now on.
+     */
+    public static int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the maximum number of folders held by the caches created from now on.
+     * @param capacity a maximum number of cached folders
+     */
+    public static void setCapacity(int capacity) {
+        DirectoryCache.capacity = capacity;
+    }
+
     /**
      * Returns current sort order.
      */
@@ -90,6 +111,19 @@ public class DirectoryCache {
         }
     }
     
+    /**
+     * Fires a cachingCancelled event on all listeners.
+     * @param cachedDirectory a directory those children won't be cached
+     */
+    void fireCachingCancelled(CachedDirectory cachedDirectory) {
+        Object[] listeners = listenerList.getListenerList();
+        for (int i = listeners.length - 2; i >= 0; i -= 2) {
+            if (listeners[i] == CachedDirectoryListener.class) {
+                ((CachedDirectoryListener) listeners[i + 1]).cachingCancelled(cachedDirectory);
+            }
+        }
+    }
+    
     void addCachedDirectoryListener(CachedDirectoryListener l) {
         listenerList.add(CachedDirectoryListener.class, l);
     }
@@ -98,25 +132,40 @@ public class DirectoryCache {
         listenerList.remove(CachedDirectoryListener.class, l);
     }
 
-    public synchronized void clear() {
-        cache.clear();
+    /**
+     * Deletes all entries from the cache and cancels the pending reads of
+     * their children.
+     */
+    public void clear() {
+        for (Object key : TreeIOThreadManager.getInstance().cancelTasks(key -> key instanceof CachedDirectory && ((CachedDirectory) key).getCache() == this)) {
+            ((CachedDirectory) key).taskCancelled();
+        }
+        cache.clearAll();
     }
 
-    public synchronized CachedDirectory get(AbstractFile key) {
+    public CachedDirectory get(AbstractFile key) {
         return cache.get(key);
     }
 
-    public synchronized void put(AbstractFile key, CachedDirectory value) {
-        cache.put(key, value);
+    public void put(AbstractFile key, CachedDirectory value) {
+        cache.add(key, value);
+    }
+
+    /**
+     * Returns the number of cached folders.
+     */
+    public int size() {
+        return cache.size();
     }
     
     /**
-     * Deletes entry and all children from the cache.
+     * Deletes entry and all children from the cache, and cancels the pending
+     * reads of their children.
      */
-    synchronized void removeWithChildren(AbstractFile key) {
-        CachedDirectory cachedDir = cache.get(key);
+    void removeWithChildren(AbstractFile key) {
+        CachedDirectory cachedDir = cache.remove(key);
         if (cachedDir != null) {
-            cache.remove(key);
+            cachedDir.cancelReading();
             AbstractFile[] children = cachedDir.get();
             if (children != null) {
                 for (AbstractFile child : children) {
@@ -132,11 +181,10 @@ public class DirectoryCache {
      * @param key an AbstractFile instance
      * @return a cached file instance
      */
-    synchronized CachedDirectory getOrAdd(AbstractFile key) {
+    CachedDirectory getOrAdd(AbstractFile key) {
         CachedDirectory cachedDir = cache.get(key);
         if (cachedDir == null) {
-            cachedDir = new CachedDirectory(key, this);
-            cache.put(key, cachedDir);
+            cachedDir = cache.addIfAbsent(key, new CachedDirectory(key, this));
         }
         return cachedDir;
     }
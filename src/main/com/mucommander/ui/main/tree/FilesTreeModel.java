@@ -30,7 +30,9 @@ import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
 import javax.swing.tree.TreeModel;
 import javax.swing.tree.TreePath;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * A tree model for files.
@@ -58,6 +60,12 @@ public class FilesTreeModel implements TreeModel, CachedDirectoryListener {
     /** icon used to show that a children of a directory are being cached */
     private SpinningDial spinningIcon = new SpinningDial(16, 16, false);
 
+    /** a folder whose children are prefetched once its own children are cached */
+    private AbstractFile prefetchedFolder;
+
+    /** folders whose children are being prefetched */
+    private final List<CachedDirectory> prefetchedDirectories = new ArrayList<>();
+
 
     FilesTreeModel(FileFilter filter, FileComparator sort) {
         super();
@@ -206,7 +214,7 @@ public class FilesTreeModel implements TreeModel, CachedDirectoryListener {
     public void refresh(TreePath path) {
         AbstractFile folder = (AbstractFile) path.getLastPathComponent();
         CachedDirectory cached = cache.get(folder);
-        Icon cachedIcon = cached.getCachedIcon();        
+        Icon cachedIcon = cached != null ? cached.getCachedIcon() : null;
         cache.removeWithChildren(folder);
         cached = cache.getOrAdd(folder);
         cached.setCachedIcon(cachedIcon);
@@ -227,6 +235,68 @@ public class FilesTreeModel implements TreeModel, CachedDirectoryListener {
         }
         TreePath path = new TreePath(getPathToRoot(parent));
         fireTreeStructureChanged(this, path);
+        if (parent.equals(prefetchedFolder)) {
+            prefetchChildren(parent);
+        }
+    }
+
+    public void cachingCancelled(AbstractFile parent) {
+        cachingNum--;
+        if (cachingNum == 0) {
+            spinningIcon.setAnimated(false);
+        }
+    }
+
+    /**
+     * Reads the children of the children of a folder ahead of their display,
+     * so that they can be expanded right away. The prefetches that are still
+     * pending for a previous folder are cancelled. This method must be called
+     * from the event dispatch thread.
+     * @param folder a folder, typically the selected one
+     */
+    void prefetchChildren(AbstractFile folder) {
+        for (CachedDirectory cachedDir : prefetchedDirectories) {
+            cachedDir.cancelReading(TreeIOThreadManager.PRIORITY_PREFETCH);
+        }
+        prefetchedDirectories.clear();
+        prefetchedFolder = folder;
+
+        CachedDirectory cachedDir = cache.getOrAdd(folder);
+        if (!cachedDir.isCached(TreeIOThreadManager.PRIORITY_PREFETCH)) {
+            // prefetch continues once the folder's children are cached
+            return;
+        }
+        prefetchedFolder = null;
+        for (AbstractFile child : cachedDir.get()) {
+            CachedDirectory cachedChild = cache.getOrAdd(child);
+            if (!cachedChild.isCached(TreeIOThreadManager.PRIORITY_PREFETCH)) {
+                prefetchedDirectories.add(cachedChild);
+            }
+        }
+    }
+
+    /**
+     * Cancels the pending reads of the folders below the given path, which
+     * are no longer displayed once the path has been collapsed.
+     * @param path a collapsed path
+     */
+    void cancelCaching(TreePath path) {
+        CachedDirectory cachedDir = cache.get((AbstractFile) path.getLastPathComponent());
+        if (cachedDir != null) {
+            cancelCaching(cachedDir.get());
+        }
+    }
+
+    private void cancelCaching(AbstractFile[] children) {
+        if (children == null) {
+            return;
+        }
+        for (AbstractFile child : children) {
+            CachedDirectory cachedChild = cache.get(child);
+            if (cachedChild != null && !cachedChild.cancelReading()) {
+                cancelCaching(cachedChild.get());
+            }
+        }
     }
     
     /**
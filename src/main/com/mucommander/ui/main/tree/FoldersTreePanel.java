@@ -33,6 +33,8 @@ import javax.swing.JScrollPane;
 import javax.swing.JTree;
 import javax.swing.SwingUtilities;
 import javax.swing.Timer;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeExpansionListener;
 import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
 import javax.swing.event.TreeSelectionEvent;
@@ -74,7 +76,7 @@ import com.mucommander.ui.theme.ThemeListener;
  */
 public class FoldersTreePanel extends JPanel implements TreeSelectionListener, 
 							LocationListener, FocusListener, ThemeListener, 
-							TreeModelListener, ConfigurationListener {
+							TreeModelListener, TreeExpansionListener, ConfigurationListener {
 	private static final Logger LOGGER = LoggerFactory.getLogger(FoldersTreePanel.class);
 	
     /** Directory tree */
@@ -133,6 +135,7 @@ public class FoldersTreePanel extends JPanel implements TreeSelectionListener,
         tree.setCellRenderer(renderer);
 
         tree.addTreeSelectionListener(this);
+        tree.addTreeExpansionListener(this);
         tree.addFocusListener(this);
 
         // add a popup menu
@@ -314,12 +317,16 @@ public class FoldersTreePanel extends JPanel implements TreeSelectionListener,
 
     /**
      * Changes the current folder in an associated folder panel, depending on
-     * the current selection in tree.
+     * the current selection in tree, and prefetches the children of the
+     * selected folder.
      */
     public void valueChanged(TreeSelectionEvent e) {
         TreePath path = e.getNewLeadSelectionPath();
         if (path != null) {
             AbstractFile f = (AbstractFile) path.getLastPathComponent();
+            if (f != null) {
+                model.prefetchChildren(f);
+            }
             if (f != null && f.isBrowsable() && f != folderPanel.getCurrentFolder()) {
                 changeTimer.folder = f;
                 changeTimer.restart();
@@ -327,6 +334,19 @@ public class FoldersTreePanel extends JPanel implements TreeSelectionListener,
         }
     }
 
+    // - TreeExpansionListener code --------------------------------------------
+    // -------------------------------------------------------------------------
+
+    public void treeExpanded(TreeExpansionEvent event) {
+    }
+
+    /**
+     * Cancels the pending reads of the folders that are no longer displayed.
+     */
+    public void treeCollapsed(TreeExpansionEvent event) {
+        model.cancelCaching(event.getPath());
+    }
+
     // - LocationListener code -------------------------------------------------
     // -------------------------------------------------------------------------
 
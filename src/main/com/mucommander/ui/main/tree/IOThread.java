@@ -18,38 +18,41 @@
 
 package com.mucommander.ui.main.tree;
 
-import java.util.List;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A thread that executes i/o operations. 
+ * A thread that executes i/o operations taken from an AbstractIOThreadManager.
  * @author Mariusz Jakubowski
  *
  */
 public class IOThread extends Thread {
 	private static final Logger LOGGER = LoggerFactory.getLogger(IOThread.class);
 	
-    /** a queue with tasks to execute */
-    private final List<Runnable> queue;
+    /** a manager that holds the tasks to execute */
+    private final AbstractIOThreadManager manager;
     
     /** a time after this thread is marked as blocked */
     private final long blockThreshold;
 
-    /** a time when this thread signalled that is alive */
-    private volatile long lastActionTime = 0;
+    /** a time when this thread started executing the current task, 0 if it is waiting for a task */
+    private volatile long taskStartTime = 0;
+
+    /** a flag indicating that this thread must stop once the current task is finished */
+    private volatile boolean retired;
     
     
     /**
      * Creates a new instance of an IOThread.
-     * @param queue a queue with tasks
+     * @param manager a manager that holds the tasks to execute
+     * @param name a name of this thread
      * @param blockThreshold a time after this thread is marked as blocked [ms]
      */
-    IOThread(List<Runnable> queue, long blockThreshold) {
-        super("IOThread");
-        this.queue = queue;
+    IOThread(AbstractIOThreadManager manager, String name, long blockThreshold) {
+        super(name);
+        this.manager = manager;
         this.blockThreshold = blockThreshold;
+        setDaemon(true);
     }
     
     
@@ -57,35 +60,40 @@ public class IOThread extends Thread {
     @Override
     public void run() {
         
-        while (!interrupted()) {
-            lastActionTime = System.currentTimeMillis(); 
-            while (!queue.isEmpty()) {
-                Runnable task = queue.remove(0);
-                try {
-                    task.run();
-                } catch (Exception e) {
-                    LOGGER.debug("Caught exception", e);
-                }
-                lastActionTime = System.currentTimeMillis(); 
-            }
+        while (!retired) {
+            Runnable task;
             try {
-                synchronized (this) {
-                    wait(blockThreshold / 2);
-                }
+                task = manager.takeTask();
             } catch (InterruptedException e) {
                 break;
             }
+            taskStartTime = System.currentTimeMillis();
+            try {
+                task.run();
+            } catch (Exception e) {
+                LOGGER.debug("Caught exception", e);
+            }
+            taskStartTime = 0;
         }
         
     }
+
+    /**
+     * Makes this thread stop once the task it is executing, if any, is finished.
+     */
+    void retire() {
+        retired = true;
+        interrupt();
+    }
     
     /**
      * Checks if current thread is blocked. This is done by checking if 
-     * last action time is smaller than block threshold.
-     * @return true if thread is running
+     * the current task has been running for longer than the block threshold.
+     * @return true if thread is blocked
      */
     public boolean isBlocked() {
-        return (lastActionTime != 0) && (System.currentTimeMillis() - lastActionTime > blockThreshold); 
+        long startTime = taskStartTime;
+        return (startTime != 0) && (System.currentTimeMillis() - startTime > blockThreshold); 
     }
     
 }
@@ -19,16 +19,28 @@
 package com.mucommander.ui.main.tree;
 
 /**
- * Monitors thread that reads children and icons for the tree.
+ * Monitors threads that read children and icons for the tree.
  * @author Mariusz Jakubowski
  *
  */
 public class TreeIOThreadManager extends AbstractIOThreadManager {
 
+    /** priority of reading the children of folders displayed by the tree */
+    public final static int PRIORITY_VISIBLE = 0;
+
+    /** priority of checking that cached children are up to date */
+    public final static int PRIORITY_VALIDATION = 1;
+
+    /** priority of reading the children of folders ahead of their display */
+    public final static int PRIORITY_PREFETCH = 2;
+
+    /** number of threads that read folders concurrently */
+    private final static int NB_THREADS = 4;
+
     public final static TreeIOThreadManager instance = new TreeIOThreadManager();
     
     private TreeIOThreadManager() {
-        super("TreeIOThreadManager", 5000);
+        super("TreeIOThreadManager", NB_THREADS, 5000);
     }
     
     public static TreeIOThreadManager getInstance() {
@@ -37,6 +37,7 @@ import com.mucommander.ui.viewer.hex.HexFactory;
 import com.mucommander.ui.viewer.hex.HexViewer;
 import com.mucommander.ui.viewer.html.HtmlViewer;
 import com.mucommander.ui.viewer.pdf.PdfViewer;
+import com.mucommander.ui.viewer.text.LargeTextViewer;
 import com.mucommander.ui.viewer.text.TextViewer;
 import net.sf.jftp.gui.tasks.ImageViewer;
 
@@ -63,6 +64,9 @@ public class ViewerRegistrar {
 
         registerFileViewer(new com.mucommander.ui.viewer.html.HtmlFactory());
 
+        // The LargeTextFactory must be registered before the TextFactory, which would otherwise warn about large files
+        registerFileViewer(new com.mucommander.ui.viewer.text.LargeTextFactory());
+
         registerFileViewer(new com.mucommander.ui.viewer.text.TextFactory());
 
         // The HexFactory must be the last FileViewer to be registered (otherwise it would open other factories file types)
@@ -95,7 +99,7 @@ public class ViewerRegistrar {
             if (fr.fileName.equals(file.getAbsolutePath()) && fr.viewerClass != null) {
                 Class viewerClass = fr.viewerClass;
                 if (viewerClass.equals(TextViewer.class) || viewerClass.equals(HexViewer.class) || viewerClass.equals(HtmlViewer.class) ||
-                        viewerClass.equals(ImageViewer.class) || viewerClass.equals(PdfViewer.class)) {
+                        viewerClass.equals(ImageViewer.class) || viewerClass.equals(PdfViewer.class) || viewerClass.equals(LargeTextViewer.class)) {
                     FileFrame openedFrame = fr.fileFrameRef.get();
                     if (openedFrame != null) {
                         openedFrame.toFront();
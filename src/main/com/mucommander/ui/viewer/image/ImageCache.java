@@ -0,0 +1,139 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.viewer.image;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.RandomAccessCache;
+import com.mucommander.ui.viewer.image.ImageDecoder.DecodedImage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache of decoded images, bounded by the number of bytes used by their pixels.
+ *
+ * <p>Images are identified by the URL, size and date of their file, so a file that has been modified is decoded again.
+ * A file has at most one decoded image in the cache; an image that has been decoded at a higher resolution replaces
+ * the one that was cached for the same file, as it can be used for any smaller size.
+ *
+ * @see ImageDecoder
+ */
+class ImageCache {
+
+    /** Capacity of the cache used by image viewers: an eighth of the maximum heap size, up to 256MB */
+    final static long DEFAULT_CAPACITY = Math.min(256 * 1024 * 1024, Runtime.getRuntime().maxMemory() / 8);
+
+    private final long capacity;
+
+    private final Map<String, DecodedImage> images = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Number of bytes used by the pixels of the cached images */
+    private long size;
+
+    private long hitCount;
+
+    private long missCount;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param capacity the maximum number of bytes used by the pixels of the cached images
+     */
+    ImageCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the decoded image of the given file if it is cached at a resolution that is high enough for the target
+     * size.
+     *
+     * @param file the image file
+     * @param targetWidth the width the image is displayed at, <code>0</code> for its full resolution
+     * @param targetHeight the height the image is displayed at, <code>0</code> for its full resolution
+     * @return the decoded image, <code>null</code> if it is not cached or not detailed enough
+     */
+    synchronized DecodedImage get(AbstractFile file, int targetWidth, int targetHeight) {
+        DecodedImage image = images.get(RandomAccessCache.getFileKey(file));
+        if (image != null && image.isDetailedEnough(targetWidth, targetHeight)) {
+            hitCount++;
+            return image;
+        }
+        missCount++;
+        return null;
+    }
+
+    /**
+     * Adds the decoded image of the given file to the cache, unless it is larger than the cache or an image of
+     * the same file with a higher resolution is cached already. Least recently used images are evicted to make room
+     * for it.
+     *
+     * @param file the image file
+     * @param image the decoded image
+     */
+    synchronized void put(AbstractFile file, DecodedImage image) {
+        long imageSize = image.getByteSize();
+        if (imageSize > capacity) {
+            return;
+        }
+
+        String key = RandomAccessCache.getFileKey(file);
+        DecodedImage cachedImage = images.get(key);
+        if (cachedImage != null) {
+            if (cachedImage.getSubsampling() <= image.getSubsampling()) {
+                return;
+            }
+            images.remove(key);
+            size -= cachedImage.getByteSize();
+        }
+
+        Iterator<DecodedImage> iterator = images.values().iterator();
+        while (size + imageSize > capacity && iterator.hasNext()) {
+            size -= iterator.next().getByteSize();
+            iterator.remove();
+        }
+        images.put(key, image);
+        size += imageSize;
+    }
+
+    /**
+     * Returns the number of bytes used by the pixels of the cached images.
+     *
+     * @return the number of bytes used by the cached images
+     */
+    synchronized long getSize() {
+        return size;
+    }
+
+    long getCapacity() {
+        return capacity;
+    }
+
+    synchronized int getImageCount() {
+        return images.size();
+    }
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    synchronized long getMissCount() {
+        return missCount;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.viewer.image;
+
+import com.mucommander.commons.file.AbstractFile;
+import net.sf.image4j.codec.ico.ICODecoder;
+import org.apache.sanselan.ImageReadException;
+import org.apache.sanselan.formats.pnm.PNMImageParser;
+import org.apache.sanselan.formats.psd.PsdImageParser;
+import org.apache.sanselan.formats.tiff.TiffImageParser;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * Decodes the raster images shown by the {@link ImageViewer}.
+ *
+ * <p>Formats supported by <code>ImageIO</code> are decoded through an <code>ImageReader</code> with a source
+ * subsampling that matches the size the image is displayed at: a 50 megapixel photo that fits the screen is decoded at
+ * a fraction of its resolution, which is both faster and much smaller. Other formats are decoded at full resolution.
+ *
+ * @see ImageCache
+ */
+class ImageDecoder {
+
+    private ImageDecoder() {
+    }
+
+    /**
+     * Returns the largest subsampling at which an image is decoded at least at the target size, in one dimension.
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param targetWidth the width the image is displayed at, <code>0</code> for its full width
+     * @param targetHeight the height the image is displayed at, <code>0</code> for its full height
+     * @return the number of source pixels per decoded pixel in each direction, at least <code>1</code>
+     */
+    static int getSubsampling(int width, int height, int targetWidth, int targetHeight) {
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return 1;
+        }
+        return Math.max(1, Math.min(width / targetWidth, height / targetHeight));
+    }
+
+    /**
+     * Decodes the given image so that it can be displayed at the target size without being upscaled, unless its format
+     * can only be decoded at full resolution.
+     *
+     * @param file the image file
+     * @param targetWidth the width the image is displayed at, <code>0</code> for its full resolution
+     * @param targetHeight the height the image is displayed at, <code>0</code> for its full resolution
+     * @return the decoded image
+     * @throws IOException if the file could not be read, or if its format is not supported
+     * @throws ImageReadException if the image could not be parsed
+     */
+    static DecodedImage decode(AbstractFile file, int targetWidth, int targetHeight) throws IOException, ImageReadException {
+        BufferedImage image;
+        int bitsPerPixel = -1;
+
+        final String ext = file.getExtension() == null ? "" : file.getExtension().toLowerCase();
+        if ("scr".equals(ext) && file.getSize() == ZxSpectrumScrImage.SCR_IMAGE_FILE_SIZE) {
+            try (InputStream in = file.getInputStream()) {
+                image = ZxSpectrumScrImage.load(in);
+            }
+            bitsPerPixel = 4;
+        } else if ("psd".equals(ext)) {
+            image = new PsdImageParser().getBufferedImage(loadFile(file), null);
+        } else if ("tif".equals(ext) || "tiff".equals(ext)) {
+            image = new TiffImageParser().getBufferedImage(loadFile(file), null);
+        } else if ("ico".equals(ext)) {
+            try (InputStream in = file.getInputStream()) {
+                image = ICODecoder.read(in).get(0);
+            }
+        } else if ("pnm".equals(ext) || "pbm".equals(ext) || "pgm".equals(ext) || "ppm".equals(ext)) {
+            // TODO pBm raw format reading error
+            image = (BufferedImage) (new PNMImageParser().getAllBufferedImages(loadFile(file)).get(0));
+        } else {
+            return decodeSubsampled(file, targetWidth, targetHeight);
+        }
+
+        if (image == null) {
+            throw new IOException("Unable to decode " + file);
+        }
+        return new DecodedImage(image, image.getWidth(), image.getHeight(), 1, bitsPerPixel);
+    }
+
+    /**
+     * Reads the size of the image from its header, then decodes it with the subsampling that matches the target size.
+     */
+    private static DecodedImage decodeSubsampled(AbstractFile file, int targetWidth, int targetHeight) throws IOException {
+        try (InputStream in = file.getInputStream(); ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = iis == null ? null : ImageIO.getImageReaders(iis);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + file);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int subsampling = getSubsampling(width, height, targetWidth, targetHeight);
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                BufferedImage image = reader.read(0, param);
+                // Some readers ignore the subsampling, the actual one is that of the decoded image
+                subsampling = Math.max(1, (int)Math.round((double)width / image.getWidth()));
+                return new DecodedImage(image, width, height, subsampling, image.getColorModel().getPixelSize());
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static byte[] loadFile(AbstractFile file) throws IOException {
+        byte[] data = new byte[(int) file.getSize()];
+        try (InputStream is = file.getInputStream()) {
+            int readTotal = 0;
+            while (readTotal < data.length) {
+                int bytesRead = is.read(data, readTotal, data.length - readTotal);
+                if (bytesRead < 0) {
+                    break;
+                }
+                readTotal += bytesRead;
+            }
+        }
+        return data;
+    }
+
+
+    /**
+     * An image decoded at a given subsampling, along with the size of the original image.
+     */
+    static class DecodedImage {
+
+        private final BufferedImage image;
+
+        private final int width;
+
+        private final int height;
+
+        private final int subsampling;
+
+        private final int bitsPerPixel;
+
+        DecodedImage(BufferedImage image, int width, int height, int subsampling, int bitsPerPixel) {
+            this.image = image;
+            this.width = width;
+            this.height = height;
+            this.subsampling = subsampling;
+            this.bitsPerPixel = bitsPerPixel;
+        }
+
+        /**
+         * Returns the decoded image, which is smaller than the original image if it has been subsampled.
+         *
+         * @return the decoded image
+         */
+        BufferedImage getImage() {
+            return image;
+        }
+
+        /**
+         * Returns the width of the original image.
+         *
+         * @return the width of the original image
+         */
+        int getWidth() {
+            return width;
+        }
+
+        /**
+         * Returns the height of the original image.
+         *
+         * @return the height of the original image
+         */
+        int getHeight() {
+            return height;
+        }
+
+        /**
+         * Returns the number of original pixels per decoded pixel, in each direction.
+         *
+         * @return the subsampling of the decoded image, <code>1</code> if it has the original resolution
+         */
+        int getSubsampling() {
+            return subsampling;
+        }
+
+        /**
+         * Returns the number of bits per pixel of the file, <code>-1</code> if it is not known.
+         *
+         * @return the number of bits per pixel of the file
+         */
+        int getBitsPerPixel() {
+            return bitsPerPixel;
+        }
+
+        /**
+         * Returns the number of bytes used by the pixels of the decoded image.
+         *
+         * @return the number of bytes used by the pixels of the decoded image
+         */
+        long getByteSize() {
+            DataBuffer buffer = image.getRaster().getDataBuffer();
+            return (long)buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+        }
+
+        /**
+         * Returns <code>true</code> if this image can be displayed at the given size without being upscaled.
+         *
+         * @param targetWidth the width the image is displayed at, <code>0</code> for its full resolution
+         * @param targetHeight the height the image is displayed at, <code>0</code> for its full resolution
+         * @return <code>true</code> if this image is detailed enough for the target size
+         */
+        boolean isDetailedEnough(int targetWidth, int targetHeight) {
+            return subsampling <= ImageDecoder.getSubsampling(width, height, targetWidth, targetHeight);
+        }
+    }
+}
@@ -27,14 +27,24 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import javax.imageio.ImageIO;
 import javax.imageio.spi.IIORegistry;
 import javax.swing.*;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.runtime.OsFamily;
 import com.mucommander.conf.MuSnapshot;
@@ -49,16 +59,13 @@ import com.mucommander.ui.theme.ThemeListener;
 import com.mucommander.ui.theme.ThemeManager;
 import com.mucommander.ui.viewer.FileFrame;
 import com.mucommander.ui.viewer.FileViewer;
-import net.sf.image4j.codec.ico.ICODecoder;
+import com.mucommander.ui.viewer.image.ImageDecoder.DecodedImage;
 import org.apache.batik.transcoder.Transcoder;
 import org.apache.batik.transcoder.TranscoderException;
 import org.apache.batik.transcoder.TranscoderInput;
 import org.apache.batik.transcoder.TranscoderOutput;
 import org.apache.batik.transcoder.image.PNGTranscoder;
 import org.apache.sanselan.ImageReadException;
-import org.apache.sanselan.formats.pnm.PNMImageParser;
-import org.apache.sanselan.formats.psd.PsdImageParser;
-import org.apache.sanselan.formats.tiff.TiffImageParser;
 import ru.trolsoft.ui.TMenuSeparator;
 
 //import org.apache.commons.imaging.Imaging;
@@ -72,11 +79,29 @@ import ru.trolsoft.ui.TMenuSeparator;
  */
 class ImageViewer extends FileViewer implements ActionListener {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageViewer.class);
+
     private static final Cursor CURSOR_WAIT = new Cursor(Cursor.WAIT_CURSOR);
     private static final Cursor CURSOR_DEFAULT = Cursor.getDefaultCursor();
     private static final Cursor CURSOR_CROSS = new Cursor(Cursor.CROSSHAIR_CURSOR);
 
+    /** Decoded images, shared by all image viewers */
+    private static final ImageCache IMAGE_CACHE = new ImageCache(ImageCache.DEFAULT_CAPACITY);
+
+    /** Decodes the images that precede and follow the current one in the background */
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ImageViewer prefetch");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /** The decoded image, which may be subsampled */
     private BufferedImage image;
+    /** Size of the original image */
+    private int imageWidth, imageHeight;
+    /** Number of original pixels per pixel of the decoded image, in each direction */
+    private int subsampling = 1;
     //private BufferedImage scaledImage;
     private double zoomFactor;
     private boolean vectorImage;
@@ -93,6 +118,8 @@ class ImageViewer extends FileViewer implements ActionListener {
     private ImageViewerImpl imageViewerImpl;
     private List<AbstractFile> filesInDirectory;
     private int indexInDirectory = -1;
+    /** Prefetches of the adjacent images that may not be complete, updated both when an image is loaded and when the viewer is closed */
+    private final Map<AbstractFile, Future<?>> prefetches = new ConcurrentHashMap<>();
 
     private StatusBar statusBar;
 
@@ -152,6 +179,11 @@ class ImageViewer extends FileViewer implements ActionListener {
 
     @Override
     protected void saveStateOnClose() {
+        Iterator<Future<?>> iterator = prefetches.values().iterator();
+        while (iterator.hasNext()) {
+            iterator.next().cancel(false);
+            iterator.remove();
+        }
         // Run GC for big images
         if (image != null && image.getWidth()*image.getHeight() > 1024*200) {
             System.gc();
@@ -170,46 +202,28 @@ class ImageViewer extends FileViewer implements ActionListener {
             statusBar.setFileSize(file.getSize());
             statusBar.setDateTime(file.getLastModifiedDate());
         }
-        int imageWidth, imageHeight;
 
-        final String ext = file.getExtension().toLowerCase();
-        if ("scr".equals(ext) && file.getSize() == ZxSpectrumScrImage.SCR_IMAGE_FILE_SIZE) {
-            this.image = ZxSpectrumScrImage.load(file.getInputStream());
-            if (statusBar != null) {
-                statusBar.setImageBpp(4);
+        Dimension screen = MuSnapshot.getScreenSize();
+        vectorImage = "svg".equalsIgnoreCase(file.getExtension());
+        if (vectorImage) {
+            BufferedImage svgImage = transcodeSVGDocument(file, 0, 0);
+            if (svgImage == null) {
+                throw new IOException("Unable to transcode " + file);
             }
-        } else if ("psd".equals(ext)) {
-            this.image = new PsdImageParser().getBufferedImage(loadFile(file), null);
-        } else if ("tif".equals(ext) || "tiff".equals(ext)) {
-            this.image = new TiffImageParser().getBufferedImage(loadFile(file), null);
-        } else if ("ico".equals(ext)) {
-            this.image = ICODecoder.read(file.getInputStream()).get(0);
-            //this.image = (BufferedImage) (new IcoImageParser().getAllBufferedImages(loadFile(file)).get(0));
-        } else if ("pnm".equals(ext) || "pbm".equals(ext) || "pgm".equals(ext) || "ppm".equals(ext)) {
-            // TODO pBm raw format reading error
-            this.image = (BufferedImage) (new PNMImageParser().getAllBufferedImages(loadFile(file)).get(0));
-        } else if ("svg".equals(ext)) {
-            this.image = transcodeSVGDocument(file, 0, 0);
+            setDecodedImage(new DecodedImage(svgImage, svgImage.getWidth(), svgImage.getHeight(), 1, -1));
         } else {
-            try (InputStream is = file.getInputStream()) {
-                this.image = ImageIO.read(is);
-            }
-            if (statusBar != null) {
-                statusBar.setImageBpp(image.getColorModel().getPixelSize());
+            // Decode the image at the resolution it is displayed at when it fits the screen
+            DecodedImage decodedImage = getDecodedImage(file, screen.width, screen.height);
+            setDecodedImage(decodedImage);
+            if (statusBar != null && decodedImage.getBitsPerPixel() >= 0) {
+                statusBar.setImageBpp(decodedImage.getBitsPerPixel());
             }
         }
-        vectorImage = "svg".equalsIgnoreCase(ext);
-        imageWidth = image.getWidth();
-        imageHeight = image.getHeight();
-        this.hasTransparentPixels = image.getColorModel().hasAlpha();
 
         if (statusBar != null) {
             statusBar.setImageSize(imageWidth, imageHeight);
         }
 
-        this.zoomFactor = 1.0;
-        Dimension screen = MuSnapshot.getScreenSize();
-
         double zoomFactorX = 1.0 * screen.width / imageWidth;
         double zoomFactorY = 1.0 * screen.height / imageHeight;
         zoomFactor = Math.min(zoomFactorX, zoomFactorY);
@@ -221,6 +235,7 @@ class ImageViewer extends FileViewer implements ActionListener {
         fixMouseMovementEventsIssue();
 
         checkNextPrev();
+        prefetchAdjacentImages(screen.width, screen.height);
         setFrameCursor(CURSOR_DEFAULT);
 
         try {
@@ -230,22 +245,87 @@ class ImageViewer extends FileViewer implements ActionListener {
         }
     }
 
+    private void setDecodedImage(DecodedImage decodedImage) {
+        this.image = decodedImage.getImage();
+        this.imageWidth = decodedImage.getWidth();
+        this.imageHeight = decodedImage.getHeight();
+        this.subsampling = decodedImage.getSubsampling();
+        this.hasTransparentPixels = image.getColorModel().hasAlpha();
+    }
 
-    private static byte[] loadFile(AbstractFile file) {
-        byte[] data = new byte[(int) file.getSize()];
-        try (InputStream is = file.getInputStream()) {
-            int readTotal = 0;
-            while (readTotal < data.length) {
-                int bytesRead = is.read(data, readTotal, data.length - readTotal);
-                if (bytesRead < 0) {
-                    break;
-                }
-                readTotal += bytesRead;
+    /**
+     * Returns the image decoded at a resolution that is high enough for the target size, from the cache if it is
+     * there, once it has been prefetched if it is being prefetched, or else by decoding it.
+     */
+    private DecodedImage getDecodedImage(AbstractFile file, int targetWidth, int targetHeight) throws IOException, ImageReadException {
+        DecodedImage decodedImage = IMAGE_CACHE.get(file, targetWidth, targetHeight);
+        if (decodedImage == null && awaitPrefetch(file)) {
+            decodedImage = IMAGE_CACHE.get(file, targetWidth, targetHeight);
+        }
+        if (decodedImage == null) {
+            decodedImage = ImageDecoder.decode(file, targetWidth, targetHeight);
+            IMAGE_CACHE.put(file, decodedImage);
+        }
+        return decodedImage;
+    }
+
+    /**
+     * Waits for the prefetch of the given file if it has started, or cancels it if it has not.
+     *
+     * @return <code>true</code> if the image has been prefetched
+     */
+    private boolean awaitPrefetch(AbstractFile file) {
+        Future<?> prefetch = prefetches.remove(file);
+        if (prefetch == null || prefetch.cancel(false)) {
+            return false;
+        }
+        try {
+            prefetch.get();
+            return true;
+        } catch (ExecutionException | CancellationException e) {
+            // The image is decoded again, and the error reported, when it is shown
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Decodes the next and previous images in the background, at the size they are displayed at when they fit the
+     * screen, so that they are in the cache when the user moves to them. Prefetches of images that are no longer
+     * adjacent are cancelled.
+     */
+    private void prefetchAdjacentImages(int targetWidth, int targetHeight) {
+        List<AbstractFile> adjacentFiles = new ArrayList<>();
+        if (getNextFileIndex() >= 0) {
+            adjacentFiles.add(filesInDirectory.get(getNextFileIndex()));
+        }
+        if (getPrevFileIndex() >= 0) {
+            adjacentFiles.add(filesInDirectory.get(getPrevFileIndex()));
+        }
+
+        Iterator<Map.Entry<AbstractFile, Future<?>>> iterator = prefetches.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<AbstractFile, Future<?>> entry = iterator.next();
+            if (!adjacentFiles.contains(entry.getKey())) {
+                entry.getValue().cancel(false);
+                iterator.remove();
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
-        return data;
+
+        for (AbstractFile file : adjacentFiles) {
+            // Vector images are transcoded at the size they are displayed at, they are not cached
+            if (prefetches.containsKey(file) || "svg".equalsIgnoreCase(file.getExtension())) {
+                continue;
+            }
+            prefetches.put(file, PREFETCH_EXECUTOR.submit(() -> {
+                if (IMAGE_CACHE.get(file, targetWidth, targetHeight) == null) {
+                    IMAGE_CACHE.put(file, ImageDecoder.decode(file, targetWidth, targetHeight));
+                }
+                return null;
+            }));
+        }
     }
 
 
@@ -268,29 +348,25 @@ class ImageViewer extends FileViewer implements ActionListener {
     private synchronized void zoom(double factor) {
         setFrameCursor(CURSOR_WAIT);
 
-        final int srcWidth = image.getWidth(null);
-        final int srcHeight = image.getHeight(null);
-        final int scaledWidth = (int)(srcWidth*factor);
-        final int scaledHeight = (int)(srcHeight*factor);
+        final int scaledWidth = (int)Math.ceil(imageWidth*factor);
+        final int scaledHeight = (int)Math.ceil(imageHeight*factor);
 
-        if (factor != 1.0) {
-            AbstractFile file = filesInDirectory.get(indexInDirectory);
-            if ("svg".equalsIgnoreCase(file.getExtension())) {
+        AbstractFile file = filesInDirectory.get(indexInDirectory);
+        if (vectorImage) {
+            if (factor != 1.0) {
                 try {
                     this.image = transcodeSVGDocument(file, scaledWidth, scaledHeight);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
-//            } else {
-//                this.scaledImage = new BufferedImage(scaledWidth, scaledHeight, BufferedImage.TYPE_INT_ARGB);
-//                AffineTransform at = new AffineTransform();
-//                at.scale(factor, factor);
-//                AffineTransformOp scaleOp = new AffineTransformOp(at, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
-//                this.scaledImage = scaleOp.filter(this.image, this.scaledImage);
-//                this.scaledImage = image;
             }
-//        } else {
-//            this.scaledImage = image;
+        } else if (subsampling > ImageDecoder.getSubsampling(imageWidth, imageHeight, scaledWidth, scaledHeight)) {
+            // The image is displayed larger than it was decoded, decode it again at a higher resolution
+            try {
+                setDecodedImage(getDecodedImage(file, scaledWidth, scaledHeight));
+            } catch (IOException | ImageReadException e) {
+                LOGGER.info("Failed to decode " + file + " at " + scaledWidth + "x" + scaledHeight, e);
+            }
         }
 
         if (statusBar != null) {
@@ -515,14 +591,14 @@ class ImageViewer extends FileViewer implements ActionListener {
         if (image == null) {
             return 0;
         }
-        return vectorImage ? image.getWidth() : (int)(zoomFactor*image.getWidth());
+        return vectorImage ? image.getWidth() : (int)(zoomFactor*imageWidth);
     }
 
     private int getScaledHeight() {
         if (image == null) {
             return 0;
         }
-        return vectorImage ? image.getHeight() : (int)(zoomFactor*image.getHeight());
+        return vectorImage ? image.getHeight() : (int)(zoomFactor*imageHeight);
     }
 
 
@@ -661,7 +737,8 @@ class ImageViewer extends FileViewer implements ActionListener {
             }
             pixelX = (int)(pixelX/zoomFactor);
             pixelY = (int)(pixelY/zoomFactor);
-            int color = image.getRGB(pixelX, pixelY);
+            // Pixels of subsampled images stand for several pixels of the original image
+            int color = image.getRGB(Math.min(image.getWidth() - 1, pixelX / subsampling), Math.min(image.getHeight() - 1, pixelY / subsampling));
 //            int r = (color >> 16) & 0xff;
 //            int g = (color >> 8) & 0xff;
 //            int b = (color) & 0xff;
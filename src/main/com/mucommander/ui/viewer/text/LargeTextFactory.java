@@ -0,0 +1,55 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.viewer.text;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileOperation;
+import com.mucommander.utils.text.Translator;
+import com.mucommander.ui.viewer.FileViewer;
+import com.mucommander.ui.viewer.ViewerFactory;
+
+import java.io.File;
+
+/**
+ * <code>ViewerFactory</code> implementation for viewing text files that are too large to be loaded in memory by the
+ * {@link TextViewer}. Files must be local or support random access.
+ *
+ * @see LargeTextViewer
+ */
+public class LargeTextFactory implements ViewerFactory {
+
+    public boolean canViewFile(AbstractFile file) {
+        if (file.isDirectory() || file.getSize() <= TextFactory.FILE_SIZE_WARNING_THRESHOLD) {
+            return false;
+        }
+        if (!(file.getUnderlyingFileObject() instanceof File) && !file.isFileOperationSupported(FileOperation.RANDOM_READ_FILE)) {
+            return false;
+        }
+        return !TextFactory.checkBinaryFile(file);
+    }
+
+    public FileViewer createFileViewer() {
+        return new LargeTextViewer();
+    }
+
+    @Override
+    public String getName() {
+        return Translator.get("viewer_type.large_text");
+    }
+}
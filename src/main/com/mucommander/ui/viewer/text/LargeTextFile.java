@@ -0,0 +1,499 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.viewer.text;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileOperation;
+import com.mucommander.commons.io.EncodingDetector;
+import com.mucommander.commons.io.RandomAccessInputStream;
+import com.mucommander.commons.io.StreamUtils;
+import com.mucommander.commons.io.bom.BOM;
+import com.mucommander.commons.io.bom.BOMConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Read-only access to the lines of a text file that is too large to be loaded in memory.
+ *
+ * <p>Local files are memory-mapped, in regions that are mapped the first time they are accessed. Other files are read
+ * through their {@link RandomAccessInputStream}. The offsets of the lines are indexed by a background thread into a
+ * <code>long</code> array, which grows as the file is scanned: lines can be read as soon as they have been indexed.
+ * Lines are separated by <code>LF</code> or <code>CR LF</code>.
+ *
+ * <p>The encoding must either be compatible with ASCII, or be one of the <code>UTF-16</code> variants. Searches are
+ * performed on the encoded bytes of the file and do not decode it; case-insensitive searches only fold ASCII letters.
+ *
+ * @see LargeTextViewer
+ */
+class LargeTextFile implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LargeTextFile.class);
+
+    /** Size of the regions of local files that are mapped at once */
+    private final static int MAPPED_REGION_SIZE = 1 << 30;
+
+    /** Size of the blocks that are read when indexing and searching */
+    final static int BLOCK_SIZE = 1024 * 1024;
+
+    /** Maximum number of bytes of a line that are decoded, the rest of longer lines is not displayed */
+    final static int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final static byte LF = '\n';
+    private final static byte CR = '\r';
+
+    private final long length;
+
+    private final Charset charset;
+
+    /** Offset of the first character, after the byte-order mark if there is one */
+    private final long dataOffset;
+
+    /** Number of bytes of a code unit: 1 for ASCII-compatible encodings, 2 for UTF-16 */
+    private final int unitSize;
+
+    private final boolean bigEndian;
+
+    /** Channel of local files, null for other files */
+    private FileChannel channel;
+
+    /** Mapped regions of local files, null until they are accessed */
+    private MappedByteBuffer regions[];
+
+    /** Random access stream of the other files */
+    private RandomAccessInputStream rais;
+
+    /** Offsets of the start of the lines, the array is replaced when it grows and is published before the count */
+    private volatile long lineOffsets[] = new long[1024];
+
+    private volatile int lineCount;
+
+    /** Offset up to which the file has been indexed */
+    private volatile long indexedLength;
+
+    private volatile boolean indexed;
+
+    private volatile boolean closed;
+
+    /** Lock used to wait for the indexer */
+    private final Object indexLock = new Object();
+
+
+    /**
+     * Opens the given file, and starts indexing its lines.
+     *
+     * @param file the file to read
+     * @param encoding the encoding of the file, <code>null</code> to detect it
+     * @throws IOException if the file could not be opened
+     */
+    LargeTextFile(AbstractFile file, String encoding) throws IOException {
+        this.length = file.getSize();
+        Object underlyingFile = file.getUnderlyingFileObject();
+        if (underlyingFile instanceof File) {
+            channel = FileChannel.open(((File)underlyingFile).toPath(), StandardOpenOption.READ);
+            regions = new MappedByteBuffer[(int)((length + MAPPED_REGION_SIZE - 1) / MAPPED_REGION_SIZE)];
+        } else if (file.isFileOperationSupported(FileOperation.RANDOM_READ_FILE)) {
+            rais = file.getRandomAccessInputStream();
+        } else {
+            throw new IOException("Random access not supported: " + file);
+        }
+
+        byte head[] = new byte[(int)Math.min(length, EncodingDetector.MAX_RECOMMENDED_BYTE_SIZE)];
+        read(0, head, 0, head.length);
+
+        long offset = 0;
+        for (BOM bom : new BOM[] {BOMConstants.UTF8_BOM, BOMConstants.UTF16_BE_BOM, BOMConstants.UTF16_LE_BOM}) {
+            byte signature[] = bom.getSignature();
+            if (head.length >= signature.length && Arrays.equals(Arrays.copyOf(head, signature.length), signature)) {
+                encoding = bom.getEncoding();
+                offset = signature.length;
+                break;
+            }
+        }
+        if (encoding == null) {
+            encoding = EncodingDetector.detectEncoding(head);
+        }
+
+        Charset charset = encoding == null || !Charset.isSupported(encoding) ? null : Charset.forName(encoding);
+        byte lf[] = charset == null ? null : "\n".getBytes(charset);
+        if (lf != null && lf.length == 1 && lf[0] == LF) {
+            unitSize = 1;
+            bigEndian = false;
+        } else if (lf != null && charset.name().startsWith("UTF-16")) {
+            // 'UTF-16' without a byte-order mark is big endian
+            unitSize = 2;
+            bigEndian = !charset.name().equals("UTF-16LE");
+        } else {
+            charset = Charset.forName("UTF-8");
+            unitSize = 1;
+            bigEndian = false;
+        }
+        this.charset = charset;
+        this.dataOffset = offset;
+
+        lineOffsets[0] = dataOffset;
+        lineCount = 1;
+        indexedLength = dataOffset;
+
+        Thread indexer = new Thread(this::index, "LargeTextFile indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    /**
+     * Scans the file for line separators, until the end of the file or until the file is closed.
+     */
+    private void index() {
+        byte buffer[] = new byte[BLOCK_SIZE];
+        long offsets[] = lineOffsets;
+        int count = lineCount;
+        try {
+            // Blocks start at the data offset, so that code units are aligned on the start of the buffer
+            for (long pos = dataOffset; pos < length && !closed; ) {
+                int len = (int)Math.min(buffer.length, length - pos);
+                read(pos, buffer, 0, len);
+                for (int i = 0; i + unitSize <= len; i += unitSize) {
+                    if (isLF(buffer, i)) {
+                        if (count == offsets.length) {
+                            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                            lineOffsets = offsets;
+                        }
+                        offsets[count++] = pos + i + unitSize;
+                        // The offset must be visible before the count
+                        lineCount = count;
+                    }
+                }
+                pos += len;
+                synchronized (indexLock) {
+                    indexedLength = pos;
+                    indexLock.notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                LOGGER.info("Error while indexing lines", e);
+            }
+        } finally {
+            synchronized (indexLock) {
+                indexed = true;
+                indexLock.notifyAll();
+            }
+        }
+    }
+
+    private boolean isLF(byte b[], int i) {
+        if (unitSize == 1) {
+            return b[i] == LF;
+        }
+        return bigEndian ? b[i] == 0 && b[i + 1] == LF : b[i] == LF && b[i + 1] == 0;
+    }
+
+    private boolean isCR(byte b[], int i) {
+        if (unitSize == 1) {
+            return b[i] == CR;
+        }
+        return bigEndian ? b[i] == 0 && b[i + 1] == CR : b[i] == CR && b[i + 1] == 0;
+    }
+
+    /**
+     * Reads up to <code>len</code> bytes at the given position of the file, less only if the end of the file is reached.
+     */
+    private int read(long pos, byte b[], int off, int len) throws IOException {
+        len = (int)Math.max(0, Math.min(len, length - pos));
+        if (channel == null) {
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("File closed");
+                }
+                rais.seek(pos);
+                return StreamUtils.readUpTo(rais, b, off, len);
+            }
+        }
+
+        int read = 0;
+        while (read < len) {
+            // Buffers are duplicated as their position is not thread-safe
+            ByteBuffer region = getRegion((int)((pos + read) / MAPPED_REGION_SIZE)).duplicate();
+            region.position((int)((pos + read) % MAPPED_REGION_SIZE));
+            int n = Math.min(len - read, region.remaining());
+            region.get(b, off + read, n);
+            read += n;
+        }
+        return read;
+    }
+
+    private synchronized MappedByteBuffer getRegion(int index) throws IOException {
+        if (closed) {
+            throw new IOException("File closed");
+        }
+        if (regions[index] == null) {
+            long start = (long)index * MAPPED_REGION_SIZE;
+            regions[index] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAPPED_REGION_SIZE, length - start));
+        }
+        return regions[index];
+    }
+
+    /**
+     * Returns <code>true</code> if the file is memory-mapped, <code>false</code> if it is read through a stream whose
+     * reads may block on the network.
+     *
+     * @return <code>true</code> if the file is memory-mapped
+     */
+    boolean isMapped() {
+        return channel != null;
+    }
+
+    /**
+     * Returns the number of lines that have been indexed so far, which is the number of lines of the file once
+     * {@link #isIndexed() indexing} is complete.
+     *
+     * @return the number of lines that have been indexed so far
+     */
+    int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Returns <code>true</code> if the whole file has been indexed.
+     *
+     * @return <code>true</code> if the whole file has been indexed
+     */
+    boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Returns the offset up to which the file has been indexed.
+     *
+     * @return the offset up to which the file has been indexed
+     */
+    long getIndexedLength() {
+        return indexedLength;
+    }
+
+    /**
+     * Waits until the file has been indexed up to the given offset, or entirely.
+     *
+     * @param offset an offset in the file
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    void awaitIndexed(long offset) throws InterruptedIOException {
+        synchronized (indexLock) {
+            while (!indexed && indexedLength <= offset) {
+                try {
+                    indexLock.wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Returns the offset of the first byte of the given line.
+     *
+     * @param line a line number, starting at 0, lower than {@link #getLineCount()}
+     * @return the offset of the first byte of the line
+     */
+    long getLineOffset(int line) {
+        int count = lineCount;
+        if (line < 0 || line >= count) {
+            throw new IndexOutOfBoundsException("Line " + line + " of " + count);
+        }
+        return lineOffsets[line];
+    }
+
+    /**
+     * Returns the line that contains the given offset, among the lines that have been indexed.
+     *
+     * @param offset an offset in the file
+     * @return the number of the line, starting at 0
+     */
+    int getLineAt(long offset) {
+        int count = lineCount;
+        int line = Arrays.binarySearch(lineOffsets, 0, count, offset);
+        return line >= 0 ? line : Math.max(0, -line - 2);
+    }
+
+    /**
+     * Returns the given line without its separator. Only the first {@link #MAX_LINE_LENGTH} bytes of longer lines are
+     * decoded.
+     *
+     * @param line a line number, starting at 0, lower than {@link #getLineCount()}
+     * @return the text of the line
+     * @throws IOException if the file could not be read
+     */
+    String getLine(int line) throws IOException {
+        byte bytes[] = getLineBytes(line);
+        return new String(bytes, 0, bytes.length, charset);
+    }
+
+    /**
+     * Decodes the beginning of the given line, up to the given offset.
+     *
+     * @param line a line number, starting at 0, lower than {@link #getLineCount()}
+     * @param offset an offset of the line
+     * @return the text of the line that precedes the offset
+     * @throws IOException if the file could not be read
+     */
+    String getLinePrefix(int line, long offset) throws IOException {
+        byte bytes[] = getLineBytes(line);
+        int len = (int)Math.max(0, Math.min(bytes.length, offset - getLineOffset(line)));
+        return new String(bytes, 0, len, charset);
+    }
+
+    private byte[] getLineBytes(int line) throws IOException {
+        int count = lineCount;
+        long start = getLineOffset(line);
+        // The last indexed line may not be complete yet, its end is then looked for in the bytes that are read
+        long end = line + 1 < count ? lineOffsets[line + 1] : length;
+        byte bytes[] = new byte[(int)Math.min(end - start, MAX_LINE_LENGTH)];
+        int len = read(start, bytes, 0, bytes.length);
+
+        int lineLength = len - len % unitSize;
+        for (int i = 0; i + unitSize <= len; i += unitSize) {
+            if (isLF(bytes, i)) {
+                lineLength = i;
+                break;
+            }
+        }
+        if (lineLength >= unitSize && isCR(bytes, lineLength - unitSize)) {
+            lineLength -= unitSize;
+        }
+        return lineLength == bytes.length ? bytes : Arrays.copyOf(bytes, lineLength);
+    }
+
+    /**
+     * Looks for the given string in the file, without decoding it. The file is read block by block, so searches can
+     * be interrupted by interrupting the thread that performs them.
+     *
+     * @param text the string to look for
+     * @param from the offset the search starts at: forward searches return matches that start at or after this offset,
+     * backward searches matches that start before it
+     * @param forward <code>true</code> to look for the first match after the offset, <code>false</code> for the last
+     * match before it
+     * @param matchCase <code>false</code> to ignore the case of ASCII letters
+     * @return the offset of the match, <code>-1</code> if the string was not found
+     * @throws IOException if the file could not be read
+     * @throws InterruptedIOException if the thread was interrupted
+     */
+    long find(String text, long from, boolean forward, boolean matchCase) throws IOException {
+        byte pattern[] = text.getBytes(charset);
+        // Skip the byte-order mark that some encoders add
+        if (unitSize == 2 && pattern.length >= 2 && (pattern[0] & 0xff) + (pattern[1] & 0xff) == 0xfe + 0xff) {
+            pattern = Arrays.copyOfRange(pattern, 2, pattern.length);
+        }
+        if (pattern.length == 0) {
+            return -1;
+        }
+
+        byte buffer[] = new byte[BLOCK_SIZE + pattern.length];
+        from = Math.max(dataOffset, Math.min(from, length));
+        // Align the start on a code unit, matches cannot start in the middle of one
+        from += forward ? (unitSize - (from - dataOffset) % unitSize) % unitSize : -((from - dataOffset) % unitSize);
+
+        if (forward) {
+            for (long pos = from; pos + pattern.length <= length; pos += BLOCK_SIZE) {
+                checkInterrupted();
+                int len = read(pos, buffer, 0, buffer.length);
+                for (int i = 0; i + pattern.length <= len && i < BLOCK_SIZE; i += unitSize) {
+                    if (matches(buffer, i, pattern, matchCase)) {
+                        return pos + i;
+                    }
+                }
+            }
+        } else {
+            for (long end = from; end > dataOffset; end -= BLOCK_SIZE) {
+                checkInterrupted();
+                long pos = Math.max(dataOffset, end - BLOCK_SIZE);
+                int len = read(pos, buffer, 0, (int)(end - pos) + pattern.length - unitSize);
+                for (int i = (int)(end - pos) - unitSize; i >= 0; i -= unitSize) {
+                    if (i + pattern.length <= len && matches(buffer, i, pattern, matchCase)) {
+                        return pos + i;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private boolean matches(byte b[], int off, byte pattern[], boolean matchCase) {
+        for (int i = 0; i < pattern.length; i += unitSize) {
+            int c1 = getUnit(b, off + i);
+            int c2 = getUnit(pattern, i);
+            if (c1 != c2 && (matchCase || toLowerCase(c1) != toLowerCase(c2))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int getUnit(byte b[], int i) {
+        if (unitSize == 1) {
+            return b[i] & 0xff;
+        }
+        return bigEndian ? (b[i] & 0xff) << 8 | (b[i + 1] & 0xff) : (b[i + 1] & 0xff) << 8 | (b[i] & 0xff);
+    }
+
+    private static int toLowerCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + 'a' - 'A' : c;
+    }
+
+    /**
+     * Releases the file, which stops the indexer once it has read its current block. Regions that have been mapped
+     * are released once they are garbage collected.
+     *
+     * @throws IOException if the file could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            regions = null;
+            if (channel != null) {
+                channel.close();
+            } else {
+                rais.close();
+            }
+        }
+    }
+}
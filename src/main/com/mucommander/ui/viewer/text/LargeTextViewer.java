@@ -0,0 +1,649 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.viewer.text;
+
+import com.mucommander.cache.TextHistory;
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.runtime.OsFamily;
+import com.mucommander.ui.helper.MenuToolkit;
+import com.mucommander.ui.helper.MnemonicHelper;
+import com.mucommander.ui.theme.ThemeId;
+import com.mucommander.ui.viewer.FileViewer;
+import com.mucommander.ui.viewer.text.search.FindDialog;
+import com.mucommander.ui.viewer.text.search.SearchEvent;
+import com.mucommander.ui.viewer.text.search.SearchListener;
+import org.fife.ui.rtextarea.SearchContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+
+import static com.mucommander.ui.theme.ThemeManager.getCurrentColor;
+import static com.mucommander.ui.theme.ThemeManager.getCurrentFont;
+
+/**
+ * Read-only viewer for text files that are too large to be loaded by the {@link TextViewer}.
+ *
+ * <p>The file is accessed through a {@link LargeTextFile}, which indexes its lines in the background: only the lines
+ * that are visible are read and decoded, and lines can be viewed while the rest of the file is being indexed.
+ * The lines of files that are not memory-mapped are read in a background thread, along with a screen of lines before
+ * and after them. Searches are performed on the bytes of the file in a background thread.
+ *
+ * @see LargeTextFactory
+ */
+public class LargeTextViewer extends FileViewer implements ThemeId {
+    private static final long serialVersionUID = 1L;
+    private static final Logger LOGGER = LoggerFactory.getLogger(LargeTextViewer.class);
+
+    /** Number of spaces tabs are expanded to */
+    private final static int TAB_SIZE = 4;
+
+    /** Delay between two refreshes of the number of lines while the file is being indexed, in milliseconds */
+    private final static int INDEXING_REFRESH_DELAY = 250;
+
+    private LargeTextFile textFile;
+
+    private LinesPanel linesPanel;
+    private JScrollBar verticalScrollBar;
+    private JScrollBar horizontalScrollBar;
+    private StatusBar statusBar;
+    private Timer indexingTimer;
+
+    /** Line and offset of the last match, -1 if there is none */
+    private int matchLine = -1;
+    private long matchOffset = -1;
+    private SearchContext searchContext;
+    private SwingWorker<Long, Void> searchWorker;
+
+    private JMenu menuView;
+    private JMenuItem gotoItem;
+    private JMenuItem findItem;
+    private JMenuItem findNextItem;
+    private JMenuItem findPrevItem;
+
+
+    LargeTextViewer() {
+        super();
+
+        MnemonicHelper menuMnemonicHelper = new MnemonicHelper();
+        menuView = MenuToolkit.addMenu(i18n("text_viewer.view"), menuMnemonicHelper, null);
+
+        gotoItem = MenuToolkit.addMenuItem(menuView, i18n("text_viewer.goto_line"), menuMnemonicHelper, KeyStroke.getKeyStroke(KeyEvent.VK_G, getCtrlOrMetaMask()), this);
+        findItem = MenuToolkit.addMenuItem(menuView, i18n("text_viewer.find"), menuMnemonicHelper, KeyStroke.getKeyStroke(KeyEvent.VK_F, getCtrlOrMetaMask()), this);
+        findNextItem = MenuToolkit.addMenuItem(menuView, i18n("text_viewer.find_next"), menuMnemonicHelper, KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0), this);
+        findPrevItem = MenuToolkit.addMenuItem(menuView, i18n("text_viewer.find_previous"), menuMnemonicHelper, KeyStroke.getKeyStroke(KeyEvent.VK_F3, KeyEvent.SHIFT_DOWN_MASK), this);
+    }
+
+    private int getCtrlOrMetaMask() {
+        return OsFamily.MAC_OS_X.isCurrent() ? KeyEvent.META_MASK : KeyEvent.CTRL_MASK;
+    }
+
+
+    @Override
+    protected void show(AbstractFile file) throws IOException {
+        textFile = new LargeTextFile(file, null);
+
+        linesPanel = new LinesPanel();
+        verticalScrollBar = new JScrollBar(JScrollBar.VERTICAL);
+        horizontalScrollBar = new JScrollBar(JScrollBar.HORIZONTAL);
+        verticalScrollBar.addAdjustmentListener(e -> linesPanel.repaint());
+        horizontalScrollBar.addAdjustmentListener(e -> linesPanel.repaint());
+
+        JPanel panel = new ViewportPanel(linesPanel);
+        panel.add(linesPanel, BorderLayout.CENTER);
+        panel.add(verticalScrollBar, BorderLayout.EAST);
+        panel.add(horizontalScrollBar, BorderLayout.SOUTH);
+        setComponentToPresent(panel);
+
+        getStatusBar().setEncoding(textFile.getCharset().name());
+        updateLineCount();
+        if (!textFile.isIndexed()) {
+            indexingTimer = new Timer(INDEXING_REFRESH_DELAY, e -> updateLineCount());
+            indexingTimer.start();
+        }
+    }
+
+    /**
+     * Updates the scroll bar and the status bar with the number of lines indexed so far.
+     */
+    private void updateLineCount() {
+        boolean indexed = textFile.isIndexed();
+        updateScrollBars();
+        if (indexed) {
+            if (indexingTimer != null) {
+                indexingTimer.stop();
+            }
+            getStatusBar().setStatusMessage(i18n("large_text_viewer.lines", String.valueOf(textFile.getLineCount())));
+        } else {
+            long percent = textFile.getLength() == 0 ? 100 : textFile.getIndexedLength() * 100 / textFile.getLength();
+            getStatusBar().setStatusMessage(i18n("large_text_viewer.indexing", String.valueOf(percent)));
+        }
+        linesPanel.repaint();
+    }
+
+    private void updateScrollBars() {
+        int visibleLines = Math.max(1, linesPanel.getHeight() / linesPanel.getLineHeight());
+        verticalScrollBar.setValues(verticalScrollBar.getValue(), visibleLines, 0, Math.max(visibleLines, textFile.getLineCount()));
+        verticalScrollBar.setBlockIncrement(Math.max(1, visibleLines - 1));
+
+        int width = Math.max(1, linesPanel.getWidth());
+        horizontalScrollBar.setValues(horizontalScrollBar.getValue(), width, 0, Math.max(width, linesPanel.maxLineWidth));
+        horizontalScrollBar.setUnitIncrement(linesPanel.getFontMetrics(linesPanel.getFont()).charWidth('m'));
+        horizontalScrollBar.setBlockIncrement(width);
+    }
+
+    /**
+     * Scrolls so that the given line is visible, and updates the position in the status bar.
+     */
+    private void showLine(int line, int column) {
+        int visibleLines = verticalScrollBar.getVisibleAmount();
+        if (line < verticalScrollBar.getValue() || line >= verticalScrollBar.getValue() + visibleLines) {
+            verticalScrollBar.setValue(Math.max(0, line - visibleLines / 2));
+        }
+        getStatusBar().setPosition(line + 1, column + 1);
+        linesPanel.repaint();
+    }
+
+    private void gotoLine() {
+        new GotoLineDialog(getFrame(), textFile.getLineCount(), (line) -> {
+            matchLine = -1;
+            showLine(Math.max(0, Math.min(line, textFile.getLineCount()) - 1), 0);
+        }).showDialog();
+    }
+
+
+    /////////////////
+    // Search code //
+    /////////////////
+
+    private void find() {
+        SearchListener searchListener = new SearchListener() {
+            @Override
+            public void searchEvent(SearchEvent e) {
+                if (e.getType() != SearchEvent.Type.FIND) {
+                    return;
+                }
+                searchContext = e.getSearchContext();
+                TextHistory.getInstance().add(TextHistory.Type.TEXT_SEARCH, searchContext.getSearchFor(), true);
+                // Searches start from the first visible line
+                matchLine = -1;
+                long from = textFile.getLineOffset(Math.min(verticalScrollBar.getValue(), textFile.getLineCount() - 1));
+                if (!searchContext.getSearchForward()) {
+                    from = textFile.getLineOffset(Math.min(verticalScrollBar.getValue() + verticalScrollBar.getVisibleAmount(), textFile.getLineCount() - 1));
+                }
+                search(from, searchContext.getSearchForward());
+            }
+
+            @Override
+            public String getSelectedText() {
+                return null;
+            }
+        };
+        FindDialog dlg = new FindDialog(getFrame(), searchListener);
+        dlg.setSearchString(searchContext != null ? searchContext.getSearchFor() : "");
+        dlg.showDialog();
+    }
+
+    private void findMore(boolean forward) {
+        if (searchContext == null) {
+            String last = FindDialog.getLastSearchStr();
+            if (last != null) {
+                setSearchedText(last);
+            } else {
+                find();
+                return;
+            }
+        }
+        long from;
+        if (matchOffset >= 0 && matchLine >= 0) {
+            from = forward ? matchOffset + 1 : matchOffset;
+        } else {
+            from = textFile.getLineOffset(Math.min(verticalScrollBar.getValue(), textFile.getLineCount() - 1));
+        }
+        search(from, forward);
+    }
+
+    /**
+     * Looks for the searched text in a background thread, and shows the match once it has been found and the line
+     * that contains it has been indexed.
+     */
+    private void search(long from, boolean forward) {
+        if (searchWorker != null) {
+            searchWorker.cancel(true);
+        }
+        String text = searchContext.getSearchFor();
+        boolean matchCase = searchContext.getMatchCase();
+        searchWorker = new SwingWorker<Long, Void>() {
+            @Override
+            protected Long doInBackground() throws Exception {
+                long offset = textFile.find(text, from, forward, matchCase);
+                if (offset >= 0) {
+                    textFile.awaitIndexed(offset);
+                }
+                return offset;
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    long offset = get();
+                    if (offset < 0) {
+                        Toolkit.getDefaultToolkit().beep();
+                        getStatusBar().showMessage(i18n("text_editor.text_not_found"), 3000);
+                        return;
+                    }
+                    matchOffset = offset;
+                    matchLine = textFile.getLineAt(offset);
+                    linesPanel.matchLength = expandTabs(text).length();
+                    showLine(matchLine, expandTabs(textFile.getLinePrefix(matchLine, offset)).length());
+                    getStatusBar().clearStatusMessage();
+                } catch (InterruptedException e) {
+                    // Cancelled
+                } catch (ExecutionException | IOException e) {
+                    if (!(e.getCause() instanceof InterruptedIOException)) {
+                        LOGGER.info("Search failed", e);
+                    }
+                }
+            }
+        };
+        searchWorker.execute();
+    }
+
+    private static String expandTabs(String s) {
+        if (s.indexOf('\t') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length() + TAB_SIZE);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\t') {
+                do {
+                    sb.append(' ');
+                } while (sb.length() % TAB_SIZE != 0);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+
+    @Override
+    protected StatusBar getStatusBar() {
+        if (statusBar == null) {
+            statusBar = new StatusBar();
+        }
+        return statusBar;
+    }
+
+    @Override
+    public JMenuBar getMenuBar() {
+        JMenuBar menuBar = super.getMenuBar();
+        menuBar.add(menuView);
+        setMainKeyListener(linesPanel, menuBar);
+        return menuBar;
+    }
+
+    @Override
+    protected void saveStateOnClose() {
+        if (indexingTimer != null) {
+            indexingTimer.stop();
+        }
+        if (searchWorker != null) {
+            searchWorker.cancel(true);
+        }
+        if (linesPanel.linesReader != null) {
+            linesPanel.linesReader.cancel(false);
+        }
+        try {
+            textFile.close();
+        } catch (IOException e) {
+            LOGGER.info("Error while closing file", e);
+        }
+    }
+
+    @Override
+    protected void restoreStateOnStartup() {
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        Object source = e.getSource();
+
+        if (source == gotoItem && gotoItem.isEnabled()) {
+            gotoLine();
+        } else if (source == findItem && findItem.isEnabled()) {
+            find();
+        } else if (source == findNextItem && findNextItem.isEnabled()) {
+            findMore(true);
+        } else if (source == findPrevItem && findPrevItem.isEnabled()) {
+            findMore(false);
+        } else {
+            super.actionPerformed(e);
+        }
+    }
+
+    @Override
+    public void setSearchedText(String searchedText) {
+        searchContext = new SearchContext(searchedText);
+    }
+
+
+    /**
+     * Fills the viewport of the viewer: the lines are scrolled with the panel's own scroll bars, as the height of all
+     * the lines may exceed the range of Swing coordinates. The focus is delegated to the lines.
+     */
+    private static class ViewportPanel extends JPanel implements Scrollable {
+        private static final long serialVersionUID = 1L;
+
+        private final JComponent focusComponent;
+
+        private ViewportPanel(JComponent focusComponent) {
+            super(new BorderLayout());
+            this.focusComponent = focusComponent;
+        }
+
+        @Override
+        public void requestFocus() {
+            focusComponent.requestFocus();
+        }
+
+        public Dimension getPreferredScrollableViewportSize() {
+            return getPreferredSize();
+        }
+
+        public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+            return 1;
+        }
+
+        public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+            return 1;
+        }
+
+        public boolean getScrollableTracksViewportWidth() {
+            return true;
+        }
+
+        public boolean getScrollableTracksViewportHeight() {
+            return true;
+        }
+    }
+
+
+    /**
+     * Paints the lines that are visible. The lines of memory-mapped files are read each time they are painted, those
+     * of other files are painted from the last lines read in the background.
+     */
+    private class LinesPanel extends JComponent {
+        private static final long serialVersionUID = 1L;
+
+        /** Width of the longest line painted so far, in pixels */
+        private int maxLineWidth;
+
+        /** Length of the last match, in characters */
+        private int matchLength;
+
+        /** Lines of a file that is not memory-mapped, null until they have been read */
+        private LineWindow lineWindow;
+
+        /** Reads the lines that are needed next, null if none have been needed yet */
+        private LinesReader linesReader;
+
+        private LinesPanel() {
+            setFont(getCurrentFont(EDITOR_FONT));
+            setForeground(getCurrentColor(EDITOR_FOREGROUND_COLOR));
+            setBackground(getCurrentColor(EDITOR_BACKGROUND_COLOR));
+            setOpaque(true);
+            setFocusable(true);
+
+            addMouseWheelListener(e -> verticalScrollBar.setValue(verticalScrollBar.getValue() + e.getUnitsToScroll()));
+            addComponentListener(new ComponentAdapter() {
+                @Override
+                public void componentResized(ComponentEvent e) {
+                    updateScrollBars();
+                }
+            });
+            addMouseListener(new MouseAdapter() {
+                @Override
+                public void mousePressed(MouseEvent e) {
+                    requestFocusInWindow();
+                }
+            });
+
+            addScrollAction(KeyEvent.VK_UP, 0, () -> scrollLines(-1));
+            addScrollAction(KeyEvent.VK_DOWN, 0, () -> scrollLines(1));
+            addScrollAction(KeyEvent.VK_PAGE_UP, 0, () -> scrollLines(-verticalScrollBar.getBlockIncrement()));
+            addScrollAction(KeyEvent.VK_PAGE_DOWN, 0, () -> scrollLines(verticalScrollBar.getBlockIncrement()));
+            addScrollAction(KeyEvent.VK_HOME, getCtrlOrMetaMask(), () -> verticalScrollBar.setValue(0));
+            addScrollAction(KeyEvent.VK_END, getCtrlOrMetaMask(), () -> verticalScrollBar.setValue(verticalScrollBar.getMaximum()));
+            addScrollAction(KeyEvent.VK_LEFT, 0, () -> horizontalScrollBar.setValue(horizontalScrollBar.getValue() - horizontalScrollBar.getUnitIncrement()));
+            addScrollAction(KeyEvent.VK_RIGHT, 0, () -> horizontalScrollBar.setValue(horizontalScrollBar.getValue() + horizontalScrollBar.getUnitIncrement()));
+            addScrollAction(KeyEvent.VK_HOME, 0, () -> horizontalScrollBar.setValue(0));
+        }
+
+        private void addScrollAction(int keyCode, int modifiers, Runnable action) {
+            String name = "scroll-" + keyCode + "-" + modifiers;
+            getInputMap(WHEN_FOCUSED).put(KeyStroke.getKeyStroke(keyCode, modifiers), name);
+            getActionMap().put(name, new ScrollAction(action));
+        }
+
+        private void scrollLines(int lines) {
+            verticalScrollBar.setValue(verticalScrollBar.getValue() + lines);
+            getStatusBar().setPosition(verticalScrollBar.getValue() + 1, 1);
+        }
+
+        private int getLineHeight() {
+            return getFontMetrics(getFont()).getHeight();
+        }
+
+        /**
+         * Starts reading the given lines of a file that is not memory-mapped in the background, with a screen of lines
+         * before and after them, unless they have been read or are being read already.
+         */
+        private void readLines(int firstLine, int lastLine) {
+            if ((lineWindow != null && lineWindow.contains(firstLine, lastLine, matchLine, matchOffset))
+                    || (linesReader != null && !linesReader.isDone() && linesReader.window.contains(firstLine, lastLine, matchLine, matchOffset))) {
+                return;
+            }
+            if (linesReader != null) {
+                linesReader.cancel(false);
+            }
+            int visibleLines = lastLine - firstLine;
+            linesReader = new LinesReader(new LineWindow(Math.max(0, firstLine - visibleLines),
+                    Math.min(textFile.getLineCount(), lastLine + visibleLines), matchLine, matchOffset));
+            linesReader.execute();
+        }
+
+        /**
+         * Returns the given line with its tabs expanded, <code>null</code> if it has not been read yet.
+         */
+        private String getLine(int line) throws IOException {
+            if (textFile.isMapped()) {
+                return expandTabs(textFile.getLine(line));
+            }
+            return lineWindow == null ? null : lineWindow.getLine(line);
+        }
+
+        /**
+         * Returns the text of the match line that precedes the match with its tabs expanded, <code>null</code> if it
+         * has not been read yet.
+         */
+        private String getMatchPrefix() throws IOException {
+            if (textFile.isMapped()) {
+                return expandTabs(textFile.getLinePrefix(matchLine, matchOffset));
+            }
+            return lineWindow == null ? null : lineWindow.getMatchPrefix(matchLine, matchOffset);
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+            if (textFile == null) {
+                return;
+            }
+
+            FontMetrics fm = g.getFontMetrics(getFont());
+            g.setFont(getFont());
+            int lineHeight = fm.getHeight();
+            int x = -horizontalScrollBar.getValue();
+            int firstLine = verticalScrollBar.getValue();
+            int lastLine = Math.min(textFile.getLineCount(), firstLine + getHeight() / lineHeight + 1);
+            int widestLine = maxLineWidth;
+            if (!textFile.isMapped()) {
+                readLines(firstLine, lastLine);
+            }
+            try {
+                for (int line = firstLine, y = 0; line < lastLine; line++, y += lineHeight) {
+                    String text = getLine(line);
+                    if (text == null) {
+                        // Painted once it has been read
+                        continue;
+                    }
+                    if (line == matchLine) {
+                        g.setColor(getCurrentColor(EDITOR_CURRENT_BACKGROUND_COLOR));
+                        g.fillRect(0, y, getWidth(), lineHeight);
+                        String prefix = getMatchPrefix();
+                        if (prefix != null) {
+                            int start = Math.min(text.length(), prefix.length());
+                            int end = Math.min(text.length(), start + matchLength);
+                            g.setColor(getCurrentColor(EDITOR_SELECTED_BACKGROUND_COLOR));
+                            g.fillRect(x + fm.stringWidth(text.substring(0, start)), y, fm.stringWidth(text.substring(start, end)), lineHeight);
+                        }
+                    }
+                    g.setColor(getForeground());
+                    g.drawString(text, x, y + fm.getAscent());
+                    widestLine = Math.max(widestLine, fm.stringWidth(text));
+                }
+            } catch (IOException e) {
+                LOGGER.info("Error while reading lines", e);
+            }
+
+            if (widestLine > maxLineWidth) {
+                maxLineWidth = widestLine;
+                SwingUtilities.invokeLater(LargeTextViewer.this::updateScrollBars);
+            }
+        }
+
+        /**
+         * Reads the lines of a {@link LineWindow} in the background, and has them painted once they have been read.
+         */
+        private class LinesReader extends SwingWorker<LineWindow, Void> {
+            private final LineWindow window;
+
+            private LinesReader(LineWindow window) {
+                this.window = window;
+            }
+
+            @Override
+            protected LineWindow doInBackground() throws IOException {
+                for (int i = 0; i < window.lines.length && !isCancelled(); i++) {
+                    int line = window.firstLine + i;
+                    window.lines[i] = expandTabs(textFile.getLine(line));
+                    if (line == window.matchLine) {
+                        window.matchPrefix = expandTabs(textFile.getLinePrefix(line, window.matchOffset));
+                    }
+                }
+                return window;
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    lineWindow = get();
+                    repaint();
+                } catch (InterruptedException e) {
+                    // Cancelled
+                } catch (ExecutionException e) {
+                    LOGGER.info("Error while reading lines", e.getCause());
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Consecutive lines of the file with their tabs expanded, and the text that precedes the match if it is on one
+     * of them.
+     */
+    private static class LineWindow {
+        private final int firstLine;
+        private final String lines[];
+        private final int matchLine;
+        private final long matchOffset;
+        private String matchPrefix;
+
+        private LineWindow(int firstLine, int lastLine, int matchLine, long matchOffset) {
+            this.firstLine = firstLine;
+            this.lines = new String[Math.max(0, lastLine - firstLine)];
+            this.matchLine = matchLine;
+            this.matchOffset = matchOffset;
+        }
+
+        /**
+         * Returns <code>true</code> if the given lines are part of this window, which was read with the given match.
+         */
+        private boolean contains(int firstLine, int lastLine, int matchLine, long matchOffset) {
+            return firstLine >= this.firstLine && lastLine <= this.firstLine + lines.length
+                    && matchLine == this.matchLine && matchOffset == this.matchOffset;
+        }
+
+        private String getLine(int line) {
+            return line >= firstLine && line < firstLine + lines.length ? lines[line - firstLine] : null;
+        }
+
+        private String getMatchPrefix(int matchLine, long matchOffset) {
+            return matchLine == this.matchLine && matchOffset == this.matchOffset ? matchPrefix : null;
+        }
+    }
+
+
+    /**
+     * Scrolls the lines when its key is pressed.
+     */
+    private static class ScrollAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Runnable scroll;
+
+        private ScrollAction(Runnable scroll) {
+            this.scroll = scroll;
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            scroll.run();
+        }
+    }
+}
@@ -34,7 +34,7 @@ import java.io.PushbackInputStream;
  */
 public class TextFactory implements ViewerFactory, EditorFactory {
 
-    private static final long FILE_SIZE_WARNING_THRESHOLD = 10*1024*1024;
+    static final long FILE_SIZE_WARNING_THRESHOLD = 10*1024*1024;
 
     public boolean canViewFile(AbstractFile file) throws WarnUserException {
         return doGenericChecks(file);
@@ -75,7 +75,7 @@ public class TextFactory implements ViewerFactory, EditorFactory {
         return true;
     }
 
-    private boolean checkBinaryFile(AbstractFile file) {
+    static boolean checkBinaryFile(AbstractFile file) {
         try {
             PushbackInputStream is = file.getPushBackInputStream(EncodingDetector.MAX_RECOMMENDED_BYTE_SIZE);
             if (BinaryDetector.guessBinary(is)) {
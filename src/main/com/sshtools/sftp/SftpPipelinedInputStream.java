@@ -0,0 +1,317 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/en/soft/trolcommander
+ * Copyright (C) 2013-2016 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sshtools.sftp;
+
+import com.sshtools.ssh.SshException;
+import com.sshtools.ssh.SshIOException;
+import com.sshtools.util.UnsignedInteger32;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+
+/**
+ * Reads an {@link SftpFile} keeping a window of read requests outstanding, so that the transfer is not slowed down by
+ * the round-trip time to the server.
+ *
+ * <p>Unlike {@link SftpFileInputStream} which always keeps 100 requests of 32 KB in flight, the window and block size
+ * are configurable and requests are only posted up to the expected size of the file, or up to the end of a
+ * {@link #setRange(long, long) range}. Past the expected size, requests are posted one at a time until the end of the file is reached, so that a
+ * stale size does not truncate the data. Short reads are completed by requesting the missing bytes, and the responses
+ * to outstanding requests are consumed on {@link #seek(long)} and {@link #close()} rather than left on the channel.
+ */
+public class SftpPipelinedInputStream extends InputStream {
+
+    private final SftpFile file;
+    private final SftpSubsystemChannel sftp;
+
+    /** Maximum number of outstanding read requests */
+    private final int window;
+
+    /** Current number of outstanding read requests, grows up to the maximum after a seek */
+    private int currentWindow;
+
+    /** Number of bytes asked for by each read request */
+    private final int blockSize;
+
+    /** The requests that have been posted and whose response has not been read yet, in file order */
+    private final ArrayDeque<Request> requests = new ArrayDeque<>();
+
+    /** Offset of the next byte returned by this stream */
+    private long position;
+
+    /** Offset of the next request to post */
+    private long nextRequestOffset;
+
+    /** Expected size of the file, past which requests are posted one at a time */
+    private final long expectedSize;
+
+    /** Offset past which no data is requested */
+    private long limit = Long.MAX_VALUE;
+
+    /** The data response being read, null if none */
+    private SftpMessage message;
+
+    /** Number of bytes of the data response that have not been read yet */
+    private int messageRemaining;
+
+    private boolean eof;
+    private boolean closed;
+
+    /** Buffer used by {@link #read()} */
+    private final byte singleByte[] = new byte[1];
+
+    /**
+     * Creates a stream reading the given open file from the given position.
+     *
+     * @param file a file opened for reading
+     * @param position offset of the first byte to read
+     * @param expectedSize the size of the file if known, -1 otherwise
+     * @param window the maximum number of outstanding read requests, at least 1
+     * @param blockSize the number of bytes asked for by each request
+     * @throws SftpStatusException if the file does not have a valid handle
+     * @throws SshException if the file is not attached to an SFTP channel
+     */
+    public SftpPipelinedInputStream(SftpFile file, long position, long expectedSize, int window, int blockSize) throws SftpStatusException, SshException {
+        if (file.getHandle() == null) {
+            throw new SftpStatusException(SftpStatusException.INVALID_HANDLE, "The file does not have a valid handle!");
+        }
+        if (file.getSFTPChannel() == null) {
+            throw new SshException("The file is not attached to an SFTP subsystem!", SshException.BAD_API_USAGE);
+        }
+
+        this.file = file;
+        this.sftp = file.getSFTPChannel();
+        this.position = position;
+        this.nextRequestOffset = position;
+        this.expectedSize = expectedSize < 0 ? 0 : expectedSize;
+        this.window = Math.max(1, window);
+        this.currentWindow = this.window;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Returns the offset of the next byte returned by this stream.
+     *
+     * @return the offset of the next byte returned by this stream
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Moves to the given offset, discarding the data requested ahead. As reads following a seek are often short, the
+     * window starts over from a single request and doubles with each response, up to its maximum.
+     *
+     * @param position the offset of the next byte to read
+     * @throws IOException if an error occurred while discarding the outstanding requests
+     */
+    public void seek(long position) throws IOException {
+        if (position == this.position && !eof) {
+            return;
+        }
+        move(position);
+        currentWindow = 1;
+    }
+
+    /**
+     * Restricts this stream to the given range of the file, whatever the size of the file. As the amount of data to
+     * read is known, the window is used in full right away.
+     *
+     * @param position the offset of the next byte to read
+     * @param limit the offset past which no data is requested, <code>Long.MAX_VALUE</code> to read until the end of
+     * the file
+     * @throws IOException if an error occurred while discarding the outstanding requests
+     */
+    public void setRange(long position, long limit) throws IOException {
+        if (position != this.position || limit < nextRequestOffset || eof) {
+            move(position);
+        }
+        this.limit = limit;
+        currentWindow = window;
+    }
+
+    private void move(long position) throws IOException {
+        discardRequests();
+        this.position = position;
+        this.nextRequestOffset = position;
+        this.eof = false;
+    }
+
+    /**
+     * Posts read requests until the window is full or the limit has been reached. Past the expected size of the file,
+     * a request is only posted once all others have been answered.
+     */
+    private void postRequests() throws SftpStatusException, SshException {
+        byte handle[] = file.getHandle();
+        while (requests.size() < currentWindow && nextRequestOffset < limit && (nextRequestOffset < expectedSize || requests.isEmpty())) {
+            int length = (int)Math.min(blockSize, limit - nextRequestOffset);
+            requests.add(new Request(sftp.postReadRequest(handle, nextRequestOffset, length), nextRequestOffset, length));
+            nextRequestOffset += length;
+        }
+    }
+
+    /**
+     * Reads the response to the next request, which becomes the current message if it carries data.
+     */
+    private void readNextResponse() throws SftpStatusException, SshException, IOException {
+        postRequests();
+
+        Request request = requests.poll();
+        if (request == null) {
+            eof = true;
+            return;
+        }
+
+        SftpMessage response = sftp.getResponse(request.id);
+        if (response.getType() == SftpSubsystemChannel.SSH_FXP_DATA) {
+            int length = (int)response.readInt();
+            if (length == 0) {
+                eof = true;
+                return;
+            }
+            if (length < request.length) {
+                // Short read, the missing bytes must come before the data already requested
+                long offset = request.offset + length;
+                int missing = request.length - length;
+                requests.addFirst(new Request(sftp.postReadRequest(file.getHandle(), offset, missing), offset, missing));
+            }
+            message = response;
+            messageRemaining = length;
+            if (currentWindow < window) {
+                currentWindow = Math.min(window, currentWindow * 2);
+            }
+        } else if (response.getType() == SftpSubsystemChannel.SSH_FXP_STATUS) {
+            int status = (int)response.readInt();
+            if (status == SftpStatusException.SSH_FX_EOF) {
+                eof = true;
+                return;
+            }
+            if (sftp.getVersion() >= 3) {
+                throw new SftpStatusException(status, response.readString().trim());
+            }
+            throw new SftpStatusException(status);
+        } else {
+            throw new IOException("The server responded with an unexpected SFTP protocol message! type=" + response.getType());
+        }
+    }
+
+    /**
+     * Reads and ignores the responses to the outstanding requests.
+     */
+    private void discardRequests() throws IOException {
+        message = null;
+        messageRemaining = 0;
+        try {
+            while (!requests.isEmpty()) {
+                sftp.getResponse(requests.poll().id);
+            }
+        } catch (SshException e) {
+            requests.clear();
+            throw new SshIOException(e);
+        }
+        nextRequestOffset = position;
+    }
+
+
+    ////////////////////////////////
+    // InputStream implementation //
+    ////////////////////////////////
+
+    @Override
+    public int read(byte b[], int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= limit) {
+            return -1;
+        }
+
+        try {
+            while (messageRemaining == 0) {
+                if (eof) {
+                    return -1;
+                }
+                readNextResponse();
+            }
+        } catch (SshException e) {
+            throw new SshIOException(e);
+        } catch (SftpStatusException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        int n = (int)Math.min(Math.min(len, messageRemaining), limit - position);
+        System.arraycopy(message.array(), message.getPosition(), b, off, n);
+        message.skip(n);
+        messageRemaining -= n;
+        position += n;
+        if (messageRemaining == 0) {
+            message = null;
+        }
+        return n;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(singleByte, 0, 1) == 1 ? singleByte[0] & 0xFF : -1;
+    }
+
+    @Override
+    public int available() {
+        return messageRemaining;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            discardRequests();
+        } finally {
+            try {
+                file.close();
+            } catch (SshException e) {
+                throw new SshIOException(e);
+            } catch (SftpStatusException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+    }
+
+
+    /**
+     * A posted read request.
+     */
+    private static final class Request {
+        private final UnsignedInteger32 id;
+        private final long offset;
+        private final int length;
+
+        private Request(UnsignedInteger32 id, long offset, int length) {
+            this.id = id;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
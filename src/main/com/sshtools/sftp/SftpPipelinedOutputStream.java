@@ -0,0 +1,203 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/en/soft/trolcommander
+ * Copyright (C) 2013-2016 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sshtools.sftp;
+
+import com.sshtools.ssh.SshException;
+import com.sshtools.ssh.SshIOException;
+import com.sshtools.util.UnsignedInteger32;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+
+/**
+ * Writes an {@link SftpFile} keeping a window of write requests outstanding, so that the transfer is not slowed down
+ * by the round-trip time to the server.
+ *
+ * <p>Unlike {@link SftpFileOutputStream}, the window and block size are configurable, and small writes are gathered
+ * into blocks instead of being sent as a request each. The status of the requests is checked as the window slides
+ * and on {@link #close()}, which reports any error returned by the server.
+ */
+public class SftpPipelinedOutputStream extends OutputStream {
+
+    private final SftpFile file;
+    private final SftpSubsystemChannel sftp;
+
+    /** Maximum number of outstanding write requests */
+    private final int window;
+
+    /** Gathers the bytes of small writes, holds up to one block */
+    private final byte buffer[];
+
+    /** Number of bytes in the buffer */
+    private int count;
+
+    /** The ids of the requests whose status has not been read yet, oldest first */
+    private final ArrayDeque<UnsignedInteger32> requests = new ArrayDeque<>();
+
+    /** Offset at which the next request writes */
+    private long position;
+
+    private boolean closed;
+
+    /** Buffer used by {@link #write(int)} */
+    private final byte singleByte[] = new byte[1];
+
+    /**
+     * Creates a stream writing the given open file from the given position.
+     *
+     * @param file a file opened for writing
+     * @param position offset at which the first byte is written
+     * @param window the maximum number of outstanding write requests, at least 1
+     * @param blockSize the maximum number of bytes sent by each request
+     * @throws SftpStatusException if the file does not have a valid handle
+     * @throws SshException if the file is not attached to an SFTP channel
+     */
+    public SftpPipelinedOutputStream(SftpFile file, long position, int window, int blockSize) throws SftpStatusException, SshException {
+        if (file.getHandle() == null) {
+            throw new SftpStatusException(SftpStatusException.INVALID_HANDLE, "The file does not have a valid handle!");
+        }
+        if (file.getSFTPChannel() == null) {
+            throw new SshException("The file is not attached to an SFTP subsystem!", SshException.BAD_API_USAGE);
+        }
+
+        this.file = file;
+        this.sftp = file.getSFTPChannel();
+        this.position = position;
+        this.window = Math.max(1, window);
+        this.buffer = new byte[blockSize];
+    }
+
+    /**
+     * Posts a write request and waits for the status of the oldest ones if the window is full.
+     */
+    private void post(byte b[], int off, int len) throws SftpStatusException, SshException {
+        requests.add(sftp.postWriteRequest(file.getHandle(), position, b, off, len));
+        position += len;
+        while (requests.size() > window) {
+            sftp.getOKRequestStatus(requests.poll());
+        }
+    }
+
+    private void postBuffer() throws SftpStatusException, SshException {
+        if (count > 0) {
+            post(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+
+    /////////////////////////////////
+    // OutputStream implementation //
+    /////////////////////////////////
+
+    @Override
+    public void write(byte b[], int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        try {
+            while (len > 0) {
+                if (count == 0 && len >= buffer.length) {
+                    // Whole blocks are sent without being copied
+                    post(b, off, buffer.length);
+                    off += buffer.length;
+                    len -= buffer.length;
+                } else {
+                    int n = Math.min(len, buffer.length - count);
+                    System.arraycopy(b, off, buffer, count, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                    if (count == buffer.length) {
+                        postBuffer();
+                    }
+                }
+            }
+        } catch (SshException e) {
+            throw new SshIOException(e);
+        } catch (SftpStatusException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        singleByte[0] = (byte)b;
+        write(singleByte, 0, 1);
+    }
+
+    /**
+     * Sends the bytes that have been gathered so far, without waiting for the server to acknowledge them.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            postBuffer();
+        } catch (SshException e) {
+            throw new SshIOException(e);
+        } catch (SftpStatusException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        IOException error = null;
+        try {
+            postBuffer();
+            while (!requests.isEmpty()) {
+                sftp.getOKRequestStatus(requests.poll());
+            }
+        } catch (SshException e) {
+            error = new SshIOException(e);
+        } catch (SftpStatusException e) {
+            error = new IOException(e.getMessage());
+        }
+
+        try {
+            // Read the responses left after an error so that they are not left on the channel
+            while (!requests.isEmpty()) {
+                sftp.getResponse(requests.poll());
+            }
+            file.close();
+        } catch (SshException e) {
+            if (error == null) {
+                error = new SshIOException(e);
+            }
+        } catch (SftpStatusException e) {
+            if (error == null) {
+                error = new IOException(e.getMessage());
+            }
+        }
+
+        if (error != null) {
+            throw error;
+        }
+    }
+}
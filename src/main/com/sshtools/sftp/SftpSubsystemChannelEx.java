@@ -0,0 +1,163 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/en/soft/trolcommander
+ * Copyright (C) 2013-2016 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.sshtools.sftp;
+
+import com.sshtools.ssh.Packet;
+import com.sshtools.ssh.SshException;
+import com.sshtools.ssh.SshIOException;
+import com.sshtools.ssh.SshSession;
+import com.sshtools.util.UnsignedInteger32;
+
+import java.io.IOException;
+
+/**
+ * SftpSubsystemChannel with batch requests, which resolve the symbolic links or read the attributes of many files in
+ * a single pipelined exchange instead of waiting for the server's response to each file, and with request counters.
+ */
+public class SftpSubsystemChannelEx extends SftpSubsystemChannel {
+
+    /** Maximum number of requests of a batch that are outstanding at once */
+    private final static int BATCH_WINDOW = 256;
+
+    /** Attribute flags of stat requests, as sent by {@link SftpSubsystemChannel#getAttributes(String)} */
+    private final static long STAT_FLAGS = 0x800001FDL;
+
+    /** Number of responses read from the server */
+    private long nbRequests;
+
+    /** Number of times a response was waited for, batch responses other than the first of a window excepted */
+    private long nbRoundTrips;
+
+    /** True while the responses to a window of batch requests are being read */
+    private boolean pipelined;
+
+    public SftpSubsystemChannelEx(SshSession session) throws SshException {
+        super(session);
+    }
+
+    /**
+     * Returns the number of responses that have been read from the server on this channel.
+     *
+     * @return the number of responses that have been read from the server
+     */
+    public long getRequestCount() {
+        return nbRequests;
+    }
+
+    /**
+     * Returns the number of times a response had to be waited for on this channel. The responses to batch requests
+     * count as one round trip per window of requests. The streams reading or writing files are not accounted for
+     * accurately, their requests being pipelined too.
+     *
+     * @return the number of round trips to the server
+     */
+    public long getRoundTripCount() {
+        return nbRoundTrips;
+    }
+
+    @Override
+    SftpMessage getResponse(UnsignedInteger32 requestId) throws SshException {
+        nbRequests++;
+        if (!pipelined) {
+            nbRoundTrips++;
+        }
+        return super.getResponse(requestId);
+    }
+
+    /**
+     * Returns the raw targets of the given symbolic links, as returned by
+     * {@link #getSymbolicLinkTarget(String)} for each of them, <code>null</code> for the paths that could not be
+     * resolved.
+     *
+     * @param paths absolute paths to symbolic links
+     * @return the targets of the symbolic links, either absolute or relative to the link's folder
+     * @throws SshException if the channel failed
+     */
+    public String[] getSymbolicLinkTargets(String paths[]) throws SshException {
+        String targets[] = new String[paths.length];
+        if (getVersion() < 3) {
+            return targets;
+        }
+
+        SftpMessage responses[] = sendBatch(SSH_FXP_READLINK, paths);
+        for (int i = 0; i < paths.length; i++) {
+            // A status response means that the file is not a link or no longer exists
+            if (responses[i].getType() == SSH_FXP_NAME) {
+                targets[i] = extractFiles(responses[i], null)[0].getAbsolutePath();
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Returns the attributes of the given files, following symbolic links, as returned by
+     * {@link #getAttributes(String)} for each of them, <code>null</code> for the files that do not exist.
+     *
+     * @param paths absolute paths to files
+     * @return the attributes of the files
+     * @throws SshException if the channel failed
+     */
+    public SftpFileAttributes[] getAttributes(String paths[]) throws SshException {
+        SftpFileAttributes attributes[] = new SftpFileAttributes[paths.length];
+        SftpMessage responses[] = sendBatch(SSH_FXP_STAT, paths);
+        for (int i = 0; i < paths.length; i++) {
+            try {
+                attributes[i] = extractAttributes(responses[i]);
+            } catch (SftpStatusException e) {
+                // The file does not exist
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * Sends a request of the given type for each path, keeping up to {@link #BATCH_WINDOW} requests outstanding,
+     * and returns the responses in the same order.
+     */
+    private SftpMessage[] sendBatch(int type, String paths[]) throws SshException {
+        UnsignedInteger32 ids[] = new UnsignedInteger32[paths.length];
+        SftpMessage responses[] = new SftpMessage[paths.length];
+        int nbPosted = 0;
+        try {
+            for (int i = 0; i < paths.length; i++) {
+                // Fill the window, the first response of a window is a round trip
+                pipelined = nbPosted > i;
+                while (nbPosted < paths.length && nbPosted - i < BATCH_WINDOW) {
+                    ids[nbPosted] = nextRequestId();
+                    Packet packet = createPacket();
+                    packet.write(type);
+                    packet.writeInt(ids[nbPosted].longValue());
+                    packet.writeString(paths[nbPosted], getCharsetEncoding());
+                    if (type == SSH_FXP_STAT && getVersion() > 3) {
+                        packet.writeInt(STAT_FLAGS);
+                    }
+                    sendMessage(packet);
+                    nbPosted++;
+                }
+                responses[i] = getResponse(ids[i]);
+            }
+        } catch (SshIOException e) {
+            throw e.getRealException();
+        } catch (IOException e) {
+            throw new SshException(e);
+        } finally {
+            pipelined = false;
+        }
+        return responses;
+    }
+}
@@ -49,6 +49,10 @@ public class RetinaImageIcon extends ImageIcon {
      * @return true if Retina display found
      */
     private static boolean checkRetina() {
+        // There is no screen to query, e.g. when running the unit tests
+        if (GraphicsEnvironment.isHeadless()) {
+            return false;
+        }
         boolean isRetina = false;
         GraphicsDevice graphicsDevice = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
 
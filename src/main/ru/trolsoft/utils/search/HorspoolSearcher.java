@@ -0,0 +1,167 @@
+/*
+ * This file is part of trolCommander, http://www.trolsoft.ru/en/soft/trolcommander
+ * Copyright (C) 2013-2016 Oleg Trifonov
+ *
+ * trolCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * trolCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ru.trolsoft.utils.search;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Searches a {@link SearchPattern} in blocks of bytes with the Boyer-Moore-Horspool algorithm, which skips up to the
+ * length of the pattern at each mismatch instead of examining every byte.
+ *
+ * <p>The shift table is computed once by the constructor, a searcher can then be used to search any number of files,
+ * concurrently by several threads.
+ */
+public class HorspoolSearcher {
+
+    /** Default size of the blocks read from streams */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final SearchPattern pattern;
+
+    /** Number of bytes to skip when a byte value is aligned with the last byte of the pattern */
+    private final int shifts[] = new int[256];
+
+    public HorspoolSearcher(SearchPattern pattern) {
+        this.pattern = pattern;
+        int length = pattern.length();
+        for (int b = 0; b < 256; b++) {
+            int shift = length;
+            // The rightmost position (last byte excluded) that accepts this byte value gives the smallest safe shift
+            for (int i = length - 2; i >= 0; i--) {
+                if (pattern.checkByte(i, b)) {
+                    shift = length - 1 - i;
+                    break;
+                }
+            }
+            shifts[b] = shift;
+        }
+    }
+
+    /**
+     * @return the pattern this searcher looks for
+     */
+    public SearchPattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Returns the offset of the first occurrence of the pattern in the specified bytes of the array.
+     *
+     * @param data the bytes to search
+     * @param from offset of the first byte to search
+     * @param to offset after the last byte to search
+     * @return the offset of the first occurrence in the array, or -1 if there is none
+     */
+    public int indexOf(byte data[], int from, int to) {
+        int length = pattern.length();
+        if (length == 0) {
+            return -1;
+        }
+        int last = length - 1;
+        for (int pos = from; pos + last < to; ) {
+            int b = data[pos + last] & 0xff;
+            int j = last;
+            while (pattern.checkByte(j, j == last ? b : data[pos + j] & 0xff)) {
+                if (j-- == 0) {
+                    return pos;
+                }
+            }
+            pos += shifts[b];
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the first occurrence of the pattern between the position and the limit of the buffer.
+     * The position of the buffer is not modified.
+     *
+     * @param data the buffer to search
+     * @return the index of the first occurrence in the buffer, or -1 if there is none
+     */
+    public int indexOf(ByteBuffer data) {
+        int length = pattern.length();
+        if (length == 0) {
+            return -1;
+        }
+        int last = length - 1;
+        int to = data.limit();
+        for (int pos = data.position(); pos + last < to; ) {
+            int b = data.get(pos + last) & 0xff;
+            int j = last;
+            while (pattern.checkByte(j, j == last ? b : data.get(pos + j) & 0xff)) {
+                if (j-- == 0) {
+                    return pos;
+                }
+            }
+            pos += shifts[b];
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the stream by blocks until the pattern is found or the end of the stream is reached.
+     * The stream is not closed.
+     *
+     * @param in the stream to search
+     * @return the offset of the first occurrence in the stream, or -1 if there is none
+     * @throws IOException if an error occurred while reading the stream
+     */
+    public long indexOf(InputStream in) throws IOException {
+        return indexOf(in, new byte[BLOCK_SIZE]);
+    }
+
+    /**
+     * Reads the stream by blocks into the given buffer until the pattern is found or the end of the stream is reached.
+     * The stream is not closed. A larger buffer is allocated if the given one cannot hold twice the pattern.
+     *
+     * @param in the stream to search
+     * @param buffer the buffer to read blocks into
+     * @return the offset of the first occurrence in the stream, or -1 if there is none
+     * @throws IOException if an error occurred while reading the stream
+     */
+    public long indexOf(InputStream in, byte buffer[]) throws IOException {
+        int length = pattern.length();
+        if (length == 0) {
+            return -1;
+        }
+        if (buffer.length < 2 * length) {
+            buffer = new byte[2 * length];
+        }
+        long offset = 0;            // offset in the stream of the first byte of the buffer
+        int filled = 0;
+        int nbRead;
+        while ((nbRead = in.read(buffer, filled, buffer.length - filled)) != -1) {
+            filled += nbRead;
+            if (filled < length) {
+                continue;
+            }
+            int index = indexOf(buffer, 0, filled);
+            if (index >= 0) {
+                return offset + index;
+            }
+            // Keep the bytes an occurrence overlapping the next block could start with
+            int kept = length - 1;
+            System.arraycopy(buffer, filled - kept, buffer, 0, kept);
+            offset += filled - kept;
+            filled = kept;
+        }
+        return -1;
+    }
+}
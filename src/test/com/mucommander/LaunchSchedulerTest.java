@@ -0,0 +1,175 @@
+package com.mucommander;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests {@link LaunchScheduler} with tasks that record the order they run in.
+ *
+ * @see LaunchScheduler
+ */
+public class LaunchSchedulerTest {
+
+    /**
+     * Tests that tasks run after the tasks they depend on, and that all tasks run even if one fails.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testDependencies() throws Exception {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        TestTask a = new TestTask("a", order);
+        TestTask b = new TestTask("b", order, a);
+        TestTask failing = new TestTask("failing", order, a);
+        TestTask c = new TestTask("c", order, b, failing);
+        TestTask d = new TestTask("d", order);
+
+        new LaunchScheduler().run(Arrays.asList(c, b, failing, a, d), 3);
+
+        assert order.size() == 5;
+        assert order.indexOf("a") < order.indexOf("b");
+        assert order.indexOf("a") < order.indexOf("failing");
+        assert order.indexOf("b") < order.indexOf("c");
+        assert order.indexOf("failing") < order.indexOf("c");
+    }
+
+    /**
+     * Tests that, among the tasks that are ready, the ones with the longest critical path run first.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testPriority() throws Exception {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        TestTask shortTask = new TestTask("short", order);
+        TestTask longTask = new TestTask("long", order);
+        TestTask longDependent = new TestTask("long-dependent", order, longTask);
+
+        LaunchScheduler scheduler = new LaunchScheduler();
+        Map<LaunchScheduler.Task, Long> criticalPaths = scheduler.getCriticalPaths(Arrays.asList(shortTask, longTask, longDependent));
+        assert criticalPaths.get(shortTask) == LaunchScheduler.DEFAULT_DURATION;
+        assert criticalPaths.get(longTask) == 2 * LaunchScheduler.DEFAULT_DURATION;
+
+        // With a single thread, the task that heads the longest path runs first even though it was given last
+        scheduler.run(Arrays.asList(shortTask, longDependent, longTask), 1);
+        assert order.get(0).equals("long");
+    }
+
+    /**
+     * Tests that cyclic and unknown dependencies are rejected.
+     */
+    @Test
+    public void testInvalidDependencies() {
+        List<String> order = new ArrayList<>();
+        TestTask a = new TestTask("a", order);
+        TestTask b = new TestTask("b", order, a);
+        a.dependencies.add(b);
+        try {
+            new LaunchScheduler().getCriticalPaths(Arrays.asList(a, b));
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        TestTask c = new TestTask("c", order, new TestTask("unknown", order));
+        try {
+            new LaunchScheduler().getCriticalPaths(Collections.singletonList(c));
+            assert false;
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assert order.isEmpty();
+    }
+
+    /**
+     * Tests that durations are saved and loaded, and that the timeline lists all the tasks.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testDurationsAndTimeline() throws Exception {
+        File tempFile = File.createTempFile("launch_durations", ".properties");
+        tempFile.delete();
+        tempFile.deleteOnExit();
+        AbstractFile durationsFile = FileFactory.getFile(tempFile.getAbsolutePath());
+
+        List<String> order = new ArrayList<>();
+        TestTask slow = new TestTask("slow", order) {
+            @Override
+            public void execute() {
+                super.execute();
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        TestTask fast = new TestTask("fast", order, slow);
+
+        LaunchScheduler scheduler = new LaunchScheduler();
+        scheduler.loadDurations(durationsFile);
+        scheduler.run(Arrays.asList(fast, slow), 2);
+        scheduler.saveDurations(durationsFile);
+
+        LaunchScheduler nextScheduler = new LaunchScheduler();
+        nextScheduler.loadDurations(durationsFile);
+        assert nextScheduler.getDuration(slow) >= 100;
+        assert nextScheduler.getDuration(fast) < nextScheduler.getDuration(slow);
+        assert nextScheduler.getDuration(new TestTask("new", order)) == LaunchScheduler.DEFAULT_DURATION;
+
+        StringWriter timeline = new StringWriter();
+        scheduler.writeTimeline(timeline);
+        String lines[] = timeline.toString().split("\\R");
+        assert lines.length == 3;
+        assert lines[1].startsWith("slow\t");
+        assert lines[2].startsWith("fast\t");
+        assert lines[2].contains("\tLauncher-");
+    }
+
+
+    /**
+     * A task that adds its name to a list when it runs, and fails if its name says so.
+     */
+    private static class TestTask implements LaunchScheduler.Task {
+
+        private final String name;
+
+        private final List<String> order;
+
+        private final List<TestTask> dependencies;
+
+        private TestTask(String name, List<String> order, TestTask... dependencies) {
+            this.name = name;
+            this.order = order;
+            this.dependencies = new ArrayList<>(Arrays.asList(dependencies));
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public List<TestTask> getDependencies() {
+            return dependencies;
+        }
+
+        @Override
+        public void execute() {
+            order.add(name);
+            if (name.equals("failing")) {
+                throw new IllegalStateException(name);
+            }
+        }
+    }
+}
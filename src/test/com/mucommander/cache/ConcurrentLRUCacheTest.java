@@ -0,0 +1,160 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.cache;
+
+import org.testng.annotations.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A test case for {@link ConcurrentLRUCache}.
+ */
+public class ConcurrentLRUCacheTest {
+
+    /**
+     * Items are evicted least recently used first, a <code>get</code> making an item the most recently used.
+     */
+    @Test
+    public void testEviction() {
+        // Small capacities use a single segment, making the eviction order exact
+        ConcurrentLRUCache<String, String> cache = new ConcurrentLRUCache<>(3);
+        cache.add("a", "A");
+        cache.add("b", "B");
+        cache.add("c", "C");
+        assert "A".equals(cache.get("a"));
+
+        cache.add("d", "D");
+        assert cache.size() == 3;
+        assert cache.get("b") == null;
+        assert "A".equals(cache.get("a"));
+        assert "C".equals(cache.get("c"));
+        assert "D".equals(cache.get("d"));
+        assert cache.getEvictionCount() == 1;
+        assert cache.getHitCount() == 4;
+        assert cache.getMissCount() == 1;
+    }
+
+    /**
+     * Expired items are not returned, and are removed before any other item is evicted.
+     *
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void testTimeToLive() throws InterruptedException {
+        ConcurrentLRUCache<String, String> cache = new ConcurrentLRUCache<>(2);
+        cache.add("a", "A", 10);
+        cache.add("b", "B");
+        Thread.sleep(20);
+
+        cache.add("c", "C");
+        assert cache.get("a") == null;
+        assert "B".equals(cache.get("b"));
+        assert "C".equals(cache.get("c"));
+        assert cache.getEvictionCount() == 0;
+    }
+
+    /**
+     * The combined weight of the items cannot exceed the maximum weight.
+     */
+    @Test
+    public void testWeight() {
+        ConcurrentLRUCache<String, byte[]> cache = new ConcurrentLRUCache<>(5, 100, (key, value) -> value.length);
+        cache.add("a", new byte[40]);
+        cache.add("b", new byte[40]);
+        assert cache.getWeight() == 80;
+
+        cache.add("c", new byte[40]);
+        assert cache.getWeight() == 80;
+        assert cache.get("a") == null;
+
+        // Replacing an item replaces its weight
+        cache.add("b", new byte[10]);
+        assert cache.getWeight() == 50;
+
+        cache.clearAll();
+        assert cache.getWeight() == 0;
+        assert cache.size() == 0;
+    }
+
+    /**
+     * <code>addIfAbsent</code> returns the cached item rather than replacing it, unless it has expired, and
+     * <code>remove</code> returns the removed item.
+     *
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void testAddIfAbsentAndRemove() throws InterruptedException {
+        ConcurrentLRUCache<String, byte[]> cache = new ConcurrentLRUCache<>(3, 100, (key, value) -> value.length);
+        byte a[] = new byte[10];
+        assert cache.addIfAbsent("a", a) == a;
+        assert cache.addIfAbsent("a", new byte[20]) == a;
+        assert cache.getWeight() == 10;
+
+        cache.add("b", new byte[30], 10);
+        Thread.sleep(20);
+        byte b[] = new byte[40];
+        assert cache.addIfAbsent("b", b) == b;
+        assert cache.getWeight() == 50;
+
+        assert cache.remove("a") == a;
+        assert cache.remove("a") == null;
+        assert cache.getWeight() == 40;
+        assert cache.size() == 1;
+    }
+
+    /**
+     * Has several threads add and get items concurrently, and checks the cache for corruption afterwards.
+     *
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void testConcurrentAccess() throws InterruptedException {
+        final ConcurrentLRUCache<Integer, Integer> cache = new ConcurrentLRUCache<>(1000, 50000, (key, value) -> value % 100);
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        Thread threads[] = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final long seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 20000; i++) {
+                    int key = random.nextInt(2000);
+                    if (random.nextBoolean()) {
+                        cache.add(key, key, random.nextBoolean() ? -1 : random.nextInt(10));
+                    } else {
+                        Integer value = cache.get(key);
+                        if (value != null && value != key) {
+                            failed.set(true);
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assert !failed.get();
+        cache.testCorruption();
+        assert cache.size() <= cache.getCapacity();
+        assert cache.getWeight() <= cache.getMaxWeight();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.cache;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Standalone benchmark comparing {@link ConcurrentLRUCache} to {@link FastLRUCache} when 1, 4 and 16 concurrent
+ * threads look up and add items, 90% of the operations being lookups.
+ *
+ * <p>Usage: <code>LRUCacheBenchmark [operations per thread]</code>, defaults to 2,000,000. Each scenario is run a
+ * few times, the first run being a warm-up, and the best throughput is reported.
+ */
+public class LRUCacheBenchmark {
+
+    private final static int RUNS = 4;
+
+    private final static int CAPACITY = 1000;
+
+    /** Number of distinct keys, larger than the capacity so that some lookups miss */
+    private final static int NB_KEYS = 1500;
+
+    public static void main(String args[]) throws InterruptedException {
+        int nbOperations = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+
+        for (int nbThreads : new int[] {1, 4, 16}) {
+            double fast = run(new FastLRUCache<>(CAPACITY), nbThreads, nbOperations);
+            ConcurrentLRUCache<Integer, Integer> concurrentCache = new ConcurrentLRUCache<>(CAPACITY);
+            double concurrent = run(concurrentCache, nbThreads, nbOperations);
+
+            System.out.printf("%2d threads: FastLRUCache %8.0f ops/ms, ConcurrentLRUCache %8.0f ops/ms (x%.1f), hits=%d misses=%d evictions=%d%n",
+                    nbThreads, fast, concurrent, concurrent / fast, concurrentCache.getHitCount(),
+                    concurrentCache.getMissCount(), concurrentCache.getEvictionCount());
+        }
+    }
+
+    /**
+     * Returns the best throughput, in operations per millisecond, of a few runs.
+     */
+    private static double run(LRUCache<Integer, Integer> cache, int nbThreads, int nbOperations) throws InterruptedException {
+        double best = 0;
+        for (int r = 0; r < RUNS; r++) {
+            Thread threads[] = new Thread[nbThreads];
+            for (int t = 0; t < nbThreads; t++) {
+                threads[t] = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < nbOperations; i++) {
+                        Integer key = random.nextInt(NB_KEYS);
+                        if (random.nextInt(10) == 0) {
+                            cache.add(key, key, 60000);
+                        } else {
+                            cache.get(key);
+                        }
+                    }
+                });
+            }
+
+            long start = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            double throughput = (double)nbOperations * nbThreads / ((System.nanoTime() - start) / 1000000.0);
+            if (r > 0) {
+                best = Math.max(best, throughput);
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,72 @@
+package com.mucommander.commons.file;
+
+import com.mucommander.commons.file.impl.zip.ZipArchiveFile;
+import com.mucommander.commons.io.StreamUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Tests {@link ArchiveEntryTreeCache} with a Zip archive, whose entries need an entry object to be read.
+ *
+ * @see ArchiveEntryTreeCache
+ */
+public class ArchiveEntryTreeCacheTest {
+
+    private AbstractFile folder;
+
+    private AbstractFile zipFile;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        folder = FileFactory.getTemporaryFile(getClass().getName(), false);
+        folder.mkdir();
+        AbstractArchiveFile.setEntriesTreeCacheFolder(folder.getChild("cache"));
+
+        zipFile = folder.getChild("test.zip").getTopAncestor();
+        try (ZipOutputStream out = new ZipOutputStream(zipFile.getOutputStream())) {
+            for (int i = 0; i < ArchiveEntryTreeCache.MIN_ENTRY_COUNT; i++) {
+                out.putNextEntry(new ZipEntry("dir" + (i % 10) + "/file" + i));
+                out.write(("content" + i).getBytes("UTF-8"));
+                out.closeEntry();
+            }
+        }
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        AbstractArchiveFile.setEntriesTreeCacheFolder(null);
+        folder.deleteRecursively();
+    }
+
+    /**
+     * Tests that the tree of a Zip archive is stored, and that the entries of a tree loaded from the cache can be
+     * read.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testZipArchive() throws IOException {
+        assert new ZipArchiveFile(zipFile).ls().length == 10;
+        assert folder.getChild("cache").ls().length == 1;
+
+        AbstractArchiveFile archive = new ZipArchiveFile(zipFile);
+        assert archive.ls().length == 10;
+        ArchiveEntryTree tree = archive.getArchiveEntryTree();
+        assert tree.isDetached();
+
+        AbstractFile entryFile = archive.getArchiveEntryFile("dir3/file1233");
+        byte content[] = new byte[64];
+        int length;
+        try (InputStream in = entryFile.getInputStream()) {
+            length = StreamUtils.readUpTo(in, content);
+        }
+        assert new String(content, 0, length, "UTF-8").equals("content1233");
+        assert !tree.isDetached();
+    }
+}
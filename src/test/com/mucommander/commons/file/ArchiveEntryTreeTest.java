@@ -0,0 +1,211 @@
+package com.mucommander.commons.file;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Tests {@link ArchiveEntryTree}.
+ *
+ * @see ArchiveEntryTree
+ */
+public class ArchiveEntryTreeTest {
+
+    private ArchiveEntryTree createTree() {
+        ArchiveEntryTree tree = new ArchiveEntryTree();
+        tree.addArchiveEntry(new ArchiveEntry("dir/", true, 1000, 0, true));
+        tree.addArchiveEntry(new ArchiveEntry("dir/file1", false, 2000, 10, true));
+        tree.addArchiveEntry(new ArchiveEntry("dir/sub/file2", false, 3000, 20, true));
+        tree.addArchiveEntry(new ArchiveEntry("other/file3", false, 4000, 30, true));
+        tree.addArchiveEntry(new ArchiveEntry("file4", false, 5000, 40, true));
+        return tree;
+    }
+
+    /**
+     * Asserts that the children of the given node are the entries with the given paths, in the same order.
+     */
+    private void assertChildren(ArchiveEntryTree tree, int node, String... paths) {
+        assert tree.getChildCount(node) == paths.length;
+        int child = tree.getFirstChild(node);
+        for (String path : paths) {
+            assert tree.getEntry(child).getPath().equals(path);
+            assert tree.getParent(child) == node;
+            child = tree.getNextSibling(child);
+        }
+        assert child == ArchiveEntryTree.NONE;
+    }
+
+    /**
+     * Tests that entries are found regardless of trailing separators, and that missing parent folders are created.
+     */
+    @Test
+    public void testFindEntryNode() {
+        ArchiveEntryTree tree = createTree();
+
+        assert tree.findEntryNode("dir") == tree.findEntryNode("dir/");
+        assert tree.getEntry(tree.findEntryNode("dir")).getLastModifiedDate() == 1000;
+        assert tree.getEntry(tree.findEntryNode("dir/sub/file2")).getSize() == 20;
+        assert tree.findEntryNode("dir/missing") == ArchiveEntryTree.NONE;
+        assert tree.findEntryNode("missing/file2") == ArchiveEntryTree.NONE;
+
+        // Parent folders that have no entry in the archive are created with the date of their first child
+        ArchiveEntry other = tree.getEntry(tree.findEntryNode("other"));
+        assert other.isDirectory();
+        assert other.exists();
+        assert other.getLastModifiedDate() == 4000;
+
+        assertChildren(tree, ArchiveEntryTree.ROOT, "dir/", "other/", "file4");
+        assertChildren(tree, tree.findEntryNode("dir"), "dir/file1", "dir/sub/");
+        assert tree.getEntryCount() == 7;
+    }
+
+    /**
+     * Tests that a directory entry replaces the folder that was created for its children.
+     */
+    @Test
+    public void testReplaceDirectory() {
+        ArchiveEntryTree tree = createTree();
+        int node = tree.findEntryNode("other");
+
+        ArchiveEntry other = new ArchiveEntry("other/", true, 6000, 0, true);
+        tree.addArchiveEntry(other);
+
+        assert tree.findEntryNode("other/") == node;
+        assert tree.getEntry(node).getLastModifiedDate() == 6000;
+        assertChildren(tree, node, "other/file3");
+    }
+
+    /**
+     * Tests the removal of entries, including a regular file that was added twice with the same path.
+     */
+    @Test
+    public void testRemoveEntryNode() {
+        ArchiveEntryTree tree = createTree();
+
+        tree.removeEntryNode(tree.findEntryNode("dir/sub"));
+        assert tree.findEntryNode("dir/sub") == ArchiveEntryTree.NONE;
+        assert tree.findEntryNode("dir/sub/file2") == ArchiveEntryTree.NONE;
+        assertChildren(tree, tree.findEntryNode("dir"), "dir/file1");
+
+        ArchiveEntry duplicate = new ArchiveEntry("file4", false, 7000, 50, true);
+        tree.addArchiveEntry(duplicate);
+        assertChildren(tree, ArchiveEntryTree.ROOT, "dir/", "other/", "file4", "file4");
+        assert tree.getEntry(tree.findEntryNode("file4")).getLastModifiedDate() == 5000;
+
+        tree.removeEntryNode(tree.findEntryNode("file4"));
+        assert tree.getEntry(tree.findEntryNode("file4")).getLastModifiedDate() == 7000;
+        assertChildren(tree, ArchiveEntryTree.ROOT, "dir/", "other/", "file4");
+    }
+
+    /**
+     * Tests that lookups still work after the tree has grown past its initial capacity.
+     */
+    @Test
+    public void testGrow() {
+        ArchiveEntryTree tree = new ArchiveEntryTree();
+        for (int i = 0; i < 1000; i++) {
+            tree.addArchiveEntry(new ArchiveEntry("dir" + (i % 10) + "/file" + i, false, i, i, true));
+        }
+
+        assert tree.getChildCount(ArchiveEntryTree.ROOT) == 10;
+        for (int i = 0; i < 1000; i++) {
+            assert tree.getEntry(tree.findEntryNode("dir" + (i % 10) + "/file" + i)).getSize() == i;
+        }
+    }
+
+    /**
+     * Writes a tree and reads it back, and asserts that the entries read have the same attributes.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testWriteRead() throws IOException {
+        ArchiveEntryTree tree = createTree();
+        ArchiveEntry entry = tree.getEntry(tree.findEntryNode("dir/file1"));
+        entry.setPermissions(new SimpleFilePermissions(0640));
+        entry.setOwner("owner");
+        entry.setGroup("group");
+        entry.setEntryObject(3);
+        tree.removeEntryNode(tree.findEntryNode("other"));
+        assert !tree.hasFormatObjects();
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        tree.write(new DataOutputStream(bout));
+        ArchiveEntryTree readTree = ArchiveEntryTree.read(new DataInputStream(new ByteArrayInputStream(bout.toByteArray())));
+
+        assert readTree.getEntryCount() == 5;
+        assert readTree.findEntryNode("other") == ArchiveEntryTree.NONE;
+        assertChildren(readTree, ArchiveEntryTree.ROOT, "dir/", "file4");
+        assertChildren(readTree, readTree.findEntryNode("dir"), "dir/file1", "dir/sub/");
+
+        ArchiveEntry readEntry = readTree.getEntry(readTree.findEntryNode("dir/file1"));
+        assert readEntry.exists();
+        assert !readEntry.isDirectory();
+        assert readEntry.getLastModifiedDate() == 2000;
+        assert readEntry.getSize() == 10;
+        assert readEntry.getPermissions().getIntValue() == 0640;
+        assert "owner".equals(readEntry.getOwner());
+        assert "group".equals(readEntry.getGroup());
+        assert Integer.valueOf(3).equals(readEntry.getEntryObject());
+        assert readTree.getEntry(readTree.findEntryNode("dir/sub/file2")).getPath().equals("dir/sub/file2");
+
+        assert !readTree.isDetached();
+    }
+
+    /**
+     * Tests that the entries of a tree are created when requested, and that the entry set for a node is returned.
+     */
+    @Test
+    public void testGetEntry() {
+        ArchiveEntryTree tree = new ArchiveEntryTree();
+        ArchiveEntry entry = new ArchiveEntry("dir/file", false, 1000, 10, true);
+        int node = tree.addArchiveEntry(entry);
+
+        ArchiveEntry createdEntry = tree.getEntry(node);
+        assert createdEntry != entry;
+        assert createdEntry.getPath().equals("dir/file");
+        assert createdEntry.getPermissions() == FilePermissions.DEFAULT_FILE_PERMISSIONS;
+        assert tree.getEntry(node) == createdEntry;
+        assert tree.getEntry(tree.getParent(node)).getPath().equals("dir/");
+
+        tree.setEntry(node, entry);
+        assert tree.getEntry(node) == entry;
+    }
+
+    /**
+     * Tests that the entry objects that cannot be written are restored by attaching the entries read again from the
+     * archive, and that entries of an <code>ArchiveEntry</code> subclass are returned as is.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testAttachEntries() throws IOException {
+        Object entryObject = new Object();
+        ArchiveEntry subclassEntry = new ArchiveEntry("dir/sub/file5", false, 3000, 20, true) {};
+        ArchiveEntryTree tree = createTree();
+        tree.getEntry(tree.findEntryNode("dir/file1")).setEntryObject(entryObject);
+        tree.addArchiveEntry(subclassEntry);
+        assert tree.hasFormatObjects();
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        tree.write(new DataOutputStream(bout));
+        ArchiveEntryTree readTree = ArchiveEntryTree.read(new DataInputStream(new ByteArrayInputStream(bout.toByteArray())));
+        assert readTree.isDetached();
+        ArchiveEntry readEntry = readTree.getEntry(readTree.findEntryNode("dir/file1"));
+        assert readEntry.getEntryObject() == null;
+
+        ArchiveEntry reReadEntry = new ArchiveEntry("dir/file1", false, 2000, 10, true);
+        reReadEntry.setEntryObject(entryObject);
+        readTree.attachEntry(reReadEntry);
+        readTree.attachEntry(subclassEntry);
+        readTree.setAttached();
+
+        assert !readTree.isDetached();
+        assert readEntry.getEntryObject() == entryObject;
+        assert readTree.getEntry(readTree.findEntryNode("dir/sub/file5")) == subclassEntry;
+    }
+}
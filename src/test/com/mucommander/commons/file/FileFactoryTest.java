@@ -3,6 +3,7 @@ package com.mucommander.commons.file;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A test case for {@link FileFactory}.
@@ -61,4 +62,35 @@ public class FileFactoryTest {
         assert temporaryFile1 != null;
         assert !temporaryFile1.exists();
     }
+
+    /**
+     * Tests {@link FileFactory#registerProtocol(java.util.function.Supplier, String...)}: the provider must be
+     * created once, the first time a file is resolved with one of its protocols.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testLazyProtocolRegistration() throws IOException {
+        AtomicInteger nbCreated = new AtomicInteger();
+        FileFactory.registerProtocol(() -> {
+            nbCreated.incrementAndGet();
+            return (url, instantiationParams) -> new DummyFile(url);
+        }, "lazy1", "lazy2");
+
+        try {
+            assert FileFactory.isRegisteredProtocol("lazy1");
+            assert FileFactory.isRegisteredProtocol("lazy2");
+            assert nbCreated.get() == 0;
+            assert !FileFactory.getProtocolProviderLoadTimes().containsKey("lazy1");
+
+            assert FileFactory.getFile("lazy1://host/file", true) instanceof DummyFile;
+            assert FileFactory.getFile("lazy2://host/file", true) instanceof DummyFile;
+            assert nbCreated.get() == 1;
+            assert FileFactory.getProtocolProviderLoadTimes().containsKey("lazy1");
+            assert FileFactory.getProtocolProviderLoadTimes().containsKey("lazy2");
+        } finally {
+            FileFactory.unregisterProtocol("lazy1");
+            FileFactory.unregisterProtocol("lazy2");
+        }
+    }
 }
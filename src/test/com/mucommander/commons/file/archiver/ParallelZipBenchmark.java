@@ -0,0 +1,110 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.archiver;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.FilePermissions;
+import com.mucommander.commons.file.SimpleFileAttributes;
+import com.mucommander.commons.io.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Standalone benchmark comparing the speed of creating a Zip archive the way <code>ArchiveJob</code> does, with
+ * entries deflated on the writing thread and with entries deflated by {@link Archiver#setZipDeflateThreads(int)
+ * several threads}.
+ *
+ * <p>Usage: <code>ParallelZipBenchmark [megabytes] [threads...]</code>, defaults to 256 MB of compressible data split
+ * into files of 64KB to 16MB, archived with 1 thread and with as many threads as there are processors. Data is read
+ * from memory and the archive is written to a temporary file.
+ */
+public class ParallelZipBenchmark {
+
+    public static void main(String args[]) throws IOException {
+        int nbMegabytes = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int threads[] = new int[Math.max(1, args.length - 1)];
+        threads[0] = Runtime.getRuntime().availableProcessors();
+        for (int i = 1; i < args.length; i++) {
+            threads[i - 1] = Integer.parseInt(args[i]);
+        }
+
+        // Words are compressible but not trivially so, like source code or text
+        Random random = new Random(0);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < nbMegabytes * 1024 * 1024) {
+            sb.append("word").append(random.nextInt(10000)).append(random.nextInt(8) == 0 ? '\n' : ' ');
+        }
+        byte data[] = sb.toString().getBytes(StandardCharsets.US_ASCII);
+
+        AbstractFile archiveFile = FileFactory.getTemporaryFile("ParallelZipBenchmark.zip", true);
+        try {
+            // Warm-up
+            archive(data, archiveFile, 1, data.length / 8);
+
+            long nanos = archive(data, archiveFile, 1, data.length);
+            long size = archiveFile.getSize();
+            System.out.printf("1 thread: %6.0f MB/s, %d bytes%n", data.length / (nanos / 1e9) / 1e6, size);
+
+            for (int nbThreads : threads) {
+                long parallelNanos = archive(data, archiveFile, nbThreads, data.length);
+                System.out.printf("%d threads: %6.0f MB/s, %d bytes (%+.2f%%), %.1fx faster%n", nbThreads,
+                        data.length / (parallelNanos / 1e9) / 1e6, archiveFile.getSize(),
+                        (archiveFile.getSize() - size) * 100.0 / size, nanos / (double)parallelNanos);
+            }
+        } finally {
+            archiveFile.delete();
+        }
+    }
+
+    /**
+     * Archives the first bytes of the given data as files of various sizes, and returns the time it took.
+     */
+    private static long archive(byte data[], AbstractFile archiveFile, int nbThreads, int length) throws IOException {
+        if (archiveFile.exists()) {
+            archiveFile.delete();
+        }
+        Archiver.setZipDeflateThreads(nbThreads);
+        Random random = new Random(1);
+
+        long start = System.nanoTime();
+        Archiver archiver = Archiver.getArchiver(archiveFile, ArchiveFormat.ZIP);
+        try {
+            int nbFiles = 0;
+            for (int offset = 0; offset < length; nbFiles++) {
+                int fileLength = Math.min(length - offset, 64 * 1024 << random.nextInt(9));
+                SimpleFileAttributes attributes = new SimpleFileAttributes();
+                attributes.setSize(fileLength);
+                attributes.setDate(System.currentTimeMillis());
+                attributes.setPermissions(FilePermissions.DEFAULT_FILE_PERMISSIONS);
+
+                // As ArchiveJob does
+                OutputStream out = archiver.createEntry("folder/file" + nbFiles, attributes);
+                StreamUtils.copyStream(new ByteArrayInputStream(data, offset, fileLength), out);
+                offset += fileLength;
+            }
+        } finally {
+            archiver.close();
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,119 @@
+package com.mucommander.commons.file.impl.http;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.io.BlockCache;
+import com.mucommander.commons.io.RandomAccessInputStream;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tests the random access streams of {@link HTTPFile} against a local HTTP server that supports 'Range' requests.
+ */
+public class HTTPRandomAccessTest {
+
+    private final static Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private final static byte DATA[] = new byte[1000000];
+
+    private HttpServer server;
+
+    private final AtomicInteger nbRangeRequests = new AtomicInteger();
+
+    private final Set<SocketAddress> clientAddresses = ConcurrentHashMap.newKeySet();
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        new Random(0).nextBytes(DATA);
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::handle);
+        server.start();
+
+        HTTPFile.setRandomAccessCache(16 * 1024, 1024 * 1024);
+    }
+
+    @AfterClass
+    public void stopServer() {
+        server.stop(0);
+        HTTPFile.setRandomAccessCache(64 * 1024, 16 * 1024 * 1024);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        clientAddresses.add(exchange.getRemoteAddress());
+        exchange.getResponseHeaders().set("Last-Modified", "Mon, 01 Jan 2018 00:00:00 GMT");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Content-Length", Integer.toString(DATA.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+
+        Matcher matcher = RANGE_PATTERN.matcher(exchange.getRequestHeaders().getFirst("Range"));
+        if (!matcher.matches()) {
+            exchange.sendResponseHeaders(416, -1);
+            exchange.close();
+            return;
+        }
+        nbRangeRequests.incrementAndGet();
+        int start = Integer.parseInt(matcher.group(1));
+        int end = Math.min(DATA.length - 1, Integer.parseInt(matcher.group(2)));
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + DATA.length);
+        exchange.sendResponseHeaders(206, end - start + 1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(DATA, start, end - start + 1);
+        }
+    }
+
+    /**
+     * Tests that random reads return the file's data, that each block is requested once, even by different streams,
+     * and that connections are reused.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testRandomAccess() throws Exception {
+        AbstractFile file = new HTTPFile(FileURL.getFileURL("http://localhost:" + server.getAddress().getPort() + "/file.bin"));
+        BlockCache cache = HTTPFile.getRandomAccessCache();
+        Random random = new Random(1);
+
+        for (int i = 0; i < 2; i++) {
+            try (RandomAccessInputStream in = file.getRandomAccessInputStream()) {
+                assert in.getLength() == DATA.length;
+                for (int j = 0; j < 50; j++) {
+                    int offset = random.nextInt(DATA.length - 1000);
+                    byte b[] = new byte[1000];
+                    in.seek(offset);
+                    in.readFully(b);
+                    assert Arrays.equals(b, Arrays.copyOfRange(DATA, offset, offset + b.length));
+                }
+            }
+        }
+
+        // Each block was requested once, wait for the last prefetches to be sent
+        long timeout = System.currentTimeMillis() + 10000;
+        while (nbRangeRequests.get() < cache.getMissCount() + cache.getPrefetchCount() && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assert nbRangeRequests.get() == cache.getMissCount() + cache.getPrefetchCount();
+        assert cache.getHitCount() > 0;
+        assert clientAddresses.size() < nbRangeRequests.get();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.local;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.FileURL;
+import com.mucommander.commons.file.util.FileComparator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Standalone benchmark comparing the time it takes to list a local folder, sort it by date and read the attributes
+ * displayed by the file table, with the attributes read by {@link LocalFile#ls()} and with each attribute queried from
+ * the file system as files listed by <code>java.io.File#listFiles()</code> do.
+ *
+ * <p>Usage: <code>LocalFileListingBenchmark [folder] [count...]</code>, defaults to folders of 10000 and 100000 empty
+ * files created under the temporary folder. Folders that already contain the requested number of files are reused.
+ */
+public class LocalFileListingBenchmark {
+
+    public static void main(String args[]) throws IOException {
+        File parent = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"), "LocalFileListingBenchmark");
+        int counts[] = args.length > 1 ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray() : new int[] {10000, 100000};
+
+        for (int count : counts) {
+            File folder = new File(parent, Integer.toString(count));
+            createFiles(folder, count);
+            LocalFile localFolder = (LocalFile)FileFactory.getFile(folder.getAbsolutePath());
+
+            // Warm-up
+            listWithoutAttributes(localFolder);
+            localFolder.ls();
+
+            long start = System.nanoTime();
+            display(sort(listWithoutAttributes(localFolder)));
+            long withoutNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            display(sort(localFolder.ls()));
+            long withNanos = System.nanoTime() - start;
+
+            System.out.printf("%8d files: %6.0f ms querying each attribute, %6.0f ms with the attributes read by ls()%n",
+                    count, withoutNanos / 1e6, withNanos / 1e6);
+        }
+    }
+
+    private static void createFiles(File folder, int count) throws IOException {
+        String names[] = folder.list();
+        if (names != null && names.length == count) {
+            return;
+        }
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Could not create " + folder);
+        }
+        for (int i = names == null ? 0 : names.length; i < count; i++) {
+            File file = new File(folder, "file" + i);
+            if (!file.createNewFile() || !file.setLastModified(1000L * (i * 7919L % count))) {
+                throw new IOException("Could not create " + file);
+            }
+        }
+    }
+
+    /**
+     * Lists the given folder the way {@link LocalFile#ls()} used to, creating files that query the file system for
+     * each attribute.
+     */
+    private static AbstractFile[] listWithoutAttributes(LocalFile folder) throws IOException {
+        File files[] = ((File)folder.getUnderlyingFileObject()).listFiles();
+        AbstractFile children[] = new AbstractFile[files.length];
+        for (int i = 0; i < files.length; i++) {
+            FileURL childURL = (FileURL)folder.getURL().clone();
+            childURL.setPath(folder.absPath + LocalFile.SEPARATOR + files[i].getName());
+            children[i] = new LocalFile(childURL, files[i]);
+        }
+        return children;
+    }
+
+    private static AbstractFile[] sort(AbstractFile files[]) {
+        Arrays.sort(files, new FileComparator(FileComparator.DATE_CRITERION, true, true, false));
+        return files;
+    }
+
+    /**
+     * Reads the attributes of each file the way the file table does when all columns are visible.
+     */
+    private static void display(AbstractFile files[]) {
+        long checksum = 0;
+        for (AbstractFile file : files) {
+            checksum += file.getSize() + file.getLastModifiedDate() + file.getPermissions().getIntValue()
+                    + (file.isDirectory() ? 1 : 0) + (file.isSymlink() ? 1 : 0) + (file.isHidden() ? 1 : 0)
+                    + String.valueOf(file.getOwner()).length() + String.valueOf(file.getGroup()).length();
+        }
+        if (checksum == 42) {
+            System.out.println();
+        }
+    }
+}
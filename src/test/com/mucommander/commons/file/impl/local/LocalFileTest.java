@@ -4,9 +4,13 @@ import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.AbstractFileTest;
 import com.mucommander.commons.file.FileFactory;
 import com.mucommander.commons.file.FileOperation;
+import com.mucommander.commons.runtime.OsFamily;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
 import java.util.regex.Matcher;
 
@@ -75,6 +79,80 @@ public class LocalFileTest extends AbstractFileTest {
         assert !destFile.isSymlink();          // Leave me
     }
 
+    /**
+     * Asserts that the files returned by {@link LocalFile#ls()} report the same attributes as files that query the
+     * file system, and that the attributes read when listing are discarded when a file is modified.
+     *
+     * @throws IOException should not normally happen
+     * @throws NoSuchAlgorithmException should not happen
+     */
+    @Test
+    public void testListedAttributes() throws IOException, NoSuchAlgorithmException {
+        tempFile.mkdir();
+        AbstractFile file = tempFile.getDirectChild("file");
+        createFile(file, 10);
+        tempFile.getDirectChild("folder").mkdir();
+        createFile(tempFile.getDirectChild(".hidden"), 20);
+        if (!OsFamily.WINDOWS.isCurrent()) {
+            Files.createSymbolicLink(Paths.get(tempFile.getAbsolutePath(), "link"), Paths.get(file.getAbsolutePath()));
+        }
+
+        AbstractFile children[] = tempFile.ls();
+        assert children.length == (OsFamily.WINDOWS.isCurrent() ? 3 : 4);
+        for (AbstractFile child : children) {
+            AbstractFile liveChild = new LocalFile(child.getURL());
+            assert child.exists();
+            assert child.isDirectory() == liveChild.isDirectory();
+            assert child.isSymlink() == liveChild.isSymlink();
+            assert child.isHidden() == liveChild.isHidden();
+            assert child.getSize() == liveChild.getSize();
+            assert child.getLastModifiedDate() == liveChild.getLastModifiedDate();
+            assert child.getPermissions().getIntValue() == liveChild.getPermissions().getIntValue();
+            if (child.canGetOwner()) {
+                assert child.getOwner().equals(liveChild.getOwner());
+            }
+            if (child.canGetGroup()) {
+                assert child.getGroup().equals(liveChild.getGroup());
+            }
+        }
+
+        AbstractFile listedFile = tempFile.getDirectChild("file");
+        assert listedFile.getSize() == 10;
+        try (OutputStream out = listedFile.getAppendOutputStream()) {
+            out.write(new byte[5]);
+        }
+        assert listedFile.getSize() == 15;
+
+        listedFile.delete();
+        assert !listedFile.exists();
+    }
+
+    /**
+     * Asserts that the attributes read when listing are discarded from the pooled instance of a file when the file
+     * is modified through another instance.
+     *
+     * @throws IOException should not normally happen
+     * @throws NoSuchAlgorithmException should not happen
+     */
+    @Test
+    public void testListedAttributesOfPooledFile() throws IOException, NoSuchAlgorithmException {
+        tempFile.mkdir();
+        createFile(tempFile.getDirectChild("file"), 10);
+        tempFile.ls();
+
+        AbstractFile listedFile = FileFactory.getFile(tempFile.getDirectChild("file").getURL());
+        AbstractFile otherFile = new LocalFile(listedFile.getURL());
+        assert listedFile.getSize() == 10;
+
+        try (OutputStream out = otherFile.getAppendOutputStream()) {
+            out.write(new byte[5]);
+        }
+        assert listedFile.getSize() == 15;
+
+        otherFile.delete();
+        assert !listedFile.exists();
+    }
+
     /**
      * Asserts that {@link com.mucommander.commons.file.impl.local.LocalFile#getUserHome()} returns a file that is not null,
      * is a directory, and exists, and that '~' can be resolved as the user home folder.
@@ -0,0 +1,273 @@
+package com.mucommander.commons.file.impl.s3;
+
+import com.mucommander.commons.io.StreamUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jets3t.service.security.AWSCredentials;
+import org.jets3t.service.utils.ServiceUtils;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tests {@link S3MultipartUpload} against a local stand-in for S3 that implements multipart uploads, and that checks
+ * the signature and the MD5 of every request.
+ *
+ * @see S3MultipartUpload
+ */
+public class S3MultipartUploadTest {
+
+    private final static AWSCredentials CREDENTIALS = new AWSCredentials("accessKey", "secretKey");
+
+    private S3StandIn standIn;
+
+    private String endpoint;
+
+    @BeforeClass
+    public void startStandIn() throws IOException {
+        standIn = new S3StandIn();
+        endpoint = "http://localhost:" + standIn.server.getAddress().getPort();
+    }
+
+    @AfterClass
+    public void stopStandIn() {
+        standIn.server.stop(0);
+    }
+
+    @BeforeMethod
+    public void reset() {
+        standIn.objects.clear();
+        standIn.uploads.clear();
+    }
+
+    private static byte[] createData(int length) {
+        byte data[] = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Tests that parts uploaded concurrently are assembled in order, and that keys that need to be encoded are signed
+     * properly.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testUpload() throws Exception {
+        int partSize = 100000;
+        byte data[] = createData(partSize * 4 + 1234);
+        String key = "folder/a file+é.bin";
+
+        S3MultipartUpload upload = new S3MultipartUpload(endpoint, CREDENTIALS, "bucket", key);
+        upload.initiate();
+        assert standIn.uploads.size() == 1;
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<String>> parts = new ArrayList<>();
+            for (int i = 0; i * partSize < data.length; i++) {
+                int partNumber = i + 1;
+                byte part[] = Arrays.copyOfRange(data, i * partSize, Math.min(data.length, (i + 1) * partSize));
+                parts.add(executor.submit(() -> upload.uploadPart(partNumber, part, part.length)));
+            }
+
+            List<String> etags = new ArrayList<>();
+            for (Future<String> part : parts) {
+                etags.add(part.get());
+            }
+            upload.complete(etags);
+        } finally {
+            executor.shutdown();
+        }
+
+        assert Arrays.equals(standIn.objects.get("/bucket/" + key), data);
+        assert standIn.uploads.isEmpty();
+    }
+
+    /**
+     * Tests that an aborted upload leaves no object behind, and that errors are reported.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testAbort() throws Exception {
+        S3MultipartUpload upload = new S3MultipartUpload(endpoint, CREDENTIALS, "bucket", "file");
+        upload.initiate();
+        byte part[] = createData(1000);
+        upload.uploadPart(1, part, part.length);
+        upload.abort();
+
+        assert standIn.uploads.isEmpty();
+        assert standIn.objects.isEmpty();
+
+        // The upload no longer exists
+        try {
+            upload.uploadPart(2, part, part.length);
+            assert false;
+        } catch (IOException e) {
+            assert e.getMessage().contains("NoSuchUpload");
+        }
+    }
+
+    /**
+     * Tests that requests signed with the wrong secret key are rejected.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testWrongCredentials() throws Exception {
+        S3MultipartUpload upload = new S3MultipartUpload(endpoint, new AWSCredentials("accessKey", "wrong"), "bucket", "file");
+        try {
+            upload.initiate();
+            assert false;
+        } catch (IOException e) {
+            assert e.getMessage().contains("SignatureDoesNotMatch");
+        }
+        assert standIn.uploads.isEmpty();
+    }
+
+
+    /**
+     * Implements the multipart upload requests of S3 for objects held in memory.
+     */
+    private static class S3StandIn {
+
+        private final static Pattern PART_PATTERN = Pattern.compile("<PartNumber>(\\d+)</PartNumber><ETag>([^<]*)</ETag>");
+
+        private final HttpServer server;
+
+        /** Completed objects, by path */
+        private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+
+        /** Parts of the uploads in progress, by upload id and part number */
+        private final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+
+        private int nbUploads;
+
+        private S3StandIn() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.createContext("/", this::handle);
+            server.start();
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            try {
+                ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                StreamUtils.copyStream(exchange.getRequestBody(), bout);
+                byte body[] = bout.toByteArray();
+
+                String path = exchange.getRequestURI().getRawPath();
+                Map<String, String> query = new TreeMap<>();
+                for (String parameter : exchange.getRequestURI().getRawQuery().split("&")) {
+                    int i = parameter.indexOf('=');
+                    query.put(i == -1 ? parameter : parameter.substring(0, i),
+                            i == -1 ? null : URLDecoder.decode(parameter.substring(i + 1), "UTF-8"));
+                }
+
+                String md5 = exchange.getRequestHeaders().getFirst("Content-MD5");
+                if (!checkSignature(exchange, path, query)) {
+                    respond(exchange, 403, error("SignatureDoesNotMatch"));
+                } else if (md5 != null && !md5.equals(ServiceUtils.toBase64(MessageDigest.getInstance("MD5").digest(body)))) {
+                    respond(exchange, 400, error("BadDigest"));
+                } else if (query.containsKey("uploads")) {
+                    String uploadId;
+                    synchronized (this) {
+                        uploadId = "upload/" + (++nbUploads);
+                    }
+                    uploads.put(uploadId, new ConcurrentHashMap<>());
+                    respond(exchange, 200, "<InitiateMultipartUploadResult><UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+                } else if (!uploads.containsKey(query.get("uploadId"))) {
+                    respond(exchange, 404, error("NoSuchUpload"));
+                } else if ("PUT".equals(exchange.getRequestMethod())) {
+                    uploads.get(query.get("uploadId")).put(Integer.parseInt(query.get("partNumber")), body);
+                    exchange.getResponseHeaders().set("ETag", "\"" + md5 + "\"");
+                    respond(exchange, 200, "");
+                } else if ("DELETE".equals(exchange.getRequestMethod())) {
+                    uploads.remove(query.get("uploadId"));
+                    respond(exchange, 204, "");
+                } else {
+                    Map<Integer, byte[]> parts = uploads.remove(query.get("uploadId"));
+                    ByteArrayOutputStream object = new ByteArrayOutputStream();
+                    Matcher matcher = PART_PATTERN.matcher(new String(body, StandardCharsets.UTF_8));
+                    for (int partNumber = 1; matcher.find(); partNumber++) {
+                        byte part[] = parts.get(partNumber);
+                        if (Integer.parseInt(matcher.group(1)) != partNumber || part == null) {
+                            respond(exchange, 200, error("InvalidPartOrder"));
+                            return;
+                        }
+                        object.write(part);
+                    }
+                    objects.put(URLDecoder.decode(path.replace("+", "%2B"), "UTF-8"), object.toByteArray());
+                    respond(exchange, 200, "<CompleteMultipartUploadResult/>");
+                }
+            } catch (Exception e) {
+                respond(exchange, 500, error("InternalError"));
+            } finally {
+                exchange.close();
+            }
+        }
+
+        /**
+         * Computes the signature of the request as S3 does, and compares it with the one sent by the client.
+         */
+        private boolean checkSignature(HttpExchange exchange, String path, Map<String, String> query) throws Exception {
+            StringBuilder resource = new StringBuilder(path);
+            char separator = '?';
+            for (Map.Entry<String, String> subResource : query.entrySet()) {
+                resource.append(separator).append(subResource.getKey());
+                if (subResource.getValue() != null) {
+                    resource.append('=').append(subResource.getValue());
+                }
+                separator = '&';
+            }
+
+            String md5 = exchange.getRequestHeaders().getFirst("Content-MD5");
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            String canonicalString = exchange.getRequestMethod() + "\n" + (md5 == null ? "" : md5) + "\n"
+                    + (contentType == null ? "" : contentType) + "\n" + exchange.getRequestHeaders().getFirst("Date")
+                    + "\n" + resource;
+
+            String expected = "AWS " + CREDENTIALS.getAccessKey() + ":"
+                    + ServiceUtils.signWithHmacSha1(CREDENTIALS.getSecretKey(), canonicalString);
+            return expected.equals(exchange.getRequestHeaders().getFirst("Authorization"));
+        }
+
+        private static String error(String code) {
+            return "<Error><Code>" + code + "</Code></Error>";
+        }
+
+        private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+            byte bytes[] = body.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length == 0) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
@@ -3,10 +3,14 @@ package com.mucommander.commons.file.impl.sftp;
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.AbstractFileTest;
 import com.mucommander.commons.file.FileOperation;
+import com.mucommander.commons.file.connection.ConnectionHandler;
+import com.mucommander.commons.file.connection.ConnectionPool;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * An {@link AbstractFileTest} implementation for {@link com.mucommander.commons.file.impl.sftp.SFTPFile}.
@@ -77,4 +81,98 @@ public class SFTPFileTest extends AbstractFileTest {
     protected void testGetRandomAccessInputStreamSupported() {
         // Todo: fix the RandomAccessInputStream
     }
+
+
+    /////////////////////////
+    // SFTP-specific tests //
+    /////////////////////////
+
+    /**
+     * Creates a symbolic link on the server.
+     *
+     * @param link the symbolic link to create
+     * @param target the raw target of the link, either absolute or relative to the link's folder
+     */
+    private void createSymlink(AbstractFile link, String target) throws Exception {
+        SFTPConnectionHandler connHandler = (SFTPConnectionHandler)ConnectionPool.getConnectionHandler(new SFTPConnectionHandlerFactory(), link.getURL(), true);
+        try {
+            connHandler.checkConnection();
+            connHandler.sftpSubsystem.createSymbolicLink(target, link.getURL().getPath());
+        } finally {
+            connHandler.releaseLock();
+        }
+    }
+
+    /**
+     * Returns the number of responses read from the server by all SFTP connections.
+     */
+    private long getRequestCount() {
+        long nbRequests = 0;
+        for (ConnectionHandler connHandler : ConnectionPool.getConnectionHandlersSnapshot()) {
+            if (connHandler instanceof SFTPConnectionHandler && ((SFTPConnectionHandler)connHandler).sftpSubsystem != null) {
+                nbRequests += ((SFTPConnectionHandler)connHandler).sftpSubsystem.getRequestCount();
+            }
+        }
+        return nbRequests;
+    }
+
+    /**
+     * Tests that {@link SFTPFile#ls()} resolves the symbolic links of a folder that mixes regular files, links to
+     * files and folders, and broken links, so that the attributes and targets of the links are returned without any
+     * further request to the server.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testLsSymlinks() throws Exception {
+        AbstractFile folder = getTemporaryFile();
+        deleteWhenFinished(folder);
+        folder.mkdir();
+
+        createFile(folder.getDirectChild("file"), 100);
+        AbstractFile subFolder = folder.getDirectChild("folder");
+        subFolder.mkdir();
+        createSymlink(folder.getDirectChild("fileLink"), "file");
+        createSymlink(folder.getDirectChild("folderLink"), subFolder.getURL().getPath());
+        createSymlink(folder.getDirectChild("brokenLink"), "missing");
+
+        Map<String, AbstractFile> children = new HashMap<>();
+        for (AbstractFile child : folder.ls()) {
+            children.put(child.getName(), child);
+        }
+        assert children.size() == 5;
+
+        long nbRequests = getRequestCount();
+
+        AbstractFile file = children.get("file");
+        assert !file.isSymlink();
+        assert !file.isDirectory();
+        assert file.getSize() == 100;
+
+        AbstractFile folderChild = children.get("folder");
+        assert !folderChild.isSymlink();
+        assert folderChild.isDirectory();
+
+        SFTPFile fileLink = (SFTPFile)children.get("fileLink");
+        assert fileLink.isSymlink();
+        assert !fileLink.isDirectory();
+        assert fileLink.getSize() == 100;
+        assert "file".equals(fileLink.getLink());
+        assert fileLink.getCanonicalFile().getName().equals("file");
+        assert fileLink.getCanonicalFile().getURL().getPath().equals(file.getURL().getPath());
+
+        SFTPFile folderLink = (SFTPFile)children.get("folderLink");
+        assert folderLink.isSymlink();
+        assert folderLink.isDirectory();
+        assert subFolder.getURL().getPath().equals(folderLink.getLink());
+        assert folderLink.getCanonicalFile().getName().equals("folder");
+
+        // Resolved links are answered from the listing
+        assert getRequestCount() == nbRequests;
+
+        // Broken links are not resolved, their target is fetched when asked for
+        SFTPFile brokenLink = (SFTPFile)children.get("brokenLink");
+        assert brokenLink.isSymlink();
+        assert "missing".equals(brokenLink.getLink());
+    }
 }
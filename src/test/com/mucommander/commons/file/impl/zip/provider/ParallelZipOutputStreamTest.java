@@ -0,0 +1,188 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.file.impl.zip.provider;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.io.StreamUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Tests {@link ParallelZipOutputStream} by reading the archives it creates with <code>java.util.zip</code>.
+ *
+ * @see ParallelZipOutputStream
+ */
+public class ParallelZipOutputStreamTest {
+
+    private AbstractFile tempFile;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        tempFile = FileFactory.getTemporaryFile(getClass().getName(), true);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if (tempFile.exists()) {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Returns compressible data: random words.
+     */
+    private static byte[] createData(int length) {
+        Random random = new Random(length);
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            sb.append("word").append(random.nextInt(1000)).append(random.nextBoolean() ? ' ' : '\n');
+        }
+        return sb.substring(0, length).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns entries of various sizes, including empty ones and ones that span several chunks.
+     */
+    private static Map<String, byte[]> createEntries() {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("empty", new byte[0]);
+        entries.put("small", createData(100));
+        entries.put("folder/chunk", createData(ParallelZipOutputStream.CHUNK_SIZE));
+        entries.put("folder/large", createData(ParallelZipOutputStream.CHUNK_SIZE * 3 + 12345));
+        for (int i = 0; i < 20; i++) {
+            entries.put("many/" + i, createData(i * 5000));
+        }
+        return entries;
+    }
+
+    /**
+     * Writes the given entries, storing those whose name starts with 'stored', and adds a directory entry.
+     */
+    private static void writeEntries(ZipOutputStream zos, Map<String, byte[]> entries) throws IOException {
+        zos.putNextEntry(new ZipEntry("folder/"));
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            ZipEntry ze = new ZipEntry(entry.getKey());
+            if (entry.getKey().startsWith("stored")) {
+                ze.setMethod(ZipConstants.STORED);
+            }
+            zos.putNextEntry(ze);
+            // Write in pieces that do not line up with chunks
+            byte data[] = entry.getValue();
+            for (int off = 0; off < data.length; off += 70000) {
+                zos.write(data, off, Math.min(70000, data.length - off));
+            }
+        }
+        zos.close();
+    }
+
+    private static void checkEntries(File file, Map<String, byte[]> entries) throws IOException {
+        try (ZipFile zipFile = new ZipFile(file)) {
+            assert zipFile.size() == entries.size() + 1;
+            assert zipFile.getEntry("folder/").isDirectory();
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                java.util.zip.ZipEntry ze = zipFile.getEntry(entry.getKey());
+                assert ze.getSize() == entry.getValue().length;
+                try (InputStream in = zipFile.getInputStream(ze)) {
+                    assert Arrays.equals(readFully(in), entry.getValue()) : entry.getKey();
+                }
+            }
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        StreamUtils.copyStream(in, bout);
+        return bout.toByteArray();
+    }
+
+    /**
+     * Tests an archive written to a stream that is not seekable, in which entries have data descriptors.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testDataDescriptors() throws IOException {
+        Map<String, byte[]> entries = createEntries();
+        entries.put("stored", createData(200000));
+        File file = new File(tempFile.getAbsolutePath());
+        writeEntries(new ParallelZipOutputStream(new FileOutputStream(file), 4), entries);
+
+        checkEntries(file, entries);
+    }
+
+    /**
+     * Tests an archive written to a seekable stream, in which the local file headers are updated with the sizes and
+     * CRCs, and can thus be read sequentially.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testRandomAccess() throws IOException {
+        Map<String, byte[]> entries = createEntries();
+        entries.put("stored", createData(200000));
+        writeEntries(new ParallelZipOutputStream(tempFile.getRandomAccessOutputStream(), 3), entries);
+
+        File file = new File(tempFile.getAbsolutePath());
+        checkEntries(file, entries);
+
+        // java.util.zip.ZipInputStream relies on the local file headers only
+        int nbEntries = 0;
+        try (ZipInputStream zin = new ZipInputStream(tempFile.getInputStream())) {
+            for (java.util.zip.ZipEntry ze = zin.getNextEntry(); ze != null; ze = zin.getNextEntry()) {
+                if (!ze.isDirectory()) {
+                    assert Arrays.equals(readFully(zin), entries.get(ze.getName())) : ze.getName();
+                }
+                nbEntries++;
+            }
+        }
+        assert nbEntries == entries.size() + 1;
+    }
+
+    /**
+     * Tests that deflating chunks separately barely affects the compression ratio.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testCompressionRatio() throws IOException {
+        Map<String, byte[]> entries = createEntries();
+
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        writeEntries(new ZipOutputStream(sequential), entries);
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        writeEntries(new ParallelZipOutputStream(parallel, 4), entries);
+
+        assert parallel.size() < sequential.size() * 1.01 : parallel.size() + " vs " + sequential.size();
+    }
+}
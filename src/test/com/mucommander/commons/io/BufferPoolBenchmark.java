@@ -0,0 +1,133 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.Consumer;
+
+/**
+ * Standalone benchmark comparing {@link BufferPool} to the previous implementation, which scanned a single list
+ * of buffers under a global lock, when buffers are requested and released by 1, 4 and 16 concurrent threads.
+ *
+ * <p>Usage: <code>BufferPoolBenchmark [operations per thread]</code>, defaults to 2,000,000. Each scenario is run a
+ * few times, the first run being a warm-up, and the best throughput is reported.
+ */
+public class BufferPoolBenchmark {
+
+    private final static int RUNS = 4;
+
+    /** Buffer lengths requested by the benchmark, like those of the transfer, viewer and archive code paths */
+    private final static int LENGTHS[] = {8192, 65536, 65536, 131072};
+
+    public static void main(String args[]) throws InterruptedException {
+        int nbOperations = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+
+        for (int nbThreads : new int[] {1, 4, 16}) {
+            LegacyBufferPool legacyPool = new LegacyBufferPool();
+            double legacy = run(nbThreads, nbOperations, legacyPool::getByteArray, legacyPool::releaseByteArray);
+            BufferPool.releaseAll();
+            double striped = run(nbThreads, nbOperations, BufferPool::getByteArray, BufferPool::releaseByteArray);
+
+            System.out.printf("%2d threads: previous %8.0f ops/ms, current %8.0f ops/ms (x%.1f), hits=%d misses=%d%n",
+                    nbThreads, legacy, striped, striped / legacy, BufferPool.getHitCount(), BufferPool.getMissCount());
+        }
+    }
+
+    /**
+     * Returns the best throughput, in get/release pairs per millisecond, of a few runs.
+     */
+    private static double run(int nbThreads, int nbOperations, IntFunction<byte[]> get, Consumer<byte[]> release) throws InterruptedException {
+        double best = 0;
+        for (int r = 0; r < RUNS; r++) {
+            Thread threads[] = new Thread[nbThreads];
+            for (int t = 0; t < nbThreads; t++) {
+                final int offset = t;
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < nbOperations; i++) {
+                        byte buffer[] = get.apply(LENGTHS[(i + offset) % LENGTHS.length]);
+                        buffer[0] = (byte)i;
+                        release.accept(buffer);
+                    }
+                });
+            }
+
+            long start = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            double throughput = (double)nbOperations * nbThreads / ((System.nanoTime() - start) / 1000000.0);
+            if (r > 0) {
+                best = Math.max(best, throughput);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The previous implementation: a list of buffers scanned under a global lock.
+     */
+    private static class LegacyBufferPool {
+
+        private final List<BufferPool.BufferContainer> bufferContainers = new ArrayList<>();
+
+        private long poolSize;
+
+        byte[] getByteArray(int length) {
+            return (byte[])getBuffer(new BufferPool.ByteArrayFactory(), length);
+        }
+
+        synchronized Object getBuffer(BufferPool.BufferFactory factory, int size) {
+            Iterator<BufferPool.BufferContainer> it = bufferContainers.iterator();
+            while (it.hasNext()) {
+                BufferPool.BufferContainer bufferContainer = it.next();
+                Object buffer = bufferContainer.getBuffer();
+                if (bufferContainer.getLength() == size && (factory.matchesBufferClass(buffer.getClass()))) {
+                    it.remove();
+                    poolSize -= bufferContainer.getSize();
+                    return buffer;
+                }
+            }
+            return factory.newBuffer(size);
+        }
+
+        void releaseByteArray(byte buffer[]) {
+            releaseBuffer(buffer, new BufferPool.ByteArrayFactory());
+        }
+
+        synchronized boolean releaseBuffer(Object buffer, BufferPool.BufferFactory factory) {
+            BufferPool.BufferContainer bufferContainer = factory.newBufferContainer(buffer);
+            if (bufferContainers.contains(bufferContainer)) {
+                return false;
+            }
+            long bufferSize = bufferContainer.getSize();
+            if (poolSize + bufferSize > BufferPool.INITIAL_POOL_LIMIT) {
+                return false;
+            }
+            bufferContainers.add(bufferContainer);
+            poolSize += bufferSize;
+            return true;
+        }
+    }
+}
@@ -22,6 +22,12 @@ import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * This class is a TestNG test case for {@link BufferPool}.
  *
@@ -81,6 +87,99 @@ public class BufferPoolTest {
         testBuffer(new BufferPool.CharBufferFactory());
     }
 
+    /**
+     * Tests the hit and miss counters.
+     */
+    @Test
+    public void testHitMissCount() {
+        long hits = BufferPool.getHitCount();
+        long misses = BufferPool.getMissCount();
+
+        byte buffer[] = BufferPool.getByteArray(TEST_BUFFER_SIZE_1 + 100);
+        assert BufferPool.getMissCount() == misses + 1;
+        BufferPool.releaseByteArray(buffer);
+        byte pooledBuffer[] = BufferPool.getByteArray(TEST_BUFFER_SIZE_1 + 100);
+        assert pooledBuffer == buffer;
+        assert BufferPool.getHitCount() == hits + 1;
+    }
+
+    /**
+     * Releases the same buffer from threads that use different stripes of the pool, and asserts that the buffer is
+     * added to the pool only once.
+     *
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void testReleaseFromOtherThreads() throws InterruptedException {
+        final int length = TEST_BUFFER_SIZE_1 + 300;
+        final byte buffer[] = BufferPool.getByteArray(length);
+        final AtomicInteger nbReleases = new AtomicInteger();
+        long originalPoolSize = BufferPool.getPoolSize();
+
+        // Threads have consecutive ids, and thus use all the stripes
+        for (int t = 0; t < 64; t++) {
+            Thread thread = new Thread(() -> {
+                if (BufferPool.releaseByteArray(buffer)) {
+                    nbReleases.incrementAndGet();
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+
+        assert nbReleases.get() == 1;
+        assert BufferPool.containsBuffer(buffer, new BufferPool.ByteArrayFactory());
+        assert BufferPool.getByteArray(length) == buffer;
+        assert BufferPool.getByteArray(length) != buffer;
+        assert originalPoolSize == BufferPool.getPoolSize();
+    }
+
+    /**
+     * Has several threads get and release buffers concurrently, and asserts that a buffer is never returned to two
+     * threads at the same time and that the pool size is consistent afterwards.
+     *
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void testConcurrentAccess() throws InterruptedException {
+        final int length = TEST_BUFFER_SIZE_1 + 200;
+        final Set<byte[]> buffersInUse = Collections.newSetFromMap(new IdentityHashMap<>());
+        final AtomicBoolean failed = new AtomicBoolean();
+        long originalPoolSize = BufferPool.getPoolSize();
+
+        Thread threads[] = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    byte buffer[] = BufferPool.getByteArray(length);
+                    synchronized (buffersInUse) {
+                        if (!buffersInUse.add(buffer)) {
+                            failed.set(true);
+                        }
+                    }
+                    synchronized (buffersInUse) {
+                        buffersInUse.remove(buffer);
+                    }
+                    BufferPool.releaseByteArray(buffer);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assert !failed.get();
+        int nbPooled = 0;
+        while (BufferPool.getPoolSize() > originalPoolSize) {
+            byte buffer[] = BufferPool.getByteArray(length);
+            assert buffer.length == length;
+            nbPooled++;
+        }
+        assert nbPooled > 0 && nbPooled <= threads.length;
+        assert originalPoolSize == BufferPool.getPoolSize();
+    }
+
     /**
      * Tests <code>BufferPool</code> with <code>ByteBuffer</code> buffers.
      *
@@ -0,0 +1,349 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.io;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link CachedBlockRandomInputStream} and {@link BlockCache} with a loader that reads from a byte array.
+ *
+ * @see CachedBlockRandomInputStream
+ * @see BlockCache
+ */
+public class CachedBlockRandomInputStreamTest {
+
+    private final static int BLOCK_SIZE = 1000;
+
+    /**
+     * Reads from the given array and counts the number of blocks it loads.
+     */
+    private static class ArrayLoader implements BlockCache.BlockLoader {
+        private final byte data[];
+        private final AtomicInteger nbLoads = new AtomicInteger();
+
+        private ArrayLoader(byte data[]) {
+            this.data = data;
+        }
+
+        public int load(long offset, byte b[], int len) {
+            nbLoads.incrementAndGet();
+            int n = (int)Math.min(len, data.length - offset);
+            System.arraycopy(data, (int)offset, b, 0, n);
+            return n;
+        }
+    }
+
+    /**
+     * Reads from the given array and counts the number of times it is closed.
+     */
+    private static class ArrayRandomInputStream extends RandomAccessInputStream {
+        private final byte data[];
+        private final AtomicInteger nbClosed;
+        private int offset;
+
+        private ArrayRandomInputStream(byte data[], AtomicInteger nbClosed) {
+            this.data = data;
+            this.nbClosed = nbClosed;
+        }
+
+        @Override
+        public int read() {
+            return offset < data.length ? data[offset++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte b[], int off, int len) {
+            if (offset >= data.length) {
+                return -1;
+            }
+            int n = Math.min(len, data.length - offset);
+            System.arraycopy(data, offset, b, off, n);
+            offset += n;
+            return n;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return data.length;
+        }
+
+        public void seek(long offset) {
+            this.offset = (int)offset;
+        }
+
+        @Override
+        public void close() {
+            nbClosed.incrementAndGet();
+        }
+    }
+
+    private static byte[] createData(int length) {
+        byte data[] = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Tests that random reads return the file's data, and that blocks are loaded only once.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testRandomReads() throws IOException {
+        byte data[] = createData(BLOCK_SIZE * 10 + 321);
+        ArrayLoader loader = new ArrayLoader(data);
+        BlockCache cache = new BlockCache(BLOCK_SIZE, BLOCK_SIZE * 100);
+
+        Random random = new Random(0);
+        try (CachedBlockRandomInputStream in = new CachedBlockRandomInputStream(cache, "file", data.length, loader, 0)) {
+            for (int i = 0; i < 200; i++) {
+                int offset = random.nextInt(data.length);
+                byte b[] = new byte[Math.min(random.nextInt(BLOCK_SIZE * 3), data.length - offset)];
+                in.seek(offset);
+                in.readFully(b);
+                assert Arrays.equals(b, Arrays.copyOfRange(data, offset, offset + b.length));
+            }
+
+            in.seek(data.length - 1);
+            assert in.read() == (data[data.length - 1] & 0xFF);
+            assert in.read() == -1;
+        }
+
+        assert loader.nbLoads.get() == 11;
+        assert cache.getMissCount() == 11;
+        assert cache.getHitRatio() > 0.9;
+    }
+
+    /**
+     * Tests that streams on the same file share blocks, and that the blocks of a different version of the file are not
+     * shared.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testSharedBlocks() throws IOException {
+        byte data[] = createData(BLOCK_SIZE * 5);
+        ArrayLoader loader = new ArrayLoader(data);
+        BlockCache cache = new BlockCache(BLOCK_SIZE, BLOCK_SIZE * 100);
+
+        byte b[] = new byte[data.length];
+        new CachedBlockRandomInputStream(cache, "file|1", data.length, loader, 0).readFully(b);
+        new CachedBlockRandomInputStream(cache, "file|1", data.length, loader, 0).readFully(b);
+        assert loader.nbLoads.get() == 5;
+
+        new CachedBlockRandomInputStream(cache, "file|2", data.length, loader, 0).readFully(b);
+        assert loader.nbLoads.get() == 10;
+        assert Arrays.equals(b, data);
+    }
+
+    /**
+     * Tests that the least recently used blocks are evicted once the capacity has been reached.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testEviction() throws IOException {
+        byte data[] = createData(BLOCK_SIZE * 5);
+        ArrayLoader loader = new ArrayLoader(data);
+        BlockCache cache = new BlockCache(BLOCK_SIZE, BLOCK_SIZE * 3);
+
+        CachedBlockRandomInputStream in = new CachedBlockRandomInputStream(cache, "file", data.length, loader, 0);
+        in.readFully(new byte[data.length]);
+        assert cache.getSize() == BLOCK_SIZE * 3;
+        assert cache.getEvictionCount() == 2;
+
+        // The last blocks are still cached, the first ones are not
+        in.seek(BLOCK_SIZE * 4);
+        in.read();
+        assert loader.nbLoads.get() == 5;
+        in.seek(0);
+        in.read();
+        assert loader.nbLoads.get() == 6;
+    }
+
+    /**
+     * Tests that the blocks that follow are prefetched when the file is read sequentially, and that they are not loaded
+     * again when they are read.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testPrefetch() throws Exception {
+        byte data[] = createData(BLOCK_SIZE * 20);
+        ArrayLoader loader = new ArrayLoader(data);
+        BlockCache cache = new BlockCache(BLOCK_SIZE, BLOCK_SIZE * 100);
+
+        CachedBlockRandomInputStream in = new CachedBlockRandomInputStream(cache, "file", data.length, loader, 4);
+        byte b[] = new byte[BLOCK_SIZE];
+        in.readFully(b);
+        assert cache.getPrefetchCount() == 0;
+        in.readFully(b);
+        assert cache.getPrefetchCount() == 4;
+
+        // Wait for the prefetched blocks to be loaded
+        long timeout = System.currentTimeMillis() + 10000;
+        while (loader.nbLoads.get() < 6 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        long nbMisses = cache.getMissCount();
+        in.readFully(b);
+        assert cache.getMissCount() == nbMisses;
+
+        byte read[] = new byte[data.length];
+        in.seek(0);
+        in.readFully(read);
+        assert Arrays.equals(read, data);
+        assert loader.nbLoads.get() == 20;
+    }
+
+    /**
+     * Tests that a block whose loading failed is loaded again the next time it is requested.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testLoadError() throws IOException {
+        byte data[] = createData(BLOCK_SIZE * 2);
+        AtomicInteger nbLoads = new AtomicInteger();
+        BlockCache cache = new BlockCache(BLOCK_SIZE, BLOCK_SIZE * 100);
+        BlockCache.BlockLoader loader = (offset, b, len) -> {
+            if (nbLoads.incrementAndGet() == 1) {
+                throw new IOException("test");
+            }
+            System.arraycopy(data, (int)offset, b, 0, len);
+            return len;
+        };
+
+        try {
+            cache.getBlock("file", 0, data.length, loader);
+            assert false;
+        } catch (IOException e) {
+            assert "test".equals(e.getMessage());
+        }
+        ByteBuffer block = cache.getBlock("file", 0, data.length, loader);
+        assert block.isReadOnly();
+        assert block.equals(ByteBuffer.wrap(data, 0, BLOCK_SIZE));
+    }
+
+    /**
+     * Tests that a cache that holds its blocks off-heap returns the file's data.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testOffHeap() throws IOException {
+        byte data[] = createData(BLOCK_SIZE * 4 + 10);
+        ArrayLoader loader = new ArrayLoader(data);
+        BlockCache cache = new BlockCache(BLOCK_SIZE, BLOCK_SIZE * 3, true);
+
+        byte read[] = new byte[data.length];
+        CachedBlockRandomInputStream in = new CachedBlockRandomInputStream(cache, "file", data.length, loader, 0);
+        in.readFully(read);
+        assert Arrays.equals(read, data);
+        assert cache.getBlock("file", 4, data.length, loader).isDirect();
+        assert cache.getSize() == BLOCK_SIZE * 2 + 10;
+    }
+
+    /**
+     * Tests that blocks evicted from memory are spilled to disk and read back from it rather than loaded again, and
+     * that the disk cache is bounded as well.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testDiskCache() throws IOException {
+        byte data[] = createData(BLOCK_SIZE * 10);
+        ArrayLoader loader = new ArrayLoader(data);
+        BlockCache cache = new BlockCache(BLOCK_SIZE, BLOCK_SIZE * 2);
+        File directory = Files.createTempDirectory("blockcache").toFile();
+        try {
+            cache.setDiskCache(directory, BLOCK_SIZE * 4);
+
+            byte read[] = new byte[data.length];
+            CachedBlockRandomInputStream in = new CachedBlockRandomInputStream(cache, "file", data.length, loader, 0);
+            in.readFully(read);
+            assert loader.nbLoads.get() == 10;
+            assert cache.getDiskSize() == BLOCK_SIZE * 4;
+
+            // Blocks 4 to 7 are on disk, blocks 0 to 3 were evicted from it
+            in.seek(BLOCK_SIZE * 4);
+            in.readFully(read, 0, BLOCK_SIZE * 4);
+            assert Arrays.equals(Arrays.copyOf(read, BLOCK_SIZE * 4), Arrays.copyOfRange(data, BLOCK_SIZE * 4, BLOCK_SIZE * 8));
+            assert loader.nbLoads.get() == 10;
+            assert cache.getDiskHitCount() == 4;
+
+            in.seek(0);
+            in.read();
+            assert loader.nbLoads.get() == 11;
+
+            cache.setDiskCache(null, 0);
+            assert cache.getDiskSize() == 0;
+            assert directory.list().length == 0;
+        } finally {
+            directory.delete();
+        }
+    }
+
+    /**
+     * Tests that a stream that decorates a <code>RandomAccessInputStream</code> opens it only when a block is not cached,
+     * and closes it.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testStreamOpener() throws IOException {
+        byte data[] = createData(BLOCK_SIZE * 3 + 5);
+        BlockCache cache = new BlockCache(BLOCK_SIZE, BLOCK_SIZE * 100);
+        AtomicInteger nbOpened = new AtomicInteger();
+        AtomicInteger nbClosed = new AtomicInteger();
+        CachedBlockRandomInputStream.StreamOpener opener = () -> {
+            nbOpened.incrementAndGet();
+            return new ArrayRandomInputStream(data, nbClosed);
+        };
+
+        byte read[] = new byte[data.length];
+        try (CachedBlockRandomInputStream in = new CachedBlockRandomInputStream(cache, "file", data.length, opener, 0)) {
+            in.seek(BLOCK_SIZE * 2);
+            in.readFully(read, 0, BLOCK_SIZE);
+            in.seek(0);
+            in.readFully(read);
+            assert Arrays.equals(read, data);
+        }
+        assert nbOpened.get() == 1;
+        assert nbClosed.get() == 1;
+
+        // All blocks are cached, the file is not opened again
+        try (CachedBlockRandomInputStream in = new CachedBlockRandomInputStream(cache, "file", data.length, opener, 0)) {
+            in.readFully(read);
+            assert Arrays.equals(read, data);
+        }
+        assert nbOpened.get() == 1;
+        assert nbClosed.get() == 1;
+    }
+}
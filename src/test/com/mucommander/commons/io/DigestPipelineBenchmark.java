@@ -0,0 +1,80 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.io;
+
+import com.mucommander.commons.io.security.MuProvider;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Standalone benchmark reporting the speed of each digest when calculated alone, and when all digests are calculated
+ * in a single pass by a {@link DigestPipeline}.
+ *
+ * <p>Usage: <code>DigestPipelineBenchmark [megabytes] [algorithm...]</code>, defaults to 256 MB of MD5, SHA-256,
+ * SHA-1, CRC32 and Adler32, the last two being provided by {@link MuProvider}. Data is read from memory so that only
+ * the digests are measured.
+ */
+public class DigestPipelineBenchmark {
+
+    public static void main(String args[]) throws IOException, NoSuchAlgorithmException {
+        MuProvider.registerProvider();
+
+        int nbMegabytes = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        String algorithms[] = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[] {"MD5", "SHA-256", "SHA-1", "CRC32", "Adler32"};
+
+        byte data[] = new byte[nbMegabytes * 1024 * 1024];
+        new Random(0).nextBytes(data);
+
+        MessageDigest digests[] = new MessageDigest[algorithms.length];
+        long separateNanos = 0;
+        for (int i = 0; i < algorithms.length; i++) {
+            digests[i] = MessageDigest.getInstance(algorithms[i]);
+            // Warm-up
+            new DigestPipeline(null, digests[i]).digest(new ByteArrayInputStream(data, 0, data.length / 4));
+
+            long start = System.nanoTime();
+            DigestPipeline pipeline = new DigestPipeline(null, digests[i]);
+            pipeline.digest(new ByteArrayInputStream(data));
+            long nanos = System.nanoTime() - start;
+            separateNanos += nanos;
+            System.out.printf("%-8s (%s) alone: %6.0f MB/s%n", algorithms[i], digests[i].getProvider().getName(), data.length / (nanos / 1e9) / 1e6);
+        }
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            DigestPipeline pipeline = new DigestPipeline(executor, digests);
+            long start = System.nanoTime();
+            pipeline.digest(new ByteArrayInputStream(data));
+            long nanos = System.nanoTime() - start;
+            for (int i = 0; i < algorithms.length; i++) {
+                System.out.printf("%-8s in a single pass: %6.0f MB/s%n", algorithms[i], pipeline.getThroughput(i) / 1e6);
+            }
+            System.out.printf("all digests one after the other: %.0f ms, in a single pass on %d processors: %.0f ms%n",
+                    separateNanos / 1e6, Runtime.getRuntime().availableProcessors(), nanos / 1e6);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.io;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests {@link DigestPipeline} by comparing its digests with those calculated directly by <code>MessageDigest</code>.
+ *
+ * @see DigestPipeline
+ */
+public class DigestPipelineTest {
+
+    private final static String ALGORITHMS[] = {"MD5", "SHA-256", "SHA-1"};
+
+    private ExecutorService executor;
+
+    @BeforeClass
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static MessageDigest[] createDigests() throws NoSuchAlgorithmException {
+        MessageDigest digests[] = new MessageDigest[ALGORITHMS.length];
+        for (int i = 0; i < ALGORITHMS.length; i++) {
+            digests[i] = MessageDigest.getInstance(ALGORITHMS[i]);
+        }
+        return digests;
+    }
+
+    private static byte[] createData(int length) {
+        byte data[] = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static void assertDigests(byte data[], byte digests[][]) throws NoSuchAlgorithmException {
+        assert digests.length == ALGORITHMS.length;
+        for (int i = 0; i < ALGORITHMS.length; i++) {
+            assert Arrays.equals(MessageDigest.getInstance(ALGORITHMS[i]).digest(data), digests[i]) : ALGORITHMS[i];
+        }
+    }
+
+    /**
+     * Digests streams whose length is 0, smaller than a block, a multiple of the block size and larger than all
+     * blocks, with and without an executor, reusing the same pipeline.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testStream() throws Exception {
+        DigestPipeline sequential = new DigestPipeline(null, createDigests());
+        DigestPipeline pipelined = new DigestPipeline(executor, createDigests());
+        long nbBytes = 0;
+        for (int length : new int[] {0, 1000, DigestPipeline.BLOCK_SIZE * 2, DigestPipeline.BLOCK_SIZE * 9 + 17}) {
+            byte data[] = createData(length);
+            assertDigests(data, sequential.digest(new ByteArrayInputStream(data)));
+            assertDigests(data, pipelined.digest(new ByteArrayInputStream(data)));
+            nbBytes += length;
+        }
+        assert sequential.getDigestedByteCount() == nbBytes;
+        assert pipelined.getDigestedByteCount() == nbBytes;
+    }
+
+    /**
+     * Digests a memory-mapped file, with and without an executor.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testFileChannel() throws Exception {
+        byte data[] = createData(3 * 1024 * 1024 + 5);
+        File file = File.createTempFile("DigestPipelineTest", null);
+        try {
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(data);
+            }
+            for (ExecutorService pipelineExecutor : new ExecutorService[] {null, executor}) {
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    assertDigests(data, new DigestPipeline(pipelineExecutor, createDigests()).digest(channel));
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Tests that an exception thrown by {@link DigestPipeline#bytesDigested(long)} aborts the calculation, and that
+     * the pipeline can be used again afterwards.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testAbort() throws Exception {
+        int abortAfter[] = {2};
+        DigestPipeline pipeline = new DigestPipeline(executor, createDigests()) {
+            @Override
+            protected void bytesDigested(long nbBytes) throws IOException {
+                if (--abortAfter[0] == 0) {
+                    throw new InterruptedIOException();
+                }
+            }
+        };
+
+        byte data[] = createData(DigestPipeline.BLOCK_SIZE * 5);
+        try {
+            pipeline.digest(new ByteArrayInputStream(data));
+            assert false;
+        } catch (InterruptedIOException e) {
+            // Expected
+        }
+        assertDigests(data, pipeline.digest(new ByteArrayInputStream(data)));
+    }
+}
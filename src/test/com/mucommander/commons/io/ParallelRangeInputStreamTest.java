@@ -0,0 +1,199 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.mucommander.commons.io;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link ParallelRangeInputStream} with readers that read from a byte array.
+ *
+ * @see ParallelRangeInputStream
+ */
+public class ParallelRangeInputStreamTest {
+
+    private final static int CHUNK_SIZE = 1000;
+
+    private static byte[] createData(int length) {
+        byte data[] = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] readAll(ParallelRangeInputStream in) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        StreamUtils.copyStream(in, bout, 777);
+        in.close();
+        return bout.toByteArray();
+    }
+
+    /**
+     * Reads from the given array, slowly so that chunks complete out of order, and counts the times it is closed.
+     */
+    private static class ArrayRangeReader implements ParallelRangeInputStream.RangeReader {
+        private final byte data[];
+        private final AtomicInteger nbClosed;
+
+        private ArrayRangeReader(byte data[], AtomicInteger nbClosed) {
+            this.data = data;
+            this.nbClosed = nbClosed;
+        }
+
+        public int read(long offset, byte b[], int len) throws IOException {
+            try {
+                Thread.sleep((offset / CHUNK_SIZE) % 3);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (offset >= data.length) {
+                return 0;
+            }
+            int n = (int)Math.min(len, data.length - offset);
+            System.arraycopy(data, (int)offset, b, 0, n);
+            return n;
+        }
+
+        public void close() {
+            nbClosed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Tests that chunks read by several readers are returned in order, and that readers are closed.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testRead() throws Exception {
+        byte data[] = createData(CHUNK_SIZE * 20 + 123);
+        AtomicInteger nbClosed = new AtomicInteger();
+        List<ArrayRangeReader> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            readers.add(new ArrayRangeReader(data, nbClosed));
+        }
+
+        assert Arrays.equals(readAll(new ParallelRangeInputStream(readers, 0, data.length, CHUNK_SIZE)), data);
+        // Readers are closed by their thread once they have no more chunks to read
+        long timeout = System.currentTimeMillis() + 10000;
+        while (nbClosed.get() < 4 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assert nbClosed.get() == 4;
+
+        // A range in the middle of the data
+        byte range[] = readAll(new ParallelRangeInputStream(readers, 2500, 17500, CHUNK_SIZE));
+        assert Arrays.equals(range, Arrays.copyOfRange(data, 2500, 17500));
+    }
+
+    /**
+     * Tests that the stream ends with the data if it is shorter than expected.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testShorterThanExpected() throws Exception {
+        byte data[] = createData(CHUNK_SIZE * 5 + 10);
+        ParallelRangeInputStream.RangeReader reader = new ArrayRangeReader(data, new AtomicInteger());
+
+        byte read[] = readAll(new ParallelRangeInputStream(Collections.nCopies(3, reader), 0, CHUNK_SIZE * 10, CHUNK_SIZE));
+        assert Arrays.equals(read, data);
+    }
+
+    /**
+     * Tests that an error on a reader fails the stream.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testError() throws Exception {
+        byte data[] = createData(CHUNK_SIZE * 10);
+        ParallelRangeInputStream.RangeReader reader = new ArrayRangeReader(data, new AtomicInteger()) {
+            @Override
+            public int read(long offset, byte b[], int len) throws IOException {
+                if (offset == CHUNK_SIZE * 6) {
+                    throw new IOException("test");
+                }
+                return super.read(offset, b, len);
+            }
+        };
+
+        ParallelRangeInputStream in = new ParallelRangeInputStream(Collections.nCopies(2, reader), 0, data.length, CHUNK_SIZE);
+        byte b[] = new byte[CHUNK_SIZE];
+        for (int i = 0; i < 6; i++) {
+            StreamUtils.readFully(in, b);
+            assert Arrays.equals(b, Arrays.copyOfRange(data, i * CHUNK_SIZE, (i + 1) * CHUNK_SIZE));
+        }
+        try {
+            in.read(b);
+            assert false;
+        } catch (IOException e) {
+            assert "test".equals(e.getMessage());
+        }
+        in.close();
+    }
+
+    /**
+     * Tests that when a chunk fails after a later one has already failed, the stream fails when it reaches the first
+     * failed chunk, with that chunk's error, instead of waiting for it forever.
+     *
+     * @throws Exception should not happen
+     */
+    @Test(timeOut = 10000)
+    public void testErrorBeforeEarlierError() throws Exception {
+        byte data[] = createData(CHUNK_SIZE * 10);
+        ParallelRangeInputStream.RangeReader reader = new ArrayRangeReader(data, new AtomicInteger()) {
+            @Override
+            public int read(long offset, byte b[], int len) throws IOException {
+                if (offset == CHUNK_SIZE * 7) {
+                    throw new IOException("chunk 7");
+                }
+                if (offset == CHUNK_SIZE * 3) {
+                    try {
+                        Thread.sleep(300);
+                    } catch (InterruptedException e) {
+                        // Fails below all the same
+                    }
+                    throw new IOException("chunk 3");
+                }
+                return super.read(offset, b, len);
+            }
+        };
+
+        ParallelRangeInputStream in = new ParallelRangeInputStream(Collections.nCopies(4, reader), 0, data.length, CHUNK_SIZE);
+        byte b[] = new byte[CHUNK_SIZE];
+        for (int i = 0; i < 3; i++) {
+            StreamUtils.readFully(in, b);
+            assert Arrays.equals(b, Arrays.copyOfRange(data, i * CHUNK_SIZE, (i + 1) * CHUNK_SIZE));
+        }
+        try {
+            in.read(b);
+            assert false;
+        } catch (IOException e) {
+            assert "chunk 3".equals(e.getMessage());
+        }
+        in.close();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A test case for the <code>FileChannel</code> transfer methods of {@link StreamUtils}.
+ *
+ * @see com.mucommander.commons.io.StreamUtils
+ */
+public class StreamUtilsTest {
+
+    private File sourceFile;
+    private File destFile;
+    private byte[] sourceBytes;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        sourceFile = File.createTempFile("streamutils", ".src");
+        destFile = File.createTempFile("streamutils", ".dst");
+
+        // Spans several transfer chunks
+        sourceBytes = new byte[StreamUtils.TRANSFER_CHUNK_SIZE * 2 + 12345];
+        new Random(27).nextBytes(sourceBytes);
+        Files.write(sourceFile.toPath(), sourceBytes);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        sourceFile.delete();
+        destFile.delete();
+    }
+
+    /**
+     * Transfers a whole file and verifies the destination's contents and the byte count.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testTransferChannel() throws IOException {
+        ByteCounter counter = new ByteCounter();
+        try (FileChannel in = new FileInputStream(sourceFile).getChannel();
+             FileChannel out = new FileOutputStream(destFile).getChannel()) {
+            assert sourceBytes.length == StreamUtils.transferChannel(in, out, in.size(), counter, null);
+            assert sourceBytes.length == in.position();
+        }
+
+        assert sourceBytes.length == counter.getByteCount();
+        assert Arrays.equals(sourceBytes, Files.readAllBytes(destFile.toPath()));
+    }
+
+    /**
+     * Resumes a transfer from the source channel's position into a partially copied destination.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testResumedTransfer() throws IOException {
+        int offset = StreamUtils.TRANSFER_CHUNK_SIZE + 7;
+        Files.write(destFile.toPath(), Arrays.copyOf(sourceBytes, offset));
+
+        ByteCounter counter = new ByteCounter();
+        try (FileChannel in = new FileInputStream(sourceFile).getChannel();
+             FileChannel out = new FileOutputStream(destFile, true).getChannel()) {
+            in.position(offset);
+            assert sourceBytes.length - offset == StreamUtils.transferChannel(in, out, in.size() - offset, counter, null);
+        }
+
+        assert sourceBytes.length - offset == counter.getByteCount();
+        assert Arrays.equals(sourceBytes, Files.readAllBytes(destFile.toPath()));
+    }
+
+    /**
+     * Asks for more bytes than the source has and verifies that the transfer stops at the end of file.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testTransferPastEOF() throws IOException {
+        try (FileChannel in = new FileInputStream(sourceFile).getChannel();
+             FileChannel out = new FileOutputStream(destFile).getChannel()) {
+            assert sourceBytes.length == StreamUtils.transferChannel(in, out, Long.MAX_VALUE, null, null);
+        }
+
+        assert Arrays.equals(sourceBytes, Files.readAllBytes(destFile.toPath()));
+    }
+
+    /**
+     * Verifies that a throughput limit is honored by the transfer.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testThrottledTransfer() throws IOException {
+        ThroughputLimitInputStream limiter = new ThroughputLimitInputStream(null, 4 * 1024 * 1024);
+        long length = 12 * 1024 * 1024;
+
+        long start = System.currentTimeMillis();
+        try (FileChannel in = new FileInputStream(sourceFile).getChannel();
+             FileChannel out = new FileOutputStream(destFile).getChannel()) {
+            assert length == StreamUtils.transferChannel(in, out, length, null, limiter);
+        }
+
+        // 12MB at 4MB/s spans at least three distinct seconds
+        assert System.currentTimeMillis() - start >= 1000;
+    }
+
+    /**
+     * Verifies that closing the source channel interrupts the transfer with a {@link FileTransferException}.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testClosedSource() throws IOException {
+        FileChannel in = new FileInputStream(sourceFile).getChannel();
+        in.close();
+
+        boolean exceptionThrown = false;
+        try (FileChannel out = new FileOutputStream(destFile).getChannel()) {
+            StreamUtils.transferChannel(in, out, sourceBytes.length, null, null);
+        } catch(FileTransferException e) {
+            exceptionThrown = true;
+        }
+
+        assert exceptionThrown;
+    }
+}
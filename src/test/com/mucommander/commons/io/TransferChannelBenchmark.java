@@ -0,0 +1,108 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.commons.io;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Standalone benchmark comparing the stream copy used by <code>TransferFileJob</code> for arbitrary files
+ * ({@link AbstractFile#copyStream(InputStream, boolean, long)}) to the {@link StreamUtils#transferChannel} path used
+ * for local to local copies.
+ *
+ * <p>Usage: <code>TransferChannelBenchmark [work directory] [huge file size in MB]</code>. The work directory should
+ * be located on the disk to benchmark, it defaults to the temporary directory; the huge file defaults to 1024 MB.
+ * Each scenario is run a few times, the first run being a warm-up, and the best time is reported.
+ */
+public class TransferChannelBenchmark {
+
+    private final static int RUNS = 4;
+
+    public static void main(String args[]) throws IOException {
+        File workDir = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+        long hugeSize = (args.length > 1 ? Long.parseLong(args[1]) : 1024) * 1024 * 1024;
+
+        run(workDir, "small  (2000 x 16 KB)", 2000, 16 * 1024);
+        run(workDir, "medium (20 x 32 MB)", 20, 32 * 1024 * 1024);
+        run(workDir, "huge   (1 x " + (hugeSize >> 20) + " MB)", 1, hugeSize);
+    }
+
+    private static void run(File workDir, String label, int nbFiles, long fileSize) throws IOException {
+        File source = new File(workDir, "transfer-benchmark.src");
+        File dest = new File(workDir, "transfer-benchmark.dst");
+        try {
+            createFile(source, fileSize);
+
+            long streamTime = Long.MAX_VALUE;
+            long channelTime = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                streamTime = Math.min(streamTime, time(source, dest, nbFiles, false));
+                channelTime = Math.min(channelTime, time(source, dest, nbFiles, true));
+            }
+
+            long totalBytes = nbFiles * fileSize;
+            System.out.println(label + ": stream " + format(totalBytes, streamTime) + ", channel " + format(totalBytes, channelTime));
+        } finally {
+            source.delete();
+            dest.delete();
+        }
+    }
+
+    private static long time(File source, File dest, int nbFiles, boolean useChannel) throws IOException {
+        AbstractFile sourceFile = FileFactory.getFile(source.getAbsolutePath());
+        AbstractFile destFile = FileFactory.getFile(dest.getAbsolutePath());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < nbFiles; i++) {
+            if (useChannel) {
+                try (FileChannel in = new FileInputStream(source).getChannel();
+                     FileChannel out = new FileOutputStream(dest).getChannel()) {
+                    StreamUtils.transferChannel(in, out, in.size(), new ByteCounter(), null);
+                }
+            } else {
+                try (InputStream in = new CounterInputStream(sourceFile.getInputStream(), new ByteCounter())) {
+                    destFile.copyStream(in, false, sourceFile.getSize());
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void createFile(File file, long size) throws IOException {
+        byte buffer[] = new byte[1024 * 1024];
+        new Random(0).nextBytes(buffer);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (long remaining = size; remaining > 0; remaining -= buffer.length) {
+                out.write(buffer, 0, (int)Math.min(buffer.length, remaining));
+            }
+        }
+    }
+
+    private static String format(long bytes, long nanos) {
+        return String.format("%d ms (%.1f MB/s)", nanos / 1000000, bytes / (nanos / 1e9) / (1024 * 1024));
+    }
+}
@@ -0,0 +1,143 @@
+package com.mucommander.core;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link DirectorySizeService} on temporary local folders.
+ *
+ * @see DirectorySizeService
+ */
+public class DirectorySizeServiceTest {
+
+    private AbstractFile folder;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        folder = FileFactory.getTemporaryFile(getClass().getName(), false);
+        folder.mkdir();
+
+        // 3 folders, 5 files and 1500 bytes
+        createFile(folder.getChild("file1"), 100);
+        createFile(folder.getChild("file2"), 200);
+        AbstractFile sub = folder.getChild("sub");
+        sub.mkdir();
+        createFile(sub.getChild("file3"), 300);
+        AbstractFile subSub = sub.getChild("sub");
+        subSub.mkdir();
+        createFile(subSub.getChild("file4"), 400);
+        createFile(subSub.getChild("file5"), 500);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        folder.deleteRecursively();
+    }
+
+    private void createFile(AbstractFile file, int size) throws IOException {
+        try (OutputStream out = file.getOutputStream()) {
+            out.write(new byte[size]);
+        }
+    }
+
+    private DirectorySizeService.Calculation calculate(DirectorySizeService service, AbstractFile folder, AtomicInteger nbFinished) throws InterruptedException {
+        DirectorySizeService.Calculation calculation = service.calculate(folder, (c, size, finished) -> {
+            if (finished) {
+                nbFinished.incrementAndGet();
+            }
+        });
+        assert calculation.await(10000);
+        return calculation;
+    }
+
+    /**
+     * Tests that the totals of a folder and its subfolders are accounted for, and that the listener is notified once
+     * the calculation has finished.
+     *
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void testCalculate() throws InterruptedException {
+        DirectorySizeService service = new DirectorySizeService();
+        AtomicInteger nbFinished = new AtomicInteger();
+
+        DirectorySizeService.DirectorySize size = calculate(service, folder, nbFinished).getResult();
+        assert size.getSize() == 1500;
+        assert size.getFileCount() == 5;
+        assert size.getFolderCount() == 3;
+        assert nbFinished.get() == 1;
+    }
+
+    /**
+     * Tests that the sizes of a folder and of its subfolders are cached, and that a folder whose date has changed is
+     * calculated again.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testCache() throws Exception {
+        DirectorySizeService service = new DirectorySizeService();
+        AtomicInteger nbFinished = new AtomicInteger();
+        calculate(service, folder, nbFinished);
+
+        AbstractFile sub = folder.getChild("sub");
+        assert service.getCachedSize(folder).getSize() == 1500;
+        assert service.getCachedSize(sub).getSize() == 1200;
+
+        // Cached sizes are reported before calculate returns
+        DirectorySizeService.Calculation calculation = service.calculate(sub, (c, size, finished) -> nbFinished.incrementAndGet());
+        assert nbFinished.get() == 2;
+        assert calculation.getResult().getFileCount() == 3;
+
+        createFile(sub.getChild("file6"), 1000);
+        sub.setLastModifiedDate(sub.getLastModifiedDate() + 2000);
+        assert service.getCachedSize(sub) == null;
+        assert calculate(service, sub, nbFinished).getResult().getSize() == 2200;
+
+        service.clearCache();
+        assert service.getCachedSize(folder) == null;
+    }
+
+    /**
+     * Tests that symbolic links are counted as files and that the size of the files they point to is accounted for
+     * separately.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testSymlinks() throws Exception {
+        File sub = (File)folder.getChild("sub").getUnderlyingFileObject();
+        Files.createSymbolicLink(new File(sub, "link").toPath(), new File(sub, "file3").toPath());
+
+        DirectorySizeService.DirectorySize size = calculate(new DirectorySizeService(), folder, new AtomicInteger()).getResult();
+        assert size.getSize() == 1500;
+        assert size.getSymlinkSize() == 300;
+        assert size.getFileCount() == 6;
+    }
+
+    /**
+     * Tests that a cancelled calculation is done and has no result.
+     *
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void testCancel() throws InterruptedException {
+        DirectorySizeService service = new DirectorySizeService();
+
+        DirectorySizeService.Calculation calculation = service.calculate(folder, (c, size, finished) -> {});
+        calculation.cancel();
+
+        assert calculation.isCancelled();
+        assert calculation.await(0);
+        assert calculation.getResult() == null;
+    }
+}
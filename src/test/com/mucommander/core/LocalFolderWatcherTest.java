@@ -0,0 +1,126 @@
+package com.mucommander.core;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.WatchKey;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests {@link LocalFolderWatcher} by changing the contents of a temporary local folder.
+ *
+ * @see LocalFolderWatcher
+ */
+public class LocalFolderWatcherTest {
+
+    private AbstractFile folder;
+
+    /** The <code>valid</code> parameter of each notification received */
+    private final BlockingQueue<Boolean> notifications = new LinkedBlockingQueue<>();
+
+    private final LocalFolderWatcher.Listener listener = (key, valid) -> notifications.add(valid);
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        folder = FileFactory.getTemporaryFile(getClass().getName(), false);
+        folder.mkdir();
+        notifications.clear();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if (folder.exists()) {
+            folder.deleteRecursively();
+        }
+    }
+
+    private void write(AbstractFile file, int size) throws IOException {
+        try (OutputStream out = file.getOutputStream()) {
+            out.write(new byte[size]);
+        }
+    }
+
+    /**
+     * Waits for a notification and returns its <code>valid</code> parameter, then discards the notifications of the
+     * same burst of changes.
+     */
+    private boolean awaitNotification() throws InterruptedException {
+        Boolean valid = notifications.poll(10, TimeUnit.SECONDS);
+        assert valid != null;
+        Boolean next;
+        while ((next = notifications.poll(200, TimeUnit.MILLISECONDS)) != null) {
+            valid = next;
+        }
+        return valid;
+    }
+
+    /**
+     * Tests that the creation, modification and deletion of a file in a watched folder are reported, and that the
+     * deletion of the folder itself is reported as the folder no longer being watched.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testEvents() throws Exception {
+        LocalFolderWatcher watcher = LocalFolderWatcher.getInstance();
+        assert watcher != null;
+        assert LocalFolderWatcher.isWatchable(folder);
+
+        WatchKey key = watcher.watch(folder, listener);
+        assert key != null;
+        try {
+            AbstractFile file = folder.getChild("file");
+            long nbEvents = watcher.getEventCount();
+            write(file, 100);
+            assert awaitNotification();
+            assert watcher.getEventCount() > nbEvents;
+
+            nbEvents = watcher.getEventCount();
+            write(file, 200);
+            assert awaitNotification();
+            assert watcher.getEventCount() > nbEvents;
+
+            nbEvents = watcher.getEventCount();
+            file.delete();
+            assert awaitNotification();
+            assert watcher.getEventCount() > nbEvents;
+
+            folder.delete();
+            assert !awaitNotification();
+        } finally {
+            watcher.unwatch(key, listener);
+        }
+    }
+
+    /**
+     * Tests that a listener is no longer notified once it has stopped watching a folder, while the other listeners
+     * of the folder still are.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testUnwatch() throws Exception {
+        LocalFolderWatcher watcher = LocalFolderWatcher.getInstance();
+        assert watcher != null;
+
+        BlockingQueue<Boolean> otherNotifications = new LinkedBlockingQueue<>();
+        LocalFolderWatcher.Listener otherListener = (key, valid) -> otherNotifications.add(valid);
+        WatchKey key = watcher.watch(folder, listener);
+        assert watcher.watch(folder, otherListener) == key;
+        try {
+            watcher.unwatch(key, otherListener);
+            write(folder.getChild("file"), 100);
+            assert awaitNotification();
+            assert otherNotifications.isEmpty();
+        } finally {
+            watcher.unwatch(key, listener);
+        }
+    }
+}
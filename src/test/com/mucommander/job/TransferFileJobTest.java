@@ -0,0 +1,51 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.job;
+
+import org.testng.annotations.Test;
+
+/**
+ * A test case for the parsing of {@link com.mucommander.conf.MuPreferences#TRANSFER_CONCURRENCY} by
+ * {@link TransferFileJob}.
+ */
+public class TransferFileJobTest {
+
+    /**
+     * Listed schemes return their configured value, regardless of case and surrounding whitespace.
+     */
+    @Test
+    public void testListedScheme() {
+        String concurrency = "sftp:8, SMB : 4,file:1";
+        assert TransferFileJob.getTransferConcurrency(concurrency, "sftp") == 8;
+        assert TransferFileJob.getTransferConcurrency(concurrency, "smb") == 4;
+        assert TransferFileJob.getTransferConcurrency(concurrency, "file") == 1;
+    }
+
+    /**
+     * Unlisted schemes and invalid values fall back to sequential transfers.
+     */
+    @Test
+    public void testSequentialFallback() {
+        assert TransferFileJob.getTransferConcurrency("", "sftp") == 1;
+        assert TransferFileJob.getTransferConcurrency("sftp:8", "ftp") == 1;
+        assert TransferFileJob.getTransferConcurrency("sftp:many", "sftp") == 1;
+        assert TransferFileJob.getTransferConcurrency("sftp:-3", "sftp") == 1;
+        assert TransferFileJob.getTransferConcurrency(":8", "") == 1;
+    }
+}
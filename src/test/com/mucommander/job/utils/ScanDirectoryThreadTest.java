@@ -0,0 +1,132 @@
+package com.mucommander.job.utils;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.util.FileSet;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Tests {@link ScanDirectoryThread} on a tree of local folders.
+ *
+ * @see ScanDirectoryThread
+ */
+public class ScanDirectoryThreadTest {
+
+    private static final int NB_FOLDERS = 5;
+
+    private static final int NB_FILES_PER_FOLDER = 10;
+
+    private AbstractFile root;
+
+    private FileSet files;
+
+    @BeforeMethod
+    public void createTree() throws IOException {
+        root = FileFactory.getTemporaryFile(true);
+        root.mkdir();
+        files = new FileSet(root);
+        for (int i = 0; i < NB_FOLDERS; i++) {
+            AbstractFile folder = root.getDirectChild("folder" + i);
+            folder.mkdir();
+            AbstractFile subfolder = folder.getDirectChild("subfolder");
+            subfolder.mkdir();
+            for (int j = 0; j < NB_FILES_PER_FOLDER; j++) {
+                try (OutputStream out = subfolder.getDirectChild("file" + j).getOutputStream()) {
+                    out.write(new byte[j]);
+                }
+            }
+            files.add(folder);
+        }
+    }
+
+    @AfterMethod
+    public void deleteTree() throws IOException {
+        ScanDirectoryThread.setMaxRetainedBytes(ScanDirectoryThread.DEFAULT_MAX_RETAINED_BYTES);
+        root.deleteRecursively();
+    }
+
+    /**
+     * Tests that files and bytes are counted, and that retained listings are handed over once.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testScan() throws Exception {
+        ScanDirectoryThread scan = new ScanDirectoryThread(files, true, true);
+        scan.start();
+        scan.join();
+
+        assert scan.isCompleted();
+        // Each folder, its subfolder and its files
+        assert scan.getFilesCount() == NB_FOLDERS * (2 + NB_FILES_PER_FOLDER);
+        assert scan.getTotalBytes() == NB_FOLDERS * (NB_FILES_PER_FOLDER * (NB_FILES_PER_FOLDER - 1) / 2);
+        // Listings of the folders and subfolders
+        long retainedBytes = 2 * NB_FOLDERS * ScanDirectoryThread.ESTIMATED_FILE_SIZE + NB_FOLDERS * (1 + NB_FILES_PER_FOLDER) * ScanDirectoryThread.ESTIMATED_FILE_SIZE;
+        assert scan.getRetainedBytes() == retainedBytes;
+
+        AbstractFile folder = files.elementAt(0);
+        AbstractFile[] subfiles = scan.ls(folder);
+        assert subfiles.length == 1;
+        assert scan.getRetainedBytes() == retainedBytes - 2 * ScanDirectoryThread.ESTIMATED_FILE_SIZE;
+        AbstractFile[] subsubfiles = scan.ls(subfiles[0]);
+        assert subsubfiles.length == NB_FILES_PER_FOLDER;
+
+        // The listing was handed over, the folder is listed again
+        assert scan.ls(folder) != subfiles;
+        assert Arrays.equals(scan.ls(folder), subfiles);
+
+        scan.releaseListings();
+        assert scan.getRetainedBytes() == 0;
+    }
+
+    /**
+     * Tests that a folder the job has listed itself before the scan reached it is not retained.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testListedByJob() throws Exception {
+        ScanDirectoryThread scan = new ScanDirectoryThread(files, true, true);
+        AbstractFile folder = files.elementAt(0);
+        assert scan.takeListing(folder) == null;
+
+        scan.start();
+        scan.join();
+
+        // Listings of the folders and subfolders, but the first folder's
+        long retainedBytes = 2 * (NB_FOLDERS - 1) * ScanDirectoryThread.ESTIMATED_FILE_SIZE + NB_FOLDERS * (1 + NB_FILES_PER_FOLDER) * ScanDirectoryThread.ESTIMATED_FILE_SIZE;
+        assert scan.getRetainedBytes() == retainedBytes;
+        assert scan.takeListing(folder) == null;
+        assert scan.takeListing(folder.getDirectChild("subfolder")) != null;
+    }
+
+    /**
+     * Tests that retained listings do not exceed the bound, and that listings are not retained unless requested.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testBounds() throws Exception {
+        long maxRetainedBytes = 3 * (1 + NB_FILES_PER_FOLDER) * ScanDirectoryThread.ESTIMATED_FILE_SIZE;
+        ScanDirectoryThread.setMaxRetainedBytes(maxRetainedBytes);
+        ScanDirectoryThread scan = new ScanDirectoryThread(files, true, true);
+        scan.start();
+        scan.join();
+        assert scan.getRetainedBytes() > 0;
+        assert scan.getRetainedBytes() <= maxRetainedBytes;
+        assert scan.getFilesCount() == NB_FOLDERS * (2 + NB_FILES_PER_FOLDER);
+
+        scan = new ScanDirectoryThread(files, false);
+        scan.start();
+        scan.join();
+        assert scan.getRetainedBytes() == 0;
+        assert scan.getTotalBytes() == 0;
+        assert scan.getFilesCount() == NB_FOLDERS * (2 + NB_FILES_PER_FOLDER);
+    }
+}
@@ -0,0 +1,53 @@
+package com.mucommander.profiler;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests {@link LatencyHistogram}.
+ *
+ * @see LatencyHistogram
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Tests that buckets cover all durations without gaps, each bucket starting where the previous one ends.
+     */
+    @Test
+    public void testBuckets() {
+        for (long duration : new long[] {0, 1, 3, 4, 5, 7, 8, 9, 10, 11, 12, 1000, 123456789, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.getBucketIndex(duration);
+            assert LatencyHistogram.getBucketLowerBound(index) <= duration;
+            if (duration < Long.MAX_VALUE) {
+                assert LatencyHistogram.getBucketLowerBound(index + 1) > duration;
+            }
+        }
+        for (int index = 1; index <= LatencyHistogram.getBucketIndex(Long.MAX_VALUE); index++) {
+            long lowerBound = LatencyHistogram.getBucketLowerBound(index);
+            assert LatencyHistogram.getBucketIndex(lowerBound) == index;
+            assert LatencyHistogram.getBucketIndex(lowerBound - 1) == index - 1;
+        }
+    }
+
+    /**
+     * Tests the statistics of the recorded durations, and that percentiles are within 25% of the actual ones.
+     */
+    @Test
+    public void testStatistics() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assert histogram.getPercentile(50) == 0;
+
+        for (long duration = 1; duration <= 10000; duration++) {
+            histogram.record(duration * 1000);
+        }
+        assert histogram.getCount() == 10000;
+        assert histogram.getTotal() == 10000L * 10001 / 2 * 1000;
+        assert histogram.getMean() == 5000500;
+        assert histogram.getMax() == 10000000;
+
+        long median = histogram.getPercentile(50);
+        assert median >= 5000000 && median <= 5000000 * 1.25;
+        long p99 = histogram.getPercentile(99);
+        assert p99 >= 9900000 && p99 <= 10000000;
+        assert histogram.getPercentile(100) == 10000000;
+    }
+}
@@ -0,0 +1,148 @@
+package com.mucommander.profiler;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * Tests {@link Tracer} and its use by {@link Profiler}.
+ *
+ * @see Tracer
+ */
+public class TracerTest {
+
+    @BeforeMethod
+    public void setUp() {
+        Tracer.setEnabled(true);
+        Tracer.setRecordingSpans(true);
+        Tracer.reset();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        Tracer.setRecordingSpans(false);
+        Tracer.reset();
+    }
+
+    /**
+     * Tests that spans are nested, recorded and added to the histograms.
+     */
+    @Test
+    public void testNesting() {
+        try (Tracer.Span outer = Tracer.span("test.outer")) {
+            assert Tracer.getCurrentSpan() == outer;
+            for (int i = 0; i < 3; i++) {
+                try (Tracer.Span inner = Tracer.span("test.inner")) {
+                    assert inner.getParent() == outer;
+                    assert inner.getDepth() == 1;
+                }
+            }
+            assert Tracer.getCurrentSpan() == outer;
+        }
+        assert Tracer.getCurrentSpan() == null;
+
+        List<Tracer.Span> spans = Tracer.getSpans();
+        assert spans.size() == 4;
+        assert Tracer.getHistogram("test.inner").getCount() == 3;
+        assert Tracer.getHistogram("test.outer").getCount() == 1;
+        assert Tracer.getHistogram("test.outer").getTotal() >= Tracer.getHistogram("test.inner").getTotal();
+
+        Tracer.setEnabled(false);
+        try (Tracer.Span span = Tracer.span("test.disabled")) {
+            assert span.getName() == null;
+        }
+        assert Tracer.getHistogram("test.disabled") == null;
+    }
+
+    /**
+     * Tests that only the histograms are updated while spans are not recorded.
+     */
+    @Test
+    public void testNotRecordingSpans() {
+        Tracer.setRecordingSpans(false);
+        for (int i = 0; i < 3; i++) {
+            try (Tracer.Span span = Tracer.span("test.histogram-only")) {
+                assert Tracer.getCurrentSpan() == span;
+            }
+        }
+        assert Tracer.getSpans().isEmpty();
+        assert Tracer.getHistogram("test.histogram-only").getCount() == 3;
+    }
+
+    /**
+     * Tests that sections with the same name started by several threads do not clobber each other, and that a section
+     * may be stopped by another thread than the one that started it.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testConcurrentSections() throws Exception {
+        Profiler.start("test.section");
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    Profiler.start("test.section");
+                    Profiler.stop("test.section");
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert Tracer.getHistogram("test.section").getCount() == 4000;
+        assert Tracer.getSpans().size() == 4000;
+
+        // The section started by this thread is still open, and can be stopped by another thread
+        Thread thread = new Thread(() -> Profiler.stop("test.section"));
+        thread.start();
+        thread.join();
+        assert Tracer.getHistogram("test.section").getCount() == 4001;
+
+        // New spans of this thread are no longer nested in the section that was stopped
+        try (Tracer.Span span = Tracer.span("test.after")) {
+            assert span.getParent() == null;
+        }
+    }
+
+    /**
+     * Tests that spans are exported as valid Chrome trace events.
+     */
+    @Test
+    public void testChromeTrace() {
+        try (Tracer.Span outer = Tracer.span("test.\"quoted\"")) {
+            try (Tracer.Span inner = Tracer.span("inner")) {
+                assert inner.getDepth() == 1;
+            }
+        }
+
+        StringWriter writer = new StringWriter();
+        Tracer.writeChromeTrace(writer);
+        JsonArray events = new JsonParser().parse(writer.toString()).getAsJsonObject().getAsJsonArray("traceEvents");
+        // Two spans and the name of this thread
+        assert events.size() == 3;
+        JsonObject span = events.get(0).getAsJsonObject();
+        assert span.get("ph").getAsString().equals("X");
+        assert span.get("tid").getAsLong() == Thread.currentThread().getId();
+        assert span.get("dur").getAsDouble() >= 0;
+        boolean quotedFound = false;
+        for (int i = 0; i < 2; i++) {
+            JsonObject event = events.get(i).getAsJsonObject();
+            if (event.get("name").getAsString().equals("test.\"quoted\"")) {
+                quotedFound = true;
+                assert event.get("cat").getAsString().equals("test");
+            }
+        }
+        assert quotedFound;
+        JsonObject threadName = events.get(2).getAsJsonObject();
+        assert threadName.get("ph").getAsString().equals("M");
+        assert threadName.getAsJsonObject("args").get("name").getAsString().equals(Thread.currentThread().getName());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2010 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.ui.main.table.views.full.FileTableModel;
+import com.mucommander.utils.text.CustomDateFormat;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.swing.event.TableModelEvent;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A test case for the incremental update of {@link FileTableModel} when the current folder is refreshed.
+ */
+public class FileTableModelTest {
+
+    private File folder;
+
+    private AbstractFile folderFile;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        CustomDateFormat.init();
+
+        folder = Files.createTempDirectory("filetablemodel").toFile();
+        for (String name : new String[] {"b", "d", "f"}) {
+            createFile(name, name);
+        }
+        assert new File(folder, "c").mkdir();
+        folderFile = FileFactory.getFile(folder.getAbsolutePath());
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        for (File file : folder.listFiles()) {
+            file.delete();
+        }
+        folder.delete();
+    }
+
+    /**
+     * Adds, removes and modifies files, and verifies that the updated model is sorted like a model created from
+     * scratch, that marked files remain marked and that only the changed rows are reported.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testUpdateCurrentFolder() throws IOException {
+        FileTableModel model = createModel();
+        // Rows have been displayed, file attributes are cached
+        for (int row = 0; row < model.getRowCount(); row++) {
+            for (int column = 0; column < model.getColumnCount(); column++) {
+                model.getValueAt(row, column);
+            }
+        }
+        model.setFileMarked(getIndex(model, "d"), true);
+        model.setFileMarked(getIndex(model, "f"), true);
+
+        List<TableModelEvent> events = new ArrayList<>();
+        model.addTableModelListener(events::add);
+
+        createFile("a", "a");
+        createFile("e", "e");
+        createFile("b", "modified");
+        assert new File(folder, "f").delete();
+
+        assert model.updateCurrentFolder(folderFile, folderFile.ls());
+
+        FileTableModel expectedModel = createModel();
+        assert expectedModel.getFileCount() == model.getFileCount();
+        for (int i = 0; i < model.getFileCount(); i++) {
+            assert expectedModel.getFileAt(i).equals(model.getFileAt(i));
+        }
+
+        // f was removed
+        assert model.getNbMarkedFiles() == 1;
+        assert model.isFileMarked(getIndex(model, "d"));
+        assert model.getTotalMarkedSize() == 1;
+
+        // b and f removed, a, b and e inserted, '..' updated
+        int nbDeleted = 0, nbInserted = 0;
+        for (TableModelEvent event : events) {
+            if (event.getType() == TableModelEvent.DELETE) {
+                nbDeleted++;
+            } else if (event.getType() == TableModelEvent.INSERT) {
+                nbInserted++;
+            }
+        }
+        assert nbDeleted == 2;
+        assert nbInserted == 3;
+    }
+
+    /**
+     * Verifies that a folder other than the current one is not applied incrementally.
+     */
+    @Test
+    public void testOtherFolder() throws IOException {
+        FileTableModel model = createModel();
+        AbstractFile otherFolder = folderFile.getChild("c");
+        assert !model.updateCurrentFolder(otherFolder, otherFolder.ls());
+        assert model.getFileCountWithoutParent() == 4;
+    }
+
+
+    /////////////////////
+    // Support methods //
+    /////////////////////
+
+    private FileTableModel createModel() throws IOException {
+        FileTableModel model = new FileTableModel();
+        model.setSortInfo(new SortInfo());
+        model.setCurrentFolder(folderFile, folderFile.ls(), null);
+        model.sortRows();
+        return model;
+    }
+
+    private int getIndex(FileTableModel model, String name) {
+        for (int i = 0; i < model.getFileCount(); i++) {
+            if (!(i == 0 && model.hasParentFolder()) && model.getFileAt(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void createFile(String name, String contents) throws IOException {
+        Files.write(new File(folder, name).toPath(), contents.getBytes("UTF-8"));
+    }
+}
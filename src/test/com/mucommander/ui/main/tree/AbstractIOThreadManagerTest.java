@@ -0,0 +1,144 @@
+package com.mucommander.ui.main.tree;
+
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests {@link AbstractIOThreadManager} with tasks that record the order in which they are executed.
+ *
+ * @see AbstractIOThreadManager
+ */
+public class AbstractIOThreadManagerTest {
+
+    /**
+     * Tests that tasks are executed by order of priority then in the order they were added, that adding a task with
+     * the key of a pending one raises its priority, and that pending tasks can be cancelled.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testPriorities() throws Exception {
+        AbstractIOThreadManager manager = new AbstractIOThreadManager("test", 1, 60000);
+        ConcurrentLinkedQueue<String> executed = new ConcurrentLinkedQueue<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        manager.start();
+        try {
+            // Keep the single thread busy while the other tasks are added
+            manager.addTask(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Not expected
+                }
+            });
+            assert started.await(10, TimeUnit.SECONDS);
+
+            assert manager.addTask("a", 2, () -> executed.add("a"));
+            assert manager.addTask("b", 1, () -> executed.add("b"));
+            assert manager.addTask("c", 2, () -> executed.add("c"));
+            assert manager.addTask("d", 2, () -> executed.add("d"));
+            manager.addTask(() -> executed.add("e"));
+
+            // Same key: the pending task gets the higher priority and keeps its place amongst tasks of that priority
+            assert !manager.addTask("c", 0, () -> executed.add("c2"));
+            assert manager.raisePriority("d", 1);
+            assert !manager.raisePriority("f", 1);
+
+            assert manager.cancelTask("a");
+            assert !manager.cancelTask("a");
+            assert manager.getPendingTaskCount() == 4;
+
+            manager.addTask(null, 3, done::countDown);
+            release.countDown();
+            assert done.await(10, TimeUnit.SECONDS);
+        } finally {
+            manager.interrupt();
+            manager.join();
+        }
+
+        assert String.join("", executed).equals("cebd");
+    }
+
+    /**
+     * Tests that {@link AbstractIOThreadManager#cancelTasks(java.util.function.Predicate)} cancels the pending tasks
+     * whose key match, but not the task being executed.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testCancelTasks() throws Exception {
+        AbstractIOThreadManager manager = new AbstractIOThreadManager("test", 1, 60000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        manager.start();
+        try {
+            manager.addTask(1, 0, () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Not expected
+                }
+            });
+            assert started.await(10, TimeUnit.SECONDS);
+            for (int i = 2; i <= 5; i++) {
+                manager.addTask(i, 0, () -> {});
+            }
+
+            List<Object> cancelled = manager.cancelTasks(key -> (Integer) key % 2 == 1);
+            assert cancelled.size() == 2 && cancelled.contains(3) && cancelled.contains(5);
+            assert manager.getPendingTaskCount() == 2;
+            assert !manager.cancelTask(1);
+        } finally {
+            release.countDown();
+            manager.interrupt();
+            manager.join();
+        }
+    }
+
+    /**
+     * Tests that a task blocked for longer than the block threshold does not prevent the other tasks from being
+     * executed.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testBlockedThread() throws Exception {
+        AbstractIOThreadManager manager = new AbstractIOThreadManager("test", 2, 200);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        manager.start();
+        try {
+            for (int i = 0; i < 2; i++) {
+                manager.addTask(() -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // The thread was retired, keep blocking as a stalled read would
+                        try {
+                            release.await();
+                        } catch (InterruptedException e2) {
+                            // Ignored
+                        }
+                    }
+                });
+            }
+            for (int i = 0; i < 3; i++) {
+                manager.addTask(done::countDown);
+            }
+
+            assert done.await(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            manager.interrupt();
+            manager.join();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.mucommander.ui.main.tree;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.commons.file.filter.AttributeFileFilter;
+import com.mucommander.commons.file.filter.AttributeFileFilter.FileAttribute;
+import com.mucommander.commons.file.util.FileComparator;
+import com.mucommander.desktop.DesktopInitialisationException;
+import com.mucommander.desktop.DesktopManager;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests {@link CachedDirectory} with folders of a temporary local folder.
+ *
+ * @see CachedDirectory
+ */
+public class CachedDirectoryTest {
+
+    private AbstractFile folder;
+
+    @BeforeClass
+    public static void initDesktop() throws DesktopInitialisationException {
+        // File icons depend on the desktop
+        DesktopManager.init(false);
+    }
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        folder = FileFactory.getTemporaryFile(getClass().getName(), false);
+        folder.mkdir();
+        folder.getChild("sub1").mkdir();
+        folder.getChild("sub2").mkdir();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        folder.deleteRecursively();
+    }
+
+    private DirectoryCache createCache() {
+        return new DirectoryCache(new AttributeFileFilter(FileAttribute.DIRECTORY),
+                new FileComparator(FileComparator.NAME_CRITERION, true, true, false));
+    }
+
+    /**
+     * Waits for the children of the given directory to be cached.
+     */
+    private void awaitCached(CachedDirectory cachedDir) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!cachedDir.isCached()) {
+            assert System.currentTimeMillis() < deadline;
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Tests that two caches, such as those of the left and right folder trees, read the children of the same folder
+     * independently while their reads are queued, and that cancelling the read of one does not cancel the other.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testSameFolderInTwoCaches() throws Exception {
+        DirectoryCache cache1 = createCache();
+        DirectoryCache cache2 = createCache();
+        CachedDirectory cachedDir1 = cache1.getOrAdd(folder);
+        CachedDirectory cachedDir2 = cache2.getOrAdd(folder);
+        // Both directories proxy the same folder
+        assert cachedDir1.equals(cachedDir2);
+
+        // Keep the threads busy so that the reads stay pending
+        TreeIOThreadManager manager = TreeIOThreadManager.getInstance();
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 4; i++) {
+            manager.addTask(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Not expected
+                }
+            });
+        }
+        try {
+            assert !cachedDir1.isCached();
+            assert !cachedDir2.isCached();
+            assert cachedDir1.isReadingChildren();
+            assert cachedDir2.isReadingChildren();
+
+            assert cachedDir1.cancelReading();
+            assert !cachedDir1.isReadingChildren();
+            assert cachedDir2.isReadingChildren();
+        } finally {
+            release.countDown();
+        }
+
+        awaitCached(cachedDir2);
+        assert cachedDir2.get().length == 2;
+
+        // The cancelled read can be started again
+        awaitCached(cachedDir1);
+        assert cachedDir1.get().length == 2;
+    }
+}
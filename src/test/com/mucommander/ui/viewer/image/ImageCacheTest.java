@@ -0,0 +1,95 @@
+package com.mucommander.ui.viewer.image;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.ui.viewer.image.ImageDecoder.DecodedImage;
+import org.testng.annotations.Test;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Tests {@link ImageCache}.
+ *
+ * @see ImageCache
+ */
+public class ImageCacheTest {
+
+    /** Number of bytes of a 100x100 image with one byte per pixel */
+    private final static int IMAGE_SIZE = 100 * 100;
+
+    /**
+     * Returns an image of 100x100 pixels with one byte per pixel, subsampled from a larger image.
+     */
+    private static DecodedImage createImage(int subsampling) {
+        BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_BYTE_GRAY);
+        return new DecodedImage(image, 100 * subsampling, 100 * subsampling, subsampling, 8);
+    }
+
+    private static AbstractFile createFile(String name) throws Exception {
+        AbstractFile file = FileFactory.getTemporaryFile(name, true);
+        file.mkfile();
+        return file;
+    }
+
+    /**
+     * Tests that least recently used images are evicted once the capacity has been reached.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testEviction() throws Exception {
+        ImageCache cache = new ImageCache(3 * IMAGE_SIZE);
+        AbstractFile files[] = new AbstractFile[4];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = createFile("ImageCacheTest" + i);
+        }
+
+        for (int i = 0; i < 3; i++) {
+            cache.put(files[i], createImage(1));
+        }
+        assert cache.getSize() == 3 * IMAGE_SIZE;
+
+        // The first image is used again, the second one is the least recently used
+        assert cache.get(files[0], 0, 0) != null;
+        cache.put(files[3], createImage(1));
+        assert cache.getImageCount() == 3;
+        assert cache.getSize() == 3 * IMAGE_SIZE;
+        assert cache.get(files[1], 0, 0) == null;
+        assert cache.get(files[0], 0, 0) != null;
+        assert cache.get(files[3], 0, 0) != null;
+
+        // Images larger than the cache are not cached
+        cache.put(files[1], new DecodedImage(new BufferedImage(200, 200, BufferedImage.TYPE_BYTE_GRAY), 200, 200, 1, 8));
+        assert cache.get(files[1], 0, 0) == null;
+        assert cache.getImageCount() == 3;
+    }
+
+    /**
+     * Tests that subsampled images are only returned for target sizes they are detailed enough for, and that images
+     * with a higher resolution replace them.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testResolution() throws Exception {
+        ImageCache cache = new ImageCache(10 * IMAGE_SIZE);
+        AbstractFile file = createFile("ImageCacheTest");
+
+        DecodedImage subsampled = createImage(4);
+        cache.put(file, subsampled);
+        assert cache.get(file, 100, 100) == subsampled;
+        assert cache.get(file, 200, 200) == null;
+        assert cache.get(file, 0, 0) == null;
+
+        DecodedImage detailed = new DecodedImage(new BufferedImage(200, 200, BufferedImage.TYPE_BYTE_GRAY), 400, 400, 2, 8);
+        cache.put(file, detailed);
+        assert cache.get(file, 100, 100) == detailed;
+        assert cache.get(file, 200, 200) == detailed;
+
+        // Images with a lower resolution do not replace the cached one
+        cache.put(file, createImage(4));
+        assert cache.get(file, 100, 100) == detailed;
+        assert cache.getImageCount() == 1;
+        assert cache.getSize() == 4 * IMAGE_SIZE;
+    }
+}
@@ -0,0 +1,72 @@
+package com.mucommander.ui.viewer.image;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import com.mucommander.ui.viewer.image.ImageDecoder.DecodedImage;
+import org.testng.annotations.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.OutputStream;
+
+/**
+ * Tests {@link ImageDecoder}.
+ *
+ * @see ImageDecoder
+ */
+public class ImageDecoderTest {
+
+    /**
+     * Returns a PNG file with vertical stripes of different colors, 10 pixels wide.
+     */
+    private static AbstractFile createImageFile(int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                image.setRGB(x, y, (x / 10) * 0x010203);
+            }
+        }
+        AbstractFile file = FileFactory.getTemporaryFile("ImageDecoderTest.png", true);
+        try (OutputStream out = file.getOutputStream()) {
+            ImageIO.write(image, "png", out);
+        }
+        return file;
+    }
+
+    /**
+     * Tests the subsampling computed for a target size.
+     */
+    @Test
+    public void testGetSubsampling() {
+        assert ImageDecoder.getSubsampling(8000, 6000, 1920, 1080) == 4;
+        assert ImageDecoder.getSubsampling(1000, 1000, 1920, 1080) == 1;
+        assert ImageDecoder.getSubsampling(8000, 6000, 0, 0) == 1;
+    }
+
+    /**
+     * Tests that images are subsampled to the smallest size that is not smaller than the target size.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testSubsampledDecoding() throws Exception {
+        AbstractFile file = createImageFile(1000, 600);
+
+        DecodedImage decodedImage = ImageDecoder.decode(file, 300, 100);
+        assert decodedImage.getWidth() == 1000;
+        assert decodedImage.getHeight() == 600;
+        assert decodedImage.getSubsampling() == 3;
+        assert decodedImage.getImage().getWidth() == 334;
+        assert decodedImage.getImage().getHeight() == 200;
+        // Decoded pixels are the top-left pixels of each 3x3 block
+        assert (decodedImage.getImage().getRGB(10, 0) & 0xffffff) == 3 * 0x010203;
+        assert decodedImage.getByteSize() == 334 * 200 * 3;
+
+        assert decodedImage.isDetailedEnough(300, 200);
+        assert !decodedImage.isDetailedEnough(500, 300);
+
+        decodedImage = ImageDecoder.decode(file, 0, 0);
+        assert decodedImage.getSubsampling() == 1;
+        assert decodedImage.getImage().getWidth() == 1000;
+    }
+}
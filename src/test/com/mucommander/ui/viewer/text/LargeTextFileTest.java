@@ -0,0 +1,132 @@
+package com.mucommander.ui.viewer.text;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileFactory;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests {@link LargeTextFile} with files that span several blocks.
+ *
+ * @see LargeTextFile
+ */
+public class LargeTextFileTest {
+
+    private static AbstractFile createFile(byte bom[], byte data[]) throws IOException {
+        AbstractFile file = FileFactory.getTemporaryFile("LargeTextFileTest", true);
+        try (OutputStream out = file.getOutputStream()) {
+            out.write(bom);
+            out.write(data);
+        }
+        return file;
+    }
+
+    /**
+     * Returns lines of increasing length, with CR LF separators on even lines.
+     */
+    private static String createText(int nbLines) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < nbLines; i++) {
+            sb.append("line ").append(i).append(" é");
+            for (int j = 0; j < i % 100; j++) {
+                sb.append('-');
+            }
+            sb.append(i % 2 == 0 ? "\r\n" : "\n");
+        }
+        return sb.toString();
+    }
+
+    private static LargeTextFile open(AbstractFile file) throws IOException {
+        LargeTextFile textFile = new LargeTextFile(file, null);
+        textFile.awaitIndexed(file.getSize());
+        assert textFile.isIndexed();
+        return textFile;
+    }
+
+    /**
+     * Tests that the lines of a UTF-8 file are indexed and decoded.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testLines() throws Exception {
+        int nbLines = 50000;
+        String text = createText(nbLines);
+        byte data[] = text.getBytes(StandardCharsets.UTF_8);
+        assert data.length > 2 * LargeTextFile.BLOCK_SIZE;
+
+        try (LargeTextFile textFile = open(createFile(new byte[0], data))) {
+            assert textFile.getCharset().equals(StandardCharsets.UTF_8);
+            // The file ends with a separator, which is followed by an empty line
+            assert textFile.getLineCount() == nbLines + 1;
+            String lines[] = text.split("\r?\n");
+            for (int i = 0; i < nbLines; i += 997) {
+                assert textFile.getLine(i).equals(lines[i]);
+                assert textFile.getLineAt(textFile.getLineOffset(i)) == i;
+                assert textFile.getLineAt(textFile.getLineOffset(i) + 3) == i;
+            }
+            assert textFile.getLine(nbLines).isEmpty();
+            assert textFile.getLinePrefix(1, textFile.getLineOffset(1) + 6).equals("line 1");
+        }
+    }
+
+    /**
+     * Tests that UTF-16 files are decoded and searched by code units.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testUTF16() throws Exception {
+        String text = createText(1000);
+        try (LargeTextFile textFile = open(createFile(new byte[]{(byte)0xFF, (byte)0xFE}, text.getBytes(StandardCharsets.UTF_16LE)))) {
+            assert textFile.getCharset().name().equals("UTF-16LE");
+            assert textFile.getLineCount() == 1001;
+            assert textFile.getLine(0).equals("line 0 é");
+            assert textFile.getLine(999).startsWith("line 999 é---");
+
+            long offset = textFile.find("LINE 500 ", 0, true, false);
+            assert textFile.getLineAt(offset) == 500;
+            assert offset == textFile.getLineOffset(500);
+            assert textFile.find("LINE 500 ", 0, true, true) == -1;
+        }
+    }
+
+    /**
+     * Tests forward and backward searches, including matches that span two blocks.
+     *
+     * @throws Exception should not happen
+     */
+    @Test
+    public void testFind() throws Exception {
+        byte data[] = new byte[3 * LargeTextFile.BLOCK_SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(i % 80 == 79 ? '\n' : 'a' + i % 26);
+        }
+        byte needle[] = "Needle".getBytes(StandardCharsets.US_ASCII);
+        int offsets[] = {10, LargeTextFile.BLOCK_SIZE - 3, 2 * LargeTextFile.BLOCK_SIZE + 100};
+        for (int offset : offsets) {
+            System.arraycopy(needle, 0, data, offset, needle.length);
+        }
+
+        try (LargeTextFile textFile = open(createFile(new byte[0], data))) {
+            long from = 0;
+            for (int offset : offsets) {
+                from = textFile.find("needle", from, true, false);
+                assert from == offset;
+                from++;
+            }
+            assert textFile.find("needle", from, true, false) == -1;
+            assert textFile.find("needle", 0, true, true) == -1;
+
+            from = data.length;
+            for (int i = offsets.length - 1; i >= 0; i--) {
+                from = textFile.find("Needle", from, false, true);
+                assert from == offsets[i];
+            }
+            assert textFile.find("Needle", from, false, true) == -1;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ru.trolsoft.utils.search;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Tests {@link HorspoolSearcher}.
+ *
+ * @see HorspoolSearcher
+ */
+public class HorspoolSearcherTest {
+
+    /**
+     * Returns the offset of the first occurrence of the pattern in the data, found by comparing every offset.
+     */
+    private static int naiveIndexOf(byte data[], SearchPattern pattern) {
+        for (int i = 0; i + pattern.length() <= data.length; i++) {
+            int j = 0;
+            while (j < pattern.length() && pattern.checkByte(j, data[i + j] & 0xff)) {
+                j++;
+            }
+            if (j == pattern.length()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Tests that arrays, buffers and streams give the same results as a naive search, on random data over a small
+     * alphabet so that partial matches are frequent.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testRandomData() throws IOException {
+        Random random = new Random(0);
+        for (int n = 0; n < 500; n++) {
+            byte data[] = new byte[random.nextInt(300)];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte)('a' + random.nextInt(3));
+            }
+            byte bytes[] = new byte[1 + random.nextInt(5)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte)('a' + random.nextInt(3));
+            }
+            SearchPattern pattern = new BytesSearchPattern(bytes);
+            HorspoolSearcher searcher = new HorspoolSearcher(pattern);
+
+            int expected = naiveIndexOf(data, pattern);
+            assert searcher.indexOf(data, 0, data.length) == expected;
+            assert searcher.indexOf(ByteBuffer.wrap(data)) == expected;
+            // A small buffer forces occurrences to span several blocks
+            assert searcher.indexOf(new ByteArrayInputStream(data), new byte[8]) == expected;
+        }
+    }
+
+    /**
+     * Tests that occurrences that span two blocks read from a stream are found.
+     *
+     * @throws IOException should not happen
+     */
+    @Test
+    public void testBlockBoundary() throws IOException {
+        byte data[] = new byte[200 * 1024];
+        byte bytes[] = {1, 2, 3, 4, 5};
+        int offset = 64 * 1024 - 2;
+        System.arraycopy(bytes, 0, data, offset, bytes.length);
+
+        HorspoolSearcher searcher = new HorspoolSearcher(new BytesSearchPattern(bytes));
+        assert searcher.indexOf(new ByteArrayInputStream(data)) == offset;
+        assert searcher.indexOf(new ByteArrayInputStream(data, 0, offset + 4)) == -1;
+    }
+
+    /**
+     * Tests case insensitive patterns, and the search of a range of an array.
+     *
+     * @throws UnsupportedEncodingException should not happen
+     */
+    @Test
+    public void testCaseInsensitive() throws UnsupportedEncodingException {
+        byte data[] = "The quick brown FOX jumps over the lazy fox".getBytes("UTF-8");
+        HorspoolSearcher searcher = new HorspoolSearcher(new StringCaseInsensitiveSearchPattern("Fox", "UTF-8"));
+        assert searcher.indexOf(data, 0, data.length) == 16;
+        assert searcher.indexOf(data, 17, data.length) == 40;
+        assert searcher.indexOf(data, 17, data.length - 1) == -1;
+
+        searcher = new HorspoolSearcher(new StringCaseSensitiveSearchPattern("fox", "UTF-8"));
+        assert searcher.indexOf(data, 0, data.length) == 40;
+    }
+}